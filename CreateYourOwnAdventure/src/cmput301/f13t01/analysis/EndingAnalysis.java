@@ -0,0 +1,432 @@
+/*
+EndingAnalysis Class for CreateYourOwnAdventure App.
+Works out exactly how likely a reader picking random choices is to reach
+each ending of a story, and how many choices it takes on average, by
+treating the story as an absorbing Markov chain.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.analysis;
+
+import java.util.ArrayList;
+
+import cmput301.f13t01.model.IntArrayList;
+import cmput301.f13t01.readstory.CompiledStory;
+
+/**
+ * EndingAnalysis is the exact counterpart of the PlaythroughSimulator. A
+ * reader starts at the first page and picks each choice with equal
+ * probability, so every fragment with choices is a transient state, every
+ * fragment without choices is an ending (an absorbing state), and a choice
+ * that leads nowhere absorbs into a shared "broken" state.
+ * 
+ * The analysis solves for the expected number of visits to each fragment,
+ * v = s + P'v, where s puts the reader on the first page. Since an ending is
+ * entered at most once, its expected visits are the probability of reaching
+ * it, and the expected number of choices taken is the sum of the visits to
+ * all transient fragments.
+ * 
+ * The strongly connected components of the fragments reachable from the
+ * first page are found first (Tarjan's algorithm, without recursion) and
+ * solved in topological order, passing the visits flowing out of each one on
+ * to the components after it. A fragment outside any loop is solved exactly
+ * in that single pass. Only components with loops are iterated, by sparse
+ * Gauss-Seidel over their own choices. A component with loops and no way
+ * out would hold a reader forever; it is reported as trapped rather than
+ * solved.
+ */
+public class EndingAnalysis {
+
+	/** Default largest change in a sweep that counts as converged. */
+	public static final double DEFAULT_TOLERANCE = 1e-12;
+
+	/** Default limit on Gauss-Seidel sweeps for each component. */
+	public static final int DEFAULT_MAX_SWEEPS = 100000;
+
+	/* Instance Variables for an EndingAnalysis */
+	private final CompiledStory compiled;
+	private final double[] visits;
+	private final boolean[] trapped;
+	private double brokenProbability;
+	private double trappedProbability;
+	private boolean converged = true;
+
+	private EndingAnalysis(CompiledStory compiled) {
+		this.compiled = compiled;
+		this.visits = new double[compiled.getFragmentCount()];
+		this.trapped = new boolean[compiled.getFragmentCount()];
+	}
+
+	/**
+	 * Analyzes a story with the default tolerance and sweep limit.
+	 * 
+	 * @param compiled
+	 *            the compiled story to analyze
+	 * @return the analysis of the story
+	 */
+	public static EndingAnalysis analyze(CompiledStory compiled) {
+		return analyze(compiled, DEFAULT_TOLERANCE, DEFAULT_MAX_SWEEPS);
+	}
+
+	/**
+	 * Analyzes a story.
+	 * 
+	 * @param compiled
+	 *            the compiled story to analyze
+	 * @param tolerance
+	 *            largest change in expected visits over a Gauss-Seidel sweep
+	 *            for a component to count as solved
+	 * @param maxSweeps
+	 *            most Gauss-Seidel sweeps to run on any one component
+	 * @return the analysis of the story
+	 */
+	public static EndingAnalysis analyze(CompiledStory compiled,
+			double tolerance, int maxSweeps) {
+		EndingAnalysis analysis = new EndingAnalysis(compiled);
+		int start = compiled.getFirstIndex();
+		if (start >= 0) {
+			analysis.solve(start, tolerance, maxSweeps);
+		}
+		return analysis;
+	}
+
+	/* Functions that return the results */
+	/**
+	 * Returns the indices, in the CompiledStory, of every ending that can be
+	 * reached from the first page.
+	 * 
+	 * @return ArrayList of fragment indices, in ascending order
+	 */
+	public ArrayList<Integer> getEndings() {
+		ArrayList<Integer> endings = new ArrayList<Integer>();
+		for (int i = 0; i < visits.length; i++) {
+			if (compiled.getChoiceCount(i) == 0 && visits[i] > 0) {
+				endings.add(i);
+			}
+		}
+		return endings;
+	}
+
+	/**
+	 * Returns the probability of a playthrough finishing at an ending.
+	 * 
+	 * @param index
+	 *            index of the ending in the CompiledStory
+	 * @return the probability, 0 if the fragment is not an ending
+	 */
+	public double getEndingProbability(int index) {
+		return compiled.getChoiceCount(index) == 0 ? visits[index] : 0;
+	}
+
+	/**
+	 * Returns the expected number of times a playthrough visits a fragment.
+	 * 
+	 * @param index
+	 *            index of the fragment in the CompiledStory
+	 * @return the expected visits, infinite inside a trapped component
+	 */
+	public double getExpectedVisits(int index) {
+		return trapped[index] ? Double.POSITIVE_INFINITY : visits[index];
+	}
+
+	/**
+	 * Returns the expected number of choices a playthrough takes before it
+	 * finishes.
+	 * 
+	 * @return the expected length, infinite if a playthrough can be trapped
+	 */
+	public double getExpectedSteps() {
+		if (trappedProbability > 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double steps = 0;
+		for (int i = 0; i < visits.length; i++) {
+			if (compiled.getChoiceCount(i) > 0) {
+				steps += visits[i];
+			}
+		}
+		return steps;
+	}
+
+	/**
+	 * Returns the probability of a playthrough taking a choice that leads
+	 * nowhere.
+	 * 
+	 * @return the probability of a broken playthrough
+	 */
+	public double getBrokenProbability() {
+		return brokenProbability;
+	}
+
+	/**
+	 * Returns the probability of a playthrough entering a loop it can never
+	 * leave.
+	 * 
+	 * @return the probability of being trapped
+	 */
+	public double getTrappedProbability() {
+		return trappedProbability;
+	}
+
+	/**
+	 * Returns whether a fragment is in a loop that can never be left.
+	 * 
+	 * @param index
+	 *            index of the fragment in the CompiledStory
+	 * @return true if trapped, false otherwise
+	 */
+	public boolean isTrapped(int index) {
+		return trapped[index];
+	}
+
+	/**
+	 * Returns whether every looping component was solved within the
+	 * tolerance. If not, the results are the last Gauss-Seidel estimates.
+	 * 
+	 * @return true if converged, false otherwise
+	 */
+	public boolean isConverged() {
+		return converged;
+	}
+
+	/* The solver */
+	private void solve(int start, double tolerance, int maxSweeps) {
+		int count = compiled.getFragmentCount();
+		int[] component = new int[count];
+		IntArrayList order = new IntArrayList();
+		IntArrayList bounds = new IntArrayList();
+		findComponents(start, component, order, bounds);
+
+		// Tarjan's algorithm finishes components sinks first, so walking
+		// them backwards visits each one after everything leading into it.
+		// visits[] collects the inflow until a component is solved.
+		visits[start] = 1;
+		for (int c = bounds.size() - 2; c >= 0; c--) {
+			int from = bounds.get(c);
+			int to = bounds.get(c + 1);
+			int id = component[order.get(from)];
+			boolean looped = to - from > 1
+					|| leadsTo(order.get(from), order.get(from));
+
+			if (looped && !hasExit(order, from, to, component, id)) {
+				for (int k = from; k < to; k++) {
+					int node = order.get(k);
+					trappedProbability += visits[node];
+					trapped[node] = true;
+				}
+				continue;
+			}
+			if (looped) {
+				sweep(order, from, to, component, id, tolerance, maxSweeps);
+			}
+
+			// Pass the solved visits on to later components
+			for (int k = from; k < to; k++) {
+				int node = order.get(k);
+				int choiceCount = compiled.getChoiceCount(node);
+				if (choiceCount == 0) {
+					continue;
+				}
+				double share = visits[node] / choiceCount;
+				for (int j = 0; j < choiceCount; j++) {
+					int target = compiled.getChoiceTarget(node, j);
+					if (target < 0) {
+						brokenProbability += share;
+					} else if (component[target] != id) {
+						visits[target] += share;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs Gauss-Seidel on one looping component. Before the call the visits
+	 * of its fragments hold only the inflow from earlier components, which is
+	 * kept aside as the constant term.
+	 */
+	private void sweep(IntArrayList order, int from, int to, int[] component,
+			int id, double tolerance, int maxSweeps) {
+		int size = to - from;
+		int[] nodes = new int[size];
+		double[] inflow = new double[size];
+		double[] selfLoop = new double[size];
+		for (int k = 0; k < size; k++) {
+			nodes[k] = order.get(from + k);
+			inflow[k] = visits[nodes[k]];
+		}
+
+		// Choices within the component, reversed so each fragment can pull
+		// from its predecessors: local CSR over (source, probability)
+		int[] local = new int[visits.length];
+		for (int k = 0; k < size; k++) {
+			local[nodes[k]] = k;
+		}
+		int[] start = new int[size + 1];
+		for (int k = 0; k < size; k++) {
+			int node = nodes[k];
+			for (int j = 0; j < compiled.getChoiceCount(node); j++) {
+				int target = compiled.getChoiceTarget(node, j);
+				if (target >= 0 && component[target] == id && target != node) {
+					start[local[target] + 1]++;
+				}
+			}
+		}
+		for (int k = 0; k < size; k++) {
+			start[k + 1] += start[k];
+		}
+		int[] fill = start.clone();
+		int[] source = new int[start[size]];
+		double[] probability = new double[start[size]];
+		for (int k = 0; k < size; k++) {
+			int node = nodes[k];
+			int choiceCount = compiled.getChoiceCount(node);
+			for (int j = 0; j < choiceCount; j++) {
+				int target = compiled.getChoiceTarget(node, j);
+				if (target < 0 || component[target] != id) {
+					continue;
+				}
+				if (target == node) {
+					selfLoop[k] += 1.0 / choiceCount;
+				} else {
+					int slot = fill[local[target]]++;
+					source[slot] = k;
+					probability[slot] = 1.0 / choiceCount;
+				}
+			}
+		}
+
+		double[] value = inflow.clone();
+		for (int round = 0; round < maxSweeps; round++) {
+			double change = 0;
+			double largest = 0;
+			for (int k = 0; k < size; k++) {
+				double sum = inflow[k];
+				for (int e = start[k]; e < start[k + 1]; e++) {
+					sum += value[source[e]] * probability[e];
+				}
+				sum /= 1 - selfLoop[k];
+				change = Math.max(change, Math.abs(sum - value[k]));
+				largest = Math.max(largest, sum);
+				value[k] = sum;
+			}
+			if (change <= tolerance * Math.max(1, largest)) {
+				copyBack(nodes, value);
+				return;
+			}
+		}
+		converged = false;
+		copyBack(nodes, value);
+	}
+
+	private void copyBack(int[] nodes, double[] value) {
+		for (int k = 0; k < nodes.length; k++) {
+			visits[nodes[k]] = value[k];
+		}
+	}
+
+	/**
+	 * Returns whether any choice of a component leaves it, including choices
+	 * that lead nowhere.
+	 */
+	private boolean hasExit(IntArrayList order, int from, int to,
+			int[] component, int id) {
+		for (int k = from; k < to; k++) {
+			int node = order.get(k);
+			for (int j = 0; j < compiled.getChoiceCount(node); j++) {
+				int target = compiled.getChoiceTarget(node, j);
+				if (target < 0 || component[target] != id) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean leadsTo(int node, int target) {
+		for (int j = 0; j < compiled.getChoiceCount(node); j++) {
+			if (compiled.getChoiceTarget(node, j) == target) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the strongly connected components reachable from the start with
+	 * Tarjan's algorithm, using explicit stacks so deep stories cannot
+	 * overflow the thread's stack. Fragments are written to order one
+	 * component after another, sinks first; bounds holds the offset where
+	 * each component begins, then the total.
+	 */
+	private void findComponents(int start, int[] component, IntArrayList order,
+			IntArrayList bounds) {
+		int count = compiled.getFragmentCount();
+		int[] number = new int[count];
+		int[] low = new int[count];
+		boolean[] onStack = new boolean[count];
+		int[] cursor = new int[count];
+		IntArrayList stack = new IntArrayList();
+		IntArrayList path = new IntArrayList();
+		int next = 1;
+		int components = 0;
+
+		number[start] = low[start] = next++;
+		stack.add(start);
+		onStack[start] = true;
+		path.add(start);
+		while (!path.isEmpty()) {
+			int node = path.get(path.size() - 1);
+			if (cursor[node] < compiled.getChoiceCount(node)) {
+				int target = compiled.getChoiceTarget(node, cursor[node]++);
+				if (target < 0) {
+					continue;
+				}
+				if (number[target] == 0) {
+					number[target] = low[target] = next++;
+					stack.add(target);
+					onStack[target] = true;
+					path.add(target);
+				} else if (onStack[target]) {
+					low[node] = Math.min(low[node], number[target]);
+				}
+				continue;
+			}
+
+			// All choices followed, so the node is finished
+			path.removeLast();
+			if (!path.isEmpty()) {
+				int parent = path.get(path.size() - 1);
+				low[parent] = Math.min(low[parent], low[node]);
+			}
+			if (low[node] == number[node]) {
+				bounds.add(order.size());
+				int member;
+				do {
+					member = stack.removeLast();
+					onStack[member] = false;
+					component[member] = components;
+					order.add(member);
+				} while (member != node);
+				components++;
+			}
+		}
+		bounds.add(order.size());
+	}
+
+}
@@ -0,0 +1,199 @@
+/*
+PlaythroughSimulator Class for CreateYourOwnAdventure App.
+Plays a story many times over by picking random choices, the same way as
+the reader's "Pick a random choice!" button, to show authors how long and
+how varied playthroughs are.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.analysis;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cmput301.f13t01.readstory.CompiledStory;
+
+/**
+ * PlaythroughSimulator runs random playthroughs of a CompiledStory on all
+ * processor cores. It does not need any Android components, so it can be run
+ * from a background task or from a plain Java program.
+ * 
+ * Playthroughs are split into fixed-size chunks. Each chunk has its own
+ * random number generator, seeded from the run's seed and the chunk number,
+ * and worker threads take chunks from a shared counter until none are left.
+ * As totals are simply added together, the results for a given seed are the
+ * same however many threads run and whichever thread plays which chunk.
+ */
+public class PlaythroughSimulator {
+
+	/** Default limit on choices per playthrough, so loops end. */
+	public static final int DEFAULT_MAX_STEPS = 1000;
+
+	private static final int CHUNK_SIZE = 1 << 14;
+
+	/* Instance Variables for a PlaythroughSimulator */
+	private final CompiledStory compiled;
+	private final int maxSteps;
+	private final int threads;
+
+	/**
+	 * Constructor. Creates a simulator using every processor core and the
+	 * default step limit.
+	 * 
+	 * @param compiled
+	 *            the compiled story to play
+	 */
+	public PlaythroughSimulator(CompiledStory compiled) {
+		this(compiled, DEFAULT_MAX_STEPS, Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param compiled
+	 *            the compiled story to play
+	 * @param maxSteps
+	 *            the most choices a playthrough may take before it is cut off
+	 * @param threads
+	 *            the number of worker threads to use
+	 */
+	public PlaythroughSimulator(CompiledStory compiled, int maxSteps,
+			int threads) {
+		this.compiled = compiled;
+		this.maxSteps = Math.max(0, maxSteps);
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Runs a number of random playthroughs from the story's first page.
+	 * 
+	 * @param playthroughs
+	 *            the number of playthroughs to run
+	 * @param seed
+	 *            the seed the run's random choices are derived from
+	 * @return the totals over all playthroughs, null if the calling thread
+	 *         was interrupted while waiting
+	 */
+	public PlaythroughStats simulate(final long playthroughs, final long seed) {
+		PlaythroughStats total = new PlaythroughStats(compiled, maxSteps);
+		final int start = compiled.getFirstIndex();
+		if (start < 0 || playthroughs <= 0) {
+			return total;
+		}
+
+		final long chunks = (playthroughs + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		final AtomicLong nextChunk = new AtomicLong();
+		int workers = (int) Math.min(threads, chunks);
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			ArrayList<Future<PlaythroughStats>> results = new ArrayList<Future<PlaythroughStats>>();
+			for (int i = 0; i < workers; i++) {
+				results.add(executor.submit(new Callable<PlaythroughStats>() {
+					public PlaythroughStats call() {
+						PlaythroughStats stats = new PlaythroughStats(
+								compiled, maxSteps);
+						long chunk;
+						while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+							long first = chunk * CHUNK_SIZE;
+							long count = Math.min(CHUNK_SIZE, playthroughs
+									- first);
+							ChunkRandom random = new ChunkRandom(mix(seed
+									+ chunk));
+							for (long j = 0; j < count; j++) {
+								play(start, random, stats);
+							}
+						}
+						return stats;
+					}
+				}));
+			}
+			for (Future<PlaythroughStats> result : results) {
+				total.add(result.get());
+			}
+			return total;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Plays one playthrough, adding it to the totals.
+	 */
+	private void play(int index, ChunkRandom random, PlaythroughStats stats) {
+		int steps = 0;
+		while (true) {
+			stats.visit(index);
+			int choiceCount = compiled.getChoiceCount(index);
+			if (choiceCount == 0) {
+				stats.ended(index, steps);
+				return;
+			}
+			if (steps == maxSteps) {
+				stats.cutOff(steps);
+				return;
+			}
+			index = compiled.getChoiceTarget(index,
+					random.nextInt(choiceCount));
+			steps++;
+			if (index < 0) {
+				stats.broke(steps);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Scrambles a seed (the SplitMix64 finalizer), so neighbouring chunk
+	 * numbers give unrelated random sequences.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * A small, unsynchronized random number generator (SplitMix64). Each
+	 * chunk of playthroughs gets its own, so threads never share one.
+	 */
+	private static final class ChunkRandom {
+		private long state;
+
+		ChunkRandom(long seed) {
+			this.state = seed;
+		}
+
+		int nextInt(int bound) {
+			state += 0x9E3779B97F4A7C15L;
+			long bits = mix(state) >>> 33;
+			return (int) ((bits * bound) >>> 31);
+		}
+	}
+
+}
@@ -0,0 +1,222 @@
+/*
+PlaythroughStats Class for CreateYourOwnAdventure App.
+Holds the totals gathered by the PlaythroughSimulator over many random
+playthroughs of a story.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.analysis;
+
+import cmput301.f13t01.readstory.CompiledStory;
+
+/**
+ * PlaythroughStats holds the results of a simulation: how often each
+ * fragment was visited, how long playthroughs were, and how they ended.
+ * Fragments are referred to by their index in the CompiledStory that was
+ * simulated; getFragmentId converts an index back to a fragment ID.
+ * 
+ * A playthrough ends in one of three ways. It reaches an ending, a fragment
+ * with no choices. It breaks, by picking a choice that leads nowhere. Or it
+ * is cut off after the simulator's step limit, which happens when the
+ * random choices keep it in a loop.
+ */
+public class PlaythroughStats {
+
+	/* Instance Variables for PlaythroughStats */
+	private final CompiledStory compiled;
+	private final long[] visits;
+	private final long[] endings;
+	private final long[] lengths;
+	private long playthroughs;
+	private long broken;
+	private long cutOff;
+
+	/**
+	 * Constructor. Creates empty totals for a story.
+	 * 
+	 * @param compiled
+	 *            the compiled story being simulated
+	 * @param maxSteps
+	 *            the most choices a playthrough may take
+	 */
+	PlaythroughStats(CompiledStory compiled, int maxSteps) {
+		this.compiled = compiled;
+		this.visits = new long[compiled.getFragmentCount()];
+		this.endings = new long[compiled.getFragmentCount()];
+		this.lengths = new long[maxSteps + 1];
+	}
+
+	/**
+	 * Records one visit to a fragment.
+	 */
+	void visit(int index) {
+		visits[index]++;
+	}
+
+	/**
+	 * Records a playthrough that reached an ending.
+	 */
+	void ended(int index, int steps) {
+		endings[index]++;
+		finished(steps);
+	}
+
+	/**
+	 * Records a playthrough that took a choice leading nowhere.
+	 */
+	void broke(int steps) {
+		broken++;
+		finished(steps);
+	}
+
+	/**
+	 * Records a playthrough that hit the step limit.
+	 */
+	void cutOff(int steps) {
+		cutOff++;
+		finished(steps);
+	}
+
+	private void finished(int steps) {
+		lengths[steps]++;
+		playthroughs++;
+	}
+
+	/**
+	 * Adds another set of totals for the same story into this one.
+	 */
+	void add(PlaythroughStats other) {
+		for (int i = 0; i < visits.length; i++) {
+			visits[i] += other.visits[i];
+			endings[i] += other.endings[i];
+		}
+		for (int i = 0; i < lengths.length; i++) {
+			lengths[i] += other.lengths[i];
+		}
+		playthroughs += other.playthroughs;
+		broken += other.broken;
+		cutOff += other.cutOff;
+	}
+
+	/**
+	 * Returns the fragment ID for a fragment index used in these results.
+	 * 
+	 * @param index
+	 *            index of the fragment
+	 * @return the fragment's ID
+	 */
+	public int getFragmentId(int index) {
+		return compiled.getFragmentId(index);
+	}
+
+	/**
+	 * Returns the number of fragments in the simulated story.
+	 * 
+	 * @return the fragment count
+	 */
+	public int getFragmentCount() {
+		return visits.length;
+	}
+
+	/**
+	 * Returns the number of playthroughs simulated.
+	 * 
+	 * @return the playthrough count
+	 */
+	public long getPlaythroughs() {
+		return playthroughs;
+	}
+
+	/**
+	 * Returns how many times a fragment was visited over all playthroughs.
+	 * 
+	 * @param index
+	 *            index of the fragment
+	 * @return the visit count
+	 */
+	public long getVisits(int index) {
+		return visits[index];
+	}
+
+	/**
+	 * Returns how many playthroughs ended at a fragment.
+	 * 
+	 * @param index
+	 *            index of the fragment
+	 * @return the number of playthroughs ending there
+	 */
+	public long getEndings(int index) {
+		return endings[index];
+	}
+
+	/**
+	 * Returns how many playthroughs took a given number of choices.
+	 * 
+	 * @param steps
+	 *            the number of choices taken
+	 * @return the number of playthroughs of that length
+	 */
+	public long getLengthCount(int steps) {
+		return steps < lengths.length ? lengths[steps] : 0;
+	}
+
+	/**
+	 * Returns the longest length the histogram can hold, the simulator's
+	 * step limit.
+	 * 
+	 * @return the step limit
+	 */
+	public int getMaxSteps() {
+		return lengths.length - 1;
+	}
+
+	/**
+	 * Returns the average number of choices taken per playthrough.
+	 * 
+	 * @return the mean length, 0 if nothing was simulated
+	 */
+	public double getMeanLength() {
+		if (playthroughs == 0) {
+			return 0;
+		}
+		double total = 0;
+		for (int i = 0; i < lengths.length; i++) {
+			total += (double) i * lengths[i];
+		}
+		return total / playthroughs;
+	}
+
+	/**
+	 * Returns how many playthroughs took a choice leading nowhere.
+	 * 
+	 * @return the broken playthrough count
+	 */
+	public long getBroken() {
+		return broken;
+	}
+
+	/**
+	 * Returns how many playthroughs were stopped at the step limit.
+	 * 
+	 * @return the cut off playthrough count
+	 */
+	public long getCutOff() {
+		return cutOff;
+	}
+
+}
@@ -0,0 +1,508 @@
+/*
+StoryGraphAnalyzer Class for CreateYourOwnAdventure App.
+Keeps track of which fragments of a story can be reached from its first
+page, which have no way out, which nothing links to, and which have choices
+that lead nowhere, updating the results as the story is edited.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import cmput301.f13t01.model.Choice;
+import cmput301.f13t01.model.IntArrayList;
+import cmput301.f13t01.model.IntHashMap;
+import cmput301.f13t01.model.Story;
+
+/**
+ * StoryGraphAnalyzer reports on the shape of a story's choice graph:
+ * <ul>
+ * <li>unreachable fragments, which no path from the first page leads to</li>
+ * <li>dead ends, fragments without any choices</li>
+ * <li>orphans, fragments no other fragment links to (the first page aside)</li>
+ * <li>dangling fragments, which hold a choice with no destination set or
+ * whose destination no longer exists</li>
+ * </ul>
+ * 
+ * The analyzer is built once from a Story and then told about each edit, so
+ * only the fragments an edit touches are looked at again. Reachability is
+ * kept as a tree of parent links from the first page. Adding a choice only
+ * extends the tree from its destination, and removing one only revisits the
+ * subtree that hung from it, if the choice was a tree edge at all.
+ * 
+ * The analyzer remembers the revision of the Story it is in step with. The
+ * StoryManager forwards its edits and then calls markCurrent; if the story
+ * was changed any other way, isCurrent fails and the analyzer should be
+ * rebuilt.
+ */
+public class StoryGraphAnalyzer {
+
+	private static final int NONE = -1;
+
+	/**
+	 * A fragment ID in the graph. A node is kept for every fragment in the
+	 * story and for every missing ID a choice still leads to.
+	 */
+	private static class Node {
+		final int id;
+		boolean exists;
+		// Destination of every linked choice, once per choice
+		final IntArrayList out = new IntArrayList();
+		// Source of every choice leading here, once per choice
+		final IntArrayList in = new IntArrayList();
+		int unsetChoices;
+		int missingTargets;
+		int linksFromOthers;
+		boolean reached;
+		int parent = NONE;
+
+		Node(int id) {
+			this.id = id;
+		}
+	}
+
+	/* Instance Variables for a StoryGraphAnalyzer */
+	private final Story story;
+	private int revision;
+	private int root = NONE;
+	private final IntHashMap<Node> nodes = new IntHashMap<Node>();
+	private final IntHashMap<Node> unreachable = new IntHashMap<Node>();
+	private final IntHashMap<Node> deadEnds = new IntHashMap<Node>();
+	private final IntHashMap<Node> orphans = new IntHashMap<Node>();
+	private final IntHashMap<Node> dangling = new IntHashMap<Node>();
+
+	/**
+	 * Constructor. Builds the analysis of a story from scratch.
+	 * 
+	 * @param story
+	 *            the story to analyze
+	 */
+	public StoryGraphAnalyzer(Story story) {
+		this.story = story;
+		int[] fragmentIds = story.getFragmentIds();
+		for (int id : fragmentIds) {
+			node(id).exists = true;
+		}
+		for (int id : fragmentIds) {
+			for (Choice choice : story.readChoices(id)) {
+				linkChoice(id, choice.getDestinationId());
+			}
+		}
+		for (int id : nodes.keys()) {
+			Node node = nodes.get(id);
+			for (int i = 0; i < node.out.size(); i++) {
+				if (!nodes.get(node.out.get(i)).exists) {
+					node.missingTargets++;
+				}
+			}
+		}
+		resetReachability(story.getFirstPage());
+		markCurrent();
+	}
+
+	/**
+	 * Returns whether the analysis is in step with a story.
+	 * 
+	 * @param story
+	 *            the story to check against
+	 * @return true if built from that story and told of every edit since
+	 */
+	public boolean isCurrent(Story story) {
+		return this.story == story && this.revision == story.getRevision();
+	}
+
+	/**
+	 * Records that every edit made to the story so far has been forwarded.
+	 */
+	public void markCurrent() {
+		this.revision = story.getRevision();
+	}
+
+	/* Functions that receive edits from the StoryManager */
+	/**
+	 * Called after a fragment has been added to the story.
+	 * 
+	 * @param fragmentId
+	 *            ID of the new fragment
+	 */
+	public void fragmentAdded(int fragmentId) {
+		Node node = node(fragmentId);
+		if (node.exists) {
+			return;
+		}
+		node.exists = true;
+		// Choices that were already aimed at this ID now lead somewhere
+		for (int i = 0; i < node.in.size(); i++) {
+			Node source = nodes.get(node.in.get(i));
+			source.missingTargets--;
+			refresh(source);
+		}
+		if (fragmentId == root) {
+			reach(node, NONE);
+		} else {
+			for (int i = 0; i < node.in.size() && !node.reached; i++) {
+				Node source = nodes.get(node.in.get(i));
+				if (source.reached) {
+					reach(node, source.id);
+				}
+			}
+		}
+		refresh(node);
+	}
+
+	/**
+	 * Called after a fragment, with every choice from or to it, has been
+	 * removed from the story.
+	 * 
+	 * @param fragmentId
+	 *            ID of the removed fragment
+	 */
+	public void fragmentRemoved(int fragmentId) {
+		Node node = nodes.get(fragmentId);
+		if (node == null || !node.exists) {
+			return;
+		}
+		referencesCleaned(fragmentId);
+		node.exists = false;
+		if (fragmentId == root) {
+			root = NONE;
+		}
+		if (node.reached) {
+			detach(node);
+		}
+		refresh(node);
+		forgetIfUnused(node);
+	}
+
+	/**
+	 * Called after a choice has been added to a fragment.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment holding the choice
+	 * @param destinationId
+	 *            ID the choice leads to, null if not set
+	 */
+	public void choiceAdded(int fragmentId, Integer destinationId) {
+		Node source = nodes.get(fragmentId);
+		if (source == null || !source.exists) {
+			// Choices of a missing fragment are never shown, so ignore them
+			return;
+		}
+		linkChoice(fragmentId, destinationId);
+		if (destinationId != null) {
+			Node target = nodes.get(destinationId);
+			if (!target.exists) {
+				source.missingTargets++;
+			} else if (source.reached && !target.reached) {
+				reach(target, fragmentId);
+			}
+			refresh(target);
+		}
+		refresh(source);
+	}
+
+	/**
+	 * Called after a choice has been removed from a fragment.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment that held the choice
+	 * @param destinationId
+	 *            ID the choice led to, null if not set
+	 */
+	public void choiceRemoved(int fragmentId, Integer destinationId) {
+		Node source = nodes.get(fragmentId);
+		if (source == null) {
+			return;
+		}
+		if (destinationId == null) {
+			if (source.unsetChoices > 0) {
+				source.unsetChoices--;
+			}
+			refresh(source);
+			return;
+		}
+		Node target = nodes.get(destinationId);
+		if (target == null || !source.out.removeValue(destinationId)) {
+			return;
+		}
+		target.in.removeValue(fragmentId);
+		if (fragmentId != destinationId) {
+			target.linksFromOthers--;
+		}
+		if (!target.exists) {
+			source.missingTargets--;
+		}
+		// Only a tree edge holds anything up, and only if no parallel choice
+		// still makes the same link
+		if (target.reached && target.parent == fragmentId
+				&& !source.out.contains(destinationId)) {
+			detach(target);
+		}
+		refresh(source);
+		refresh(target);
+		forgetIfUnused(target);
+	}
+
+	/**
+	 * Called after all choices from and to a fragment have been removed.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment
+	 */
+	public void referencesCleaned(int fragmentId) {
+		Node node = nodes.get(fragmentId);
+		if (node == null) {
+			return;
+		}
+		int[] outgoing = node.out.toArray();
+		for (int destinationId : outgoing) {
+			choiceRemoved(fragmentId, destinationId);
+		}
+		node.unsetChoices = 0;
+		int[] incoming = node.in.toArray();
+		for (int sourceId : incoming) {
+			choiceRemoved(sourceId, fragmentId);
+		}
+		refresh(node);
+	}
+
+	/**
+	 * Called after the first page of the story has changed. Reachability is
+	 * worked out again from the new first page.
+	 * 
+	 * @param fragmentId
+	 *            ID of the new first page, null if none
+	 */
+	public void firstPageChanged(Integer fragmentId) {
+		int newRoot = fragmentId == null ? NONE : fragmentId;
+		if (newRoot != root) {
+			resetReachability(fragmentId);
+		}
+	}
+
+	/* Functions that return the results */
+	/**
+	 * Returns whether a fragment can be reached from the first page.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment
+	 * @return true if reachable, false otherwise
+	 */
+	public boolean isReachable(int fragmentId) {
+		Node node = nodes.get(fragmentId);
+		return node != null && node.reached;
+	}
+
+	/**
+	 * Returns the fragments that cannot be reached from the first page.
+	 * 
+	 * @return ArrayList of fragment IDs, in ascending order
+	 */
+	public ArrayList<Integer> getUnreachableFragments() {
+		return sortedIds(unreachable);
+	}
+
+	/**
+	 * Returns the fragments without any choices.
+	 * 
+	 * @return ArrayList of fragment IDs, in ascending order
+	 */
+	public ArrayList<Integer> getDeadEnds() {
+		return sortedIds(deadEnds);
+	}
+
+	/**
+	 * Returns the fragments, other than the first page, that no other
+	 * fragment has a choice leading to.
+	 * 
+	 * @return ArrayList of fragment IDs, in ascending order
+	 */
+	public ArrayList<Integer> getOrphans() {
+		return sortedIds(orphans);
+	}
+
+	/**
+	 * Returns the fragments holding a choice that has no destination set or
+	 * whose destination no longer exists.
+	 * 
+	 * @return ArrayList of fragment IDs, in ascending order
+	 */
+	public ArrayList<Integer> getDanglingFragments() {
+		return sortedIds(dangling);
+	}
+
+	/* Internal bookkeeping */
+	private Node node(int id) {
+		Node node = nodes.get(id);
+		if (node == null) {
+			node = new Node(id);
+			nodes.put(id, node);
+		}
+		return node;
+	}
+
+	private void linkChoice(int fragmentId, Integer destinationId) {
+		Node source = node(fragmentId);
+		if (destinationId == null) {
+			source.unsetChoices++;
+			return;
+		}
+		Node target = node(destinationId);
+		source.out.add(destinationId);
+		target.in.add(fragmentId);
+		if (fragmentId != destinationId) {
+			target.linksFromOthers++;
+		}
+	}
+
+	/**
+	 * Drops the node for an ID that is neither a fragment nor linked to.
+	 */
+	private void forgetIfUnused(Node node) {
+		if (!node.exists && node.in.isEmpty() && node.out.isEmpty()) {
+			nodes.remove(node.id);
+		}
+	}
+
+	/**
+	 * Rebuilds the reachability tree from scratch, for a new first page.
+	 */
+	private void resetReachability(Integer firstPage) {
+		for (Node node : nodes.values()) {
+			node.reached = false;
+			node.parent = NONE;
+		}
+		root = firstPage == null ? NONE : firstPage;
+		Node rootNode = root == NONE ? null : nodes.get(root);
+		if (rootNode != null && rootNode.exists) {
+			reach(rootNode, NONE);
+		}
+		for (Node node : nodes.values()) {
+			refresh(node);
+		}
+	}
+
+	/**
+	 * Marks a node reached through the given parent, then extends the tree
+	 * breadth first to everything newly reachable from it.
+	 */
+	private void reach(Node start, int parent) {
+		start.reached = true;
+		start.parent = parent;
+		refresh(start);
+		IntArrayList queue = new IntArrayList();
+		queue.add(start.id);
+		for (int head = 0; head < queue.size(); head++) {
+			Node current = nodes.get(queue.get(head));
+			for (int i = 0; i < current.out.size(); i++) {
+				Node next = nodes.get(current.out.get(i));
+				if (next.exists && !next.reached) {
+					next.reached = true;
+					next.parent = current.id;
+					refresh(next);
+					queue.add(next.id);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Unhooks the subtree below a node whose tree edge has gone, then hangs
+	 * back on whatever part of it is still reachable some other way.
+	 */
+	private void detach(Node top) {
+		// Collect the subtree; clearing reached as we go keeps each node
+		// from being collected twice
+		IntArrayList subtree = new IntArrayList();
+		top.reached = false;
+		subtree.add(top.id);
+		for (int head = 0; head < subtree.size(); head++) {
+			Node current = nodes.get(subtree.get(head));
+			for (int i = 0; i < current.out.size(); i++) {
+				Node child = nodes.get(current.out.get(i));
+				if (child.reached && child.parent == current.id) {
+					child.reached = false;
+					subtree.add(child.id);
+				}
+			}
+		}
+		for (int i = 0; i < subtree.size(); i++) {
+			Node node = nodes.get(subtree.get(i));
+			node.parent = NONE;
+		}
+
+		// Any node of the subtree still linked from a reached fragment
+		// outside it is reachable again, along with what it leads to
+		for (int i = 0; i < subtree.size(); i++) {
+			Node node = nodes.get(subtree.get(i));
+			if (node.reached || !node.exists) {
+				continue;
+			}
+			if (node.id == root) {
+				reach(node, NONE);
+				continue;
+			}
+			for (int j = 0; j < node.in.size(); j++) {
+				Node source = nodes.get(node.in.get(j));
+				if (source.reached) {
+					reach(node, source.id);
+					break;
+				}
+			}
+		}
+		for (int i = 0; i < subtree.size(); i++) {
+			refresh(nodes.get(subtree.get(i)));
+		}
+	}
+
+	/**
+	 * Puts a node in or takes it out of each result set to match its state.
+	 */
+	private void refresh(Node node) {
+		boolean exists = node.exists;
+		setMember(unreachable, node, exists && !node.reached);
+		setMember(deadEnds, node, exists && node.out.isEmpty()
+				&& node.unsetChoices == 0);
+		setMember(orphans, node, exists && node.id != root
+				&& node.linksFromOthers == 0);
+		setMember(dangling, node, exists
+				&& (node.unsetChoices > 0 || node.missingTargets > 0));
+	}
+
+	private static void setMember(IntHashMap<Node> set, Node node,
+			boolean member) {
+		if (member) {
+			set.put(node.id, node);
+		} else {
+			set.remove(node.id);
+		}
+	}
+
+	private static ArrayList<Integer> sortedIds(IntHashMap<Node> set) {
+		int[] ids = set.keys();
+		Arrays.sort(ids);
+		ArrayList<Integer> result = new ArrayList<Integer>(ids.length);
+		for (int id : ids) {
+			result.add(id);
+		}
+		return result;
+	}
+
+}
@@ -113,12 +113,9 @@ public class EditAnnotationActivity extends Activity implements
 			for (Media next : annotation) {
 				if (next.getType() == MediaType.IMAGE.toString()) {
 					Image image = (Image) next;
-					imageInfos.add(new ImageInfo(Uri.fromFile(new File(getFilesDir()
-							.getAbsolutePath()
-							+ "/"
-							+ next.getType().toString()
-							+ "/"
-							+ next.getContent())), image.getScale()));
+					imageInfos.add(new ImageInfo(Uri.fromFile(GlobalManager
+							.getLocalManager().getMediaFile(image.getType(),
+									image.getContent())), image.getScale()));
 				}
 			}
 		}
@@ -129,10 +129,9 @@ public class EditFragmentContentActivity extends Activity implements
 			for (Media next : media) {
 				if (next.getType() == MediaType.IMAGE.toString()) {
 					Image image = (Image) next;
-					imageInfos.add(new ImageInfo(Uri.fromFile(new File(
-							getFilesDir().getAbsolutePath() + "/"
-									+ next.getType().toString() + "/"
-									+ next.getContent())), image.getScale()));
+					imageInfos.add(new ImageInfo(Uri.fromFile(GlobalManager
+							.getLocalManager().getMediaFile(image.getType(),
+									image.getContent())), image.getScale()));
 				}
 			}
 		}
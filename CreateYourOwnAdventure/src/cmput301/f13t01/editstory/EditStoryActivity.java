@@ -27,6 +27,7 @@ jump to a fragment, etc.
 package cmput301.f13t01.editstory;
 
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 import android.content.Intent;
 import android.os.AsyncTask;
@@ -47,6 +48,7 @@ import cmput301.f13t01.readstory.StoryManager;
 import cmput301.f13t01.storylibrary.GlobalManager;
 import cmput301.f13t01.storylibrary.HelpFragment;
 import cmput301.f13t01.storylibrary.HelpMessage;
+import cmput301.f13t01.storylibrary.SaveQueue;
 
 /**
  * The activity that allows the user to edit a story's information, in addition
@@ -131,6 +133,15 @@ public class EditStoryActivity extends FragmentActivity implements
 
 	}
 
+	@Override
+	/**
+	 * Writes out any saves still queued, as the app may be stopped.
+	 */
+	protected void onStop() {
+		super.onStop();
+		GlobalManager.getLocalManager().flush();
+	}
+
 	@Override
 	/**
 	 * Override onCreateOptionsMenu
@@ -238,6 +249,12 @@ public class EditStoryActivity extends FragmentActivity implements
 	private class PublishStoryTask extends AsyncTask<UUID, Integer, Integer> {
 
 		public boolean locked;
+		// Save of the story being edited, queued on the UI thread like any
+		// other so it never replaces a newer one
+		private Future<Boolean> saved;
+		// Frozen copy of the story to publish, so edits made on the UI
+		// thread meanwhile can't tear it
+		private Story snapshot;
 
 		public boolean isLocked() {
 			return locked;
@@ -247,13 +264,15 @@ public class EditStoryActivity extends FragmentActivity implements
 		public void onPreExecute() {
 			super.onPreExecute();
 			locked = true;
+			saved = GlobalManager.saveStory(storyId);
+			GlobalManager.getLocalManager().flush(storyId);
+			snapshot = GlobalManager.getStoryManager().getSnapshot();
 		}
 
 		@Override
 		public Integer doInBackground(UUID... arg0) {
-			GlobalManager.saveStory(storyId);
-			Story story = GlobalManager.getStoryManager().getStory();
-			GlobalManager.getESManager().saveStory(storyId, story);
+			SaveQueue.waitFor(saved);
+			GlobalManager.getESManager().saveStory(storyId, snapshot);
 			return 1;
 		}
 
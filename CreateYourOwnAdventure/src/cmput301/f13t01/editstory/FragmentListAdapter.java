@@ -25,7 +25,7 @@ using this fragment must implement the StoryFragmentListListener interface.
  */
 package cmput301.f13t01.editstory;
 
-import java.util.ArrayList;
+import java.util.List;
 
 import android.content.Context;
 import android.view.LayoutInflater;
@@ -57,7 +57,7 @@ public class FragmentListAdapter extends ArrayAdapter<StoryFragmentInfo> {
 	/**
 	 * The array of StoryFragment information displayed in the list.
 	 */
-	private final ArrayList<StoryFragmentInfo> info;
+	private final List<StoryFragmentInfo> info;
 
 	/**
 	 * Constructor.
@@ -65,10 +65,10 @@ public class FragmentListAdapter extends ArrayAdapter<StoryFragmentInfo> {
 	 * @param context
 	 *            context adapter is being used in
 	 * @param info
-	 *            ArrayList of StoryFragmentInfo for display
+	 *            List of StoryFragmentInfo for display
 	 */
 	public FragmentListAdapter(Context context,
-			ArrayList<StoryFragmentInfo> info) {
+			List<StoryFragmentInfo> info) {
 		super(context, R.layout.story_fragment_list_item, info);
 		this.context = context;
 		this.info = info;
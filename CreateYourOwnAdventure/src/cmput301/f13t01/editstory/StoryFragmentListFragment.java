@@ -26,7 +26,7 @@ instantiated.
 
 package cmput301.f13t01.editstory;
 
-import java.util.ArrayList;
+import java.util.List;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -88,7 +88,7 @@ public class StoryFragmentListFragment extends DialogFragment {
 		super.onCreate(savedInstanceState);
 
 		GlobalManager app = (GlobalManager) getActivity().getApplication();
-		ArrayList<StoryFragmentInfo> info = app.getStoryManager()
+		List<StoryFragmentInfo> info = app.getStoryManager()
 				.getFragmentInfoList();
 
 		FragmentListAdapter adapt = new FragmentListAdapter(getActivity(), info);
@@ -122,7 +122,7 @@ public class StoryFragmentListFragment extends DialogFragment {
 		super.onCreate(savedInstanceState);
 
 		GlobalManager app = (GlobalManager) getActivity().getApplication();
-		ArrayList<StoryFragmentInfo> info = app.getStoryManager()
+		List<StoryFragmentInfo> info = app.getStoryManager()
 				.getFragmentInfoList();
 
 		this.adapter = new FragmentListAdapter(getActivity(), info);
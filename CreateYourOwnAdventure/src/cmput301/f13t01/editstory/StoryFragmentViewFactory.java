@@ -22,7 +22,6 @@ a fragment.
 
 package cmput301.f13t01.editstory;
 
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 
@@ -41,6 +40,7 @@ import cmput301.f13t01.model.Image;
 import cmput301.f13t01.model.ImageUri;
 import cmput301.f13t01.model.Media;
 import cmput301.f13t01.model.Text;
+import cmput301.f13t01.storylibrary.GlobalManager;
 
 /**
  * The StoryFragmentViewFactory class is used to generate the views for media
@@ -95,11 +95,8 @@ public class StoryFragmentViewFactory {
 			} else if (media.getClass().equals(Image.class)) {
 				Image image = (Image) media;
 
-				Uri imageUri = Uri.fromFile(new File(context.getFilesDir()
-						.getAbsolutePath()
-						+ "/"
-						+ image.getType().toString()
-						+ "/" + image.getContent()));
+				Uri imageUri = Uri.fromFile(GlobalManager.getLocalManager()
+						.getMediaFile(image.getType(), image.getContent()));
 				addImage(imageUri, layout, context, image.getScale());
 			} else if (media instanceof ImageUri) {
 				ImageUri image = (ImageUri) media;
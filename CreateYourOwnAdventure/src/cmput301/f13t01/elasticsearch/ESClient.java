@@ -66,9 +66,11 @@ import org.apache.http.impl.client.DefaultHttpClient;
 
 import android.text.SpannableString;
 import android.util.Log;
+import cmput301.f13t01.model.IntHashMap;
 import cmput301.f13t01.model.Media;
 import cmput301.f13t01.model.Story;
 import cmput301.f13t01.model.StoryInfo;
+import cmput301.f13t01.model.StoryRecords;
 import cmput301.f13t01.model.Text;
 
 import com.google.gson.Gson;
@@ -90,7 +92,8 @@ public class ESClient {
 	private Gson gson;
 
 	/**
-	 * Creates the gson object that knows how to serialize Media.
+	 * Creates the gson object that knows how to serialize Media and the
+	 * IntHashMap collections in a Story.
 	 */
 	public ESClient() {
 
@@ -101,6 +104,8 @@ public class ESClient {
 				new InterfaceAdapter<Media<SpannableString>>());
 		gsonBuilder.registerTypeAdapter(Media.class,
 				new InterfaceAdapter<Media>());
+		gsonBuilder.registerTypeHierarchyAdapter(IntHashMap.class,
+				new IntHashMapAdapter());
 		gson = gsonBuilder.create();
 
 	}
@@ -581,6 +586,8 @@ public class ESClient {
 		StringEntity stringentity = null;
 		try {
 
+			// Gson reads the fields, so nothing may be left in a pack
+			StoryRecords.unpackAll(story);
 			String json = gson.toJson(story);
 			stringentity = new StringEntity(json);
 			Log.d("Story", json);
@@ -29,6 +29,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Random;
 import java.util.UUID;
 
@@ -47,6 +49,7 @@ import cmput301.f13t01.model.Text;
 import cmput301.f13t01.storylibrary.GlobalManager;
 import cmput301.f13t01.storylibrary.LibraryManager;
 import cmput301.f13t01.storylibrary.LocalManager;
+import cmput301.f13t01.storylibrary.MediaStore;
 
 /**
  * This class is designed to interact with stored stories on ElasticSearch.
@@ -90,16 +93,27 @@ public class ESManager implements LibraryManager {
 		// Grabs the associated StoryResource object
 		StoryResource storyResource = client.getStoryResources(storyId);
 		ArrayList<MediaResource> resources = storyResource.getMediaResources();
+		// Name each media is stored under here, by type and identifier
+		HashMap<String, String> names = new HashMap<String, String>();
 
 		for (MediaResource resource : resources) {
 			// Grabs base64 string
 			String identifier = resource.getIdentifier();
 			String type = resource.getType();
 			String media = client.getMedia(identifier, type);
-			localManager.saveMediaFromBase64(identifier, type, media);
+			String name = localManager.saveMediaFromBase64(identifier, type,
+					media);
+			if (name != null) {
+				names.put(type + "/" + identifier, name);
+			}
 		}
 
-		return client.getStory(storyId);
+		Story story = client.getStory(storyId);
+		if (story != null) {
+			// Refer to the media as stored, whatever the server called it
+			MediaStore.renameMedia(story, names);
+		}
+		return story;
 	}
 
 	/**
@@ -159,6 +173,32 @@ public class ESManager implements LibraryManager {
 		return newId;
 	}
 
+	/**
+	 * Saves many stories from the server, adding them to the library
+	 * together so its index is saved once for all of them. A story that
+	 * can't be downloaded is skipped, and the rest are still saved.
+	 * 
+	 * @param ids
+	 *            IDs of the stories on the server
+	 * @return the IDs the stories have in the library, in the same order,
+	 *         with null in place of each story that couldn't be downloaded
+	 */
+	public ArrayList<UUID> downloadStories(List<UUID> ids) {
+		LocalManager.Batch batch = localManager.startBatch();
+		ArrayList<UUID> newIds = new ArrayList<UUID>();
+		for (UUID id : ids) {
+			Story story = getStory(id);
+			if (story == null) {
+				// Failed, so left out of the batch
+				newIds.add(null);
+			} else {
+				newIds.add(batch.add(story));
+			}
+		}
+		batch.commit();
+		return newIds;
+	}
+
 	/**
 	 * Method to remove/delete a Story and all associated files from the server.
 	 * 
@@ -303,12 +343,12 @@ public class ESManager implements LibraryManager {
 		// Instantiate return value
 		StoryResource storyResource = new StoryResource(id);
 		// Get list of all fragments in the story
-		ArrayList<StoryFragmentInfo> fragmentList = story.getFragmentInfoList();
+		List<StoryFragmentInfo> fragmentList = story.getFragmentInfoList();
 		// Iterate over all fragments in the story
 		for (StoryFragmentInfo info : fragmentList) {
 			// Get each fragment
 			Integer fragmentId = info.getId();
-			StoryFragment fragment = story.getFragment(fragmentId);
+			StoryFragment fragment = story.readFragment(fragmentId);
 			// Add all content media to storyResource
 			ArrayList<Media> content = fragment.getContentList();
 			storyResource = extractMedia(storyResource, content);
@@ -341,8 +381,7 @@ public class ESManager implements LibraryManager {
 	}
 
 	private String mediaToBase64(String identifier, String type) {
-		File media = new File(context.getFilesDir().getAbsolutePath() + "/"
-				+ type + "/" + identifier);
+		File media = localManager.getMediaFile(type, identifier);
 
 		String base64Media = new String();
 		Log.d("Base64", "media: " + media.getAbsolutePath());
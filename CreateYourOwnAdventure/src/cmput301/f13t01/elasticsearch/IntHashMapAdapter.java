@@ -0,0 +1,119 @@
+/*
+IntHashMapAdapter Class for CreateYourOwnAdventure.
+
+This is an adapter class that lets Gson write and read the IntHashMap
+used by the story model, in the same Json form as a HashMap keyed by
+Integer.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+    
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+    
+    
+    
+    GSon/HttpClient License: Apache License, Version 2.0, January 2004.
+    <http://www.apache.org/licenses/>
+    
+    Licensed under the Apache License, Version 2.0 (the "License");
+    you may not use this file except in compliance with the License.
+    You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+    Unless required by applicable law or agreed to in writing, software
+    distributed under the License is distributed on an "AS IS" BASIS,
+    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+    See the License for the specific language governing permissions and
+    limitations under the License.
+ */
+
+package cmput301.f13t01.elasticsearch;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Map;
+
+import cmput301.f13t01.model.IntHashMap;
+
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+/**
+ * This is an adapter to allow Gson to serialize and deserialize IntHashMap
+ * objects. The map is written as a Json object whose member names are the
+ * keys, which is how Gson writes a HashMap with Integer keys, so stories
+ * posted before the model switched to IntHashMap can still be read.
+ */
+
+public class IntHashMapAdapter implements JsonSerializer<IntHashMap<?>>,
+		JsonDeserializer<IntHashMap<?>> {
+
+	/**
+	 * Serializes each entry of the map under its key.
+	 * 
+	 * @return Returns the JsonElement to be used by Gson
+	 */
+	public JsonElement serialize(IntHashMap<?> map, Type mapType,
+			JsonSerializationContext context) {
+		final JsonObject object = new JsonObject();
+		final Type valueType = valueTypeOf(mapType);
+		for (int key : map.keys()) {
+			object.add(String.valueOf(key),
+					context.serialize(map.get(key), valueType));
+		}
+		return object;
+	}
+
+	/**
+	 * Deserializes a Json object back into an IntHashMap, parsing each member
+	 * name as a key.
+	 * 
+	 * @return Returns the rebuilt IntHashMap
+	 */
+	public IntHashMap<?> deserialize(JsonElement elem, Type mapType,
+			JsonDeserializationContext context) throws JsonParseException {
+		if (!elem.isJsonObject()) {
+			throw new JsonParseException("expected a Json object for a map");
+		}
+		final Type valueType = valueTypeOf(mapType);
+		final IntHashMap<Object> map = new IntHashMap<Object>();
+		for (Map.Entry<String, JsonElement> entry : elem.getAsJsonObject()
+				.entrySet()) {
+			Object value = context.deserialize(entry.getValue(), valueType);
+			if (value == null) {
+				continue;
+			}
+			try {
+				map.put(Integer.parseInt(entry.getKey()), value);
+			} catch (NumberFormatException e) {
+				throw new JsonParseException(e);
+			}
+		}
+		return map;
+	}
+
+	private Type valueTypeOf(Type mapType) {
+		if (mapType instanceof ParameterizedType) {
+			return ((ParameterizedType) mapType).getActualTypeArguments()[0];
+		}
+		return Object.class;
+	}
+
+}
@@ -28,7 +28,10 @@ import java.io.IOException;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 /**
  * This class contains all methods associated with selecting adding, editing or
@@ -40,11 +43,37 @@ import java.util.HashMap;
 
 public class ChoiceMap implements Serializable {
 
-	// Maps Fragment IDs to Fragment ArrayList, to be indexed
-	private HashMap<Integer, ArrayList<Choice>> choiceMapping;
+	// Pinned to the value computed before the class gained new methods, so
+	// stories saved by earlier versions still load
+	private static final long serialVersionUID = -8886139381308106247L;
+
+	// Rough bytes taken by a choice list and by each Choice in it, besides
+	// the characters of its flavour text
+	private static final int LIST_BYTES = 48;
+	private static final int CHOICE_BYTES = 64;
+
+	// Maps Fragment IDs to Fragment ArrayList, to be indexed. Saved as a
+	// HashMap, the format used before it was keyed on primitive ints.
+	private IntHashMap<ArrayList<Choice>> choiceMapping;
+
+	// Reverse index, maps destination Fragment IDs to the source Fragment ID
+	// of every choice leading there (once per choice). Derived from
+	// choiceMapping, so it is never saved and is rebuilt on first use.
+	private transient IntHashMap<IntArrayList> incomingMapping;
+
+	// Choice lists this map may change or hand out, compared by reference.
+	// Null until a snapshot is taken; after that, lists not in the set are
+	// shared with a snapshot and are copied before being changed.
+	private transient Set<ArrayList<Choice>> owned;
+
+	// Pack the map was loaded from, if any. Choice lists in the pack are read
+	// into choiceMapping when first used; unpacked holds the IDs whose packed
+	// record no longer counts, because it was read in, replaced or removed.
+	private transient StoryPack pack;
+	private transient IntHashMap<Boolean> unpacked;
 
 	public ChoiceMap() {
-		this.choiceMapping = new HashMap<Integer, ArrayList<Choice>>();
+		this.choiceMapping = new IntHashMap<ArrayList<Choice>>();
 	}
 
 	/**
@@ -58,7 +87,11 @@ public class ChoiceMap implements Serializable {
 	 */
 	public void addChoice(Integer fragmentId, Choice choice) {
 
-		ArrayList<Choice> destinations = choiceMapping.get(fragmentId);
+		if (fragmentId == null) {
+			return;
+		}
+
+		ArrayList<Choice> destinations = getChoiceList(fragmentId);
 
 		if (destinations != null) {
 			destinations.add(choice);
@@ -69,7 +102,11 @@ public class ChoiceMap implements Serializable {
 			ArrayList<Choice> destination = new ArrayList<Choice>();
 			destination.add(choice);
 			choiceMapping.put(fragmentId, destination);
+			if (owned != null) {
+				owned.add(destination);
+			}
 		}
+		addIncoming(fragmentId, choice);
 		return;
 	}
 
@@ -84,13 +121,14 @@ public class ChoiceMap implements Serializable {
 	 */
 	public boolean deleteChoice(Integer fragmentId, int index) {
 
-		ArrayList<Choice> destinations = choiceMapping.get(fragmentId);
+		ArrayList<Choice> destinations = getChoiceList(fragmentId);
 
 		// Makes sure entry exists in HashMap and that the choice doesn't
 		// index outside of length of destinations list
 		if (destinations != null && index >= 0 && index < destinations.size()) {
-			destinations.remove(index);
+			Choice removed = destinations.remove(index);
 			choiceMapping.put(fragmentId, destinations);
+			removeIncoming(fragmentId, removed);
 			return true;
 		}
 		// If tried to remove a choice that doesn't exist, returns false
@@ -113,13 +151,15 @@ public class ChoiceMap implements Serializable {
 	 */
 	public boolean updateChoice(Integer fragmentId, int index, Choice choice) {
 
-		ArrayList<Choice> destinations = choiceMapping.get(fragmentId);
+		ArrayList<Choice> destinations = getChoiceList(fragmentId);
 
 		// Insures that the choice already exists, deletes old choice from
 		// ChoiceMap
 		if (destinations != null && index >= 0 && index < destinations.size()) {
-			destinations.set(index, choice);
+			Choice replaced = destinations.set(index, choice);
 			choiceMapping.put(fragmentId, destinations);
+			removeIncoming(fragmentId, replaced);
+			addIncoming(fragmentId, choice);
 			return true;
 		} else {
 			return false;
@@ -129,47 +169,375 @@ public class ChoiceMap implements Serializable {
 	/**
 	 * Want this to be called when a fragment is deleted. If it doesn't exist,
 	 * then there's nothing to remove. Also removes all choices currently linked
-	 * to it.
+	 * to it. Only the fragments that link to it are visited, so the cost
+	 * depends on the fragment's incoming choices rather than the story size.
 	 * 
 	 * @param fragmentId
 	 *            ID of fragment to remove from all choices
 	 */
 	public void cleanFragmentReferences(Integer fragmentId) {
 
+		if (fragmentId == null) {
+			return;
+		}
+
+		IntHashMap<IntArrayList> incoming = getIncomingMapping();
+
 		// Removes all choices the fragment is linked to
-		if (choiceMapping.containsKey(fragmentId)) {
-			choiceMapping.remove(fragmentId);
-		}
-
-		// Checks for all instances where the fragment was a
-		// destination and removes them.
-		for (Integer id : choiceMapping.keySet()) {
-			ArrayList<Choice> choiceList = choiceMapping.get(id);
-			int choiceIndex;
-
-			// Make sure we don't remove entry while iterating
-			// through it.
-			// If multiple choices leading to same fragment, want
-			// to remove all of them.
-			do {
-				choiceIndex = -1;
-				for (Choice choice : choiceList) {
-					if (choice.getDestinationId() == fragmentId) {
-						choiceIndex = choiceList.indexOf(choice);
-						break;
-					}
+		ArrayList<Choice> outgoing = choiceMapping.remove(fragmentId);
+		if (outgoing != null && owned != null) {
+			owned.remove(outgoing);
+		}
+		if (outgoing != null) {
+			for (Choice choice : outgoing) {
+				removeIncoming(fragmentId, choice);
+			}
+		}
+
+		// Removes every choice that used the fragment as a destination, from
+		// each fragment recorded as linking to it.
+		IntArrayList sources = incoming.remove(fragmentId);
+		if (sources == null) {
+			return;
+		}
+		for (int i = 0; i < sources.size(); i++) {
+			ArrayList<Choice> choiceList = getChoiceList(sources.get(i));
+			if (choiceList == null) {
+				// Source listed once per choice, already cleaned
+				continue;
+			}
+			// Compact in place rather than removing one at a time, since
+			// multiple choices may lead to the same fragment
+			int kept = 0;
+			for (int j = 0; j < choiceList.size(); j++) {
+				Choice choice = choiceList.get(j);
+				if (!fragmentId.equals(choice.getDestinationId())) {
+					choiceList.set(kept++, choice);
+				}
+			}
+			if (kept == choiceList.size()) {
+				continue;
+			}
+			while (choiceList.size() > kept) {
+				choiceList.remove(choiceList.size() - 1);
+			}
+		}
+
+		return;
+	}
+
+	/**
+	 * Returns the IDs of all fragments that have at least one choice leading
+	 * to the given fragment, in the order they were first linked.
+	 * 
+	 * @param fragmentId
+	 *            ID of the destination fragment
+	 * @return ArrayList of the IDs of fragments linking to the fragment
+	 */
+	public ArrayList<Integer> getLinkingFragments(Integer fragmentId) {
+
+		ArrayList<Integer> linking = new ArrayList<Integer>();
+		if (fragmentId == null) {
+			return linking;
+		}
+
+		IntArrayList sources = getIncomingMapping().get(fragmentId);
+		if (sources != null) {
+			for (int i = 0; i < sources.size(); i++) {
+				Integer sourceId = sources.get(i);
+				if (!linking.contains(sourceId)) {
+					linking.add(sourceId);
 				}
+			}
+		}
+		return linking;
+	}
+
+	/**
+	 * Records a choice in the reverse index under its destination.
+	 * 
+	 * @param fragmentId
+	 *            ID of fragment where choice is located
+	 * @param choice
+	 *            Choice that was added
+	 */
+	private void addIncoming(int fragmentId, Choice choice) {
+		if (incomingMapping == null || choice.getDestinationId() == null) {
+			// Index not built yet, it will pick the choice up when it is
+			return;
+		}
+		int destinationId = choice.getDestinationId();
+		IntArrayList sources = incomingMapping.get(destinationId);
+		if (sources == null) {
+			sources = new IntArrayList();
+			incomingMapping.put(destinationId, sources);
+		}
+		sources.add(fragmentId);
+	}
 
-				// If choice found, it is removed
-				if (choiceIndex != -1) {
-					choiceList.remove(choiceIndex);
+	/**
+	 * Drops one record of a choice from the reverse index.
+	 * 
+	 * @param fragmentId
+	 *            ID of fragment where choice was located
+	 * @param choice
+	 *            Choice that was removed
+	 */
+	private void removeIncoming(int fragmentId, Choice choice) {
+		if (incomingMapping == null || choice.getDestinationId() == null) {
+			return;
+		}
+		int destinationId = choice.getDestinationId();
+		IntArrayList sources = incomingMapping.get(destinationId);
+		if (sources != null) {
+			sources.removeValue(fragmentId);
+			if (sources.isEmpty()) {
+				incomingMapping.remove(destinationId);
+			}
+		}
+	}
+
+	/**
+	 * Returns the reverse index, building it from the choices if this map was
+	 * just created or read from a file.
+	 * 
+	 * @return map of destination IDs to the IDs of linking fragments
+	 */
+	private IntHashMap<IntArrayList> getIncomingMapping() {
+		if (incomingMapping == null) {
+			unpackAll();
+			incomingMapping = new IntHashMap<IntArrayList>();
+			for (int sourceId : choiceMapping.keys()) {
+				for (Choice choice : choiceMapping.get(sourceId)) {
+					addIncoming(sourceId, choice);
 				}
-			} while (choiceIndex != -1);
+			}
+		}
+		return incomingMapping;
+	}
 
-			choiceMapping.put(id, choiceList);
+	/**
+	 * Returns the live choice list stored for a fragment, which may be
+	 * changed. A list shared with a snapshot is replaced by a copy first.
+	 * 
+	 * @param fragmentId
+	 *            ID of fragment to fetch the choices for
+	 * @return the stored ArrayList, null if the fragment has none
+	 */
+	private ArrayList<Choice> getChoiceList(Integer fragmentId) {
+		if (fragmentId == null) {
+			return null;
 		}
+		unpack(fragmentId);
+		ArrayList<Choice> choiceList = choiceMapping.get(fragmentId);
+		if (choiceList != null && owned != null && !owned.contains(choiceList)) {
+			choiceList = new ArrayList<Choice>(choiceList);
+			choiceMapping.put(fragmentId, choiceList);
+			owned.add(choiceList);
+		}
+		return choiceList;
+	}
 
-		return;
+	/**
+	 * Returns the IDs of all fragments holding choices, in no particular
+	 * order.
+	 * 
+	 * @return an array of fragment IDs
+	 */
+	int[] getIds() {
+		if (pack == null) {
+			return choiceMapping.keys();
+		}
+		// Every ID in choiceMapping that the pack also has is in unpacked
+		IntArrayList ids = new IntArrayList();
+		for (int id : choiceMapping.keys()) {
+			ids.add(id);
+		}
+		for (int id : pack.getChoiceIds()) {
+			if (!unpacked.containsKey(id)) {
+				ids.add(id);
+			}
+		}
+		return ids.toArray();
+	}
+
+	/**
+	 * Estimates the memory taken by the choice lists read in so far, in
+	 * bytes. Lists still in the pack are not counted here; Story.estimateSize
+	 * counts the pack itself.
+	 * 
+	 * @return the estimated size
+	 */
+	long estimateSize() {
+		long size = 0;
+		for (ArrayList<Choice> choiceList : choiceMapping.values()) {
+			size += LIST_BYTES;
+			for (Choice choice : choiceList) {
+				size += CHOICE_BYTES
+						+ Story.estimateSize(choice.getFlavourText());
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the choices of a fragment without copying them, for reading
+	 * only.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment
+	 * @return the stored ArrayList, null if the fragment has none
+	 */
+	ArrayList<Choice> peekChoices(int fragmentId) {
+		unpack(fragmentId);
+		return choiceMapping.get(fragmentId);
+	}
+
+	/**
+	 * Puts the choices of a fragment read back from storage into the map.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment
+	 * @param choiceList
+	 *            the choices read back
+	 */
+	void restoreChoices(int fragmentId, ArrayList<Choice> choiceList) {
+		if (unpacked != null) {
+			unpacked.put(fragmentId, Boolean.TRUE);
+		}
+		ArrayList<Choice> replaced = choiceMapping.put(fragmentId, choiceList);
+		if (replaced != null) {
+			for (Choice choice : replaced) {
+				removeIncoming(fragmentId, choice);
+			}
+		}
+		for (Choice choice : choiceList) {
+			addIncoming(fragmentId, choice);
+		}
+	}
+
+	/**
+	 * Reads choice lists from a pack from now on, as they are first used.
+	 * Called on a map just read back from storage, before any other records.
+	 * 
+	 * @param pack
+	 *            the pack holding the map's choice lists
+	 */
+	void attachPack(StoryPack pack) {
+		this.pack = pack;
+		this.unpacked = new IntHashMap<Boolean>();
+	}
+
+	/**
+	 * Returns the pack choice lists are read from.
+	 * 
+	 * @return the StoryPack, null if the map has none
+	 */
+	StoryPack getPack() {
+		return pack;
+	}
+
+	/**
+	 * Returns whether the choices of a fragment are still only in the pack,
+	 * not yet read in or changed.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment
+	 * @return true if the packed record holds the current choices
+	 */
+	boolean isPacked(int fragmentId) {
+		return pack != null && !unpacked.containsKey(fragmentId)
+				&& pack.hasChoices(fragmentId);
+	}
+
+	/**
+	 * Stops using the packed choices of a fragment whose choices were all
+	 * removed after the pack was written.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment
+	 */
+	void restoreRemoved(int fragmentId) {
+		if (unpacked != null) {
+			unpacked.put(fragmentId, Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * Reads the choices of a fragment still in the pack into choiceMapping.
+	 * A record that can't be read leaves the fragment without choices.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment
+	 */
+	private void unpack(int fragmentId) {
+		if (!isPacked(fragmentId)) {
+			return;
+		}
+		unpacked.put(fragmentId, Boolean.TRUE);
+		try {
+			ArrayList<Choice> choiceList = pack.readChoices(fragmentId);
+			choiceMapping.put(fragmentId, choiceList);
+			for (Choice choice : choiceList) {
+				addIncoming(fragmentId, choice);
+			}
+			// Read for this map alone, so never shared with a snapshot
+			if (owned != null) {
+				owned.add(choiceList);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reads every choice list still in the pack, after which the pack is no
+	 * longer needed.
+	 */
+	void unpackAll() {
+		if (pack == null) {
+			return;
+		}
+		for (int fragmentId : pack.getChoiceIds()) {
+			unpack(fragmentId);
+		}
+		pack = null;
+		unpacked = null;
+	}
+
+	/**
+	 * Returns a read-only snapshot of the ChoiceMap. The snapshot shares its
+	 * choice lists with this map; from then on, this map copies a shared list
+	 * before changing it or handing it out, so later edits never reach the
+	 * snapshot. The snapshot must not be edited itself.
+	 * 
+	 * @return a ChoiceMap frozen at the current state
+	 */
+	public ChoiceMap snapshot() {
+		ChoiceMap snapshot = new ChoiceMap();
+		snapshot.choiceMapping = choiceMapping.copy();
+		snapshot.pack = pack;
+		if (unpacked != null) {
+			snapshot.unpacked = unpacked.copy();
+		}
+		// Every list held now is shared
+		owned = Collections
+				.newSetFromMap(new IdentityHashMap<ArrayList<Choice>, Boolean>());
+		return snapshot;
+	}
+
+	/**
+	 * Returns a copy of the ChoiceMap that can be edited on its own. Like a
+	 * snapshot it shares its choice lists with this map, but both maps copy
+	 * a shared list before changing it or handing it out.
+	 * 
+	 * @return a ChoiceMap holding the same choices
+	 */
+	public ChoiceMap fork() {
+		ChoiceMap fork = snapshot();
+		fork.owned = Collections
+				.newSetFromMap(new IdentityHashMap<ArrayList<Choice>, Boolean>());
+		return fork;
 	}
 
 	/**
@@ -183,7 +551,7 @@ public class ChoiceMap implements Serializable {
 	 */
 	public ArrayList<Choice> getChoices(Integer fragmentId) {
 
-		ArrayList<Choice> destinations = choiceMapping.get(fragmentId);
+		ArrayList<Choice> destinations = getChoiceList(fragmentId);
 
 		if (destinations == null) {
 			return new ArrayList<Choice>();
@@ -200,7 +568,8 @@ public class ChoiceMap implements Serializable {
 	 * @throws IOException
 	 */
 	private void writeObject(java.io.ObjectOutputStream out) throws IOException {
-		out.writeObject(choiceMapping);
+		unpackAll();
+		out.writeObject(choiceMapping.toHashMap());
 	}
 
 	/**
@@ -213,7 +582,8 @@ public class ChoiceMap implements Serializable {
 	 */
 	private void readObject(java.io.ObjectInputStream in) throws IOException,
 			ClassNotFoundException {
-		choiceMapping = (HashMap<Integer, ArrayList<Choice>>) in.readObject();
+		choiceMapping = IntHashMap
+				.fromHashMap((HashMap<Integer, ArrayList<Choice>>) in.readObject());
 	}
 
 	private void readObjectNoData() throws ObjectStreamException {
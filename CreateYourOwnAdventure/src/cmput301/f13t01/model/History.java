@@ -39,12 +39,49 @@ import java.util.ArrayList;
 
 public class History implements Serializable {
 
+	// Same ID the class had before copy() was added, declared so existing
+	// reading progress still loads
+	private static final long serialVersionUID = -6342908259352414444L;
+
 	private ArrayList<Integer> historyStack;
 
 	public History() {
 		historyStack = new ArrayList<Integer>();
 	}
 
+	/**
+	 * Returns a copy of the history, which can change independently of this
+	 * one.
+	 * 
+	 * @return a new History with the same stack
+	 */
+	public History copy() {
+		History copy = new History();
+		copy.historyStack.addAll(this.historyStack);
+		return copy;
+	}
+
+	/**
+	 * Returns the number of fragments on the stack.
+	 * 
+	 * @return the size of the stack
+	 */
+	public int size() {
+		return historyStack.size();
+	}
+
+	/**
+	 * Returns the fragment at a position in the stack, counting from the
+	 * first viewed.
+	 * 
+	 * @param index
+	 *            position in the stack
+	 * @return ID of the fragment viewed there
+	 */
+	public int get(int index) {
+		return historyStack.get(index);
+	}
+
 	/**
 	 * Returns the most recently-viewed fragment, or null if the stack is empty.
 	 * 
@@ -0,0 +1,190 @@
+/*
+IntArrayList Class for CreateYourOwnAdventure App.
+A growable list of primitive ints.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cmput301.f13t01.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * IntArrayList, a growable list backed by an int array. Stands in for
+ * ArrayList<Integer> where lists of fragment IDs are kept, avoiding an Integer
+ * object per element.
+ */
+
+public class IntArrayList {
+
+	/* Instance Variables for an IntArrayList */
+	private int[] elements;
+	private int size;
+
+	/**
+	 * Constructor. Creates an empty list.
+	 */
+	public IntArrayList() {
+		this.elements = new int[4];
+		this.size = 0;
+	}
+
+	/**
+	 * Returns a copy of the list.
+	 * 
+	 * @return a new IntArrayList with the same elements
+	 */
+	public IntArrayList copy() {
+		IntArrayList copy = new IntArrayList();
+		copy.elements = Arrays.copyOf(this.elements, Math.max(4, this.size));
+		copy.size = this.size;
+		return copy;
+	}
+
+	/**
+	 * Returns the number of elements in the list.
+	 * 
+	 * @return the number of elements
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns whether the list has no elements.
+	 * 
+	 * @return true if empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Returns the element at an index.
+	 * 
+	 * @param index
+	 *            index of the element
+	 * @return the element at that index
+	 */
+	public int get(int index) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ this.size);
+		}
+		return this.elements[index];
+	}
+
+	/**
+	 * Adds an element to the end of the list.
+	 * 
+	 * @param value
+	 *            the element to add
+	 */
+	public void add(int value) {
+		if (this.size == this.elements.length) {
+			this.elements = Arrays.copyOf(this.elements, this.size * 2);
+		}
+		this.elements[this.size++] = value;
+	}
+
+	/**
+	 * Removes and returns the last element of the list.
+	 * 
+	 * @return the removed element
+	 */
+	public int removeLast() {
+		if (this.size == 0) {
+			throw new IndexOutOfBoundsException("List is empty");
+		}
+		return this.elements[--this.size];
+	}
+
+	/**
+	 * Removes the first occurrence of a value from the list.
+	 * 
+	 * @param value
+	 *            the value to remove
+	 * @return true if the value was found, false otherwise
+	 */
+	public boolean removeValue(int value) {
+		int index = indexOf(value);
+		if (index < 0) {
+			return false;
+		}
+		System.arraycopy(this.elements, index + 1, this.elements, index,
+				this.size - index - 1);
+		this.size--;
+		return true;
+	}
+
+	/**
+	 * Returns the index of the first occurrence of a value.
+	 * 
+	 * @param value
+	 *            the value to look for
+	 * @return the index, -1 if the value is not in the list
+	 */
+	public int indexOf(int value) {
+		for (int i = 0; i < this.size; i++) {
+			if (this.elements[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns whether a value is in the list.
+	 * 
+	 * @param value
+	 *            the value to look for
+	 * @return true if found, false otherwise
+	 */
+	public boolean contains(int value) {
+		return indexOf(value) >= 0;
+	}
+
+	/**
+	 * Removes every element from the list.
+	 */
+	public void clear() {
+		this.size = 0;
+	}
+
+	/**
+	 * Copies the elements into a new array.
+	 * 
+	 * @return a new array of the elements
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(this.elements, this.size);
+	}
+
+	/**
+	 * Copies the elements into an ArrayList of Integers.
+	 * 
+	 * @return a new ArrayList of the elements
+	 */
+	public ArrayList<Integer> toArrayList() {
+		ArrayList<Integer> result = new ArrayList<Integer>(this.size);
+		for (int i = 0; i < this.size; i++) {
+			result.add(this.elements[i]);
+		}
+		return result;
+	}
+
+}
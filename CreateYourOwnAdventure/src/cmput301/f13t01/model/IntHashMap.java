@@ -0,0 +1,330 @@
+/*
+IntHashMap Class for CreateYourOwnAdventure App.
+Maps primitive int keys to objects without boxing.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cmput301.f13t01.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * IntHashMap, an open-addressing hash map keyed on primitive ints. Keys and
+ * values sit in two parallel arrays and collisions are resolved by linear
+ * probing, so no entry or Integer objects are allocated per mapping. Used for
+ * the story graph, where fragment IDs are the keys. Null values are not
+ * supported, since a null slot marks an empty one.
+ * 
+ * @param <V>
+ *            the type of the values
+ */
+
+public class IntHashMap<V> {
+
+	private static final int MIN_CAPACITY = 8;
+
+	/* Instance Variables for an IntHashMap */
+	private int[] keys;
+	private Object[] values;
+	private int size;
+
+	/**
+	 * Constructor. Creates an empty map.
+	 */
+	public IntHashMap() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * Constructor. Creates an empty map sized to hold the given number of
+	 * entries without growing.
+	 * 
+	 * @param expectedSize
+	 *            the number of entries expected
+	 */
+	public IntHashMap(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		// Keeps the load factor at or below one half
+		while (capacity < expectedSize * 2) {
+			capacity <<= 1;
+		}
+		this.keys = new int[capacity];
+		this.values = new Object[capacity];
+		this.size = 0;
+	}
+
+	/**
+	 * Returns a copy of the map. The arrays are copied, the values themselves
+	 * are shared.
+	 * 
+	 * @return a new IntHashMap with the same entries
+	 */
+	public IntHashMap<V> copy() {
+		IntHashMap<V> copy = new IntHashMap<V>();
+		copy.keys = this.keys.clone();
+		copy.values = this.values.clone();
+		copy.size = this.size;
+		return copy;
+	}
+
+	/**
+	 * Returns the number of entries in the map.
+	 * 
+	 * @return the number of entries
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns whether the map has no entries.
+	 * 
+	 * @return true if empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Returns the value stored under a key.
+	 * 
+	 * @param key
+	 *            the key to look up
+	 * @return the value, null if the key is not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int slot = findSlot(key);
+		return slot < 0 ? null : (V) this.values[slot];
+	}
+
+	/**
+	 * Returns whether a key is in the map.
+	 * 
+	 * @param key
+	 *            the key to look for
+	 * @return true if the key is in the map, false otherwise
+	 */
+	public boolean containsKey(int key) {
+		return findSlot(key) >= 0;
+	}
+
+	/**
+	 * Stores a value under a key, replacing any previous value.
+	 * 
+	 * @param key
+	 *            the key to store under
+	 * @param value
+	 *            the value to store, must not be null
+	 * @return the previous value, null if the key was not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException(
+					"IntHashMap values must not be null");
+		}
+		int mask = this.keys.length - 1;
+		int slot = mix(key) & mask;
+		while (this.values[slot] != null) {
+			if (this.keys[slot] == key) {
+				V previous = (V) this.values[slot];
+				this.values[slot] = value;
+				return previous;
+			}
+			slot = (slot + 1) & mask;
+		}
+		this.keys[slot] = key;
+		this.values[slot] = value;
+		this.size++;
+		if (this.size * 2 > this.keys.length) {
+			resize(this.keys.length << 1);
+		}
+		return null;
+	}
+
+	/**
+	 * Removes a key and its value from the map.
+	 * 
+	 * @param key
+	 *            the key to remove
+	 * @return the removed value, null if the key was not in the map
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int slot = findSlot(key);
+		if (slot < 0) {
+			return null;
+		}
+		V previous = (V) this.values[slot];
+		this.values[slot] = null;
+		this.size--;
+
+		// Shifts later entries of the probe run back into the gap, so lookups
+		// never stop early and no tombstones are needed
+		int mask = this.keys.length - 1;
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		while (this.values[next] != null) {
+			int home = mix(this.keys[next]) & mask;
+			// Moves the entry only if its home slot is not between the gap
+			// and its current position
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				this.keys[gap] = this.keys[next];
+				this.values[gap] = this.values[next];
+				this.values[next] = null;
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		return previous;
+	}
+
+	/**
+	 * Removes every entry from the map.
+	 */
+	public void clear() {
+		Arrays.fill(this.values, null);
+		this.size = 0;
+	}
+
+	/**
+	 * Returns all keys in the map, in no particular order.
+	 * 
+	 * @return a new array of the keys
+	 */
+	public int[] keys() {
+		int[] result = new int[this.size];
+		int count = 0;
+		for (int slot = 0; slot < this.values.length; slot++) {
+			if (this.values[slot] != null) {
+				result[count++] = this.keys[slot];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns all values in the map, in the same order as keys().
+	 * 
+	 * @return a new ArrayList of the values
+	 */
+	@SuppressWarnings("unchecked")
+	public ArrayList<V> values() {
+		ArrayList<V> result = new ArrayList<V>(this.size);
+		for (int slot = 0; slot < this.values.length; slot++) {
+			if (this.values[slot] != null) {
+				result.add((V) this.values[slot]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Copies the map into a HashMap with boxed keys. Used where the boxed
+	 * form is needed, such as for saving in the original file format.
+	 * 
+	 * @return a new HashMap with the same entries
+	 */
+	@SuppressWarnings("unchecked")
+	public HashMap<Integer, V> toHashMap() {
+		HashMap<Integer, V> result = new HashMap<Integer, V>(this.size * 2);
+		for (int slot = 0; slot < this.values.length; slot++) {
+			if (this.values[slot] != null) {
+				result.put(this.keys[slot], (V) this.values[slot]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Builds an IntHashMap holding the entries of a HashMap with boxed keys.
+	 * Entries with a null key or value are skipped.
+	 * 
+	 * @param map
+	 *            the HashMap to copy
+	 * @return a new IntHashMap with the same entries
+	 */
+	public static <V> IntHashMap<V> fromHashMap(Map<Integer, V> map) {
+		IntHashMap<V> result = new IntHashMap<V>(map.size());
+		for (Map.Entry<Integer, V> entry : map.entrySet()) {
+			if (entry.getKey() != null && entry.getValue() != null) {
+				result.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the slot holding a key.
+	 * 
+	 * @param key
+	 *            the key to look for
+	 * @return the slot index, -1 if the key is not in the map
+	 */
+	private int findSlot(int key) {
+		int mask = this.keys.length - 1;
+		int slot = mix(key) & mask;
+		while (this.values[slot] != null) {
+			if (this.keys[slot] == key) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Rehashes every entry into new arrays of the given capacity.
+	 * 
+	 * @param capacity
+	 *            the new capacity, a power of two
+	 */
+	private void resize(int capacity) {
+		int[] oldKeys = this.keys;
+		Object[] oldValues = this.values;
+		this.keys = new int[capacity];
+		this.values = new Object[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = mix(oldKeys[i]) & mask;
+				while (this.values[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				this.keys[slot] = oldKeys[i];
+				this.values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 * Spreads sequential IDs across the table so probe runs stay short.
+	 * 
+	 * @param key
+	 *            the key to hash
+	 * @return the mixed hash
+	 */
+	private static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
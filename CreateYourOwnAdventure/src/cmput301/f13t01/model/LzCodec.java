@@ -0,0 +1,207 @@
+/*
+LzCodec Class for CreateYourOwnAdventure App.
+A small, fast LZ77 compressor for blocks of story records.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cmput301.f13t01.model;
+
+import java.io.IOException;
+
+/**
+ * LzCodec compresses a block of bytes by replacing repeated runs with
+ * references back to an earlier copy, in the manner of LZ4. It saves less
+ * than deflate but, having no entropy coding, it is cheap both ways and
+ * decompressing is little more than copying.
+ * 
+ * A compressed block is a series of sequences, each a varint count of
+ * literal bytes, the literals, then a varint match length less MIN_MATCH
+ * and a varint offset back to where the match starts. The last sequence
+ * has only literals, ending where the block does. Matches are found
+ * greedily through a hash table of the last position each four bytes were
+ * seen at.
+ */
+
+public final class LzCodec {
+
+	// Shortest match worth a reference
+	private static final int MIN_MATCH = 4;
+	// Farthest back a match may start
+	private static final int MAX_OFFSET = 0xFFFF;
+	private static final int HASH_BITS = 12;
+
+	private LzCodec() {
+	}
+
+	/**
+	 * Returns the most bytes compressing a block of a given length can take.
+	 * 
+	 * @param length
+	 *            the length of the block
+	 * @return the size of buffer to pass to compress
+	 */
+	public static int maxCompressedLength(int length) {
+		// At worst a four byte match takes five: a literal count of 0, the
+		// match length and a three byte offset
+		return length + (length >> 2) + 16;
+	}
+
+	/**
+	 * Compresses a block.
+	 * 
+	 * @param source
+	 *            the bytes to compress
+	 * @param length
+	 *            the number of bytes to compress, from the start of source
+	 * @param target
+	 *            where to write the compressed block, at least
+	 *            maxCompressedLength(length) long
+	 * @return the length of the compressed block
+	 */
+	public static int compress(byte[] source, int length, byte[] target) {
+		int[] table = new int[1 << HASH_BITS];
+		int out = 0;
+		int literals = 0;
+		int position = 0;
+		int limit = length - MIN_MATCH;
+		while (position <= limit) {
+			int hash = hash(source, position);
+			// Positions are stored plus one, so 0 means none
+			int candidate = table[hash] - 1;
+			table[hash] = position + 1;
+			if (candidate < 0 || position - candidate > MAX_OFFSET
+					|| !matches(source, candidate, position)) {
+				position++;
+				continue;
+			}
+			int matched = MIN_MATCH;
+			while (position + matched < length
+					&& source[candidate + matched] == source[position
+							+ matched]) {
+				matched++;
+			}
+			out = writeVarInt(target, out, position - literals);
+			System.arraycopy(source, literals, target, out, position
+					- literals);
+			out += position - literals;
+			out = writeVarInt(target, out, matched - MIN_MATCH);
+			out = writeVarInt(target, out, position - candidate);
+			position += matched;
+			literals = position;
+		}
+		out = writeVarInt(target, out, length - literals);
+		System.arraycopy(source, literals, target, out, length - literals);
+		return out + length - literals;
+	}
+
+	/**
+	 * Decompresses a block.
+	 * 
+	 * @param source
+	 *            the compressed block
+	 * @param length
+	 *            the length of the compressed block, from the start of
+	 *            source
+	 * @param target
+	 *            where to write the bytes
+	 * @param targetLength
+	 *            the number of bytes the block holds
+	 * @throws IOException
+	 *             if the block is damaged
+	 */
+	public static void decompress(byte[] source, int length, byte[] target,
+			int targetLength) throws IOException {
+		int[] in = { 0 };
+		int out = 0;
+		try {
+			while (true) {
+				int literals = readVarInt(source, length, in);
+				if (literals < 0 || literals > length - in[0]
+						|| literals > targetLength - out) {
+					throw new IOException("LZ block damaged");
+				}
+				System.arraycopy(source, in[0], target, out, literals);
+				in[0] += literals;
+				out += literals;
+				if (out == targetLength) {
+					return;
+				}
+				int matched = readVarInt(source, length, in) + MIN_MATCH;
+				int offset = readVarInt(source, length, in);
+				if (offset <= 0 || offset > out || matched < MIN_MATCH
+						|| matched > targetLength - out) {
+					throw new IOException("LZ block damaged");
+				}
+				if (offset >= matched) {
+					System.arraycopy(target, out - offset, target, out,
+							matched);
+					out += matched;
+				} else {
+					// Byte at a time, as the match overlaps what it copies
+					int from = out - offset;
+					int end = out + matched;
+					while (out < end) {
+						target[out++] = target[from++];
+					}
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("LZ block damaged");
+		}
+	}
+
+	private static int hash(byte[] bytes, int at) {
+		int value = (bytes[at] & 0xFF) | (bytes[at + 1] & 0xFF) << 8
+				| (bytes[at + 2] & 0xFF) << 16 | (bytes[at + 3] & 0xFF) << 24;
+		return (value * -1640531535) >>> (32 - HASH_BITS);
+	}
+
+	private static boolean matches(byte[] bytes, int first, int second) {
+		for (int i = 0; i < MIN_MATCH; i++) {
+			if (bytes[first + i] != bytes[second + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int writeVarInt(byte[] target, int at, int value) {
+		while ((value & ~0x7F) != 0) {
+			target[at++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		target[at++] = (byte) value;
+		return at;
+	}
+
+	private static int readVarInt(byte[] source, int length, int[] at)
+			throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (at[0] >= length) {
+				throw new IOException("LZ block cut short");
+			}
+			int b = source[at[0]++];
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("LZ block damaged");
+	}
+
+}
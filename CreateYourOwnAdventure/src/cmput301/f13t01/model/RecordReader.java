@@ -0,0 +1,201 @@
+/*
+RecordReader Class for CreateYourOwnAdventure App.
+Reads the compact binary records stories and the library are saved in.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cmput301.f13t01.model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * RecordReader reads one record written by a RecordWriter; see RecordWriter
+ * for the format. Values must be read back in the order they were written.
+ */
+
+public class RecordReader {
+
+	/* Instance Variables for a RecordReader */
+	private final InputStream in;
+	private final int version;
+	private final ArrayList<String> strings;
+
+	/**
+	 * Constructor. Reads and checks the start of a record.
+	 * 
+	 * @param in
+	 *            the stream to read from, best buffered
+	 * @param kind
+	 *            the kind of record expected, one of the StoryCodec kinds
+	 * @throws IOException
+	 *             if the stream does not hold a record of that kind, or one
+	 *             written by a newer version of the format
+	 */
+	public RecordReader(InputStream in, int kind) throws IOException {
+		this.in = in;
+		this.strings = new ArrayList<String>();
+		if (readByte() != StoryCodec.MAGIC_0
+				|| readByte() != StoryCodec.MAGIC_1) {
+			throw new IOException("Not a story record");
+		}
+		this.version = readByte();
+		if (this.version < 1 || this.version > StoryCodec.FORMAT_VERSION) {
+			throw new IOException("Unknown record format version "
+					+ this.version);
+		}
+		int found = readByte();
+		if (found != kind) {
+			throw new IOException("Expected record kind " + kind + ", found "
+					+ found);
+		}
+	}
+
+	/**
+	 * Returns the format version the record was written in, for reading
+	 * records written by older versions.
+	 * 
+	 * @return the format version
+	 */
+	public int getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * Reads a single byte.
+	 * 
+	 * @return the byte, from 0 to 255
+	 * @throws IOException
+	 */
+	public int readByte() throws IOException {
+		int value = this.in.read();
+		if (value < 0) {
+			throw new EOFException();
+		}
+		return value;
+	}
+
+	/**
+	 * Reads a varint written by writeVarInt.
+	 * 
+	 * @return the value
+	 * @throws IOException
+	 */
+	public int readVarInt() throws IOException {
+		long value = readVarLong();
+		if (value > Integer.MAX_VALUE) {
+			throw new IOException("Varint out of range");
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Reads an Integer written by writeInteger.
+	 * 
+	 * @return the value, or null
+	 * @throws IOException
+	 */
+	public Integer readInteger() throws IOException {
+		long value = readVarLong();
+		if (value == 0) {
+			return null;
+		}
+		int zigzag = (int) (value - 1);
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+
+	/**
+	 * Reads a long written by writeLong.
+	 * 
+	 * @return the value
+	 * @throws IOException
+	 */
+	public long readLong() throws IOException {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | readByte();
+		}
+		return value;
+	}
+
+	/**
+	 * Reads a String written by writeString.
+	 * 
+	 * @return the String, or null
+	 * @throws IOException
+	 */
+	public String readString() throws IOException {
+		long value = readVarLong();
+		if (value == 0) {
+			return null;
+		}
+		if ((value & 1) == 0) {
+			long index = value / 2 - 1;
+			if (index >= this.strings.size()) {
+				throw new IOException("Bad string reference");
+			}
+			return this.strings.get((int) index);
+		}
+		long length = value / 2;
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("String too long");
+		}
+		byte[] bytes = new byte[(int) length];
+		readFully(bytes);
+		String string = new String(bytes, "UTF-8");
+		this.strings.add(string);
+		return string;
+	}
+
+	/**
+	 * Reads an array of bytes written by writeBytes.
+	 * 
+	 * @return the bytes
+	 * @throws IOException
+	 */
+	public byte[] readBytes() throws IOException {
+		byte[] bytes = new byte[readVarInt()];
+		readFully(bytes);
+		return bytes;
+	}
+
+	private void readFully(byte[] bytes) throws IOException {
+		int read = 0;
+		while (read < bytes.length) {
+			int count = this.in.read(bytes, read, bytes.length - read);
+			if (count < 0) {
+				throw new EOFException();
+			}
+			read += count;
+		}
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Varint too long");
+	}
+
+}
@@ -0,0 +1,163 @@
+/*
+RecordWriter Class for CreateYourOwnAdventure App.
+Writes the compact binary records stories and the library are saved in.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cmput301.f13t01.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+/**
+ * RecordWriter writes one record in the binary format read by RecordReader.
+ * A record starts with two magic bytes, the format version and the kind of
+ * record. After that come values with no tags or names: integers as varints,
+ * seven bits to a byte with the high bit set on all but the last byte, and
+ * strings through a string table, so a string repeated within a record is
+ * written once and then referred to by its position.
+ * 
+ * A string is written as a varint v followed by any bytes: 0 for null, an
+ * odd v for a new string of v / 2 UTF-8 bytes, and an even v for the string
+ * at position v / 2 - 1 of the table.
+ */
+
+public class RecordWriter {
+
+	/* Instance Variables for a RecordWriter */
+	private final OutputStream out;
+	private final HashMap<String, Integer> strings;
+
+	/**
+	 * Constructor. Writes the start of a record.
+	 * 
+	 * @param out
+	 *            the stream to write to, best buffered
+	 * @param kind
+	 *            the kind of record, one of the StoryCodec kinds
+	 * @throws IOException
+	 */
+	public RecordWriter(OutputStream out, int kind) throws IOException {
+		this.out = out;
+		this.strings = new HashMap<String, Integer>();
+		out.write(StoryCodec.MAGIC_0);
+		out.write(StoryCodec.MAGIC_1);
+		out.write(StoryCodec.FORMAT_VERSION);
+		out.write(kind);
+	}
+
+	/**
+	 * Writes a single byte.
+	 * 
+	 * @param value
+	 *            the byte, from 0 to 255
+	 * @throws IOException
+	 */
+	public void writeByte(int value) throws IOException {
+		this.out.write(value);
+	}
+
+	/**
+	 * Writes a non-negative int as a varint.
+	 * 
+	 * @param value
+	 *            the value, not negative
+	 * @throws IOException
+	 */
+	public void writeVarInt(int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			this.out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.out.write(value);
+	}
+
+	/**
+	 * Writes an Integer that may be null or negative, as a varint of the
+	 * zigzag encoded value plus one, with 0 standing for null.
+	 * 
+	 * @param value
+	 *            the value, or null
+	 * @throws IOException
+	 */
+	public void writeInteger(Integer value) throws IOException {
+		if (value == null) {
+			writeVarInt(0);
+			return;
+		}
+		int zigzag = (value << 1) ^ (value >> 31);
+		writeVarLong((zigzag & 0xFFFFFFFFL) + 1);
+	}
+
+	/**
+	 * Writes a long in eight bytes, high byte first.
+	 * 
+	 * @param value
+	 *            the value
+	 * @throws IOException
+	 */
+	public void writeLong(long value) throws IOException {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			this.out.write((int) (value >>> shift) & 0xFF);
+		}
+	}
+
+	/**
+	 * Writes a String that may be null, through the string table.
+	 * 
+	 * @param value
+	 *            the String, or null
+	 * @throws IOException
+	 */
+	public void writeString(String value) throws IOException {
+		if (value == null) {
+			writeVarInt(0);
+			return;
+		}
+		Integer index = this.strings.get(value);
+		if (index != null) {
+			writeVarLong(2L * (index + 1));
+			return;
+		}
+		this.strings.put(value, this.strings.size());
+		byte[] bytes = value.getBytes("UTF-8");
+		writeVarLong(2L * bytes.length + 1);
+		this.out.write(bytes);
+	}
+
+	/**
+	 * Writes an array of bytes, as its length and then the bytes.
+	 * 
+	 * @param bytes
+	 *            the bytes
+	 * @throws IOException
+	 */
+	public void writeBytes(byte[] bytes) throws IOException {
+		writeVarInt(bytes.length);
+		this.out.write(bytes);
+	}
+
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			this.out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.out.write((int) value);
+	}
+
+}
@@ -23,6 +23,9 @@ import java.io.IOException;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Story object, basic functional unit for a story. Has title, author,
@@ -36,6 +39,13 @@ import java.util.ArrayList;
 
 public class Story implements Serializable {
 
+	// Matches the ID Java derived for the original class, keeping existing
+	// .story files readable as methods are added
+	private static final long serialVersionUID = -752861204477328161L;
+
+	// Rough bytes taken by a Story besides its fragments, choices and text
+	private static final int STORY_BYTES = 256;
+
 	/* Instance Variables for a Story */
 	// Story Attributes
 	private String title;
@@ -46,6 +56,11 @@ public class Story implements Serializable {
 	private History historyStack;
 	private StoryFragmentList fragmentList;
 	private ChoiceMap choiceMap;
+	// Counts changes to the first page, fragments and choices, so readers can
+	// tell when anything built from them is out of date. Not saved.
+	private transient int revision;
+	// Fragments and choice lists changed since the story was last saved
+	private transient StoryChanges changes;
 
 	/**
 	 * Constructor. Creates a new instance of a Story. Created with default
@@ -61,6 +76,106 @@ public class Story implements Serializable {
 		this.choiceMap = new ChoiceMap();
 	}
 
+	/**
+	 * Constructor used for snapshots and loading, taking every attribute as
+	 * given.
+	 */
+	Story(String title, String author, String description,
+			Integer firstPage, History historyStack,
+			StoryFragmentList fragmentList, ChoiceMap choiceMap) {
+		this.title = title;
+		this.author = author;
+		this.description = description;
+		this.firstPage = firstPage;
+		this.historyStack = historyStack;
+		this.fragmentList = fragmentList;
+		this.choiceMap = choiceMap;
+	}
+
+	/**
+	 * Returns a snapshot of the story, for saving or publishing on another
+	 * thread while this story continues to be edited. Fragments and choice
+	 * lists are shared rather than copied, and this story copies each one
+	 * the first time it is edited afterwards, so taking a snapshot costs
+	 * little and the snapshot never changes. It is read-only; it must not be
+	 * edited, and it should be taken on the thread that edits the story.
+	 * 
+	 * @return a Story frozen at the current state
+	 */
+	public Story snapshot() {
+		Story snapshot = new Story(this.title, this.author, this.description,
+				this.firstPage, this.historyStack.copy(),
+				this.fragmentList.snapshot(), this.choiceMap.snapshot());
+		snapshot.revision = this.revision;
+		snapshot.changes = getChanges().branch();
+		return snapshot;
+	}
+
+	/**
+	 * Returns a copy of the story that can be edited and saved on its own,
+	 * for keeping one copy aside while handing out others. Fragments and
+	 * choice lists are shared as they are with a snapshot, and each story
+	 * copies a shared one the first time it is edited, so neither ever sees
+	 * the other's edits. Like a snapshot, it should be taken on the thread
+	 * that edits the story.
+	 * 
+	 * @return a separate Story at the current state
+	 */
+	public Story fork() {
+		Story fork = new Story(this.title, this.author, this.description,
+				this.firstPage, this.historyStack.copy(),
+				this.fragmentList.fork(), this.choiceMap.fork());
+		fork.revision = this.revision;
+		fork.changes = getChanges().fork();
+		return fork;
+	}
+
+	/**
+	 * Estimates the memory the story takes, in bytes, for deciding how many
+	 * stories to keep loaded. The fragments and choices read in so far are
+	 * counted, and so is the whole of any pack the rest are read from: it
+	 * stays mapped as long as the story is kept, and the parts read from it
+	 * take memory like anything else.
+	 * 
+	 * @return the estimated size
+	 */
+	public long estimateSize() {
+		long size = STORY_BYTES + estimateSize(this.title)
+				+ estimateSize(this.author) + estimateSize(this.description)
+				+ this.fragmentList.estimateSize()
+				+ this.choiceMap.estimateSize();
+		StoryPack fragmentPack = this.fragmentList.getPack();
+		StoryPack choicePack = this.choiceMap.getPack();
+		if (fragmentPack != null) {
+			size += fragmentPack.length();
+		}
+		if (choicePack != null && choicePack != fragmentPack) {
+			size += choicePack.length();
+		}
+		return size;
+	}
+
+	/**
+	 * Estimates the memory taken by the text of an object, at two bytes a
+	 * character.
+	 */
+	static long estimateSize(Object text) {
+		return text == null ? 0 : 2L * text.toString().length();
+	}
+
+	/**
+	 * Returns the record of which fragments and choice lists have changed
+	 * since the story was last saved.
+	 * 
+	 * @return the story's StoryChanges
+	 */
+	public StoryChanges getChanges() {
+		if (this.changes == null) {
+			this.changes = new StoryChanges();
+		}
+		return this.changes;
+	}
+
 	/* Functions that deal with Story attributes */
 	/**
 	 * Getter for story title.
@@ -98,6 +213,17 @@ public class Story implements Serializable {
 		return this.firstPage;
 	}
 
+	/**
+	 * Getter for the revision of the story's structure. Changes whenever the
+	 * first page, a fragment or a choice is added, removed or replaced.
+	 * History and title changes do not count.
+	 * 
+	 * @return the current revision
+	 */
+	public int getRevision() {
+		return this.revision;
+	}
+
 	/**
 	 * Setter for the title of the story.
 	 * 
@@ -145,6 +271,7 @@ public class Story implements Serializable {
 		StoryFragment checkFragment = fragmentList.getFragment(id);
 		if (checkFragment != null) {
 			this.firstPage = id;
+			this.revision++;
 			return true;
 		} else {
 			return false;
@@ -153,13 +280,33 @@ public class Story implements Serializable {
 
 	/* Functions that deal with the StoryFragmentList */
 	/**
-	 * Fetches a requested StoryFragment by ID from FragmentList
+	 * Fetches a requested StoryFragment by ID from FragmentList, to be
+	 * changed in place. The fragment is marked as changed, so the next save
+	 * writes it.
 	 * 
 	 * @param id
 	 *            the id of the StoryFragment to return
 	 * @return the requested StoryFragment, null if it doesn't exist
 	 */
 	public StoryFragment getFragment(Integer id) {
+		StoryFragment fragment = this.fragmentList.getFragment(id);
+		if (fragment != null) {
+			// The caller may change it in place
+			getChanges().fragmentChanged(id);
+		}
+		return fragment;
+	}
+
+	/**
+	 * Fetches a requested StoryFragment by ID from FragmentList, only to be
+	 * read. Unlike getFragment, the fragment is not marked as changed, so it
+	 * must not be changed in place.
+	 * 
+	 * @param id
+	 *            the id of the StoryFragment to return
+	 * @return the requested StoryFragment, null if it doesn't exist
+	 */
+	public StoryFragment readFragment(Integer id) {
 		return this.fragmentList.getFragment(id);
 	}
 
@@ -187,15 +334,28 @@ public class Story implements Serializable {
 	}
 
 	/**
-	 * Returns an ArrayList of StoryFragmentInfo objects for all StoryFragment
-	 * objects.
+	 * Returns the StoryFragmentInfo of every StoryFragment, in ascending order
+	 * of ID.
 	 * 
-	 * @return an ArrayList of all StoryFragmentInfo
+	 * @return an unmodifiable List of all StoryFragmentInfo
 	 */
-	public ArrayList<StoryFragmentInfo> getFragmentInfoList() {
+	public List<StoryFragmentInfo> getFragmentInfoList() {
 		return this.fragmentList.getFragmentInfoList();
 	}
 
+	/**
+	 * Returns the IDs of every StoryFragment, in ascending order. Unlike the
+	 * info list, this reads no fragment from the pack the story was loaded
+	 * from.
+	 * 
+	 * @return a new array of the fragment IDs
+	 */
+	public int[] getFragmentIds() {
+		int[] ids = this.fragmentList.getIds();
+		Arrays.sort(ids);
+		return ids;
+	}
+
 	/**
 	 * Places a new fragment into the FragmentList. A new ID is automatically
 	 * generated for each fragment.
@@ -205,23 +365,33 @@ public class Story implements Serializable {
 	 * @return the ID given to the added StoryFragment
 	 */
 	public Integer addFragment(StoryFragment newFragment) {
-		return this.fragmentList.addFragment(newFragment);
+		this.revision++;
+		Integer id = this.fragmentList.addFragment(newFragment);
+		getChanges().fragmentChanged(id);
+		return id;
 	}
 
 	/**
 	 * Removes a requested Fragment from the FragmentList. If the requested
 	 * Fragment is the first page of the story, the first page of the story is
-	 * now a Null. Returns boolean based on success/failure.
+	 * now a Null. Any choices from or to the Fragment are removed with it.
+	 * Returns boolean based on success/failure.
 	 * 
 	 * @param id
 	 *            ID of the Fragment to remove
 	 * @return true if successful, false otherwise
 	 */
 	public boolean removeFragment(Integer id) {
-		if (id == this.firstPage) {
+		// Compared by value, IDs above the Integer cache are distinct objects
+		if (id != null && id.equals(this.firstPage)) {
 			this.firstPage = null;
 		}
-		return this.fragmentList.removeFragment(id);
+		boolean removed = this.fragmentList.removeFragment(id);
+		if (removed) {
+			getChanges().fragmentChanged(id);
+			cleanFragmentReferences(id);
+		}
+		return removed;
 	}
 
 	/**
@@ -235,7 +405,12 @@ public class Story implements Serializable {
 	 * @returns true is successful, false otherwise
 	 */
 	public boolean updateFragment(Integer id, StoryFragment fragment) {
-		return this.fragmentList.updateFragment(id, fragment);
+		this.revision++;
+		boolean updated = this.fragmentList.updateFragment(id, fragment);
+		if (updated) {
+			getChanges().fragmentChanged(id);
+		}
+		return updated;
 	}
 
 	/* Functions that deal with the ChoiceMap */
@@ -249,6 +424,8 @@ public class Story implements Serializable {
 	 */
 	public void addChoice(int fragmentId, Choice choice) {
 		this.choiceMap.addChoice(fragmentId, choice);
+		this.revision++;
+		getChanges().choicesChanged(fragmentId);
 	}
 
 	/**
@@ -262,6 +439,8 @@ public class Story implements Serializable {
 	 * @return Returns true if choice existed, otherwise returns false
 	 */
 	public boolean deleteChoice(int fragmentId, int index) {
+		this.revision++;
+		getChanges().choicesChanged(fragmentId);
 		return this.choiceMap.deleteChoice(fragmentId, index);
 	}
 
@@ -278,6 +457,8 @@ public class Story implements Serializable {
 	 * @return Returns true if choice already existed, false otherwise
 	 */
 	public boolean updateChoice(int fragmentId, int index, Choice choice) {
+		this.revision++;
+		getChanges().choicesChanged(fragmentId);
 		return this.choiceMap.updateChoice(fragmentId, index, choice);
 	}
 
@@ -289,7 +470,13 @@ public class Story implements Serializable {
 	 *            ID of StoryFragment to remove references to
 	 */
 	public void cleanFragmentReferences(int fragmentId) {
+		StoryChanges changes = getChanges();
+		for (Integer sourceId : this.choiceMap.getLinkingFragments(fragmentId)) {
+			changes.choicesChanged(sourceId);
+		}
+		changes.choicesChanged(fragmentId);
 		this.choiceMap.cleanFragmentReferences(fragmentId);
+		this.revision++;
 	}
 
 	/**
@@ -304,6 +491,35 @@ public class Story implements Serializable {
 		return this.choiceMap.getChoices(fragmentId);
 	}
 
+	/**
+	 * Returns the Choices of a StoryFragment only to be read. Unlike
+	 * getChoices, a list shared with a snapshot is not copied first, so the
+	 * list can't be changed.
+	 * 
+	 * @param fragmentId
+	 *            ID of StoryFragment to get the choices for
+	 * @return an unmodifiable List of the Choices, empty if there are none
+	 */
+	public List<Choice> readChoices(int fragmentId) {
+		ArrayList<Choice> choices = this.choiceMap.peekChoices(fragmentId);
+		if (choices == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(choices);
+	}
+
+	/**
+	 * Returns the IDs of all StoryFragments with a Choice leading to the given
+	 * StoryFragment ID.
+	 * 
+	 * @param fragmentId
+	 *            ID of the destination StoryFragment
+	 * @return ArrayList of IDs of the StoryFragments linking to it
+	 */
+	public ArrayList<Integer> getLinkingFragments(int fragmentId) {
+		return this.choiceMap.getLinkingFragments(fragmentId);
+	}
+
 	/* Functions that deal with the History */
 	/**
 	 * Returns the ID of the last-viewed Story Fragment. If History is empty,
@@ -345,6 +561,19 @@ public class Story implements Serializable {
 		this.historyStack.clearHistory();
 	}
 
+	/* Parts of the story, for StoryRecords */
+	History getHistory() {
+		return this.historyStack;
+	}
+
+	StoryFragmentList getFragmentList() {
+		return this.fragmentList;
+	}
+
+	ChoiceMap getChoiceMap() {
+		return this.choiceMap;
+	}
+
 	/* Methods required for Serializable Interface */
 	/**
 	 * Serializable method to write out a Story.
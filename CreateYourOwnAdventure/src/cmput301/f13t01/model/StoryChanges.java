@@ -0,0 +1,205 @@
+/*
+StoryChanges Class for CreateYourOwnAdventure App.
+Remembers which fragments and choice lists of a story have changed since it
+was last saved, so only those need writing again.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cmput301.f13t01.model;
+
+import java.util.Arrays;
+
+/**
+ * StoryChanges tracks the fragments and choice lists of one Story that may
+ * differ from its saved copy. Every Story has one; the Story marks a fragment
+ * whenever it is added, removed, replaced or handed out for editing, and a
+ * choice list whenever a choice is added, changed or removed.
+ * 
+ * The saved copy is identified by a version object chosen by whoever saves
+ * the story. The changes only describe the difference from that version:
+ * before the story is first saved, or once the saved copy has been replaced
+ * by someone else, the whole story has to be written.
+ * 
+ * A snapshot of a story gets its own StoryChanges branched from the story's.
+ * When the snapshot is saved, the story takes on the new version as well and
+ * drops the marks the snapshot wrote out, keeping only those made after the
+ * snapshot was taken.
+ */
+
+public class StoryChanges {
+
+	/* Instance Variables for StoryChanges */
+	// Saved version these changes are relative to, null if there is none
+	private Object version;
+	// Marked IDs, each with the value of the counter when it was last marked
+	private IntHashMap<Integer> fragments;
+	private IntHashMap<Integer> choices;
+	private int counter;
+	// Changes of the story this snapshot was taken from, with its version and
+	// counter at the time
+	private final StoryChanges parent;
+	private final Object parentVersion;
+	private final int parentCounter;
+
+	/**
+	 * Constructor. Creates changes for a story that has never been saved.
+	 */
+	StoryChanges() {
+		this(null, null, 0);
+	}
+
+	private StoryChanges(StoryChanges parent, Object parentVersion,
+			int parentCounter) {
+		this.version = parentVersion;
+		this.fragments = new IntHashMap<Integer>();
+		this.choices = new IntHashMap<Integer>();
+		this.counter = 0;
+		this.parent = parent;
+		this.parentVersion = parentVersion;
+		this.parentCounter = parentCounter;
+	}
+
+	/**
+	 * Returns the changes for a snapshot of the story, holding the same marks
+	 * as these.
+	 * 
+	 * @return a new StoryChanges for the snapshot
+	 */
+	synchronized StoryChanges branch() {
+		StoryChanges branch = new StoryChanges(this, this.version,
+				this.counter);
+		branch.fragments = this.fragments.copy();
+		branch.choices = this.choices.copy();
+		return branch;
+	}
+
+	/**
+	 * Returns the changes for a separate copy of the story, holding the same
+	 * marks as these and relative to the same version, but not tied to them:
+	 * saving the copy leaves these as they are.
+	 * 
+	 * @return a new StoryChanges for the copy
+	 */
+	synchronized StoryChanges fork() {
+		StoryChanges fork = new StoryChanges(null, this.version, 0);
+		fork.fragments = this.fragments.copy();
+		fork.choices = this.choices.copy();
+		fork.counter = this.counter;
+		return fork;
+	}
+
+	/**
+	 * Marks a fragment as changed, including added or removed.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment
+	 */
+	synchronized void fragmentChanged(int fragmentId) {
+		this.fragments.put(fragmentId, ++this.counter);
+	}
+
+	/**
+	 * Marks the choice list of a fragment as changed.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment holding the choices
+	 */
+	synchronized void choicesChanged(int fragmentId) {
+		this.choices.put(fragmentId, ++this.counter);
+	}
+
+	/**
+	 * Returns whether these changes are relative to a given saved version.
+	 * 
+	 * @param version
+	 *            the version of the saved copy
+	 * @return true if saving only the marked parts will bring that copy up to
+	 *         date, false if the whole story must be written
+	 */
+	public synchronized boolean isBasedOn(Object version) {
+		return this.version != null && this.version == version;
+	}
+
+	/**
+	 * Returns the IDs of the fragments marked as changed. Some may no longer
+	 * exist, having been removed.
+	 * 
+	 * @return the fragment IDs in ascending order
+	 */
+	public synchronized int[] getChangedFragments() {
+		int[] ids = this.fragments.keys();
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	/**
+	 * Returns the IDs of the fragments whose choice lists are marked as
+	 * changed.
+	 * 
+	 * @return the fragment IDs in ascending order
+	 */
+	public synchronized int[] getChangedChoices() {
+		int[] ids = this.choices.keys();
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	/**
+	 * Records that the story has been saved, clearing the marks. Must be
+	 * called on the thread that edits the story, unless the story is a
+	 * snapshot.
+	 * 
+	 * @param version
+	 *            an object identifying the copy just saved, different from
+	 *            every earlier one
+	 */
+	public void saved(Object version) {
+		synchronized (this) {
+			this.version = version;
+			this.fragments.clear();
+			this.choices.clear();
+		}
+		if (this.parent != null) {
+			this.parent.snapshotSaved(this.parentVersion, this.parentCounter,
+					version);
+		}
+	}
+
+	/**
+	 * Takes on the version a snapshot of the story was saved as, if the story
+	 * has not been saved itself since the snapshot was taken. Marks made
+	 * before the snapshot are dropped, as the snapshot wrote those parts.
+	 */
+	private synchronized void snapshotSaved(Object snapshotVersion,
+			int snapshotCounter, Object version) {
+		if (this.version != snapshotVersion) {
+			return;
+		}
+		this.version = version;
+		unmarkUpTo(this.fragments, snapshotCounter);
+		unmarkUpTo(this.choices, snapshotCounter);
+	}
+
+	private static void unmarkUpTo(IntHashMap<Integer> marks, int counter) {
+		for (int id : marks.keys()) {
+			if (marks.get(id) <= counter) {
+				marks.remove(id);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,219 @@
+/*
+StoryCodec Class for CreateYourOwnAdventure App.
+Encodes fragments and choices in compact binary records.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cmput301.f13t01.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.net.Uri;
+import android.text.SpannableString;
+
+/**
+ * StoryCodec writes the parts of a story as records read and written by
+ * RecordReader and RecordWriter, in place of Java serialization. Records
+ * hold only the values themselves, with no class descriptions, and are read
+ * without reflection.
+ */
+
+public final class StoryCodec {
+
+	// First bytes of every record
+	static final int MAGIC_0 = 'C';
+	static final int MAGIC_1 = 'Y';
+
+	// Changed whenever the layout of any kind of record changes, so records
+	// written by an older version can still be read
+	public static final int FORMAT_VERSION = 1;
+
+	/* Kinds of record */
+	public static final int HEADER = 1;
+	public static final int FRAGMENT = 2;
+	public static final int CHOICES = 3;
+	public static final int PACK = 5;
+	public static final int LIBRARY_INDEX = 6;
+	public static final int LIBRARY_LOG = 7;
+	public static final int MEDIA_INDEX = 8;
+	public static final int BUNDLE = 9;
+
+	/* Media types in fragment records */
+	private static final int NO_MEDIA = 0;
+	private static final int TEXT = 1;
+	private static final int IMAGE = 2;
+	private static final int SOUND = 3;
+	private static final int VIDEO = 4;
+	private static final int IMAGE_URI = 5;
+
+	private StoryCodec() {
+	}
+
+	/**
+	 * Writes a fragment record.
+	 * 
+	 * @param fragment
+	 *            the StoryFragment to write
+	 * @param out
+	 *            the stream to write to
+	 * @throws IOException
+	 */
+	public static void writeFragment(StoryFragment fragment, OutputStream out)
+			throws IOException {
+		RecordWriter writer = new RecordWriter(out, FRAGMENT);
+		writer.writeString(fragment.getTitle());
+		writer.writeString(fragment.getDescription());
+		writeMediaList(writer, fragment.getContentList());
+		writeMediaList(writer, fragment.getAnnotationList());
+	}
+
+	/**
+	 * Reads a fragment record.
+	 * 
+	 * @param in
+	 *            the stream to read from
+	 * @return the StoryFragment
+	 * @throws IOException
+	 */
+	public static StoryFragment readFragment(InputStream in)
+			throws IOException {
+		RecordReader reader = new RecordReader(in, FRAGMENT);
+		StoryFragment fragment = new StoryFragment();
+		fragment.setTitle(reader.readString());
+		fragment.setDescription(reader.readString());
+		readMediaList(reader, fragment.getContentList());
+		readMediaList(reader, fragment.getAnnotationList());
+		return fragment;
+	}
+
+	/**
+	 * Writes a choice record.
+	 * 
+	 * @param choiceList
+	 *            the choices of one fragment
+	 * @param out
+	 *            the stream to write to
+	 * @throws IOException
+	 */
+	public static void writeChoices(List<Choice> choiceList, OutputStream out)
+			throws IOException {
+		RecordWriter writer = new RecordWriter(out, CHOICES);
+		writer.writeVarInt(choiceList.size());
+		for (Choice choice : choiceList) {
+			writer.writeInteger(choice.getSourceId());
+			writer.writeInteger(choice.getDestinationId());
+			writer.writeString(choice.getFlavourText());
+		}
+	}
+
+	/**
+	 * Reads a choice record.
+	 * 
+	 * @param in
+	 *            the stream to read from
+	 * @return the choices of one fragment
+	 * @throws IOException
+	 */
+	public static ArrayList<Choice> readChoices(InputStream in)
+			throws IOException {
+		RecordReader reader = new RecordReader(in, CHOICES);
+		int size = reader.readVarInt();
+		ArrayList<Choice> choiceList = new ArrayList<Choice>(size);
+		for (int i = 0; i < size; i++) {
+			Integer sourceId = reader.readInteger();
+			Integer destinationId = reader.readInteger();
+			choiceList.add(new Choice(sourceId, destinationId, reader
+					.readString()));
+		}
+		return choiceList;
+	}
+
+	private static void writeMediaList(RecordWriter writer, List<Media> list)
+			throws IOException {
+		writer.writeVarInt(list.size());
+		for (Media media : list) {
+			if (media == null) {
+				writer.writeByte(NO_MEDIA);
+			} else if (media instanceof Text) {
+				writer.writeByte(TEXT);
+				writer.writeString(media.toString());
+			} else if (media instanceof Image) {
+				Image image = (Image) media;
+				writer.writeByte(IMAGE);
+				writer.writeString(image.getContent());
+				writer.writeInteger(image.getScale());
+			} else if (media instanceof Sound) {
+				writer.writeByte(SOUND);
+				writer.writeString(((Sound) media).getContent());
+			} else if (media instanceof Video) {
+				writer.writeByte(VIDEO);
+				writer.writeString(((Video) media).getContent());
+			} else if (media instanceof ImageUri) {
+				ImageUri image = (ImageUri) media;
+				writer.writeByte(IMAGE_URI);
+				writer.writeString(image.getContent() == null ? null : image
+						.getContent().toString());
+				writer.writeInteger(image.getScale());
+			} else {
+				throw new IOException("Can't write media of type "
+						+ media.getType());
+			}
+		}
+	}
+
+	private static void readMediaList(RecordReader reader, List<Media> list)
+			throws IOException {
+		int size = reader.readVarInt();
+		for (int i = 0; i < size; i++) {
+			int type = reader.readByte();
+			switch (type) {
+			case NO_MEDIA:
+				list.add(null);
+				break;
+			case TEXT:
+				list.add(new Text(new SpannableString(reader.readString())));
+				break;
+			case IMAGE:
+				String content = reader.readString();
+				list.add(new Image(content, reader.readInteger()));
+				break;
+			case SOUND:
+				Sound sound = new Sound();
+				sound.setContent(reader.readString());
+				list.add(sound);
+				break;
+			case VIDEO:
+				Video video = new Video();
+				video.setContent(reader.readString());
+				list.add(video);
+				break;
+			case IMAGE_URI:
+				String uri = reader.readString();
+				list.add(new ImageUri(uri == null ? null : Uri.parse(uri),
+						reader.readInteger()));
+				break;
+			default:
+				throw new IOException("Unknown media type " + type);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,568 @@
+/*
+StoryCompression Class for CreateYourOwnAdventure App.
+Compresses story records as they are written, and recognises compressed
+records by their header as they are read.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cmput301.f13t01.model;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * StoryCompression wraps the streams story records are written to and read
+ * from, so the records are compressed on disk. A compressed record starts
+ * with the magic bytes "CZ" and a byte naming the codec. A record as
+ * RecordWriter writes it starts with "CY" instead, and Java serialization
+ * with 0xACED, so decompress can tell them apart and records written before
+ * compression was used, or with it turned off, are still read.
+ * 
+ * After the header the record is written in blocks of up to BLOCK_SIZE
+ * bytes, each a varint of its length, a varint of its length once
+ * compressed, and the compressed bytes. A block that would not shrink is
+ * stored as it is, with a compressed length of 0. A length of 0 ends the
+ * record. Each block is compressed or decompressed in one call, which costs
+ * far less than feeding the codec a few bytes at a time.
+ * 
+ * DEFLATE saves the most, and suits text, which most of a story is. LZ
+ * saves less, but is cheaper to write and to read, for devices where time
+ * matters more than space.
+ * 
+ * DEFLATE can also start each block from a StoryDictionary of text common to
+ * the library. The header of such a record names the dictionary by its ID,
+ * in the four bytes after the codec, and the dictionary must have been added
+ * with addDictionary before the record is read. Dictionaries are never
+ * removed, so records written with one trained earlier are still read.
+ */
+
+public final class StoryCompression {
+
+	// First bytes of a compressed record
+	static final int MAGIC_0 = 'C';
+	static final int MAGIC_1 = 'Z';
+
+	/* Codecs */
+	public static final int NONE = 0;
+	public static final int DEFLATE = 1;
+	public static final int LZ = 2;
+	// Written in place of DEFLATE when a dictionary is used
+	static final int DEFLATE_DICTIONARY = 3;
+
+	// Most bytes in one block, the size of deflate's window
+	private static final int BLOCK_SIZE = 32 * 1024;
+	// Bytes buffered when reading a record
+	private static final int READ_BUFFER_SIZE = 1024;
+	// Most idle Deflaters and Inflaters kept for reuse, as setting one up
+	// costs more than compressing a small record
+	private static final int POOL_SIZE = 4;
+
+	private static final ArrayList<Deflater> deflaters;
+	private static final ArrayList<Inflater> inflaters;
+	// Every dictionary records may name, by ID
+	private static final IntHashMap<StoryDictionary> dictionaries;
+
+	static {
+		deflaters = new ArrayList<Deflater>();
+		inflaters = new ArrayList<Inflater>();
+		dictionaries = new IntHashMap<StoryDictionary>();
+	}
+
+	private StoryCompression() {
+	}
+
+	/**
+	 * Returns a stream that compresses what is written to it with a given
+	 * codec, after writing the header naming the codec.
+	 * 
+	 * @param out
+	 *            the stream to write the compressed record to
+	 * @param codec
+	 *            NONE, DEFLATE or LZ
+	 * @return the stream to write the record to, to be closed or finished
+	 *         once the record is written
+	 * @throws IOException
+	 */
+	public static Output compress(OutputStream out, int codec)
+			throws IOException {
+		return compress(out, codec, null);
+	}
+
+	/**
+	 * Returns a stream that compresses what is written to it with a given
+	 * codec and, if the codec is DEFLATE, a dictionary.
+	 * 
+	 * @param out
+	 *            the stream to write the compressed record to
+	 * @param codec
+	 *            NONE, DEFLATE or LZ
+	 * @param dictionary
+	 *            the dictionary to deflate with, or null for none; ignored
+	 *            by the other codecs
+	 * @return the stream to write the record to, to be closed or finished
+	 *         once the record is written
+	 * @throws IOException
+	 */
+	public static Output compress(OutputStream out, int codec,
+			StoryDictionary dictionary) throws IOException {
+		if (codec != NONE && codec != DEFLATE && codec != LZ) {
+			throw new IllegalArgumentException("Unknown codec " + codec);
+		}
+		return new Output(out, codec, codec == DEFLATE ? dictionary : null);
+	}
+
+	/**
+	 * Returns a stream of the record in another stream, decompressed if it
+	 * was compressed, or else as it is.
+	 * 
+	 * @param in
+	 *            the stream holding the record
+	 * @return a buffered stream of the record
+	 * @throws IOException
+	 *             if the record was compressed with an unknown codec or
+	 *             dictionary
+	 */
+	public static BufferedInputStream decompress(InputStream in)
+			throws IOException {
+		BufferedInputStream buffered;
+		if (in instanceof BufferedInputStream) {
+			buffered = (BufferedInputStream) in;
+		} else {
+			buffered = new BufferedInputStream(in, READ_BUFFER_SIZE);
+		}
+		buffered.mark(3);
+		if (buffered.read() != MAGIC_0 || buffered.read() != MAGIC_1) {
+			buffered.reset();
+			return buffered;
+		}
+		int codec = buffered.read();
+		StoryDictionary dictionary = null;
+		if (codec == DEFLATE_DICTIONARY) {
+			int id = 0;
+			for (int i = 0; i < 4; i++) {
+				int b = buffered.read();
+				if (b < 0) {
+					throw new EOFException();
+				}
+				id = id << 8 | b;
+			}
+			synchronized (dictionaries) {
+				dictionary = dictionaries.get(id);
+			}
+			if (dictionary == null) {
+				throw new IOException("Unknown dictionary "
+						+ Integer.toHexString(id));
+			}
+			codec = DEFLATE;
+		} else if (codec != DEFLATE && codec != LZ) {
+			throw new IOException("Unknown codec " + codec);
+		}
+		return new BufferedInputStream(new Input(buffered, codec,
+				dictionary), READ_BUFFER_SIZE);
+	}
+
+	/**
+	 * Makes a dictionary known, so records compressed with it can be read.
+	 * 
+	 * @param dictionary
+	 *            the dictionary
+	 */
+	public static void addDictionary(StoryDictionary dictionary) {
+		synchronized (dictionaries) {
+			dictionaries.put(dictionary.getId(), dictionary);
+		}
+	}
+
+	private static Deflater takeDeflater() {
+		synchronized (deflaters) {
+			if (!deflaters.isEmpty()) {
+				return deflaters.remove(deflaters.size() - 1);
+			}
+		}
+		return new Deflater(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	private static void giveBack(Deflater deflater) {
+		synchronized (deflaters) {
+			if (deflaters.size() < POOL_SIZE) {
+				deflaters.add(deflater);
+				return;
+			}
+		}
+		deflater.end();
+	}
+
+	private static Inflater takeInflater() {
+		synchronized (inflaters) {
+			if (!inflaters.isEmpty()) {
+				return inflaters.remove(inflaters.size() - 1);
+			}
+		}
+		return new Inflater();
+	}
+
+	private static void giveBack(Inflater inflater) {
+		synchronized (inflaters) {
+			if (inflaters.size() < POOL_SIZE) {
+				inflaters.add(inflater);
+				return;
+			}
+		}
+		inflater.end();
+	}
+
+	private static void writeVarInt(OutputStream out, int value)
+			throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private static int readVarInt(InputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Varint too long");
+	}
+
+	private static void readFully(InputStream in, byte[] bytes, int length)
+			throws IOException {
+		int read = 0;
+		while (read < length) {
+			int count = in.read(bytes, read, length - read);
+			if (count < 0) {
+				throw new EOFException();
+			}
+			read += count;
+		}
+	}
+
+	/**
+	 * A stream compressing a record. Bytes written are gathered into a block
+	 * and compressed a block at a time. Closing it finishes the record and
+	 * closes the stream under it. Alternatively, finish ends the record
+	 * alone, and restart begins another after it, for writing many records
+	 * to one stream.
+	 */
+	public static class Output extends FilterOutputStream {
+
+		private final int codec;
+		private final StoryDictionary dictionary;
+		private byte[] block;
+		private int length;
+		private byte[] compressed;
+		private boolean finished;
+
+		private Output(OutputStream out, int codec,
+				StoryDictionary dictionary) throws IOException {
+			super(out);
+			this.codec = codec;
+			this.dictionary = dictionary;
+			// Grown as needed, as most records are small
+			this.block = new byte[512];
+			this.compressed = new byte[0];
+			writeHeader();
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (this.length == this.block.length) {
+				makeRoom();
+			}
+			this.block[this.length++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int count)
+				throws IOException {
+			while (count > 0) {
+				if (this.length == this.block.length) {
+					makeRoom();
+				}
+				int copied = Math.min(count, this.block.length - this.length);
+				System.arraycopy(bytes, offset, this.block, this.length,
+						copied);
+				this.length += copied;
+				offset += copied;
+				count -= copied;
+			}
+		}
+
+		/**
+		 * Writes the rest of the record, leaving the stream under this one
+		 * open.
+		 * 
+		 * @throws IOException
+		 */
+		public void finish() throws IOException {
+			if (this.finished) {
+				return;
+			}
+			this.finished = true;
+			writeBlock();
+			if (this.codec != NONE) {
+				writeVarInt(this.out, 0);
+			}
+		}
+
+		/**
+		 * Begins another record after the one just finished.
+		 * 
+		 * @throws IOException
+		 */
+		public void restart() throws IOException {
+			finish();
+			this.finished = false;
+			writeHeader();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				finish();
+			} finally {
+				this.out.close();
+			}
+		}
+
+		private void writeHeader() throws IOException {
+			if (this.codec == NONE) {
+				return;
+			}
+			this.out.write(MAGIC_0);
+			this.out.write(MAGIC_1);
+			if (this.dictionary == null) {
+				this.out.write(this.codec);
+				return;
+			}
+			this.out.write(DEFLATE_DICTIONARY);
+			int id = this.dictionary.getId();
+			for (int shift = 24; shift >= 0; shift -= 8) {
+				this.out.write(id >>> shift);
+			}
+		}
+
+		private void makeRoom() throws IOException {
+			if (this.block.length < BLOCK_SIZE) {
+				byte[] grown = new byte[Math.min(this.block.length * 4,
+						BLOCK_SIZE)];
+				System.arraycopy(this.block, 0, grown, 0, this.length);
+				this.block = grown;
+			} else {
+				writeBlock();
+			}
+		}
+
+		private void writeBlock() throws IOException {
+			if (this.length == 0) {
+				return;
+			}
+			if (this.codec == NONE) {
+				this.out.write(this.block, 0, this.length);
+				this.length = 0;
+				return;
+			}
+			int size;
+			if (this.codec == LZ) {
+				int needed = LzCodec.maxCompressedLength(this.length);
+				if (this.compressed.length < needed) {
+					this.compressed = new byte[needed];
+				}
+				size = LzCodec.compress(this.block, this.length,
+						this.compressed);
+			} else {
+				size = deflate();
+			}
+			writeVarInt(this.out, this.length);
+			if (size > 0 && size < this.length) {
+				writeVarInt(this.out, size);
+				this.out.write(this.compressed, 0, size);
+			} else {
+				writeVarInt(this.out, 0);
+				this.out.write(this.block, 0, this.length);
+			}
+			this.length = 0;
+		}
+
+		/**
+		 * Deflates the block into compressed.
+		 * 
+		 * @return the compressed length, -1 if it would not be shorter
+		 */
+		private int deflate() {
+			if (this.compressed.length < this.length) {
+				this.compressed = new byte[this.block.length];
+			}
+			Deflater deflater = takeDeflater();
+			try {
+				if (this.dictionary != null) {
+					byte[] bytes = this.dictionary.getBytes();
+					deflater.setDictionary(bytes, 0, bytes.length);
+				}
+				deflater.setInput(this.block, 0, this.length);
+				deflater.finish();
+				int size = 0;
+				while (!deflater.finished() && size < this.length) {
+					size += deflater.deflate(this.compressed, size,
+							this.length - size);
+				}
+				return deflater.finished() ? size : -1;
+			} finally {
+				deflater.reset();
+				giveBack(deflater);
+			}
+		}
+
+	}
+
+	/**
+	 * Reads the blocks written by Output.
+	 */
+	private static class Input extends InputStream {
+
+		private final InputStream in;
+		private final int codec;
+		private final StoryDictionary dictionary;
+		private byte[] block;
+		private byte[] compressed;
+		private int position;
+		private int length;
+		private boolean ended;
+
+		Input(InputStream in, int codec, StoryDictionary dictionary) {
+			this.in = in;
+			this.codec = codec;
+			this.dictionary = dictionary;
+			this.block = new byte[0];
+			this.compressed = new byte[0];
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill()) {
+				return -1;
+			}
+			return this.block[this.position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int count)
+				throws IOException {
+			if (count == 0) {
+				return 0;
+			}
+			if (!fill()) {
+				return -1;
+			}
+			count = Math.min(count, this.length - this.position);
+			System.arraycopy(this.block, this.position, bytes, offset, count);
+			this.position += count;
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.in.close();
+		}
+
+		/**
+		 * Reads the next block once this one is used up.
+		 * 
+		 * @return false at the end of the record
+		 */
+		private boolean fill() throws IOException {
+			while (this.position == this.length) {
+				if (this.ended) {
+					return false;
+				}
+				int raw = readVarInt(this.in);
+				if (raw == 0) {
+					this.ended = true;
+					return false;
+				}
+				int size = readVarInt(this.in);
+				if (raw < 0 || raw > BLOCK_SIZE || size < 0 || size >= raw) {
+					throw new IOException("Compressed block damaged");
+				}
+				if (this.block.length < raw) {
+					this.block = new byte[raw];
+				}
+				if (size == 0) {
+					readFully(this.in, this.block, raw);
+				} else {
+					if (this.compressed.length < size) {
+						this.compressed = new byte[size];
+					}
+					readFully(this.in, this.compressed, size);
+					if (this.codec == LZ) {
+						LzCodec.decompress(this.compressed, size, this.block,
+								raw);
+					} else {
+						inflate(size, raw);
+					}
+				}
+				this.position = 0;
+				this.length = raw;
+			}
+			return true;
+		}
+
+		private void inflate(int size, int raw) throws IOException {
+			Inflater inflater = takeInflater();
+			try {
+				inflater.setInput(this.compressed, 0, size);
+				int inflated = inflater.inflate(this.block, 0, raw);
+				if (inflater.needsDictionary() && this.dictionary != null) {
+					byte[] bytes = this.dictionary.getBytes();
+					inflater.setDictionary(bytes, 0, bytes.length);
+					inflated = inflater.inflate(this.block, 0, raw);
+				}
+				if (inflated != raw || !inflater.finished()) {
+					throw new IOException("Compressed block damaged");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Compressed block damaged");
+			} catch (IllegalArgumentException e) {
+				// Deflated with some other dictionary
+				throw new IOException("Compressed block damaged");
+			} finally {
+				inflater.reset();
+				giveBack(inflater);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,258 @@
+/*
+StoryDictionary Class for CreateYourOwnAdventure App.
+A preset dictionary of text common to the stories in a library, which
+deflate starts from when compressing a record.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cmput301.f13t01.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.Adler32;
+
+/**
+ * StoryDictionary holds bytes that deflate treats as if they came just
+ * before each block it compresses, so a phrase in the dictionary costs a
+ * short reference even in the first record of a story. Stories in one
+ * library, often by the same authors, repeat much of their phrasing, which
+ * compressing each record on its own can't take advantage of; small records
+ * gain the most, as they have little of their own to refer back to.
+ * 
+ * A dictionary is known by its ID, the Adler-32 checksum of its bytes, as
+ * zlib itself names dictionaries. A record compressed with one names it in
+ * its header, so it can still be read once a newer dictionary is trained,
+ * as long as the old one is registered with StoryCompression.
+ * 
+ * train picks the dictionary from sample text in the manner of the COVER
+ * algorithm: runs of K bytes are counted by the number of samples they
+ * appear in, in a table of fixed size indexed by a hash of the run, the
+ * samples are divided into one epoch for each segment the dictionary has
+ * room for, and from each epoch the segment whose runs are most common is
+ * taken, after which its runs count for nothing. The best segments go last,
+ * nearest the data, where references to them are shortest.
+ */
+
+public final class StoryDictionary {
+
+	// Most bytes deflate can refer back to, and so the most worth keeping
+	public static final int MAX_SIZE = 32 * 1024;
+	// Size trained by default, leaving most of the window to the record
+	public static final int DEFAULT_SIZE = 16 * 1024;
+	// Fewest bytes of samples worth training from
+	public static final int MIN_SAMPLE_SIZE = 4 * 1024;
+
+	// Length of the runs counted
+	private static final int K = 8;
+	// Length of the segments making up the dictionary
+	private static final int SEGMENT = 64;
+	// Runs are counted in a table of 2^HASH_BITS entries, so training takes
+	// the same memory however many samples there are
+	private static final int HASH_BITS = 18;
+
+	/* Instance Variables for StoryDictionary */
+	private final int id;
+	private final byte[] bytes;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param bytes
+	 *            the dictionary, which must not be changed afterwards
+	 */
+	public StoryDictionary(byte[] bytes) {
+		if (bytes.length == 0 || bytes.length > MAX_SIZE) {
+			throw new IllegalArgumentException("Dictionary of "
+					+ bytes.length + " bytes");
+		}
+		Adler32 checksum = new Adler32();
+		checksum.update(bytes);
+		this.id = (int) checksum.getValue();
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Returns the ID naming this dictionary in compressed records.
+	 * 
+	 * @return the Adler-32 checksum of the dictionary
+	 */
+	public int getId() {
+		return this.id;
+	}
+
+	/**
+	 * Returns the bytes of the dictionary, which must not be changed.
+	 * 
+	 * @return the dictionary
+	 */
+	public byte[] getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * Trains a dictionary from samples of the text it is to compress.
+	 * 
+	 * @param samples
+	 *            the samples, such as the text of fragments, each on its own
+	 * @param size
+	 *            the most bytes the dictionary may take, up to MAX_SIZE
+	 * @return the dictionary, or null if the samples are too few or have
+	 *         nothing in common
+	 */
+	public static StoryDictionary train(List<byte[]> samples, int size) {
+		size = Math.min(size, MAX_SIZE);
+		int total = 0;
+		for (byte[] sample : samples) {
+			total += sample.length;
+		}
+		if (total < MIN_SAMPLE_SIZE) {
+			return null;
+		}
+		// The samples one after another, with where each ends
+		byte[] corpus = new byte[total];
+		int[] ends = new int[samples.size()];
+		int at = 0;
+		for (int i = 0; i < ends.length; i++) {
+			byte[] sample = samples.get(i);
+			System.arraycopy(sample, 0, corpus, at, sample.length);
+			at += sample.length;
+			ends[i] = at;
+		}
+
+		int[] frequencies = countRuns(corpus, ends);
+		int epochs = Math.max(1, size / SEGMENT);
+		int epochSize = Math.max(SEGMENT, total / epochs);
+		ArrayList<long[]> chosen = new ArrayList<long[]>();
+		int sample = 0;
+		for (int start = 0; start < total; start += epochSize) {
+			int end = Math.min(total, start + epochSize);
+			while (ends[sample] <= start) {
+				sample++;
+			}
+			long best = bestSegment(corpus, ends, sample, start, end,
+					frequencies);
+			if (best >= 0) {
+				chosen.add(new long[] { best >> 32, best & 0xFFFFFFFFL });
+			}
+		}
+		if (chosen.isEmpty()) {
+			return null;
+		}
+
+		// Weakest first, so the strongest sit nearest the data
+		long[][] segments = chosen.toArray(new long[chosen.size()][]);
+		Arrays.sort(segments, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] first, long[] second) {
+				return first[0] < second[0] ? -1 : first[0] > second[0] ? 1
+						: 0;
+			}
+		});
+		int count = Math.min(segments.length, size / SEGMENT);
+		byte[] bytes = new byte[count * SEGMENT];
+		for (int i = 0; i < count; i++) {
+			int from = (int) segments[segments.length - count + i][1];
+			System.arraycopy(corpus, from, bytes, i * SEGMENT, SEGMENT);
+		}
+		return new StoryDictionary(bytes);
+	}
+
+	/**
+	 * Counts, for each run of K bytes, the number of samples it appears in.
+	 * Runs are known by a hash, so a few unlike runs may share a count.
+	 * 
+	 * @return the counts, by hash of the run
+	 */
+	private static int[] countRuns(byte[] corpus, int[] ends) {
+		int[] frequencies = new int[1 << HASH_BITS];
+		// Sample each run was last counted in, plus one
+		int[] counted = new int[1 << HASH_BITS];
+		int start = 0;
+		for (int sample = 0; sample < ends.length; sample++) {
+			for (int at = start; at + K <= ends[sample]; at++) {
+				int hash = hash(corpus, at);
+				if (counted[hash] != sample + 1) {
+					counted[hash] = sample + 1;
+					frequencies[hash]++;
+				}
+			}
+			start = ends[sample];
+		}
+		return frequencies;
+	}
+
+	/**
+	 * Finds the segment within an epoch whose runs appear in the most
+	 * samples, not counting runs found in only one, then stops its runs from
+	 * counting again.
+	 * 
+	 * @return the score in the high 32 bits and the start of the segment in
+	 *         the low, or -1 if no segment scores anything
+	 */
+	private static long bestSegment(byte[] corpus, int[] ends, int sample,
+			int start, int end, int[] frequencies) {
+		int bestScore = 0;
+		int bestStart = -1;
+		int windowStart = start;
+		int score = 0;
+		for (int at = start; at + K <= end; at++) {
+			// Segments stay within one sample
+			if (at + K > ends[sample]) {
+				if (sample + 1 == ends.length) {
+					break;
+				}
+				at = ends[sample] - 1;
+				windowStart = ends[sample];
+				sample++;
+				score = 0;
+				continue;
+			}
+			score += weight(frequencies[hash(corpus, at)]);
+			if (at + K - windowStart > SEGMENT) {
+				score -= weight(frequencies[hash(corpus, windowStart)]);
+				windowStart++;
+			}
+			if (at + K - windowStart == SEGMENT && score > bestScore) {
+				bestScore = score;
+				bestStart = windowStart;
+			}
+		}
+		if (bestStart < 0) {
+			return -1;
+		}
+		for (int at = bestStart; at + K <= bestStart + SEGMENT; at++) {
+			frequencies[hash(corpus, at)] = 0;
+		}
+		return (long) bestScore << 32 | bestStart;
+	}
+
+	private static int weight(int frequency) {
+		return frequency > 1 ? frequency : 0;
+	}
+
+	private static int hash(byte[] bytes, int at) {
+		long value = 0;
+		for (int i = 0; i < K; i++) {
+			value = value << 8 | (bytes[at + i] & 0xFF);
+		}
+		value *= 0x9E3779B97F4A7C15L;
+		return (int) (value >>> (64 - HASH_BITS));
+	}
+
+}
@@ -36,6 +36,15 @@ import java.util.ArrayList;
 
 public class StoryFragment implements Serializable {
 
+	// Keeps the ID computed for the class before copy() was added, so saved
+	// stories still load
+	private static final long serialVersionUID = 3655165827888972301L;
+
+	// Rough bytes taken by a Fragment and by each Media in it, besides the
+	// characters of their text
+	private static final int FRAGMENT_BYTES = 96;
+	private static final int MEDIA_BYTES = 48;
+
 	/* Instance Variables for a Fragment */
 	// Attributes for a Fragment
 	private String title;
@@ -56,6 +65,39 @@ public class StoryFragment implements Serializable {
 		this.annotationList = new ArrayList<Media>();
 	}
 
+	/**
+	 * Returns a copy of the Fragment. The content and annotation lists are new
+	 * lists, so either copy can be edited without affecting the other, but the
+	 * Media objects in them are shared.
+	 * 
+	 * @return a new StoryFragment with the same attributes and media
+	 */
+	public StoryFragment copy() {
+		StoryFragment copy = new StoryFragment();
+		copy.title = this.title;
+		copy.description = this.description;
+		copy.contentList = new ArrayList<Media>(this.contentList);
+		copy.annotationList = new ArrayList<Media>(this.annotationList);
+		return copy;
+	}
+
+	/**
+	 * Estimates the memory taken by the Fragment and its Media, in bytes.
+	 * 
+	 * @return the estimated size
+	 */
+	long estimateSize() {
+		long size = FRAGMENT_BYTES + Story.estimateSize(this.title)
+				+ Story.estimateSize(this.description);
+		for (Media media : this.contentList) {
+			size += MEDIA_BYTES + Story.estimateSize(media.getContent());
+		}
+		for (Media media : this.annotationList) {
+			size += MEDIA_BYTES + Story.estimateSize(media.getContent());
+		}
+		return size;
+	}
+
 	/**
 	 * Getter for Fragment title.
 	 * 
@@ -22,7 +22,11 @@ package cmput301.f13t01.model;
 
 /**
  * StoryFragmentInfo class, used to represent StoryFragments in a list. For use
- * of views that list StoryFragment objects.
+ * of views that list StoryFragment objects. The title and description are
+ * read from the fragment when asked for, so an info kept in a list stays up
+ * to date as the fragment is edited. An info for a fragment still in a pack
+ * only reads it from the pack the first time it is asked, so a list of them
+ * costs nothing until it is shown.
  * 
  * @author Jesse Chu <jhchu@ualberta.ca>
  */
@@ -31,8 +35,10 @@ public class StoryFragmentInfo {
 
 	/* Instance Variables for StoryFragmentInfo */
 	private Integer id;
-	private String title;
-	private String description;
+	private StoryFragment fragment;
+	// List to read the fragment from when first asked, if it was still in
+	// the pack when the info was made
+	private StoryFragmentList source;
 
 	/**
 	 * Constructor. Takes a StoryFragment and extracts its info.
@@ -42,8 +48,21 @@ public class StoryFragmentInfo {
 	 */
 	public StoryFragmentInfo(Integer id, StoryFragment fragment) {
 		this.id = id;
-		this.title = fragment.getTitle();
-		this.description = fragment.getDescription();
+		this.fragment = fragment;
+	}
+
+	/**
+	 * Constructor for the info of a fragment still in the pack of a list,
+	 * which reads the fragment from the list when first asked.
+	 * 
+	 * @param id
+	 *            the ID of the fragment
+	 * @param source
+	 *            the StoryFragmentList holding the fragment
+	 */
+	StoryFragmentInfo(Integer id, StoryFragmentList source) {
+		this.id = id;
+		this.source = source;
 	}
 
 	/**
@@ -53,8 +72,19 @@ public class StoryFragmentInfo {
 	 */
 	public StoryFragmentInfo() {
 		this.id = null;
-		this.title = null;
-		this.description = null;
+		this.fragment = null;
+	}
+
+	/**
+	 * Points the info at the fragment now stored under its ID, when the
+	 * StoryFragmentList replaces one.
+	 * 
+	 * @param fragment
+	 *            the StoryFragment now stored under the ID
+	 */
+	void setFragment(StoryFragment fragment) {
+		this.fragment = fragment;
+		this.source = null;
 	}
 
 	/**
@@ -72,7 +102,8 @@ public class StoryFragmentInfo {
 	 * @return the title
 	 */
 	public String getTitle() {
-		return this.title;
+		StoryFragment fragment = getFragment();
+		return fragment == null ? null : fragment.getTitle();
 	}
 
 	/**
@@ -81,7 +112,22 @@ public class StoryFragmentInfo {
 	 * @return the description
 	 */
 	public String getDescription() {
-		return this.description;
+		StoryFragment fragment = getFragment();
+		return fragment == null ? null : fragment.getDescription();
+	}
+
+	/**
+	 * Returns the fragment, reading it from the list it is still packed in
+	 * if this is the first time it is needed.
+	 * 
+	 * @return the fragment, null if there is none
+	 */
+	private StoryFragment getFragment() {
+		if (this.fragment == null && this.source != null) {
+			this.fragment = this.source.peekFragment(this.id);
+			this.source = null;
+		}
+		return this.fragment;
 	}
 
 }
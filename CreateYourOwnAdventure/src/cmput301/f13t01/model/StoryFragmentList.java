@@ -22,11 +22,14 @@ package cmput301.f13t01.model;
 
 import java.io.IOException;
 import java.io.ObjectStreamException;
+import java.io.OptionalDataException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Map;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -38,14 +41,53 @@ import java.util.Set;
 
 public class StoryFragmentList implements Serializable {
 
-	// HashMap of Fragment ID's to Fragment Objects
-	private HashMap<Integer, StoryFragment> fragmentList;
+	// Value Java computed for the original class; declared so that .story
+	// files keep loading now that the class has changed
+	private static final long serialVersionUID = -6755475320840443641L;
+
+	// Map of Fragment ID's to Fragment Objects. Saved as a HashMap, the
+	// format used before the map was keyed on primitive ints.
+	private IntHashMap<StoryFragment> fragmentList;
+
+	// ID allocator. nextId is one past the largest ID ever handed out, and
+	// freeIds holds removed IDs to hand out again when reuseIds is set.
+	// Saved by writeObject but left out of published JSON, which gets a
+	// fresh allocator that skips the IDs in use.
+	private transient int nextId;
+	private transient boolean reuseIds;
+	private transient IntArrayList freeIds;
+
+	// Reverse index of Fragment Objects to their IDs, compared by reference.
+	// Rebuilt from fragmentList on first use, so it is never saved.
+	private transient IdentityHashMap<StoryFragment, Integer> fragmentIds;
+
+	// Fragments this list may hand out for editing, compared by reference.
+	// Null until a snapshot is taken; after that, fragments not in the set
+	// are shared with a snapshot and are copied before being handed out.
+	private transient Set<StoryFragment> owned;
+
+	// Info of every Fragment in ascending ID order, kept up to date as
+	// Fragments are added, replaced and removed. Built on first use.
+	private transient ArrayList<StoryFragmentInfo> infoList;
+
+	// Read-only copy of infoList handed out to callers. Dropped when a
+	// Fragment is added or removed, and copied again when next asked for.
+	private transient List<StoryFragmentInfo> infoView;
+
+	// Pack the list was loaded from, if any. Fragments in the pack are read
+	// into fragmentList when first used; unpacked holds the IDs whose packed
+	// record no longer counts, because it was read in, replaced or removed.
+	private transient StoryPack pack;
+	private transient IntHashMap<Boolean> unpacked;
 
 	/**
-	 * Constructor. Creates an empty HashMap for use.
+	 * Constructor. Creates an empty map for use.
 	 */
 	public StoryFragmentList() {
-		this.fragmentList = new HashMap<Integer, StoryFragment>();
+		this.fragmentList = new IntHashMap<StoryFragment>();
+		this.nextId = 0;
+		this.reuseIds = false;
+		this.freeIds = new IntArrayList();
 	}
 
 	/**
@@ -58,8 +100,20 @@ public class StoryFragmentList implements Serializable {
 	 */
 	public StoryFragment getFragment(Integer id) {
 		// Fragment exists, is returned
-		if (fragmentList.containsKey(id)) {
-			return fragmentList.get(id);
+		if (id != null) {
+			unpack(id);
+			StoryFragment fragment = fragmentList.get(id);
+			if (fragment != null && owned != null && !owned.contains(fragment)) {
+				// Shared with a snapshot, so the caller gets its own copy
+				StoryFragment copy = fragment.copy();
+				fragmentList.put(id, copy);
+				unindexFragment(id, fragment);
+				indexFragment(id, copy);
+				infoReplaced(id, copy);
+				owned.add(copy);
+				return copy;
+			}
+			return fragment;
 		} else {
 			// Fragment does not exist, null
 			return null;
@@ -74,19 +128,7 @@ public class StoryFragmentList implements Serializable {
 	 * @return the ID of the StoryFragment, null if not found
 	 */
 	public Integer getFragmentId(StoryFragment fragment) {
-		// Default return ID
-		Integer id = null;
-		// Check entrySet of the HashMap for given Fragment
-		Set<Map.Entry<Integer, StoryFragment>> set = this.fragmentList
-				.entrySet();
-		for (Map.Entry<Integer, StoryFragment> entry : set) {
-			if (entry.getValue() == fragment) {
-				// Found Fragment, save its ID
-				id = entry.getKey();
-			}
-		}
-		// Return the ID
-		return id;
+		return getFragmentIds().get(fragment);
 	}
 
 	/**
@@ -98,10 +140,13 @@ public class StoryFragmentList implements Serializable {
 	 * @return a StoryFragmentInfo object for that ID
 	 */
 	public StoryFragmentInfo getFragmentInfo(Integer id) {
-		// Fetch the fragment
-		StoryFragment fragment = this.fragmentList.get(id);
+		// Fetch the fragment, without copying it since it is only read
+		StoryFragment fragment = id == null ? null : peekFragment(id);
 		if (fragment != null) {
-			// Return for valid id
+			// Return for valid id, sharing the listed info if there is one
+			if (this.infoList != null) {
+				return this.infoList.get(findInfo(id));
+			}
 			return new StoryFragmentInfo(id, fragment);
 		} else {
 			// Return null if not found
@@ -110,20 +155,20 @@ public class StoryFragmentList implements Serializable {
 	}
 
 	/**
-	 * Returns an ArrayList of StoryFragmentInfo objects for all StoryFragment
-	 * objects.
+	 * Returns the StoryFragmentInfo of every StoryFragment, in ascending order
+	 * of ID. The list is kept between calls, so asking again while no
+	 * fragment has been added or removed costs nothing; each info reads the
+	 * fragment's current title and description.
 	 * 
-	 * @return an ArrayList of all StoryFragmentInfo
+	 * @return an unmodifiable List of all StoryFragmentInfo
 	 */
-	public ArrayList<StoryFragmentInfo> getFragmentInfoList() {
-		ArrayList<StoryFragmentInfo> fragmentInfoList = new ArrayList<StoryFragmentInfo>();
-		for (Map.Entry<Integer, StoryFragment> entry : this.fragmentList
-				.entrySet()) {
-			Integer id = entry.getKey();
-			StoryFragment fragment = entry.getValue();
-			fragmentInfoList.add(new StoryFragmentInfo(id, fragment));
+	public List<StoryFragmentInfo> getFragmentInfoList() {
+		if (this.infoView == null) {
+			this.infoView = Collections
+					.unmodifiableList(new ArrayList<StoryFragmentInfo>(
+							getInfoList()));
 		}
-		return fragmentInfoList;
+		return this.infoView;
 	}
 
 	/**
@@ -135,18 +180,101 @@ public class StoryFragmentList implements Serializable {
 	 * @return the ID given to the added StoryFragment
 	 */
 	public Integer addFragment(StoryFragment newFragment) {
-		// Empty FragmentList, first ID is 0
-		Integer id = 0;
-		// Non-empty FragmentList, make new id
-		if (!this.fragmentList.isEmpty()) {
-			// New ID is 1 greater than the current largest ID, for uniqueness
-			id = Collections.max(this.fragmentList.keySet()) + 1;
-		}
+		int id = allocateId();
 		// Places new Fragment into FragmentList
 		this.fragmentList.put(id, newFragment);
+		indexFragment(id, newFragment);
+		infoAdded(id, newFragment);
+		if (this.owned != null) {
+			this.owned.add(newFragment);
+		}
 		return id;
 	}
 
+	/**
+	 * Returns a read-only snapshot of the list. The snapshot shares its
+	 * fragments with this list instead of copying them; from then on, this
+	 * list copies a shared fragment the first time getFragment hands it out,
+	 * so edits made through this list never reach the snapshot. The snapshot
+	 * must not be edited itself.
+	 * 
+	 * @return a StoryFragmentList frozen at the current state
+	 */
+	public StoryFragmentList snapshot() {
+		StoryFragmentList snapshot = new StoryFragmentList();
+		snapshot.fragmentList = this.fragmentList.copy();
+		snapshot.nextId = this.nextId;
+		snapshot.reuseIds = this.reuseIds;
+		snapshot.freeIds = this.freeIds.copy();
+		snapshot.pack = this.pack;
+		if (this.unpacked != null) {
+			snapshot.unpacked = this.unpacked.copy();
+		}
+		// Everything held now is shared
+		this.owned = Collections
+				.newSetFromMap(new IdentityHashMap<StoryFragment, Boolean>());
+		return snapshot;
+	}
+
+	/**
+	 * Returns a copy of the list that can be edited on its own. Like a
+	 * snapshot it shares its fragments with this list, but both lists copy a
+	 * shared fragment the first time getFragment hands it out.
+	 * 
+	 * @return a StoryFragmentList holding the same fragments
+	 */
+	public StoryFragmentList fork() {
+		StoryFragmentList fork = snapshot();
+		fork.owned = Collections
+				.newSetFromMap(new IdentityHashMap<StoryFragment, Boolean>());
+		return fork;
+	}
+
+	/**
+	 * Returns whether IDs of removed fragments are handed out again.
+	 * 
+	 * @return true if removed IDs are reused, false otherwise
+	 */
+	public boolean isReusingIds() {
+		return this.reuseIds;
+	}
+
+	/**
+	 * Sets whether IDs of removed fragments are handed out again. By default
+	 * they are not, so a stale reference to a removed fragment can never pick
+	 * up a new one. Turning reuse off forgets any IDs waiting to be reused.
+	 * 
+	 * @param reuseIds
+	 *            true to reuse removed IDs, false otherwise
+	 */
+	public void setReusingIds(boolean reuseIds) {
+		this.reuseIds = reuseIds;
+		if (!reuseIds) {
+			this.freeIds.clear();
+		}
+	}
+
+	/**
+	 * Hands out an unused fragment ID in constant time. Reused IDs are taken
+	 * first, otherwise the high-water mark is advanced.
+	 * 
+	 * @return an ID not in use by any fragment
+	 */
+	private int allocateId() {
+		while (!this.freeIds.isEmpty()) {
+			int id = this.freeIds.removeLast();
+			if (!contains(id)) {
+				return id;
+			}
+		}
+		// Skips over IDs already taken, which only happens once after loading
+		// a list saved before the high-water mark was kept, or downloaded
+		while (contains(this.nextId)) {
+			this.nextId++;
+		}
+		return this.nextId++;
+	}
+
 	/**
 	 * Removes a requested Fragment from the FragmentList. Returns boolean based
 	 * on success/failure.
@@ -157,8 +285,19 @@ public class StoryFragmentList implements Serializable {
 	 */
 	public boolean removeFragment(Integer id) {
 		// Fragment exists, removed
-		if (fragmentList.containsKey(id)) {
-			this.fragmentList.remove(id);
+		if (id != null) {
+			unpack(id);
+		}
+		if (id != null && fragmentList.containsKey(id)) {
+			StoryFragment removed = this.fragmentList.remove(id);
+			unindexFragment(id, removed);
+			infoRemoved(id);
+			if (this.owned != null) {
+				this.owned.remove(removed);
+			}
+			if (this.reuseIds) {
+				this.freeIds.add(id);
+			}
 			return true;
 		} else {
 			// Fragment does not exist, failure
@@ -178,9 +317,20 @@ public class StoryFragmentList implements Serializable {
 	 */
 	public boolean updateFragment(Integer id, StoryFragment fragment) {
 		// Fragment ID exists, update the fragment
-		if (fragmentList.containsKey(id)) {
-			// Updates HashMap entry for the given ID:Fragment pair
-			this.fragmentList.put(id, fragment);
+		if (id != null) {
+			unpack(id);
+		}
+		if (id != null && fragment != null && fragmentList.containsKey(id)) {
+			// Updates map entry for the given ID:Fragment pair
+			// The new fragment is not marked as owned, since the caller may
+			// have fetched it before the last snapshot
+			StoryFragment replaced = this.fragmentList.put(id, fragment);
+			unindexFragment(id, replaced);
+			indexFragment(id, fragment);
+			infoReplaced(id, fragment);
+			if (this.owned != null && replaced != fragment) {
+				this.owned.remove(replaced);
+			}
 			return true;
 		} else {
 			// Fragment ID doesn't exist, update fails
@@ -188,6 +338,364 @@ public class StoryFragmentList implements Serializable {
 		}
 	}
 
+	/**
+	 * Returns the IDs of all Fragments, in no particular order.
+	 * 
+	 * @return an array of Fragment IDs
+	 */
+	int[] getIds() {
+		if (this.pack == null) {
+			return this.fragmentList.keys();
+		}
+		// Every ID in fragmentList that the pack also has is in unpacked
+		IntArrayList ids = new IntArrayList();
+		for (int id : this.fragmentList.keys()) {
+			ids.add(id);
+		}
+		for (int id : this.pack.getFragmentIds()) {
+			if (!this.unpacked.containsKey(id)) {
+				ids.add(id);
+			}
+		}
+		return ids.toArray();
+	}
+
+	/**
+	 * Estimates the memory taken by the Fragments read in so far, in bytes.
+	 * Fragments still in the pack are not counted here; Story.estimateSize
+	 * counts the pack itself.
+	 * 
+	 * @return the estimated size
+	 */
+	long estimateSize() {
+		long size = 0;
+		for (StoryFragment fragment : this.fragmentList.values()) {
+			size += fragment.estimateSize();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the Fragment stored under an ID without copying it, for
+	 * reading only.
+	 * 
+	 * @param id
+	 *            ID of the Fragment
+	 * @return the stored Fragment, null if it doesn't exist
+	 */
+	StoryFragment peekFragment(int id) {
+		unpack(id);
+		return this.fragmentList.get(id);
+	}
+
+	/**
+	 * Puts a Fragment read back from storage under the ID it was saved with.
+	 * 
+	 * @param id
+	 *            ID the Fragment was saved with
+	 * @param fragment
+	 *            the Fragment read back
+	 */
+	void restoreFragment(int id, StoryFragment fragment) {
+		if (this.unpacked != null) {
+			this.unpacked.put(id, Boolean.TRUE);
+		}
+		StoryFragment replaced = this.fragmentList.put(id, fragment);
+		unindexFragment(id, replaced);
+		indexFragment(id, fragment);
+		if (replaced == null) {
+			infoAdded(id, fragment);
+		} else {
+			infoReplaced(id, fragment);
+		}
+		this.nextId = Math.max(this.nextId, id + 1);
+	}
+
+	/**
+	 * Reads fragments from a pack from now on, as they are first used. Called
+	 * on a list just read back from storage, before any other records.
+	 * 
+	 * @param pack
+	 *            the pack holding the list's fragments
+	 */
+	void attachPack(StoryPack pack) {
+		this.pack = pack;
+		this.unpacked = new IntHashMap<Boolean>();
+	}
+
+	/**
+	 * Returns the pack fragments are read from.
+	 * 
+	 * @return the StoryPack, null if the list has none
+	 */
+	StoryPack getPack() {
+		return this.pack;
+	}
+
+	/**
+	 * Returns whether a fragment is still only in the pack, not yet read in
+	 * or changed.
+	 * 
+	 * @param id
+	 *            ID of the Fragment
+	 * @return true if the packed record is the current Fragment
+	 */
+	boolean isPacked(int id) {
+		return this.pack != null && !this.unpacked.containsKey(id)
+				&& this.pack.hasFragment(id);
+	}
+
+	/**
+	 * Stops using the packed record of a Fragment removed after the pack was
+	 * written.
+	 * 
+	 * @param id
+	 *            ID of the removed Fragment
+	 */
+	void restoreRemoved(int id) {
+		if (this.unpacked != null) {
+			this.unpacked.put(id, Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * Returns the high-water mark of the ID allocator.
+	 * 
+	 * @return one past the largest ID ever handed out
+	 */
+	int getNextId() {
+		return this.nextId;
+	}
+
+	/**
+	 * Returns the removed IDs waiting to be handed out again.
+	 * 
+	 * @return the list of free IDs
+	 */
+	IntArrayList getFreeIds() {
+		return this.freeIds;
+	}
+
+	/**
+	 * Restores the state of the ID allocator read back from storage.
+	 * 
+	 * @param nextId
+	 *            one past the largest ID ever handed out
+	 * @param reuseIds
+	 *            whether removed IDs are reused
+	 * @param freeIds
+	 *            the removed IDs waiting to be reused
+	 */
+	void restoreAllocator(int nextId, boolean reuseIds, IntArrayList freeIds) {
+		this.nextId = Math.max(this.nextId, nextId);
+		this.reuseIds = reuseIds;
+		this.freeIds = freeIds;
+	}
+
+	/**
+	 * Returns whether a Fragment is stored under an ID, in fragmentList or
+	 * still in the pack.
+	 */
+	private boolean contains(int id) {
+		return this.fragmentList.containsKey(id) || isPacked(id);
+	}
+
+	/**
+	 * Reads a Fragment still in the pack into fragmentList. A record that
+	 * can't be read leaves the Fragment missing.
+	 * 
+	 * @param id
+	 *            ID of the Fragment
+	 */
+	private void unpack(int id) {
+		if (!isPacked(id)) {
+			return;
+		}
+		this.unpacked.put(id, Boolean.TRUE);
+		try {
+			StoryFragment fragment = this.pack.readFragment(id);
+			this.fragmentList.put(id, fragment);
+			indexFragment(id, fragment);
+			// Read for this list alone, so never shared with a snapshot
+			if (this.owned != null) {
+				this.owned.add(fragment);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Reads every Fragment still in the pack, after which the pack is no
+	 * longer needed.
+	 */
+	void unpackAll() {
+		if (this.pack == null) {
+			return;
+		}
+		for (int id : this.pack.getFragmentIds()) {
+			unpack(id);
+		}
+		this.pack = null;
+		this.unpacked = null;
+	}
+
+	/**
+	 * Records a Fragment under its ID in the reverse index.
+	 * 
+	 * @param id
+	 *            ID of the Fragment
+	 * @param fragment
+	 *            the Fragment stored under that ID
+	 */
+	private void indexFragment(int id, StoryFragment fragment) {
+		if (this.fragmentIds != null && fragment != null) {
+			this.fragmentIds.put(fragment, id);
+		}
+	}
+
+	/**
+	 * Drops a Fragment that is no longer stored under an ID from the reverse
+	 * index. Leaves the entry alone if it already points to a different ID.
+	 * 
+	 * @param id
+	 *            ID the Fragment was stored under
+	 * @param fragment
+	 *            the Fragment that was replaced or removed
+	 */
+	private void unindexFragment(int id, StoryFragment fragment) {
+		if (this.fragmentIds == null || fragment == null) {
+			return;
+		}
+		Integer indexedId = this.fragmentIds.get(fragment);
+		if (indexedId != null && indexedId == id) {
+			this.fragmentIds.remove(fragment);
+		}
+	}
+
+	/**
+	 * Returns the reverse index, building it from the HashMap if this list
+	 * was just read from a file.
+	 * 
+	 * @return the map of Fragments to their IDs
+	 */
+	private IdentityHashMap<StoryFragment, Integer> getFragmentIds() {
+		if (this.fragmentIds == null) {
+			this.fragmentIds = new IdentityHashMap<StoryFragment, Integer>();
+			for (int id : this.fragmentList.keys()) {
+				indexFragment(id, this.fragmentList.get(id));
+			}
+		}
+		return this.fragmentIds;
+	}
+
+	/**
+	 * Returns the info list, building it from the HashMap on first use.
+	 * Fragments still in the pack are left there; their info reads them when
+	 * first asked for a title or description.
+	 * 
+	 * @return the StoryFragmentInfo of every Fragment in order of ID
+	 */
+	private ArrayList<StoryFragmentInfo> getInfoList() {
+		if (this.infoList == null) {
+			int[] ids = getIds();
+			Arrays.sort(ids);
+			this.infoList = new ArrayList<StoryFragmentInfo>(ids.length);
+			for (int id : ids) {
+				StoryFragment fragment = this.fragmentList.get(id);
+				if (fragment != null) {
+					this.infoList.add(new StoryFragmentInfo(id, fragment));
+				} else {
+					this.infoList.add(new StoryFragmentInfo(id, this));
+				}
+			}
+		}
+		return this.infoList;
+	}
+
+	/**
+	 * Binary searches the info list for an ID.
+	 * 
+	 * @param id
+	 *            ID of the Fragment
+	 * @return the position of its info, or (-(insertion point) - 1) if it has
+	 *         none
+	 */
+	private int findInfo(int id) {
+		int low = 0;
+		int high = this.infoList.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int midId = this.infoList.get(mid).getId();
+			if (midId < id) {
+				low = mid + 1;
+			} else if (midId > id) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Adds the info of a new Fragment to the info list. New IDs come from the
+	 * high-water mark, so this is normally an append.
+	 * 
+	 * @param id
+	 *            ID of the Fragment
+	 * @param fragment
+	 *            the Fragment added under that ID
+	 */
+	private void infoAdded(int id, StoryFragment fragment) {
+		if (this.infoList == null) {
+			return;
+		}
+		int position = findInfo(id);
+		if (position < 0) {
+			this.infoList.add(-position - 1, new StoryFragmentInfo(id,
+					fragment));
+		}
+		this.infoView = null;
+	}
+
+	/**
+	 * Drops the info of a removed Fragment from the info list.
+	 * 
+	 * @param id
+	 *            ID of the Fragment
+	 */
+	private void infoRemoved(int id) {
+		if (this.infoList == null) {
+			return;
+		}
+		int position = findInfo(id);
+		if (position >= 0) {
+			this.infoList.remove(position);
+		}
+		this.infoView = null;
+	}
+
+	/**
+	 * Points the info of an ID at the Fragment that replaced the old one. The
+	 * info objects are shared with lists already handed out, so those see the
+	 * new Fragment too.
+	 * 
+	 * @param id
+	 *            ID of the Fragment
+	 * @param fragment
+	 *            the Fragment now stored under that ID
+	 */
+	private void infoReplaced(int id, StoryFragment fragment) {
+		if (this.infoList == null) {
+			return;
+		}
+		int position = findInfo(id);
+		if (position >= 0) {
+			this.infoList.get(position).setFragment(fragment);
+		}
+	}
+
 	/* Methods required for Serializable Interface */
 	/**
 	 * Serializable method to write out a StoryFragmentList.
@@ -197,7 +705,11 @@ public class StoryFragmentList implements Serializable {
 	 * @throws IOException
 	 */
 	private void writeObject(java.io.ObjectOutputStream out) throws IOException {
-		out.writeObject(this.fragmentList);
+		unpackAll();
+		out.writeObject(this.fragmentList.toHashMap());
+		out.writeObject(Integer.valueOf(this.nextId));
+		out.writeObject(Boolean.valueOf(this.reuseIds));
+		out.writeObject(this.freeIds.toArrayList());
 	}
 
 	/**
@@ -210,7 +722,27 @@ public class StoryFragmentList implements Serializable {
 	 */
 	private void readObject(java.io.ObjectInputStream in) throws IOException,
 			ClassNotFoundException {
-		this.fragmentList = (HashMap<Integer, StoryFragment>) in.readObject();
+		this.fragmentList = IntHashMap
+				.fromHashMap((HashMap<Integer, StoryFragment>) in.readObject());
+		this.freeIds = new IntArrayList();
+		try {
+			this.nextId = (Integer) in.readObject();
+			this.reuseIds = (Boolean) in.readObject();
+			for (Integer id : (ArrayList<Integer>) in.readObject()) {
+				this.freeIds.add(id);
+			}
+		} catch (OptionalDataException e) {
+			if (!e.eof) {
+				throw e;
+			}
+			// Saved before the allocator existed, so continue from the
+			// largest ID in use like addFragment used to
+			this.nextId = 0;
+			for (int id : this.fragmentList.keys()) {
+				this.nextId = Math.max(this.nextId, id + 1);
+			}
+			this.reuseIds = false;
+		}
 	}
 
 	private void readObjectNoData() throws ObjectStreamException {
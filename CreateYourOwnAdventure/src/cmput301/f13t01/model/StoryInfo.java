@@ -33,6 +33,8 @@ import java.util.UUID;
 
 public class StoryInfo implements Serializable {
 
+	private static final long serialVersionUID = -245374181471904970L;
+
 	/* Instance Variables for StoryInfo */
 	private UUID id;
 	private String title;
@@ -52,6 +54,25 @@ public class StoryInfo implements Serializable {
 		this.description = story.getDescription();
 	}
 
+	/**
+	 * Constructor for StoryInfo read back from a saved library.
+	 * 
+	 * @param id
+	 *            the ID of the Story
+	 * @param title
+	 *            the title of the Story
+	 * @param author
+	 *            the author of the Story
+	 * @param description
+	 *            the description of the Story
+	 */
+	public StoryInfo(UUID id, String title, String author, String description) {
+		this.id = id;
+		this.title = title;
+		this.author = author;
+		this.description = description;
+	}
+
 	/**
 	 * Alternate Constructor.
 	 * 
@@ -0,0 +1,514 @@
+/*
+StoryPack Class for CreateYourOwnAdventure App.
+Keeps every fragment and choice list of a story in one memory-mapped file,
+read one record at a time as the story is used.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cmput301.f13t01.model;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * StoryPack is a file holding the fragment and choice records of a whole
+ * story, mapped into memory when opened. After a short header comes an
+ * offset table with an entry for every fragment ID, sorted by ID, giving
+ * where the fragment record and the choice record of that ID start and how
+ * long they are. The records follow, one after the other, in the format
+ * written by StoryCodec.
+ * 
+ * Each record may be compressed on its own by StoryCompression, so one can
+ * still be read without the others.
+ * 
+ * Opening a pack only reads the header, and finding a record is a binary
+ * search of the table, so the cost of reading one fragment does not depend
+ * on the size of the story. A Story attached to a pack reads its fragments
+ * and choices from it as they are first asked for, and the operating system
+ * only pages in the parts of the file that are read.
+ */
+
+public class StoryPack {
+
+	// Bytes before the offset table: the record start and an entry count
+	private static final int HEADER_SIZE = 8;
+	// Bytes in one table entry: ID, then offset and length of the fragment
+	// record and of the choice record, a length of 0 meaning none
+	private static final int ENTRY_SIZE = 20;
+	// Where the offset of each kind of record is within an entry, followed
+	// by its length
+	private static final int FRAGMENT_AT = 4;
+	private static final int CHOICES_AT = 12;
+
+	/* Instance Variables for StoryPack */
+	private final MappedByteBuffer buffer;
+	private final int count;
+
+	private StoryPack(MappedByteBuffer buffer, int count) {
+		this.buffer = buffer;
+		this.count = count;
+	}
+
+	/**
+	 * Opens a pack file, mapping it into memory. The file may be replaced or
+	 * deleted afterwards without affecting the open pack.
+	 * 
+	 * @param file
+	 *            the pack file
+	 * @return the opened StoryPack
+	 * @throws IOException
+	 *             if the file is missing or is not a pack
+	 */
+	public static StoryPack open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					raf.length());
+		} finally {
+			raf.close();
+		}
+		if (buffer.limit() < HEADER_SIZE || buffer.get(0) != StoryCodec.MAGIC_0
+				|| buffer.get(1) != StoryCodec.MAGIC_1
+				|| buffer.get(2) < 1
+				|| buffer.get(2) > StoryCodec.FORMAT_VERSION
+				|| buffer.get(3) != StoryCodec.PACK) {
+			throw new IOException("Not a story pack: " + file);
+		}
+		int count = buffer.getInt(4);
+		if (count < 0
+				|| buffer.limit() < HEADER_SIZE + (long) count * ENTRY_SIZE) {
+			throw new IOException("Story pack cut short: " + file);
+		}
+		return new StoryPack(buffer, count);
+	}
+
+	/**
+	 * Writes every fragment and choice list of a story to a new pack file,
+	 * with no compression.
+	 * 
+	 * @param story
+	 *            the story to write
+	 * @param file
+	 *            the file to write, replaced if it exists
+	 * @throws IOException
+	 */
+	public static void write(Story story, File file) throws IOException {
+		write(story, file, StoryCompression.NONE);
+	}
+
+	/**
+	 * Writes every fragment and choice list of a story to a new pack file.
+	 * Records the story still reads from a pack are copied across without
+	 * being decoded, compressed or not.
+	 * 
+	 * @param story
+	 *            the story to write
+	 * @param file
+	 *            the file to write, replaced if it exists
+	 * @param codec
+	 *            the StoryCompression codec to compress new records with
+	 * @throws IOException
+	 */
+	public static void write(Story story, File file, int codec)
+			throws IOException {
+		write(story, file, codec, null);
+	}
+
+	/**
+	 * Writes every fragment and choice list of a story to a new pack file,
+	 * deflating new records with a dictionary.
+	 * 
+	 * @param story
+	 *            the story to write
+	 * @param file
+	 *            the file to write, replaced if it exists
+	 * @param codec
+	 *            the StoryCompression codec to compress new records with
+	 * @param dictionary
+	 *            the StoryDictionary to deflate with, or null for none
+	 * @throws IOException
+	 */
+	public static void write(Story story, File file, int codec,
+			StoryDictionary dictionary) throws IOException {
+		StoryFragmentList fragmentList = story.getFragmentList();
+		ChoiceMap choiceMap = story.getChoiceMap();
+		int[] ids = union(fragmentList.getIds(), choiceMap.getIds());
+		int[] table = new int[ids.length * 5];
+
+		CountingOutputStream out = new CountingOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+		RecordOutput record = new RecordOutput(out, codec, dictionary);
+		try {
+			out.write(new byte[HEADER_SIZE + ids.length * ENTRY_SIZE]);
+			for (int i = 0; i < ids.length; i++) {
+				int id = ids[i];
+				table[i * 5] = id;
+				table[i * 5 + 1] = out.getCount();
+				if (fragmentList.isPacked(id)) {
+					fragmentList.getPack().copyRecord(id, FRAGMENT_AT, out);
+				} else if (fragmentList.peekFragment(id) != null) {
+					StoryCodec.writeFragment(fragmentList.peekFragment(id),
+							record.start());
+					record.finish();
+				}
+				table[i * 5 + 2] = out.getCount() - table[i * 5 + 1];
+				table[i * 5 + 3] = out.getCount();
+				if (choiceMap.isPacked(id)) {
+					choiceMap.getPack().copyRecord(id, CHOICES_AT, out);
+				} else {
+					ArrayList<Choice> choiceList = choiceMap.peekChoices(id);
+					if (choiceList != null && !choiceList.isEmpty()) {
+						StoryCodec.writeChoices(choiceList, record.start());
+						record.finish();
+					}
+				}
+				table[i * 5 + 4] = out.getCount() - table[i * 5 + 3];
+			}
+		} finally {
+			record.close();
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + ids.length
+				* ENTRY_SIZE);
+		header.put((byte) StoryCodec.MAGIC_0);
+		header.put((byte) StoryCodec.MAGIC_1);
+		header.put((byte) StoryCodec.FORMAT_VERSION);
+		header.put((byte) StoryCodec.PACK);
+		header.putInt(ids.length);
+		for (int value : table) {
+			header.putInt(value);
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.write(header.array());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns the length of the pack file, all of which is mapped into
+	 * memory.
+	 * 
+	 * @return the length in bytes
+	 */
+	public long length() {
+		return this.buffer.capacity();
+	}
+
+	/**
+	 * Returns the number of entries in the offset table.
+	 * 
+	 * @return the number of fragment IDs with a record
+	 */
+	public int size() {
+		return this.count;
+	}
+
+	/**
+	 * Returns whether the pack holds a fragment record for an ID.
+	 * 
+	 * @param id
+	 *            ID of the fragment
+	 * @return true if there is a record
+	 */
+	public boolean hasFragment(int id) {
+		int entry = findEntry(id);
+		return entry >= 0 && this.buffer.getInt(entry + FRAGMENT_AT + 4) > 0;
+	}
+
+	/**
+	 * Returns whether the pack holds a choice record for an ID.
+	 * 
+	 * @param id
+	 *            ID of the fragment
+	 * @return true if there is a record
+	 */
+	public boolean hasChoices(int id) {
+		int entry = findEntry(id);
+		return entry >= 0 && this.buffer.getInt(entry + CHOICES_AT + 4) > 0;
+	}
+
+	/**
+	 * Returns the IDs of every fragment record in the pack.
+	 * 
+	 * @return the fragment IDs, in ascending order
+	 */
+	int[] getFragmentIds() {
+		return getIds(FRAGMENT_AT);
+	}
+
+	/**
+	 * Returns the IDs of every choice record in the pack.
+	 * 
+	 * @return the fragment IDs, in ascending order
+	 */
+	int[] getChoiceIds() {
+		return getIds(CHOICES_AT);
+	}
+
+	/**
+	 * Reads the fragment record of an ID.
+	 * 
+	 * @param id
+	 *            ID of the fragment
+	 * @return the StoryFragment, null if the pack has none
+	 * @throws IOException
+	 */
+	StoryFragment readFragment(int id) throws IOException {
+		InputStream in = openRecord(id, FRAGMENT_AT);
+		if (in == null) {
+			return null;
+		}
+		in = StoryCompression.decompress(in);
+		try {
+			return StoryCodec.readFragment(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the choice record of an ID.
+	 * 
+	 * @param id
+	 *            ID of the fragment
+	 * @return the choices, null if the pack has none
+	 * @throws IOException
+	 */
+	ArrayList<Choice> readChoices(int id) throws IOException {
+		InputStream in = openRecord(id, CHOICES_AT);
+		if (in == null) {
+			return null;
+		}
+		in = StoryCompression.decompress(in);
+		try {
+			return StoryCodec.readChoices(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Copies the bytes of a record, as they are, to another stream.
+	 */
+	private void copyRecord(int id, int at, OutputStream out)
+			throws IOException {
+		ByteBuffer record = slice(id, at);
+		if (record == null) {
+			return;
+		}
+		byte[] chunk = new byte[Math.min(record.remaining(), 8192)];
+		while (record.hasRemaining()) {
+			int length = Math.min(record.remaining(), chunk.length);
+			record.get(chunk, 0, length);
+			out.write(chunk, 0, length);
+		}
+	}
+
+	private InputStream openRecord(int id, int at) {
+		final ByteBuffer record = slice(id, at);
+		if (record == null) {
+			return null;
+		}
+		return new InputStream() {
+			@Override
+			public int read() {
+				return record.hasRemaining() ? record.get() & 0xFF : -1;
+			}
+
+			@Override
+			public int read(byte[] bytes, int offset, int length) {
+				if (!record.hasRemaining()) {
+					return -1;
+				}
+				length = Math.min(length, record.remaining());
+				record.get(bytes, offset, length);
+				return length;
+			}
+		};
+	}
+
+	/**
+	 * Returns a buffer over one record, with a position of its own so reads
+	 * from different threads don't interfere.
+	 * 
+	 * @param at
+	 *            FRAGMENT_AT or CHOICES_AT
+	 * @return the record, null if there is none
+	 */
+	private ByteBuffer slice(int id, int at) {
+		int entry = findEntry(id);
+		if (entry < 0) {
+			return null;
+		}
+		int offset = this.buffer.getInt(entry + at);
+		int length = this.buffer.getInt(entry + at + 4);
+		if (length <= 0 || offset < 0
+				|| (long) offset + length > this.buffer.limit()) {
+			return null;
+		}
+		ByteBuffer record = this.buffer.duplicate();
+		record.limit(offset + length);
+		record.position(offset);
+		return record;
+	}
+
+	/**
+	 * Binary searches the offset table for an ID.
+	 * 
+	 * @return the position of the entry in the file, -1 if there is none
+	 */
+	private int findEntry(int id) {
+		int low = 0;
+		int high = this.count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int entry = HEADER_SIZE + mid * ENTRY_SIZE;
+			int midId = this.buffer.getInt(entry);
+			if (midId < id) {
+				low = mid + 1;
+			} else if (midId > id) {
+				high = mid - 1;
+			} else {
+				return entry;
+			}
+		}
+		return -1;
+	}
+
+	private int[] getIds(int at) {
+		IntArrayList ids = new IntArrayList();
+		for (int i = 0; i < this.count; i++) {
+			int entry = HEADER_SIZE + i * ENTRY_SIZE;
+			if (this.buffer.getInt(entry + at + 4) > 0) {
+				ids.add(this.buffer.getInt(entry));
+			}
+		}
+		return ids.toArray();
+	}
+
+	/**
+	 * Returns the sorted IDs found in either of two arrays.
+	 */
+	private static int[] union(int[] first, int[] second) {
+		int[] ids = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, ids, first.length, second.length);
+		Arrays.sort(ids);
+		int size = 0;
+		for (int i = 0; i < ids.length; i++) {
+			if (size == 0 || ids[size - 1] != ids[i]) {
+				ids[size++] = ids[i];
+			}
+		}
+		return Arrays.copyOf(ids, size);
+	}
+
+	/**
+	 * Compresses one record after another to the pack, setting up the codec
+	 * only once.
+	 */
+	private static class RecordOutput {
+
+		private final OutputStream out;
+		private final int codec;
+		private final StoryDictionary dictionary;
+		private StoryCompression.Output record;
+
+		public RecordOutput(OutputStream out, int codec,
+				StoryDictionary dictionary) {
+			this.out = out;
+			this.codec = codec;
+			this.dictionary = dictionary;
+		}
+
+		/**
+		 * Begins a record at the current end of the pack.
+		 * 
+		 * @return the stream to write the record to
+		 */
+		public OutputStream start() throws IOException {
+			if (this.record == null) {
+				this.record = StoryCompression.compress(this.out, this.codec,
+						this.dictionary);
+			} else {
+				this.record.restart();
+			}
+			return this.record;
+		}
+
+		public void finish() throws IOException {
+			this.record.finish();
+		}
+
+		public void close() throws IOException {
+			if (this.record != null) {
+				this.record.close();
+			} else {
+				this.out.close();
+			}
+		}
+
+	}
+
+	/**
+	 * Counts the bytes written through it, which gives the offset of each
+	 * record as the pack is written.
+	 */
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		private long count;
+
+		public CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length)
+				throws IOException {
+			this.out.write(bytes, offset, length);
+			this.count += length;
+		}
+
+		public int getCount() throws IOException {
+			if (this.count > Integer.MAX_VALUE) {
+				throw new IOException("Story pack too large");
+			}
+			return (int) this.count;
+		}
+
+	}
+
+}
@@ -0,0 +1,283 @@
+/*
+StoryRecords Class for CreateYourOwnAdventure App.
+Splits a story into separately saved records: a header, one record per
+fragment and one per fragment's choice list.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package cmput301.f13t01.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+/**
+ * StoryRecords reads and writes a Story in parts, so that a change to one
+ * fragment only needs that fragment written again. A story is saved as a
+ * header record, holding the story's attributes and ID allocator, a fragment
+ * record for each StoryFragment and a choice record for each fragment that
+ * has choices. The History is saved on its own, as it changes with every
+ * page turned. Records are written by StoryCodec.
+ * 
+ * Records are read back in any order after the header, which creates the
+ * Story they are added to. A story may also be given a StoryPack holding most
+ * of its fragments and choices, which it reads from as they are used; records
+ * read after attaching the pack take the place of the packed ones.
+ */
+
+public final class StoryRecords {
+
+	private StoryRecords() {
+	}
+
+	/**
+	 * Returns the IDs of every fragment in a story.
+	 * 
+	 * @param story
+	 *            the story
+	 * @return the fragment IDs, in no particular order
+	 */
+	public static int[] getFragmentIds(Story story) {
+		return story.getFragmentList().getIds();
+	}
+
+	/**
+	 * Returns the IDs of every fragment in a story that holds choices.
+	 * 
+	 * @param story
+	 *            the story
+	 * @return the fragment IDs, in no particular order
+	 */
+	public static int[] getChoiceIds(Story story) {
+		return story.getChoiceMap().getIds();
+	}
+
+	/**
+	 * Returns whether a story has a fragment to write a record for.
+	 * 
+	 * @param story
+	 *            the story
+	 * @param fragmentId
+	 *            ID of the fragment
+	 * @return true if the fragment exists, false if it was removed
+	 */
+	public static boolean hasFragment(Story story, int fragmentId) {
+		return story.getFragmentList().peekFragment(fragmentId) != null;
+	}
+
+	/**
+	 * Returns whether a fragment has choices to write a record for.
+	 * 
+	 * @param story
+	 *            the story
+	 * @param fragmentId
+	 *            ID of the fragment
+	 * @return true if the fragment has at least one choice
+	 */
+	public static boolean hasChoices(Story story, int fragmentId) {
+		ArrayList<Choice> choiceList = story.getChoiceMap().peekChoices(
+				fragmentId);
+		return choiceList != null && !choiceList.isEmpty();
+	}
+
+	/**
+	 * Returns the reading history of a story, to be saved or restored.
+	 * 
+	 * @param story
+	 *            the story
+	 * @return the story's History
+	 */
+	public static History getHistory(Story story) {
+		return story.getHistory();
+	}
+
+	/**
+	 * Writes the header record of a story.
+	 * 
+	 * @param story
+	 *            the story to write
+	 * @param out
+	 *            the stream to write to
+	 * @throws IOException
+	 */
+	public static void writeHeader(Story story, OutputStream out)
+			throws IOException {
+		StoryFragmentList fragmentList = story.getFragmentList();
+		RecordWriter writer = new RecordWriter(out, StoryCodec.HEADER);
+		writer.writeString(story.getTitle());
+		writer.writeString(story.getAuthor());
+		writer.writeString(story.getDescription());
+		writer.writeInteger(story.getFirstPage());
+		writer.writeVarInt(fragmentList.getNextId());
+		writer.writeByte(fragmentList.isReusingIds() ? 1 : 0);
+		IntArrayList freeIds = fragmentList.getFreeIds();
+		writer.writeVarInt(freeIds.size());
+		for (int i = 0; i < freeIds.size(); i++) {
+			writer.writeVarInt(freeIds.get(i));
+		}
+	}
+
+	/**
+	 * Reads a header record, creating a story without any fragments or
+	 * choices, and with an empty History.
+	 * 
+	 * @param in
+	 *            the stream to read from
+	 * @return the Story the header was written from
+	 * @throws IOException
+	 */
+	public static Story readHeader(InputStream in) throws IOException {
+		RecordReader reader = new RecordReader(in, StoryCodec.HEADER);
+		String title = reader.readString();
+		String author = reader.readString();
+		String description = reader.readString();
+		Integer firstPage = reader.readInteger();
+		int nextId = reader.readVarInt();
+		boolean reuseIds = reader.readByte() != 0;
+		int size = reader.readVarInt();
+		IntArrayList freeIds = new IntArrayList();
+		for (int i = 0; i < size; i++) {
+			freeIds.add(reader.readVarInt());
+		}
+		StoryFragmentList fragmentList = new StoryFragmentList();
+		fragmentList.restoreAllocator(nextId, reuseIds, freeIds);
+		return new Story(title, author, description, firstPage,
+				new History(), fragmentList, new ChoiceMap());
+	}
+
+	/**
+	 * Writes the record of one fragment.
+	 * 
+	 * @param story
+	 *            the story holding the fragment
+	 * @param fragmentId
+	 *            ID of the fragment
+	 * @param out
+	 *            the stream to write to
+	 * @throws IOException
+	 */
+	public static void writeFragment(Story story, int fragmentId,
+			OutputStream out) throws IOException {
+		StoryCodec.writeFragment(
+				story.getFragmentList().peekFragment(fragmentId), out);
+	}
+
+	/**
+	 * Reads the record of one fragment into a story.
+	 * 
+	 * @param story
+	 *            the story created from the header
+	 * @param fragmentId
+	 *            ID the fragment was saved with
+	 * @param in
+	 *            the stream to read from
+	 * @throws IOException
+	 */
+	public static void readFragment(Story story, int fragmentId,
+			InputStream in) throws IOException {
+		story.getFragmentList().restoreFragment(fragmentId,
+				StoryCodec.readFragment(in));
+	}
+
+	/**
+	 * Writes the choice record of one fragment.
+	 * 
+	 * @param story
+	 *            the story holding the fragment
+	 * @param fragmentId
+	 *            ID of the fragment
+	 * @param out
+	 *            the stream to write to
+	 * @throws IOException
+	 */
+	public static void writeChoices(Story story, int fragmentId,
+			OutputStream out) throws IOException {
+		StoryCodec.writeChoices(story.getChoiceMap().peekChoices(fragmentId),
+				out);
+	}
+
+	/**
+	 * Reads the choice record of one fragment into a story.
+	 * 
+	 * @param story
+	 *            the story created from the header
+	 * @param fragmentId
+	 *            ID of the fragment holding the choices
+	 * @param in
+	 *            the stream to read from
+	 * @throws IOException
+	 */
+	public static void readChoices(Story story, int fragmentId,
+			InputStream in) throws IOException {
+		story.getChoiceMap().restoreChoices(fragmentId,
+				StoryCodec.readChoices(in));
+	}
+
+	/**
+	 * Attaches the pack a story reads its fragments and choice lists from.
+	 * Must come straight after the header is read.
+	 * 
+	 * @param story
+	 *            the story created from the header
+	 * @param pack
+	 *            the StoryPack saved for the story
+	 */
+	public static void attachPack(Story story, StoryPack pack) {
+		story.getFragmentList().attachPack(pack);
+		story.getChoiceMap().attachPack(pack);
+	}
+
+	/**
+	 * Reads the record of a fragment removed since the story's pack was
+	 * written, so the packed fragment is no longer used.
+	 * 
+	 * @param story
+	 *            the story the pack is attached to
+	 * @param fragmentId
+	 *            ID of the removed fragment
+	 */
+	public static void readRemovedFragment(Story story, int fragmentId) {
+		story.getFragmentList().restoreRemoved(fragmentId);
+	}
+
+	/**
+	 * Reads the record of a fragment whose choices were all removed since the
+	 * story's pack was written, so the packed choices are no longer used.
+	 * 
+	 * @param story
+	 *            the story the pack is attached to
+	 * @param fragmentId
+	 *            ID of the fragment
+	 */
+	public static void readRemovedChoices(Story story, int fragmentId) {
+		story.getChoiceMap().restoreRemoved(fragmentId);
+	}
+
+	/**
+	 * Reads every fragment and choice list a story still has in its pack, for
+	 * code that reads the story's fields directly, such as Gson.
+	 * 
+	 * @param story
+	 *            the story
+	 */
+	public static void unpackAll(Story story) {
+		story.getFragmentList().unpackAll();
+		story.getChoiceMap().unpackAll();
+	}
+
+}
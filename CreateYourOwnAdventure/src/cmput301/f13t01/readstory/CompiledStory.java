@@ -0,0 +1,261 @@
+/*
+CompiledStory Class for CreateYourOwnAdventure App.
+A read-only form of a story's fragments and choices, laid out in flat
+arrays so the reader can move between fragments without map lookups.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.readstory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import cmput301.f13t01.model.Choice;
+import cmput301.f13t01.model.Story;
+
+/**
+ * CompiledStory is an immutable snapshot of a story's navigation structure.
+ * Fragments are numbered densely from 0 in order of ID, and the choices of
+ * every fragment sit in one run of shared arrays (compressed sparse row
+ * form): the choices of fragment index i are the entries from
+ * choiceStart[i] up to choiceStart[i + 1]. Equal flavour texts share one
+ * String. Nothing is allocated while navigating.
+ * 
+ * A compiled story remembers the revision of the Story it was built from, so
+ * the StoryManager can rebuild it only once the story has changed. Building
+ * one reads every choice list but no fragment, and it can be built from a
+ * snapshot on another thread.
+ */
+public final class CompiledStory {
+
+	/* Instance Variables for a CompiledStory */
+	private final Story story;
+	private final int revision;
+	// Fragment ID of each dense index, ascending so IDs can be binary searched
+	private final int[] fragmentIds;
+	private final int firstIndex;
+	private final int[] choiceStart;
+	// Dense index each choice leads to, -1 if its destination is not set or
+	// no longer exists
+	private final int[] choiceTarget;
+	private final int[] choiceDestinationId;
+	private final String[] choiceText;
+
+	private CompiledStory(Story story, int revision, int[] fragmentIds,
+			int firstIndex, int[] choiceStart, int[] choiceTarget,
+			int[] choiceDestinationId, String[] choiceText) {
+		this.story = story;
+		this.revision = revision;
+		this.fragmentIds = fragmentIds;
+		this.firstIndex = firstIndex;
+		this.choiceStart = choiceStart;
+		this.choiceTarget = choiceTarget;
+		this.choiceDestinationId = choiceDestinationId;
+		this.choiceText = choiceText;
+	}
+
+	/**
+	 * Builds the compiled form of a story.
+	 * 
+	 * @param story
+	 *            the story to compile
+	 * @return a new CompiledStory for the story's current revision
+	 */
+	public static CompiledStory compile(Story story) {
+		return compile(story, story);
+	}
+
+	/**
+	 * Builds the compiled form of a story from a snapshot of it, so that it
+	 * can be built on another thread while the story is read. The result is
+	 * current for the story for as long as the story is at the revision the
+	 * snapshot was taken at.
+	 * 
+	 * @param story
+	 *            the story being compiled
+	 * @param snapshot
+	 *            a snapshot of the story, read only by this call
+	 * @return a new CompiledStory for the snapshot's revision
+	 */
+	public static CompiledStory compile(Story story, Story snapshot) {
+		// Already in order of ID, and no fragment is read to list them
+		int[] fragmentIds = snapshot.getFragmentIds();
+		int count = fragmentIds.length;
+
+		// First pass sizes the shared choice arrays
+		int[] choiceStart = new int[count + 1];
+		ArrayList<List<Choice>> choiceLists = new ArrayList<List<Choice>>(
+				count);
+		for (int i = 0; i < count; i++) {
+			List<Choice> choices = snapshot.readChoices(fragmentIds[i]);
+			choiceLists.add(choices);
+			choiceStart[i + 1] = choiceStart[i] + choices.size();
+		}
+
+		int total = choiceStart[count];
+		int[] choiceTarget = new int[total];
+		int[] choiceDestinationId = new int[total];
+		String[] choiceText = new String[total];
+		HashMap<String, String> textPool = new HashMap<String, String>();
+		for (int i = 0; i < count; i++) {
+			int slot = choiceStart[i];
+			for (Choice choice : choiceLists.get(i)) {
+				Integer destination = choice.getDestinationId();
+				if (destination == null) {
+					choiceTarget[slot] = -1;
+					choiceDestinationId[slot] = -1;
+				} else {
+					choiceTarget[slot] = indexOf(fragmentIds, destination);
+					choiceDestinationId[slot] = destination;
+				}
+				choiceText[slot] = pool(textPool, choice.getFlavourText());
+				slot++;
+			}
+		}
+
+		Integer firstPage = snapshot.getFirstPage();
+		int firstIndex = firstPage == null ? -1 : indexOf(fragmentIds,
+				firstPage);
+
+		return new CompiledStory(story, snapshot.getRevision(), fragmentIds,
+				firstIndex, choiceStart, choiceTarget, choiceDestinationId,
+				choiceText);
+	}
+
+	/**
+	 * Returns whether this is still an up to date compiled form of a story.
+	 * 
+	 * @param story
+	 *            the story to check against
+	 * @return true if compiled from that story at its current revision
+	 */
+	public boolean isCurrent(Story story) {
+		return this.story == story && this.revision == story.getRevision();
+	}
+
+	/**
+	 * Returns the number of fragments in the story.
+	 * 
+	 * @return the fragment count
+	 */
+	public int getFragmentCount() {
+		return this.fragmentIds.length;
+	}
+
+	/**
+	 * Returns the dense index of a fragment.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment
+	 * @return the fragment's index, -1 if the story has no such fragment
+	 */
+	public int indexOf(int fragmentId) {
+		return indexOf(this.fragmentIds, fragmentId);
+	}
+
+	/**
+	 * Returns the fragment ID at a dense index.
+	 * 
+	 * @param index
+	 *            index of the fragment
+	 * @return the fragment's ID
+	 */
+	public int getFragmentId(int index) {
+		return this.fragmentIds[index];
+	}
+
+	/**
+	 * Returns the dense index of the story's first page.
+	 * 
+	 * @return the first page's index, -1 if none is set
+	 */
+	public int getFirstIndex() {
+		return this.firstIndex;
+	}
+
+	/**
+	 * Returns the number of choices leaving a fragment.
+	 * 
+	 * @param index
+	 *            index of the fragment
+	 * @return the number of choices
+	 */
+	public int getChoiceCount(int index) {
+		return this.choiceStart[index + 1] - this.choiceStart[index];
+	}
+
+	/**
+	 * Returns the index of the fragment a choice leads to.
+	 * 
+	 * @param index
+	 *            index of the fragment holding the choice
+	 * @param choice
+	 *            position of the choice within the fragment
+	 * @return the destination's index, -1 if it does not lead anywhere
+	 */
+	public int getChoiceTarget(int index, int choice) {
+		return this.choiceTarget[this.choiceStart[index] + choice];
+	}
+
+	/**
+	 * Returns the ID of the fragment a choice leads to, as stored in the
+	 * choice.
+	 * 
+	 * @param index
+	 *            index of the fragment holding the choice
+	 * @param choice
+	 *            position of the choice within the fragment
+	 * @return the destination's ID, -1 if none is set
+	 */
+	public int getChoiceDestinationId(int index, int choice) {
+		return this.choiceDestinationId[this.choiceStart[index] + choice];
+	}
+
+	/**
+	 * Returns the flavour text of a choice.
+	 * 
+	 * @param index
+	 *            index of the fragment holding the choice
+	 * @param choice
+	 *            position of the choice within the fragment
+	 * @return the flavour text
+	 */
+	public String getChoiceText(int index, int choice) {
+		return this.choiceText[this.choiceStart[index] + choice];
+	}
+
+	private static int indexOf(int[] fragmentIds, int fragmentId) {
+		int index = Arrays.binarySearch(fragmentIds, fragmentId);
+		return index < 0 ? -1 : index;
+	}
+
+	private static String pool(HashMap<String, String> textPool, String text) {
+		if (text == null) {
+			return null;
+		}
+		String pooled = textPool.get(text);
+		if (pooled == null) {
+			textPool.put(text, text);
+			pooled = text;
+		}
+		return pooled;
+	}
+
+}
@@ -38,7 +38,6 @@ import android.view.View;
 import android.widget.Toast;
 import cmput301.f13t01.R;
 import cmput301.f13t01.editstory.EditAnnotationActivity;
-import cmput301.f13t01.model.Choice;
 import cmput301.f13t01.model.Media;
 import cmput301.f13t01.storylibrary.GlobalManager;
 import cmput301.f13t01.storylibrary.HelpFragment;
@@ -164,13 +163,14 @@ public class ReadFragmentActivity extends FragmentActivity {
 	}
 
 	/**
-	 * Saves the history on stop.
+	 * Saves the history on stop, writing out any saves still queued.
 	 */
 	@Override
 	public void onStop() {
 		super.onStop();
 		storyManager.pushToStack(fragmentId);
-		save.saveStory(this.storyId, this.storyManager.getStory());
+		save.saveHistory(this.storyId, this.storyManager.getStory());
+		save.flush();
 
 	}
 
@@ -183,7 +183,7 @@ public class ReadFragmentActivity extends FragmentActivity {
 		// get the fragment id of the story's first page
 		Integer destinationId = storyManager.getFirstPageId();
 		storyManager.clearHistory();
-		save.saveStory(this.storyId, this.storyManager.getStory());
+		save.saveHistory(this.storyId, this.storyManager.getStory());
 
 		// read the next story fragment
 		commitFragment(destinationId);
@@ -197,7 +197,7 @@ public class ReadFragmentActivity extends FragmentActivity {
 
 		// go back to previous, adjusting history stack properly
 		Integer destinationId = storyManager.goBack();
-		save.saveStory(this.storyId, this.storyManager.getStory());
+		save.saveHistory(this.storyId, this.storyManager.getStory());
 
 		if (destinationId != null) {
 			// read the next story fragment if there is a previous fragment in
@@ -223,21 +223,28 @@ public class ReadFragmentActivity extends FragmentActivity {
 
 		// Save the history
 		storyManager.pushToStack(fragmentId);
-		save.saveStory(this.storyId, this.storyManager.getStory());
+		save.saveHistory(this.storyId, this.storyManager.getStory());
 
 		// fetch the destinationId of the next fragment to show
 		int selectedChoice = v.getId() - 1;
 
-		ArrayList<Choice> choiceList = storyManager.getChoices(fragmentId);
+		int choiceCount = storyManager.getChoiceCount(fragmentId);
+		if (choiceCount == 0) {
+			return;
+		}
 
-		// if random choice is selected, pick a random choice from choiceList
-		if (selectedChoice == choiceList.size()) {
+		// if random choice is selected, pick a random choice
+		if (selectedChoice == choiceCount) {
 			Random random = new Random();
-			selectedChoice = random.nextInt(choiceList.size());
+			selectedChoice = random.nextInt(choiceCount);
 		}
-		Choice choice = choiceList.get(selectedChoice);
 
-		Integer destinationId = choice.getDestinationId();
+		Integer destinationId = storyManager.getChoiceDestination(fragmentId,
+				selectedChoice);
+		if (destinationId == null) {
+			// the choice does not lead to a fragment in this story
+			return;
+		}
 
 		// generate new fragment to replace the old one
 		commitFragment(destinationId);
@@ -331,7 +338,7 @@ public class ReadFragmentActivity extends FragmentActivity {
 
 			storyManager.setAnnotation(fragmentId, newAnnotationList);
 			// Save the story with new annotations
-			save.saveStory(this.storyId, this.storyManager.getStory());
+			save.queueStory(this.storyId, this.storyManager.getStory());
 
 			Toast.makeText(getBaseContext(), "Annotation Saved",
 					Toast.LENGTH_LONG).show();
@@ -37,7 +37,6 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 import cmput301.f13t01.R;
 import cmput301.f13t01.editstory.StoryFragmentViewFactory;
-import cmput301.f13t01.model.Choice;
 import cmput301.f13t01.model.Media;
 import cmput301.f13t01.storylibrary.GlobalManager;
 
@@ -104,19 +103,17 @@ public class ReadFragmentView extends Fragment {
 		StoryFragmentViewFactory.ConstructView(layout, annotateList,
 				getActivity(), false);
 
-		// from story level with fragment id, get the array list of choice
-		// objects
-		ArrayList<Choice> choices = storyManager.getChoices(fragmentId);
+		// get the flavour texts of the fragment's choices, without waiting
+		// for the story to be compiled
+		int choiceCount = storyManager.getChoiceCount(fragmentId);
 
 		// if there are choices, cycle through them and extract the flavour
 		// texts
-		if (choices != null) {
-			ArrayList<String> flavourText = new ArrayList<String>();
+		if (choiceCount > 0) {
+			ArrayList<String> flavourText = new ArrayList<String>(choiceCount);
 
-			for (int i = 0; i < choices.size(); i++) {
-				Choice currentChoice = choices.get(i);
-				String s = currentChoice.getFlavourText();
-				flavourText.add(s);
+			for (int i = 0; i < choiceCount; i++) {
+				flavourText.add(storyManager.getChoiceText(fragmentId, i));
 			}
 
 			// use for loop to make series of buttons consisting of the
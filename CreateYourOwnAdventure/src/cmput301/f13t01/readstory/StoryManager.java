@@ -25,7 +25,15 @@ other story fragments.
 package cmput301.f13t01.readstory;
 
 import java.util.ArrayList;
-
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import cmput301.f13t01.analysis.StoryGraphAnalyzer;
 import cmput301.f13t01.model.Choice;
 import cmput301.f13t01.model.Media;
 import cmput301.f13t01.model.Story;
@@ -42,8 +50,25 @@ import cmput301.f13t01.model.StoryFragmentInfo;
  */
 public class StoryManager {
 
+	// Compiles stories for reading off the UI thread, one at a time
+	private static final ExecutorService compiler = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "StoryCompiler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
 	// declaration of variables
 	private Story story;
+	// Read-only form of the story for navigation, rebuilt when it goes stale
+	private CompiledStory compiled;
+	// Compile running in the background, null if none is
+	private Future<CompiledStory> compiling;
+	// Graph analysis of the story, kept up to date by forwarding each edit
+	private StoryGraphAnalyzer analyzer;
 
 	/**
 	 * Used by the global manager to inform the ReadStoryManager of what story
@@ -54,6 +79,9 @@ public class StoryManager {
 	 */
 	public void setStory(Story story) {
 		this.story = story;
+		this.compiled = null;
+		this.compiling = null;
+		this.analyzer = null;
 	}
 
 	/**
@@ -65,6 +93,167 @@ public class StoryManager {
 		return story;
 	}
 
+	/**
+	 * Returns a read-only snapshot of the loaded story, which can be saved or
+	 * published on a background thread while editing carries on. Must be
+	 * called on the thread that edits the story.
+	 * 
+	 * @return a snapshot of the loaded story
+	 */
+	public Story getSnapshot() {
+		return story.snapshot();
+	}
+
+	/**
+	 * Returns the compiled, read-only form of the loaded story. It is only
+	 * rebuilt when the story's fragments, choices or first page have changed
+	 * since the last call.
+	 * 
+	 * @return the CompiledStory for the loaded story
+	 */
+	public CompiledStory getCompiledStory() {
+		CompiledStory ready = pollCompiledStory();
+		if (ready == null) {
+			compiled = CompiledStory.compile(story);
+			ready = compiled;
+		}
+		return ready;
+	}
+
+	/**
+	 * Returns the compiled form of the loaded story if it is up to date. If
+	 * it is not, it is compiled from a snapshot on a background thread and
+	 * null is returned until that is done. Must be called on the thread that
+	 * edits the story.
+	 * 
+	 * @return the CompiledStory for the loaded story, null if not ready yet
+	 */
+	public CompiledStory peekCompiledStory() {
+		CompiledStory ready = pollCompiledStory();
+		if (ready == null && compiling == null) {
+			final Story source = story;
+			final Story snapshot = story.snapshot();
+			compiling = compiler.submit(new Callable<CompiledStory>() {
+				@Override
+				public CompiledStory call() {
+					return CompiledStory.compile(source, snapshot);
+				}
+			});
+		}
+		return ready;
+	}
+
+	/**
+	 * Takes the result of a finished background compile, then returns the
+	 * compiled story if it is up to date.
+	 * 
+	 * @return the up to date CompiledStory, null if there is none
+	 */
+	private CompiledStory pollCompiledStory() {
+		if (compiling != null && compiling.isDone()) {
+			try {
+				compiled = compiling.get();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+			compiling = null;
+		}
+		if (compiled == null || !compiled.isCurrent(story)) {
+			return null;
+		}
+		return compiled;
+	}
+
+	/**
+	 * Returns the number of choices leaving a fragment, for the reader. The
+	 * compiled story is used once it is ready, and until then the choices
+	 * are read from the story, so showing the first page never waits for
+	 * the whole story to be compiled.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment
+	 * @return the number of choices, 0 if there is no such fragment
+	 */
+	public int getChoiceCount(int fragmentId) {
+		CompiledStory ready = peekCompiledStory();
+		if (ready == null) {
+			return story.readChoices(fragmentId).size();
+		}
+		int index = ready.indexOf(fragmentId);
+		return index < 0 ? 0 : ready.getChoiceCount(index);
+	}
+
+	/**
+	 * Returns the flavour text of a choice, for the reader.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment holding the choice
+	 * @param choice
+	 *            position of the choice within the fragment
+	 * @return the flavour text
+	 */
+	public String getChoiceText(int fragmentId, int choice) {
+		CompiledStory ready = peekCompiledStory();
+		if (ready == null) {
+			return story.readChoices(fragmentId).get(choice).getFlavourText();
+		}
+		return ready.getChoiceText(ready.indexOf(fragmentId), choice);
+	}
+
+	/**
+	 * Returns the fragment a choice leads to, for the reader.
+	 * 
+	 * @param fragmentId
+	 *            ID of the fragment holding the choice
+	 * @param choice
+	 *            position of the choice within the fragment
+	 * @return ID of the destination, null if it does not lead to a fragment
+	 *         in this story
+	 */
+	public Integer getChoiceDestination(int fragmentId, int choice) {
+		CompiledStory ready = peekCompiledStory();
+		if (ready == null) {
+			Integer destination = story.readChoices(fragmentId).get(choice)
+					.getDestinationId();
+			if (destination == null) {
+				return null;
+			}
+			return story.readFragment(destination) == null ? null
+					: destination;
+		}
+		int target = ready.getChoiceTarget(ready.indexOf(fragmentId), choice);
+		return target < 0 ? null : ready.getFragmentId(target);
+	}
+
+	/**
+	 * Returns the graph analysis of the loaded story, giving its unreachable
+	 * fragments, dead ends, orphans and dangling choices. It is built on the
+	 * first call and then updated with each edit made through this manager.
+	 * 
+	 * @return the StoryGraphAnalyzer for the loaded story
+	 */
+	public StoryGraphAnalyzer getGraphAnalyzer() {
+		if (trackedAnalyzer() == null) {
+			analyzer = new StoryGraphAnalyzer(story);
+		}
+		return analyzer;
+	}
+
+	/**
+	 * Returns the graph analysis if there is one that has seen every edit to
+	 * the story so far, dropping it if the story was changed elsewhere.
+	 * 
+	 * @return the current StoryGraphAnalyzer, null if there is none
+	 */
+	private StoryGraphAnalyzer trackedAnalyzer() {
+		if (analyzer != null && !analyzer.isCurrent(story)) {
+			analyzer = null;
+		}
+		return analyzer;
+	}
+
 	/* Functions that deal with Story attributes */
 	/**
 	 * Getter for story title.
@@ -102,8 +291,13 @@ public class StoryManager {
 		return story.getFirstPage();
 	}
 
+	/**
+	 * Getter for the first fragment of the story, only to be read.
+	 * 
+	 * @return the first fragment of the story
+	 */
 	public StoryFragment getFirstPage() {
-		return story.getFragment(getFirstPageId());
+		return story.readFragment(getFirstPageId());
 	}
 
 	/**
@@ -147,7 +341,15 @@ public class StoryManager {
 	 * @return true if successful, false otherwise
 	 */
 	public boolean setFirstPage(Integer id) {
-		return story.setFirstPage(id);
+		StoryGraphAnalyzer graph = trackedAnalyzer();
+		boolean result = story.setFirstPage(id);
+		if (graph != null) {
+			if (result) {
+				graph.firstPageChanged(id);
+			}
+			graph.markCurrent();
+		}
+		return result;
 	}
 
 	/* Functions that deal with the StoryFragmentList */
@@ -162,6 +364,18 @@ public class StoryManager {
 		return story.getFragment(id);
 	}
 
+	/**
+	 * Fetches a requested StoryFragment by ID only to be read, without
+	 * marking it as changed.
+	 * 
+	 * @param id
+	 *            the id of the StoryFragment to return
+	 * @return the requested StoryFragment, null if it doesn't exist
+	 */
+	public StoryFragment readFragment(Integer id) {
+		return story.readFragment(id);
+	}
+
 	/**
 	 * Returns the ID of a given StoryFragment.
 	 * 
@@ -186,12 +400,12 @@ public class StoryManager {
 	}
 
 	/**
-	 * Returns an ArrayList of StoryFragmentInfo objects for all StoryFragment
-	 * objects.
+	 * Returns the StoryFragmentInfo of every StoryFragment, in ascending order
+	 * of ID.
 	 * 
-	 * @return an ArrayList of all StoryFragmentInfo
+	 * @return an unmodifiable List of all StoryFragmentInfo
 	 */
-	public ArrayList<StoryFragmentInfo> getFragmentInfoList() {
+	public List<StoryFragmentInfo> getFragmentInfoList() {
 		return story.getFragmentInfoList();
 	}
 
@@ -204,7 +418,13 @@ public class StoryManager {
 	 * @return the ID given to the added StoryFragment
 	 */
 	public Integer addFragment(StoryFragment newFragment) {
-		return story.addFragment(newFragment);
+		StoryGraphAnalyzer graph = trackedAnalyzer();
+		Integer id = story.addFragment(newFragment);
+		if (graph != null) {
+			graph.fragmentAdded(id);
+			graph.markCurrent();
+		}
+		return id;
 	}
 
 	/**
@@ -216,7 +436,15 @@ public class StoryManager {
 	 * @return true if successful, false otherwise
 	 */
 	public boolean removeFragment(Integer id) {
-		return story.removeFragment(id);
+		StoryGraphAnalyzer graph = trackedAnalyzer();
+		boolean result = story.removeFragment(id);
+		if (graph != null) {
+			if (result) {
+				graph.fragmentRemoved(id);
+			}
+			graph.markCurrent();
+		}
+		return result;
 	}
 
 	/**
@@ -230,7 +458,13 @@ public class StoryManager {
 	 * @returns true is successful, false otherwise
 	 */
 	public boolean updateFragment(Integer id, StoryFragment fragment) {
-		return story.updateFragment(id, fragment);
+		StoryGraphAnalyzer graph = trackedAnalyzer();
+		boolean result = story.updateFragment(id, fragment);
+		// Replacing a fragment keeps its ID and choices, so the graph stays
+		if (graph != null) {
+			graph.markCurrent();
+		}
+		return result;
 	}
 
 	/* Functions that deal with the ChoiceMap and Choices */
@@ -243,7 +477,12 @@ public class StoryManager {
 	 *            Choice object to add to the ChoiceMap
 	 */
 	public void addChoice(int fragmentId, Choice choice) {
+		StoryGraphAnalyzer graph = trackedAnalyzer();
 		story.addChoice(fragmentId, choice);
+		if (graph != null) {
+			graph.choiceAdded(fragmentId, choice.getDestinationId());
+			graph.markCurrent();
+		}
 	}
 
 	/**
@@ -257,7 +496,16 @@ public class StoryManager {
 	 * @return Returns true if choice existed, otherwise returns false
 	 */
 	public boolean deleteChoice(int fragmentId, int index) {
-		return story.deleteChoice(fragmentId, index);
+		StoryGraphAnalyzer graph = trackedAnalyzer();
+		Choice removed = choiceAt(fragmentId, index);
+		boolean result = story.deleteChoice(fragmentId, index);
+		if (graph != null) {
+			if (result) {
+				graph.choiceRemoved(fragmentId, removed.getDestinationId());
+			}
+			graph.markCurrent();
+		}
+		return result;
 	}
 
 	/**
@@ -273,7 +521,17 @@ public class StoryManager {
 	 * @return Returns true if choice already existed, false otherwise
 	 */
 	public boolean updateChoice(int fragmentId, int index, Choice choice) {
-		return story.updateChoice(fragmentId, index, choice);
+		StoryGraphAnalyzer graph = trackedAnalyzer();
+		Choice replaced = choiceAt(fragmentId, index);
+		boolean result = story.updateChoice(fragmentId, index, choice);
+		if (graph != null) {
+			if (result) {
+				graph.choiceRemoved(fragmentId, replaced.getDestinationId());
+				graph.choiceAdded(fragmentId, choice.getDestinationId());
+			}
+			graph.markCurrent();
+		}
+		return result;
 	}
 
 	/**
@@ -284,7 +542,12 @@ public class StoryManager {
 	 *            ID of StoryFragment to remove references to
 	 */
 	public void cleanFragmentReferences(int fragmentId) {
+		StoryGraphAnalyzer graph = trackedAnalyzer();
 		story.cleanFragmentReferences(fragmentId);
+		if (graph != null) {
+			graph.referencesCleaned(fragmentId);
+			graph.markCurrent();
+		}
 	}
 
 	/**
@@ -299,6 +562,35 @@ public class StoryManager {
 		return story.getChoices(fragmentId);
 	}
 
+	/**
+	 * Returns the IDs of all StoryFragments with a Choice leading to the given
+	 * StoryFragment ID.
+	 * 
+	 * @param fragmentId
+	 *            ID of the destination StoryFragment
+	 * @return ArrayList of IDs of the StoryFragments linking to it
+	 */
+	public ArrayList<Integer> getLinkingFragments(int fragmentId) {
+		return story.getLinkingFragments(fragmentId);
+	}
+
+	/**
+	 * Returns the Choice at an index of a fragment's choices.
+	 * 
+	 * @param fragmentId
+	 *            ID of StoryFragment where choice is located
+	 * @param index
+	 *            Index of the choice
+	 * @return the Choice, null if there is none at that index
+	 */
+	private Choice choiceAt(int fragmentId, int index) {
+		ArrayList<Choice> choices = story.getChoices(fragmentId);
+		if (index < 0 || index >= choices.size()) {
+			return null;
+		}
+		return choices.get(index);
+	}
+
 	/* Functions that deal with the History */
 
 	/**
@@ -348,7 +640,7 @@ public class StoryManager {
 	 */
 	@SuppressWarnings("rawtypes")
 	public ArrayList<Media> getMediaList(Integer fragmentId) {
-		StoryFragment fragment = getFragment(fragmentId);
+		StoryFragment fragment = readFragment(fragmentId);
 		return fragment.getContentList();
 	}
 
@@ -359,7 +651,7 @@ public class StoryManager {
 	 */
 	@SuppressWarnings("rawtypes")
 	public ArrayList<Media> getAnnotationList(Integer fragmentId) {
-		StoryFragment fragment = getFragment(fragmentId);
+		StoryFragment fragment = readFragment(fragmentId);
 		return fragment.getAnnotationList();
 	}
 
@@ -374,6 +666,7 @@ public class StoryManager {
 	 */
 	public boolean setAnnotation(Integer fragmentId,
 			ArrayList<Media> newAnnotationList) {
+		// Marked as changed, so the next save writes it
 		StoryFragment fragment = getFragment(fragmentId);
 		return fragment.setAnnotation(newAnnotationList);
 	}
@@ -0,0 +1,388 @@
+/*
+DictionaryStore class for CreateYourOwnAdventure.
+Keeps every compression dictionary trained from the library, so records
+compressed with any of them can be read, and trains new ones as the library
+grows.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.storylibrary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import cmput301.f13t01.model.Media;
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryCompression;
+import cmput301.f13t01.model.StoryDictionary;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.model.StoryFragmentInfo;
+import cmput301.f13t01.model.Text;
+
+/**
+ * DictionaryStore keeps the StoryDictionary instances a StoryStore deflates
+ * its records with, in a directory with a file for each, named by the
+ * dictionary's ID in hex, and a file naming the current one and the number
+ * of stories it was trained from. Every dictionary is made known to
+ * StoryCompression when the store is opened, and the current one is set on
+ * the StoryStore.
+ * 
+ * A dictionary is never deleted, as records written with it may remain in
+ * any story not written in full since. Retraining is cheap on disk all the
+ * same: a new dictionary is trained only once the library has grown to
+ * GROWTH times the stories the current one was trained from, so there are
+ * only a few however large the library gets.
+ * 
+ * Training reads the Text of every story, up to a share of MAX_SAMPLES
+ * bytes each, on a background thread of low priority that pauses after each
+ * batch of stories, like MediaCollector. The new dictionary is written and
+ * synced before the StoryStore uses it, so no record ever names a dictionary
+ * that is not on disk.
+ */
+
+public class DictionaryStore {
+
+	private static final String CURRENT_FILE = "current";
+	// Times the stories the current dictionary was trained from the library
+	// must grow to before training another
+	public static final int GROWTH = 2;
+	// Most bytes of text read to train a dictionary
+	public static final int MAX_SAMPLES = 1024 * 1024;
+	// Stories read between pauses
+	public static final int BATCH_SIZE = 16;
+	// Milliseconds to pause between batches
+	public static final long PAUSE = 200;
+
+	/* Instance Variables for DictionaryStore */
+	private final File directory;
+	private final StoryStore storyStore;
+	private final long pause;
+	private final ExecutorService executor;
+	// Dictionary new records are written with, null if none was trained
+	private StoryDictionary current;
+	// Stories in the library when a dictionary was last trained, or found
+	// too little text to train from
+	private int trainedFrom;
+	// Training running or waiting to, if any
+	private Future<Boolean> running;
+
+	/**
+	 * Constructor. Reads every dictionary in the directory, and sets the
+	 * current one on the StoryStore.
+	 * 
+	 * @param directory
+	 *            the directory to keep the dictionaries in
+	 * @param storyStore
+	 *            the StoryStore to train from and compress with
+	 */
+	public DictionaryStore(File directory, StoryStore storyStore) {
+		this(directory, storyStore, PAUSE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param directory
+	 *            the directory to keep the dictionaries in
+	 * @param storyStore
+	 *            the StoryStore to train from and compress with
+	 * @param pause
+	 *            milliseconds to pause between batches when training
+	 */
+	public DictionaryStore(File directory, StoryStore storyStore, long pause) {
+		this.directory = directory;
+		this.storyStore = storyStore;
+		this.pause = pause;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "DictionaryStore");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+		readAll();
+	}
+
+	/**
+	 * Returns the dictionary new records are written with.
+	 * 
+	 * @return the current StoryDictionary, null if none was trained
+	 */
+	public synchronized StoryDictionary getCurrent() {
+		return this.current;
+	}
+
+	/**
+	 * Starts training a new dictionary in the background, if the library has
+	 * grown enough since one was last trained, or since there was too little
+	 * text to train one, and unless training is already under way.
+	 * 
+	 * @param storyIds
+	 *            the IDs of every story in the library
+	 * @return a Future of whether a new dictionary is now in use
+	 */
+	public synchronized Future<Boolean> train(Collection<UUID> storyIds) {
+		if (this.running != null && !this.running.isDone()) {
+			return this.running;
+		}
+		final ArrayList<UUID> ids = new ArrayList<UUID>(storyIds);
+		final boolean due = !ids.isEmpty()
+				&& ids.size() >= this.trainedFrom * GROWTH;
+		this.running = this.executor.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws InterruptedException {
+				return due && trainFrom(ids);
+			}
+		});
+		return this.running;
+	}
+
+	/**
+	 * Trains a dictionary from the text of the stories given, and makes it
+	 * current.
+	 * 
+	 * @return true if a dictionary was trained
+	 */
+	private boolean trainFrom(ArrayList<UUID> ids) throws InterruptedException {
+		int share = Math.max(StoryDictionary.MIN_SAMPLE_SIZE, MAX_SAMPLES
+				/ ids.size());
+		ArrayList<byte[]> samples = new ArrayList<byte[]>();
+		int total = 0;
+		for (int i = 0; i < ids.size() && total < MAX_SAMPLES; i++) {
+			Story story = this.storyStore.loadCopy(ids.get(i));
+			if (story != null) {
+				total += sample(story, Math.min(share, MAX_SAMPLES - total),
+						samples);
+			}
+			if (i % BATCH_SIZE == BATCH_SIZE - 1) {
+				Thread.sleep(this.pause);
+			}
+		}
+		StoryDictionary dictionary = StoryDictionary.train(samples,
+				StoryDictionary.DEFAULT_SIZE);
+		if (dictionary == null) {
+			// Too little text to learn from, until the library grows
+			synchronized (this) {
+				this.trainedFrom = ids.size();
+			}
+			return false;
+		}
+		try {
+			write(dictionary, ids.size());
+		} catch (IOException e) {
+			// The current dictionary stays as it was
+			e.printStackTrace();
+			return false;
+		}
+		StoryCompression.addDictionary(dictionary);
+		synchronized (this) {
+			this.current = dictionary;
+			this.trainedFrom = ids.size();
+		}
+		this.storyStore.setDictionary(dictionary);
+		return true;
+	}
+
+	/**
+	 * Adds the Text of a story's fragments to the samples, one sample for
+	 * each Text, up to a number of bytes.
+	 * 
+	 * @return the bytes added
+	 */
+	private static int sample(Story story, int limit,
+			ArrayList<byte[]> samples) {
+		int added = 0;
+		try {
+			for (StoryFragmentInfo info : story.getFragmentInfoList()) {
+				StoryFragment fragment = story.getFragment(info.getId());
+				if (fragment == null) {
+					continue;
+				}
+				for (Media media : fragment.getContentList()) {
+					if (!(media instanceof Text) || added >= limit) {
+						continue;
+					}
+					byte[] bytes = media.toString().getBytes("UTF-8");
+					if (bytes.length > limit - added) {
+						byte[] cut = new byte[limit - added];
+						System.arraycopy(bytes, 0, cut, 0, cut.length);
+						bytes = cut;
+					}
+					samples.add(bytes);
+					added += bytes.length;
+				}
+				if (added >= limit) {
+					break;
+				}
+			}
+		} catch (UnsupportedEncodingException e) {
+			// Every Java has UTF-8
+			e.printStackTrace();
+		} catch (RuntimeException e) {
+			// Can't be read in full, so only what was read is used
+			e.printStackTrace();
+		}
+		return added;
+	}
+
+	/**
+	 * Writes a dictionary, then makes it the current one, syncing both.
+	 */
+	private void write(StoryDictionary dictionary, int storyCount)
+			throws IOException {
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new IOException("Can't create " + this.directory);
+		}
+		FileCommit commit = new FileCommit();
+		try {
+			OutputStream out = commit.openReplacement(getFile(dictionary
+					.getId()));
+			try {
+				out.write(dictionary.getBytes());
+			} finally {
+				out.close();
+			}
+			DataOutputStream current = new DataOutputStream(
+					commit.openReplacement(new File(this.directory,
+							CURRENT_FILE)));
+			try {
+				current.writeInt(dictionary.getId());
+				current.writeInt(storyCount);
+			} finally {
+				current.close();
+			}
+			commit.commit();
+		} catch (IOException e) {
+			commit.abort();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads every dictionary, making each known to StoryCompression, then
+	 * the file naming the current one.
+	 */
+	private void readAll() {
+		String[] names = this.directory.list();
+		if (names == null) {
+			return;
+		}
+		int[] current = readCurrent();
+		for (String name : names) {
+			if (name.equals(CURRENT_FILE)) {
+				continue;
+			}
+			int id;
+			try {
+				id = (int) Long.parseLong(name, 16);
+			} catch (NumberFormatException e) {
+				// Left by a write that never finished
+				continue;
+			}
+			try {
+				StoryDictionary dictionary = new StoryDictionary(
+						readBytes(new File(this.directory, name)));
+				if (dictionary.getId() != id) {
+					// Damaged, so no record can have been read with it
+					continue;
+				}
+				StoryCompression.addDictionary(dictionary);
+				if (id == current[0]) {
+					this.current = dictionary;
+					this.trainedFrom = current[1];
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (IllegalArgumentException e) {
+				// Not a dictionary
+				e.printStackTrace();
+			}
+		}
+		if (this.current != null) {
+			this.storyStore.setDictionary(this.current);
+		}
+	}
+
+	/**
+	 * Reads the file naming the current dictionary.
+	 * 
+	 * @return {ID, stories trained from}, {0, 0} if there is none
+	 */
+	private int[] readCurrent() {
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(
+					new File(this.directory, CURRENT_FILE)));
+			try {
+				return new int[] { in.readInt(), in.readInt() };
+			} finally {
+				in.close();
+			}
+		} catch (FileNotFoundException e) {
+			// Never trained
+			return new int[] { 0, 0 };
+		} catch (IOException e) {
+			e.printStackTrace();
+			return new int[] { 0, 0 };
+		}
+	}
+
+	private static byte[] readBytes(File file) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while ((count = in.read(buffer)) >= 0) {
+				bytes.write(buffer, 0, count);
+			}
+			return bytes.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the file holding a dictionary.
+	 * 
+	 * @param id
+	 *            ID of the dictionary
+	 * @return the dictionary's file
+	 */
+	private File getFile(int id) {
+		return new File(this.directory, Integer.toHexString(id));
+	}
+
+}
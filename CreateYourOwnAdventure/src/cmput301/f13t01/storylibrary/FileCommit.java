@@ -0,0 +1,227 @@
+/*
+FileCommit class for CreateYourOwnAdventure.
+Replaces a group of files together, syncing them all to disk before any of
+them takes the place of the file it replaces.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.storylibrary;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+/**
+ * FileCommit makes changes to files safe from crashes. A file is never
+ * written over in place: its new contents go to a temporary file beside it,
+ * which is renamed over the old file when the commit is made. A rename
+ * replaces a file all at once, so after a crash each file is either its old
+ * self or its new self, never half of each.
+ * 
+ * Committing first syncs every file written for the commit to disk, then
+ * renames and deletes files in the order they were added. Many changes,
+ * even to many stories, can share one commit, so they share a single wait
+ * for the disk rather than each waiting in turn; SaveQueue commits every
+ * save it writes at once together.
+ * 
+ * Files appended to in place, or written in a directory nothing reads yet,
+ * can be added just to be synced with the rest.
+ */
+
+public class FileCommit {
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/* Instance Variables for FileCommit */
+	// Files to sync, each renamed over its target, or deleted if it has no
+	// file of its own, or just synced if it has no target
+	private final ArrayList<File> files;
+	private final ArrayList<File> targets;
+	// Run once every change has been made
+	private final ArrayList<Runnable> actions;
+
+	/**
+	 * Constructor. Creates an empty commit.
+	 */
+	public FileCommit() {
+		this.files = new ArrayList<File>();
+		this.targets = new ArrayList<File>();
+		this.actions = new ArrayList<Runnable>();
+	}
+
+	/**
+	 * Adds a file to be replaced, returning the temporary file its new
+	 * contents must be written to.
+	 * 
+	 * @param target
+	 *            the file to replace, which need not exist yet
+	 * @return the file to write, renamed over the target when committed
+	 */
+	public File replace(File target) {
+		File temp = new File(target.getPath() + TEMP_SUFFIX);
+		add(temp, target);
+		return temp;
+	}
+
+	/**
+	 * Adds a file to be replaced, like replace, opening the temporary file for
+	 * writing.
+	 * 
+	 * @param target
+	 *            the file to replace
+	 * @return a buffered stream writing the new contents
+	 * @throws IOException
+	 */
+	public OutputStream openReplacement(File target) throws IOException {
+		return new BufferedOutputStream(new FileOutputStream(replace(target)));
+	}
+
+	/**
+	 * Adds a file already written, to be synced to disk with the rest.
+	 * 
+	 * @param file
+	 *            the file to sync, skipped if it doesn't exist
+	 */
+	public void sync(File file) {
+		add(file, null);
+	}
+
+	/**
+	 * Adds a file to be deleted when the commit is made, after the changes
+	 * added before it.
+	 * 
+	 * @param file
+	 *            the file to delete
+	 */
+	public void delete(File file) {
+		add(null, file);
+	}
+
+	/**
+	 * Adds something to do once every change in the commit has been made. It
+	 * is not done if the commit fails.
+	 * 
+	 * @param action
+	 *            the action to run
+	 */
+	public void afterCommit(Runnable action) {
+		this.actions.add(action);
+	}
+
+	/**
+	 * Returns the number of changes added so far, for discard.
+	 * 
+	 * @return the number of changes
+	 */
+	public int size() {
+		return this.files.size();
+	}
+
+	/**
+	 * Drops the changes added after a given number, deleting their temporary
+	 * files. Used when a change made of several files can't be finished.
+	 * 
+	 * @param size
+	 *            the number of changes to keep, as returned by size before
+	 *            the others were added
+	 */
+	public void discard(int size) {
+		while (this.files.size() > size) {
+			int last = this.files.size() - 1;
+			File file = this.files.get(last);
+			if (file != null && this.targets.get(last) != null) {
+				file.delete();
+			}
+			this.files.remove(last);
+			this.targets.remove(last);
+		}
+	}
+
+	/**
+	 * Syncs every file to disk, then makes the changes in the order they were
+	 * added and runs the actions. If it fails, the files not yet renamed are
+	 * left as they were.
+	 * 
+	 * @throws IOException
+	 *             if a file can't be synced or renamed
+	 */
+	public void commit() throws IOException {
+		try {
+			for (File file : this.files) {
+				if (file != null && file.isFile()) {
+					syncFile(file);
+				}
+			}
+			for (int i = 0; i < this.files.size(); i++) {
+				File file = this.files.get(i);
+				File target = this.targets.get(i);
+				if (target == null) {
+					continue;
+				}
+				if (file == null) {
+					target.delete();
+				} else if (!file.renameTo(target)) {
+					throw new IOException("Can't replace " + target);
+				}
+			}
+		} catch (IOException e) {
+			abort();
+			throw e;
+		}
+		this.files.clear();
+		this.targets.clear();
+		for (Runnable action : this.actions) {
+			action.run();
+		}
+		this.actions.clear();
+	}
+
+	/**
+	 * Drops every change not yet made, deleting the temporary files.
+	 */
+	public void abort() {
+		discard(0);
+		this.actions.clear();
+	}
+
+	/**
+	 * Syncs the contents of one file to disk.
+	 * 
+	 * @param file
+	 *            the file to sync
+	 * @throws IOException
+	 */
+	public static void syncFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.getFD().sync();
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void add(File file, File target) {
+		this.files.add(file);
+		this.targets.add(target);
+	}
+
+}
@@ -28,10 +28,13 @@ package cmput301.f13t01.storylibrary;
 
 import java.io.File;
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 import android.app.Application;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.os.Environment;
+import android.util.Log;
 import cmput301.f13t01.elasticsearch.ESClient;
 import cmput301.f13t01.elasticsearch.ESManager;
 import cmput301.f13t01.model.Story;
@@ -104,6 +107,29 @@ public class GlobalManager extends Application {
 		}
 	}
 
+	/**
+	 * Writes out queued saves once the app's UI is hidden, as the process may
+	 * be stopped from then on, and deletes media no story uses and retrains
+	 * the compression dictionary while the app is out of the way. Stories
+	 * kept in memory are dropped as the system runs short of it.
+	 */
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+			localManager.flush();
+			localManager.collectMedia();
+			localManager.trainDictionary();
+			Log.d("StoryCache", localManager.getStoryCache().toString());
+		}
+		if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+			localManager.trimStoryCache(0);
+		} else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+			localManager.trimStoryCache(localManager.getStoryCache()
+					.getCapacity() / 2);
+		}
+	}
+
 	/**
 	 * Get the application's temporary directory.
 	 * 
@@ -181,21 +207,24 @@ public class GlobalManager extends Application {
 	 * @return storyId the ID of the newly created story.
 	 */
 	public UUID createAndSetStory() {
-		UUID storyId = localManager.addStory(new Story());
-		readManager.setStory(localManager.getStory(storyId));
+		Story story = new Story();
+		UUID storyId = localManager.addStory(story);
+		// The story is saved in the background, so use it as it is
+		readManager.setStory(story);
 
 		return storyId;
 	}
 
 	/**
-	 * Saves an update to a preexisting story
+	 * Saves an update to a preexisting story in the background
 	 * 
 	 * @param storyId
 	 *            ID of the story to update
+	 * @return a Future of whether the save succeeded
 	 */
-	public static void saveStory(UUID storyId) {
+	public static Future<Boolean> saveStory(UUID storyId) {
 		Story story = readManager.getStory();
-		localManager.saveStory(storyId, story);
+		return localManager.queueStory(storyId, story);
 	}
 
 	/**
@@ -0,0 +1,682 @@
+/*
+LibraryIndex class for CreateYourOwnAdventure.
+Keeps the StoryInfo of every story in the library sorted by title, saved as
+a sorted snapshot plus a log of the changes made since.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.storylibrary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import cmput301.f13t01.model.RecordReader;
+import cmput301.f13t01.model.RecordWriter;
+import cmput301.f13t01.model.StoryCodec;
+import cmput301.f13t01.model.StoryInfo;
+
+/**
+ * LibraryIndex holds the StoryInfo of every story in the library in order of
+ * title, so the library can be listed, or a page of it read, without sorting.
+ * Each entry keeps the collation key of its title, worked out once when the
+ * entry is added, and an entry added or changed is put in its place by a
+ * binary search. Many added or removed at once, as when stories are
+ * downloaded or removed together, are sorted among themselves and merged in
+ * with one pass instead.
+ * 
+ * The index is saved as a snapshot of every entry in order, keys included,
+ * and a log beside it that each write appends the changes since the last
+ * one to, so saving one story's info costs the same however large the
+ * library. Once the log holds many more changes than the index has entries,
+ * the snapshot is written again and the log emptied. A change cut short by
+ * a crash is cut off the log when it is read.
+ * 
+ * The keys depend on the locale the titles are collated for. A snapshot
+ * written for another locale has its keys worked out again, and is sorted
+ * again, when it is read.
+ */
+
+public class LibraryIndex {
+
+	private static final String LOG_SUFFIX = ".log";
+
+	/* Kinds of change in the log */
+	private static final int PUT = 1;
+	private static final int REMOVE = 2;
+
+	// Changes allowed in the log beyond half the entries before the snapshot
+	// is written again
+	private static final int COMPACT_SLACK = 256;
+
+	private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry first, Entry second) {
+			int length = Math.min(first.key.length, second.key.length);
+			for (int i = 0; i < length; i++) {
+				int difference = (first.key[i] & 0xFF) - (second.key[i] & 0xFF);
+				if (difference != 0) {
+					return difference;
+				}
+			}
+			if (first.key.length != second.key.length) {
+				return first.key.length - second.key.length;
+			}
+			return first.info.getId().compareTo(second.info.getId());
+		}
+	};
+
+	/* Instance Variables for LibraryIndex */
+	private final File file;
+	private final File logFile;
+	private final String locale;
+	private final Collator collator;
+	// Entries in order of title
+	private final ArrayList<Entry> entries;
+	private final HashMap<UUID, Entry> byId;
+	// Changes not yet saved, each a StoryInfo put or the UUID of one removed
+	private final ArrayList<Object> changes;
+	// Changes in the log file
+	private int logged;
+	// Whether the snapshot must be written again, being out of date
+	private boolean stale;
+
+	/**
+	 * Constructor. Reads the index saved in a file, if there is one.
+	 * 
+	 * @param file
+	 *            the file to keep the snapshot in, the log being kept beside
+	 *            it
+	 * @param locale
+	 *            the locale to sort titles for
+	 * @throws IOException
+	 *             if the snapshot can't be read
+	 */
+	public LibraryIndex(File file, Locale locale) throws IOException {
+		this(file, new File(file.getPath() + LOG_SUFFIX), locale);
+		readSnapshot();
+		replay();
+	}
+
+	/**
+	 * Constructor. Creates an empty index kept only in memory, which write
+	 * saves nowhere.
+	 * 
+	 * @param locale
+	 *            the locale to sort titles for
+	 */
+	public LibraryIndex(Locale locale) {
+		this(null, null, locale);
+	}
+
+	private LibraryIndex(File file, File logFile, Locale locale) {
+		this.file = file;
+		this.logFile = logFile;
+		this.locale = locale.toString();
+		this.collator = Collator.getInstance(locale);
+		this.entries = new ArrayList<Entry>();
+		this.byId = new HashMap<UUID, Entry>();
+		this.changes = new ArrayList<Object>();
+		this.logged = 0;
+		this.stale = false;
+	}
+
+	/**
+	 * Returns the number of stories in the index.
+	 * 
+	 * @return the number of stories
+	 */
+	public synchronized int size() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Returns whether a story is in the index.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @return true if it is in the index
+	 */
+	public synchronized boolean contains(UUID id) {
+		return this.byId.containsKey(id);
+	}
+
+	/**
+	 * Returns the StoryInfo of a story.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @return the StoryInfo, null if the story is not in the index
+	 */
+	public synchronized StoryInfo get(UUID id) {
+		Entry entry = this.byId.get(id);
+		return entry == null ? null : entry.info;
+	}
+
+	/**
+	 * Returns a page of the index, in order of title.
+	 * 
+	 * @param start
+	 *            position in the index of the first StoryInfo wanted
+	 * @param count
+	 *            the most StoryInfo wanted
+	 * @return the StoryInfo from start on, fewer than count at the end
+	 */
+	public synchronized ArrayList<StoryInfo> getRange(int start, int count) {
+		int end = Math.min(this.entries.size(), start + Math.max(count, 0));
+		ArrayList<StoryInfo> infoList = new ArrayList<StoryInfo>(Math.max(
+				end - start, 0));
+		for (int i = Math.max(start, 0); i < end; i++) {
+			infoList.add(this.entries.get(i).info);
+		}
+		return infoList;
+	}
+
+	/**
+	 * Returns every StoryInfo, in order of title.
+	 * 
+	 * @return the StoryInfo of every story
+	 */
+	public synchronized ArrayList<StoryInfo> getAll() {
+		return getRange(0, this.entries.size());
+	}
+
+	/**
+	 * Adds the StoryInfo of a story, replacing any the story had.
+	 * 
+	 * @param info
+	 *            the StoryInfo to add
+	 * @return true if the index changed, false if it held the same already
+	 */
+	public synchronized boolean put(StoryInfo info) {
+		Entry old = this.byId.get(info.getId());
+		if (old != null && equal(old.info.getTitle(), info.getTitle())
+				&& equal(old.info.getAuthor(), info.getAuthor())
+				&& equal(old.info.getDescription(), info.getDescription())) {
+			return false;
+		}
+		putEntry(info);
+		this.changes.add(info);
+		return true;
+	}
+
+	/**
+	 * Removes the StoryInfo of a story.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @return true if the story was in the index
+	 */
+	public synchronized boolean remove(UUID id) {
+		if (!removeEntry(id)) {
+			return false;
+		}
+		this.changes.add(id);
+		return true;
+	}
+
+	/**
+	 * Adds the StoryInfo of many stories at once, replacing any they had.
+	 * Costs one pass over the index however many are added, where put costs
+	 * one for each.
+	 * 
+	 * @param infoList
+	 *            the StoryInfo to add, the last winning if a story is given
+	 *            twice
+	 * @return the number of stories whose StoryInfo changed
+	 */
+	public synchronized int putAll(Collection<StoryInfo> infoList) {
+		LinkedHashMap<UUID, StoryInfo> changed;
+		changed = new LinkedHashMap<UUID, StoryInfo>();
+		for (StoryInfo info : infoList) {
+			changed.remove(info.getId());
+			Entry old = this.byId.get(info.getId());
+			if (old == null || !equal(old.info.getTitle(), info.getTitle())
+					|| !equal(old.info.getAuthor(), info.getAuthor())
+					|| !equal(old.info.getDescription(),
+							info.getDescription())) {
+				changed.put(info.getId(), info);
+			}
+		}
+		if (changed.isEmpty()) {
+			return 0;
+		}
+		removeEntries(changed.keySet());
+		ArrayList<Entry> added = new ArrayList<Entry>(changed.size());
+		for (StoryInfo info : changed.values()) {
+			Entry entry = new Entry(info, collationKey(info.getTitle()));
+			added.add(entry);
+			this.byId.put(info.getId(), entry);
+		}
+		Collections.sort(added, ORDER);
+		mergeEntries(added);
+		this.changes.addAll(changed.values());
+		return changed.size();
+	}
+
+	/**
+	 * Removes the StoryInfo of many stories at once. Costs one pass over the
+	 * index however many are removed, where remove costs one for each.
+	 * 
+	 * @param ids
+	 *            IDs of the stories
+	 * @return the IDs of the stories that were in the index
+	 */
+	public synchronized ArrayList<UUID> removeAll(Collection<UUID> ids) {
+		LinkedHashSet<UUID> removed = new LinkedHashSet<UUID>();
+		for (UUID id : ids) {
+			if (this.byId.containsKey(id)) {
+				removed.add(id);
+			}
+		}
+		removeEntries(removed);
+		this.changes.addAll(removed);
+		return new ArrayList<UUID>(removed);
+	}
+
+	/**
+	 * Saves the changes made since the last write, appending them to the log
+	 * or, once the log is long enough, writing the snapshot again. The files
+	 * are synced or replaced when the FileCommit is made, and until then the
+	 * changes count as not saved. Must not be called on more than one thread
+	 * at once.
+	 * 
+	 * @param commit
+	 *            the FileCommit to add the files to
+	 * @return true if the files were written, false otherwise
+	 */
+	public boolean write(FileCommit commit) {
+		final int written;
+		ArrayList<Object> unsaved;
+		ArrayList<Entry> snapshot = null;
+		synchronized (this) {
+			written = this.changes.size();
+			if (written == 0 && !this.stale) {
+				return true;
+			}
+			if (this.file == null) {
+				this.changes.clear();
+				return true;
+			}
+			unsaved = new ArrayList<Object>(this.changes);
+			if (this.stale
+					|| this.logged + written > this.entries.size() / 2
+							+ COMPACT_SLACK) {
+				snapshot = new ArrayList<Entry>(this.entries);
+			}
+		}
+		int start = commit.size();
+		try {
+			if (snapshot != null) {
+				writeSnapshot(snapshot, commit);
+			} else {
+				appendLog(unsaved);
+				commit.sync(this.logFile);
+			}
+		} catch (IOException e) {
+			commit.discard(start);
+			e.printStackTrace();
+			return false;
+		}
+		final boolean compacted = snapshot != null;
+		commit.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (LibraryIndex.this) {
+					// Changes made meanwhile are saved by the next write
+					LibraryIndex.this.changes.subList(0, written).clear();
+					if (compacted) {
+						LibraryIndex.this.logged = 0;
+						LibraryIndex.this.stale = false;
+					}
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Puts an entry in its place in the index, replacing any for the same
+	 * story.
+	 */
+	private void putEntry(StoryInfo info) {
+		removeEntry(info.getId());
+		Entry entry = new Entry(info, collationKey(info.getTitle()));
+		int position = Collections.binarySearch(this.entries, entry, ORDER);
+		this.entries.add(-position - 1, entry);
+		this.byId.put(info.getId(), entry);
+	}
+
+	private boolean removeEntry(UUID id) {
+		Entry entry = this.byId.remove(id);
+		if (entry == null) {
+			return false;
+		}
+		this.entries.remove(Collections.binarySearch(this.entries, entry,
+				ORDER));
+		return true;
+	}
+
+	/**
+	 * Removes the entries of some stories, moving the rest down in one pass.
+	 */
+	private void removeEntries(Collection<UUID> ids) {
+		HashSet<Entry> removed = new HashSet<Entry>();
+		for (UUID id : ids) {
+			Entry entry = this.byId.remove(id);
+			if (entry != null) {
+				removed.add(entry);
+			}
+		}
+		if (removed.isEmpty()) {
+			return;
+		}
+		int kept = 0;
+		for (int i = 0; i < this.entries.size(); i++) {
+			Entry entry = this.entries.get(i);
+			if (!removed.contains(entry)) {
+				this.entries.set(kept++, entry);
+			}
+		}
+		this.entries.subList(kept, this.entries.size()).clear();
+	}
+
+	/**
+	 * Merges entries, in order, into the index.
+	 */
+	private void mergeEntries(ArrayList<Entry> added) {
+		ArrayList<Entry> merged = new ArrayList<Entry>(this.entries.size()
+				+ added.size());
+		int i = 0;
+		int j = 0;
+		while (i < this.entries.size() && j < added.size()) {
+			if (ORDER.compare(this.entries.get(i), added.get(j)) <= 0) {
+				merged.add(this.entries.get(i++));
+			} else {
+				merged.add(added.get(j++));
+			}
+		}
+		merged.addAll(this.entries.subList(i, this.entries.size()));
+		merged.addAll(added.subList(j, added.size()));
+		this.entries.clear();
+		this.entries.addAll(merged);
+	}
+
+	private byte[] collationKey(String title) {
+		return this.collator.getCollationKey(title == null ? "" : title)
+				.toByteArray();
+	}
+
+	/**
+	 * Writes a new snapshot of some entries, replacing the old one and
+	 * emptying the log.
+	 */
+	private void writeSnapshot(List<Entry> snapshot, FileCommit commit)
+			throws IOException {
+		OutputStream out = commit.openReplacement(this.file);
+		try {
+			RecordWriter writer = new RecordWriter(out,
+					StoryCodec.LIBRARY_INDEX);
+			writer.writeString(this.locale);
+			writer.writeVarInt(snapshot.size());
+			for (Entry entry : snapshot) {
+				writeInfo(writer, entry.info);
+				writer.writeBytes(entry.key);
+			}
+		} finally {
+			out.close();
+		}
+		// Replaced after the snapshot, which already holds its changes
+		commit.openReplacement(this.logFile).close();
+	}
+
+	/**
+	 * Appends changes to the log, as one record.
+	 */
+	private void appendLog(List<Object> unsaved) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(
+				this.logFile, true));
+		try {
+			RecordWriter writer = new RecordWriter(out, StoryCodec.LIBRARY_LOG);
+			writer.writeVarInt(unsaved.size());
+			for (Object change : unsaved) {
+				if (change instanceof StoryInfo) {
+					writer.writeByte(PUT);
+					writeInfo(writer, (StoryInfo) change);
+				} else {
+					UUID id = (UUID) change;
+					writer.writeByte(REMOVE);
+					writer.writeLong(id.getMostSignificantBits());
+					writer.writeLong(id.getLeastSignificantBits());
+				}
+			}
+		} finally {
+			out.close();
+		}
+		synchronized (this) {
+			this.logged += unsaved.size();
+		}
+	}
+
+	/**
+	 * Reads the snapshot, if there is one. Its entries are in order already
+	 * unless it was written for another locale.
+	 */
+	private void readSnapshot() throws IOException {
+		InputStream in;
+		try {
+			in = new BufferedInputStream(new FileInputStream(this.file));
+		} catch (FileNotFoundException e) {
+			// Nothing saved yet
+			return;
+		}
+		try {
+			RecordReader reader = new RecordReader(in,
+					StoryCodec.LIBRARY_INDEX);
+			boolean sameLocale = this.locale.equals(reader.readString());
+			int size = reader.readVarInt();
+			this.entries.ensureCapacity(size);
+			for (int i = 0; i < size; i++) {
+				StoryInfo info = readInfo(reader);
+				byte[] key = reader.readBytes();
+				if (!sameLocale) {
+					key = collationKey(info.getTitle());
+				}
+				Entry entry = new Entry(info, key);
+				this.entries.add(entry);
+				this.byId.put(info.getId(), entry);
+			}
+			if (!sameLocale) {
+				Collections.sort(this.entries, ORDER);
+				this.stale = true;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the log, applying each change to the entries read from the
+	 * snapshot. Anything after the last whole record is cut off, so later
+	 * records are appended after good ones.
+	 */
+	private void replay() throws IOException {
+		CountingInputStream in;
+		try {
+			in = new CountingInputStream(new BufferedInputStream(
+					new FileInputStream(this.logFile)));
+		} catch (FileNotFoundException e) {
+			// Nothing logged yet
+			return;
+		}
+		long length = 0;
+		try {
+			while (in.hasMore()) {
+				RecordReader reader = new RecordReader(in,
+						StoryCodec.LIBRARY_LOG);
+				int size = reader.readVarInt();
+				ArrayList<Object> record = new ArrayList<Object>(size);
+				for (int i = 0; i < size; i++) {
+					int kind = reader.readByte();
+					if (kind == PUT) {
+						record.add(readInfo(reader));
+					} else if (kind == REMOVE) {
+						record.add(new UUID(reader.readLong(), reader
+								.readLong()));
+					} else {
+						throw new IOException("Unknown change " + kind);
+					}
+				}
+				// Whole, so apply it
+				for (Object change : record) {
+					if (change instanceof StoryInfo) {
+						putEntry((StoryInfo) change);
+					} else {
+						removeEntry((UUID) change);
+					}
+				}
+				this.logged += size;
+				length = in.getCount();
+			}
+		} catch (IOException e) {
+			// A record cut short, or not a record, so the rest can't be
+			// trusted
+		} finally {
+			in.close();
+		}
+		if (this.logFile.length() > length) {
+			RandomAccessFile truncate = new RandomAccessFile(this.logFile,
+					"rw");
+			try {
+				truncate.setLength(length);
+			} finally {
+				truncate.close();
+			}
+		}
+	}
+
+	private static void writeInfo(RecordWriter writer, StoryInfo info)
+			throws IOException {
+		writer.writeLong(info.getId().getMostSignificantBits());
+		writer.writeLong(info.getId().getLeastSignificantBits());
+		writer.writeString(info.getTitle());
+		writer.writeString(info.getAuthor());
+		writer.writeString(info.getDescription());
+	}
+
+	private static StoryInfo readInfo(RecordReader reader) throws IOException {
+		UUID id = new UUID(reader.readLong(), reader.readLong());
+		String title = reader.readString();
+		String author = reader.readString();
+		return new StoryInfo(id, title, author, reader.readString());
+	}
+
+	private static boolean equal(String first, String second) {
+		return first == null ? second == null : first.equals(second);
+	}
+
+	/**
+	 * The StoryInfo of one story, with the collation key of its title.
+	 */
+	private static class Entry {
+
+		private final StoryInfo info;
+		private final byte[] key;
+
+		public Entry(StoryInfo info, byte[] key) {
+			this.info = info;
+			this.key = key;
+		}
+
+	}
+
+	/**
+	 * Counts the bytes read through it, which gives where each record of the
+	 * log ends.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		private long count;
+
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		/**
+		 * Returns whether there is anything left to read.
+		 */
+		public boolean hasMore() throws IOException {
+			this.in.mark(1);
+			boolean more = this.in.read() >= 0;
+			this.in.reset();
+			return more;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = this.in.read();
+			if (b >= 0) {
+				this.count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length)
+				throws IOException {
+			int read = this.in.read(bytes, offset, length);
+			if (read > 0) {
+				this.count += read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = this.in.skip(n);
+			this.count += skipped;
+			return skipped;
+		}
+
+		public long getCount() {
+			return this.count;
+		}
+
+	}
+
+}
@@ -26,26 +26,30 @@ This class is used as a singleton by GlobalManager, from the Application.
 
 package cmput301.f13t01.storylibrary;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.ObjectStreamException;
-import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Future;
 
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
-import android.os.Environment;
 import android.util.Base64;
 import android.util.Log;
 import cmput301.f13t01.editstory.StoryBitmapFactory;
@@ -65,9 +69,18 @@ import cmput301.f13t01.model.StoryInfo;
 
 public class LocalManager implements Serializable, LibraryManager {
 
+	// Milliseconds between collections of media that read every story again
+	private static final long MARK_ALL_INTERVAL = 7 * 24 * 60 * 60 * 1000L;
+
 	/* Instance Variables for Library */
 	private Context context;
-	private HashMap<UUID, StoryInfo> storyInfoList;
+	private LibraryIndex storyIndex;
+	private StoryStore storyStore;
+	private SaveQueue saveQueue;
+	private MediaStore mediaStore;
+	private MediaCollector mediaCollector;
+	private StoryCache storyCache;
+	private DictionaryStore dictionaryStore;
 
 	/**
 	 * Constructor. Takes a context, loads all StoryInfo objects
@@ -78,8 +91,36 @@ public class LocalManager implements Serializable, LibraryManager {
 	public LocalManager(Context context) {
 		// Save context for File IO
 		this.context = context;
+		// Stories are kept in a directory each
+		this.storyStore = new StoryStore(new File(context.getFilesDir(),
+				"stories"));
+		// Records are deflated with a dictionary trained from the library,
+		// once there is one, and read with whichever they were written with
+		this.dictionaryStore = new DictionaryStore(new File(
+				context.getFilesDir(), "dictionaries"), this.storyStore);
+		// Saves are written in the background
+		this.saveQueue = new SaveQueue(this.storyStore);
+		// Stories loaded lately are kept, in up to a sixteenth of the heap
+		this.storyCache = new StoryCache(Runtime.getRuntime().maxMemory() / 16);
 		// Load in the list of locally saved stories
 		this.loadStoryInfoList();
+		// Media is kept in a directory for each type, named by its contents
+		this.mediaStore = new MediaStore(context.getFilesDir(),
+				context.getFileStreamPath("MediaIndex.sav"));
+		this.mediaCollector = new MediaCollector(this.mediaStore,
+				this.storyStore, this.saveQueue);
+		// Media of older versions is renamed and counted in the background;
+		// getMediaFile finds it by its old name meanwhile
+		final ArrayList<UUID> storyIds = new ArrayList<UUID>();
+		for (StoryInfo info : this.storyIndex.getAll()) {
+			storyIds.add(info.getId());
+		}
+		this.mediaCollector.submit(new Runnable() {
+			@Override
+			public void run() {
+				loadMediaIndex(storyIds);
+			}
+		});
 	}
 
 	/**
@@ -91,7 +132,7 @@ public class LocalManager implements Serializable, LibraryManager {
 	 */
 	public Story getStory(UUID storyId) {
 		// Return story if it exists
-		if (this.storyInfoList.keySet().contains(storyId)) {
+		if (this.storyIndex.contains(storyId)) {
 			return loadStory(storyId);
 		} else {
 			// Return null if story does not exist
@@ -108,29 +149,41 @@ public class LocalManager implements Serializable, LibraryManager {
 	 * @return a StoryInfo object for that ID
 	 */
 	public StoryInfo getStoryInfo(UUID storyId) {
-		if (this.storyInfoList.keySet().contains(storyId)) {
-			return this.storyInfoList.get(storyId);
-		} else {
-			return null;
-		}
+		return this.storyIndex.get(storyId);
 	}
 
 	/**
-	 * Returns an ArrayList of StoryInfo objects for all Story objects.
+	 * Returns an ArrayList of StoryInfo objects for all Story objects, in
+	 * order of title.
 	 * 
 	 * @return an ArrayList of all StoryInfo
 	 */
 	public ArrayList<StoryInfo> getStoryInfoList() {
-		ArrayList<StoryInfo> fetchList = new ArrayList<StoryInfo>(
-				this.storyInfoList.values());
-		// Sort the list consistently before return
-		Collections.sort(fetchList, new Comparator<StoryInfo>() {
-			@Override
-			public int compare(final StoryInfo s1, final StoryInfo s2) {
-				return s1.getTitle().compareTo(s2.getTitle());
-			}
-		});
-		return fetchList;
+		// The index keeps them sorted already
+		return this.storyIndex.getAll();
+	}
+
+	/**
+	 * Returns a page of the StoryInfo list, in order of title. Cheap however
+	 * many stories there are, as the list is kept sorted.
+	 * 
+	 * @param start
+	 *            position of the first StoryInfo wanted
+	 * @param count
+	 *            the most StoryInfo wanted
+	 * @return an ArrayList of up to count StoryInfo
+	 */
+	public ArrayList<StoryInfo> getStoryInfoList(int start, int count) {
+		return this.storyIndex.getRange(start, count);
+	}
+
+	/**
+	 * Returns the number of stories in the local library.
+	 * 
+	 * @return the number of stories
+	 */
+	public int getStoryCount() {
+		return this.storyIndex.size();
 	}
 
 	/**
@@ -142,12 +195,15 @@ public class LocalManager implements Serializable, LibraryManager {
 	public UUID addStory(Story story) {
 		// ID assigned is a randomUUID... Shouldn't collide
 		UUID id = UUID.randomUUID();
-		// Places new StoryInfo into StoryInfoList
+		// Places new StoryInfo into the index
 		StoryInfo newStoryInfo = new StoryInfo(id, story);
-		this.storyInfoList.put(id, newStoryInfo);
-		this.saveStoryInfoList();
+		if (this.storyIndex.put(newStoryInfo)) {
+			this.queueStoryInfoList();
+		}
+		// Count the media of every fragment, as all of them are new here
+		this.mediaStore.setReferences(id, story);
 		// Save newly added Story
-		this.saveStory(id, story);
+		this.queueStory(id, story);
 		return id;
 	}
 
@@ -159,13 +215,17 @@ public class LocalManager implements Serializable, LibraryManager {
 	 */
 	public boolean removeStory(UUID storyId) {
 		// Story exists, removed
-		if (this.storyInfoList.containsKey(storyId)) {
-			// Remove from storyInfoList
-			this.storyInfoList.remove(storyId);
-			this.saveStoryInfoList();
-			// Delete file for Story
-			File storyFile = new File(storyId.toString() + ".story");
-			storyFile.delete();
+		if (this.storyIndex.remove(storyId)) {
+			// Removed from the index, so save that
+			this.queueStoryInfoList();
+			this.storyCache.remove(storyId);
+			// Media only this Story used is deleted with it
+			this.mediaStore.removeReferences(storyId);
+			this.queueMediaIndex();
+			// Delete the files for Story, in either format, once the index
+			// no longer lists it
+			this.saveQueue.delete(storyId);
+			this.queueOldFormatDelete(Collections.singletonList(storyId));
 			return true;
 		} else {
 			// Story does not exist, failure
@@ -180,13 +240,31 @@ public class LocalManager implements Serializable, LibraryManager {
 	 *            ArrayList of story IDs to be removed
 	 */
 	public void removeMultipleStories(ArrayList<UUID> stories) {
+		Batch batch = this.startBatch();
 		for (UUID storyId : stories) {
-			this.removeStory(storyId);
+			batch.remove(storyId);
 		}
+		batch.commit();
 	}
 
 	/**
-	 * Save a Story into a file.
+	 * Starts a batch of stories to add, save and remove together. Nothing
+	 * changes in the library until the batch is committed, when the index
+	 * is changed and queued to be saved once for the whole batch, rather
+	 * than once for each story.
+	 * 
+	 * @return the new Batch
+	 */
+	public Batch startBatch() {
+		return new Batch();
+	}
+
+	/**
+	 * Save a Story to its directory in the StoryStore, waiting until it is
+	 * written. Only the fragments and choices changed since the Story was
+	 * loaded or last saved are written. Use queueStory instead on the UI
+	 * thread. The Story must be the one being edited, not a snapshot of it,
+	 * as it replaces any save of the Story still queued.
 	 * 
 	 * @param id
 	 *            The ID of the Story to save
@@ -196,41 +274,151 @@ public class LocalManager implements Serializable, LibraryManager {
 	 * @return true if save is successful, false otherwise
 	 */
 	public boolean saveStory(UUID id, Story story) {
-		// Update storyInfoList
+		Future<Boolean> saved = this.queueStory(id, story);
+		this.saveQueue.flush(id);
+		return SaveQueue.waitFor(saved);
+	}
+
+	/**
+	 * Queue a Story to be saved in the background, returning straight away.
+	 * Saves of the same Story made in quick succession are written once.
+	 * 
+	 * @param id
+	 *            The ID of the Story to save
+	 * @param story
+	 *            The story to save, which may go on being edited
+	 * 
+	 * @return a Future of whether the save succeeded
+	 */
+	public Future<Boolean> queueStory(UUID id, Story story) {
+		// Update the index, if the StoryInfo changed
 		StoryInfo newStoryInfo = new StoryInfo(id, story);
-		this.storyInfoList.put(id, newStoryInfo);
-		this.saveStoryInfoList();
-		// Attempts to save a Story to a file
-		try {
-			// Generate the save file name
-			String saveFile = id.toString() + ".story";
-			// Output streams to save Story object
-			FileOutputStream fos = context.openFileOutput(saveFile,
-					Context.MODE_PRIVATE);
-			ObjectOutputStream oos = new ObjectOutputStream(fos);
-			// Save the Story
-			oos.writeObject(story);
-			fos.close();
-			return true;
-		} catch (FileNotFoundException e) {
-			// Write access error
-			e.printStackTrace();
-			return false;
-		} catch (IOException e) {
-			// Something went wrong
-			e.printStackTrace();
-			return false;
+		if (this.storyIndex.put(newStoryInfo)) {
+			this.queueStoryInfoList();
 		}
+		// Count any media added to the changed fragments
+		this.mediaStore.addReferences(id, story, story.getChanges()
+				.getChangedFragments());
+		this.queueMediaIndex();
+		// The copy kept is out of date once this is written
+		this.storyCache.remove(id);
+		// Queue the Story itself
+		return this.saveQueue.save(id, story);
+	}
+
+	/**
+	 * Save only the reading progress of a Story, in the background. Far
+	 * cheaper than saveStory, so it is used as the reader moves between
+	 * fragments. The Story must have been saved in the StoryStore, as any
+	 * Story that has been loaded has.
+	 * 
+	 * @param id
+	 *            The ID of the Story to save
+	 * @param story
+	 *            The story being read
+	 * 
+	 * @return a Future of whether the save succeeded
+	 */
+	public Future<Boolean> saveHistory(UUID id, Story story) {
+		this.storyCache.remove(id);
+		return this.saveQueue.saveHistory(id, story);
+	}
+
+	/**
+	 * Starts writing every queued save straight away. Called when the app
+	 * leaves the foreground and may be stopped.
+	 * 
+	 * @return a Future of whether every save succeeded
+	 */
+	public Future<Boolean> flush() {
+		return this.saveQueue.flush();
+	}
+
+	/**
+	 * Starts writing the queued save of a Story straight away, as before
+	 * publishing it.
+	 * 
+	 * @param id
+	 *            The ID of the Story
+	 * @return a Future of whether the save succeeded
+	 */
+	public Future<Boolean> flush(UUID id) {
+		return this.saveQueue.flush(id);
+	}
+
+	/**
+	 * Returns the cache of Stories loaded lately, whose hit rate and size can
+	 * be watched.
+	 * 
+	 * @return the StoryCache
+	 */
+	public StoryCache getStoryCache() {
+		return this.storyCache;
 	}
 
 	/**
-	 * Load a Story from a file.
+	 * Drops Stories kept in memory, least recently used first, until they
+	 * take up no more than a given number of bytes. Called when the system
+	 * is short of memory.
+	 * 
+	 * @param maxSize
+	 *            the most bytes of Stories to keep
+	 */
+	public void trimStoryCache(long maxSize) {
+		this.storyCache.trimTo(maxSize);
+	}
+
+	/**
+	 * Load a Story from the StoryStore. A Story still saved as a single
+	 * .story file is moved into the StoryStore the first time it is loaded.
+	 * Stories loaded lately are kept in memory, so loading one again is
+	 * cheap; every call still returns a separate Story to edit. A save still
+	 * queued is loaded from the SaveQueue, without waiting for the write.
 	 * 
 	 * @param id
 	 *            The ID of the Story to save
 	 */
 	public Story loadStory(UUID id) {
-		// Generate the save file name
+		// A save not written yet is newer than the store's copy
+		Story queued = this.saveQueue.getQueued(id);
+		if (queued != null) {
+			return queued;
+		}
+		// Kept only while nothing is queued for it, so it is up to date
+		Story cached = this.storyCache.get(id);
+		if (cached != null) {
+			return cached;
+		}
+		long generation = this.storyCache.getGeneration();
+		Story moved = this.storyStore.contains(id) ? null : this
+				.moveOldFormat(id);
+		if (moved != null || !this.storyStore.contains(id)) {
+			return moved;
+		}
+		Story story = this.storyStore.load(id);
+		// Reading progress not written yet is newer too, and the copy kept
+		// would be out of date once it is
+		if (story != null && !this.saveQueue.restoreQueuedHistory(id, story)) {
+			this.storyCache.put(id, story, generation);
+		}
+		return story;
+	}
+
+	/**
+	 * Moves a Story still saved as a single .story file into the StoryStore.
+	 * Called both when the Story is loaded and when media is first counted
+	 * in the background, so only one of them moves it.
+	 * 
+	 * @param id
+	 *            The ID of the Story to move
+	 * @return the Story read from the file, null if there was none or it was
+	 *         already moved
+	 */
+	private synchronized Story moveOldFormat(UUID id) {
+		if (this.storyStore.contains(id)) {
+			return null;
+		}
+		// Generate the old save file name
 		String saveFile = id.toString() + ".story";
 		// Attempts to Story from file
 		try {
@@ -240,6 +428,10 @@ public class LocalManager implements Serializable, LibraryManager {
 			// Loads the Story from file
 			Story loadedStory = (Story) ois.readObject();
 			fis.close();
+			// Move it to the new format, keeping the old file if that fails
+			if (this.storyStore.save(id, loadedStory)) {
+				context.deleteFile(saveFile);
+			}
 			return loadedStory;
 		} catch (FileNotFoundException e) {
 			// ID doesn't exist
@@ -254,82 +446,56 @@ public class LocalManager implements Serializable, LibraryManager {
 	}
 
 	/**
-	 * Saves a given media by URI and returns the URI assigned.
+	 * Saves a given media by URI and returns the name assigned. The name is a
+	 * hash of the saved file, so media saved before is not saved again.
 	 * 
 	 * @param mediaUri
 	 *            the media to save's URI
-	 * @return the URI that the image was saved with
+	 * @return the name that the image was saved with, null if it couldn't be
+	 *         saved
 	 */
 	public String saveMedia(Uri mediaUri, MediaType mediaType) {
-		// Determines path to save images
-		String internalFolderPath = context.getFilesDir().getAbsolutePath()
-				+ "/" + mediaType.toString();
-		File internalFolder = new File(internalFolderPath);
-		// Ensures folder exists
-		if (!internalFolder.exists()) {
-			internalFolder.mkdir();
-		}
-
-		String externalFolderPath = Environment.getExternalStorageDirectory()
-				.getAbsolutePath() + "/StoryTime";
-		File externalFolder = new File(externalFolderPath);
-
-		if (!externalFolder.exists()) {
-			externalFolder.mkdir();
-		}
-
-		File externalFile = new File(externalFolderPath + "/"
-				+ mediaUri.getLastPathSegment());
-
-		// Test if this file already exists in the local directory.
-		// If it does, return the file name.
-		File localFile = new File(internalFolder + "/"
-				+ mediaUri.getLastPathSegment());
-		if (localFile.exists()) {
+		// Media from the library itself, as when a fragment is edited, is
+		// already saved
+		File mediaFile = new File(mediaUri.getPath());
+		File internalFolder = new File(context.getFilesDir(),
+				mediaType.toString());
+		if (internalFolder.equals(mediaFile.getParentFile())
+				&& mediaFile.exists()) {
 			Log.d("ImageSaveDebug", "The file existed before save");
 
-			return localFile.getName();
+			return this.mediaStore.resolve(mediaType.toString(),
+					mediaFile.getName());
 		}
 
-		// Generates an ID for the media
-		UUID id = UUID.randomUUID();
-		String saveFilePath = internalFolder + "/" + id.toString();
-		File mediaFile = new File(saveFilePath);
-		externalFile = new File(externalFolderPath + "/" + id.toString());
-
 		// Copy the file over
 		try {
 			Bitmap toSave = StoryBitmapFactory.decodeUri(mediaUri,
 					StoryBitmapFactory.MAX_SIZE, StoryBitmapFactory.MAX_SIZE,
 					context);
 
-			// Save the media to the internal file directory.
-			FileOutputStream internalOutputStream = new FileOutputStream(
-					mediaFile);
-			toSave.compress(Bitmap.CompressFormat.PNG, 100,
-					internalOutputStream);
-			internalOutputStream.flush();
-			internalOutputStream.close();
+			// Compress the media, and save it unless it is saved already
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			toSave.compress(Bitmap.CompressFormat.PNG, 100, bytes);
+			String name = this.mediaStore.put(bytes.toByteArray(),
+					mediaType.toString());
 
+			Log.d("ImageSaveDebug", "Saved under: " + name);
+			// Return the assigned file name
+			return name;
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
+			return null;
 		} catch (IOException e) {
 			e.printStackTrace();
+			return null;
 		}
-
-		Log.d("ImageSaveDebug", "Saved under: " + mediaFile.getName());
-		Log.d("ImageSaveDebug",
-				"Save full path: " + mediaFile.getAbsolutePath());
-		Log.d("ImageSaveDebug", "uri: " + Uri.fromFile(mediaFile).getPath());
-		Log.d("ImageSaveDebug", "File size: " + mediaFile.length());
-
-		// Return the assigned file name
-		return mediaFile.getName();
 	}
 
 	/**
 	 * Takes in a piece of media as a Base64 string, and converts it back into a
-	 * Java object.
+	 * Java object. It is saved under a hash of its contents, and stays known
+	 * by its identifier as well.
 	 * 
 	 * @param identifier
 	 *            UUID to reference the Media
@@ -337,65 +503,54 @@ public class LocalManager implements Serializable, LibraryManager {
 	 *            The type of the media to convert to
 	 * @param data
 	 *            The Base64 string representing the Media Data
-	 * @return true if save successful, false otherwise
+	 * @return the name the media was saved with, null if save failed
 	 */
-	public boolean saveMediaFromBase64(String identifier, String type,
+	public String saveMediaFromBase64(String identifier, String type,
 			String data) {
 		// Byte array to decode data
 		byte[] decodedData = Base64.decode(data, Base64.DEFAULT);
 		// Null data passed in
 		if (decodedData == null) {
 			Log.d("Base64", "Decoded data is null");
-			return false;
+			return null;
 		}
-		// Determines path to save images
-		String internalFolderPath = context.getFilesDir().getAbsolutePath()
-				+ "/" + type.toString();
-		File internalFolder = new File(internalFolderPath);
-		// Ensures folder exists
-		if (!internalFolder.exists()) {
-			internalFolder.mkdir();
-		}
-		// Set specific file path
-		String saveFilePath = internalFolder + "/" + identifier;
-		File mediaFile = new File(saveFilePath);
-		// Write out the object to file
+		// Write out the object to file, unless it is there already
 		try {
-			OutputStream os = new FileOutputStream(mediaFile);
-			os.write(decodedData);
-			os.close();
-		} catch (FileNotFoundException e) {
-			Log.d("Base64", "File not found for saving decoded data");
-			e.printStackTrace();
-			return false;
+			String name = this.mediaStore.put(identifier, decodedData, type);
+			this.queueMediaIndex();
+			return name;
 		} catch (IOException e) {
 			e.printStackTrace();
-			return false;
+			return null;
 		}
-		// Successful write
-		return true;
 	}
 
 	/**
-	 * Saves the storyInfoList of the Library to file.
+	 * Returns the file holding a media, given the name a Media refers to it
+	 * by.
+	 * 
+	 * @param type
+	 *            The type of the media
+	 * @param name
+	 *            The name of the media, as its content
+	 * @return the media's file
+	 */
+	public File getMediaFile(String type, String name) {
+		return this.mediaStore.getFile(type, name);
+	}
+
+	/**
+	 * Saves the changes to the StoryInfo index of the Library to file.
 	 * 
 	 * Filename is hard coded.
 	 */
 	public void saveStoryInfoList() {
-		// Attempts to save StoryInfoList to a file
+		FileCommit commit = new FileCommit();
+		if (!this.storyIndex.write(commit)) {
+			return;
+		}
 		try {
-			// Generate the save file name
-			String saveFile = "StoryInfoList.sav";
-			// Output streams to save storyInfoList
-			FileOutputStream fos = context.openFileOutput(saveFile,
-					Context.MODE_PRIVATE);
-			ObjectOutputStream oos = new ObjectOutputStream(fos);
-			// Save the storyInfoList
-			oos.writeObject(this.storyInfoList);
-			fos.close();
-		} catch (FileNotFoundException e) {
-			// Write access error
-			e.printStackTrace();
+			commit.commit();
 		} catch (IOException e) {
 			// Something went wrong
 			e.printStackTrace();
@@ -403,44 +558,262 @@ public class LocalManager implements Serializable, LibraryManager {
 	}
 
 	/**
-	 * Mirrors a given Story by ID. Creates a local copy of a given story.
+	 * Queues the changes to the StoryInfo index to be saved in the
+	 * background. Only the changes are written, not the whole index.
+	 */
+	private void queueStoryInfoList() {
+		this.saveQueue.write(StoryInfo.class, new SaveQueue.Write() {
+			@Override
+			public boolean write(FileCommit commit) {
+				return storyIndex.write(commit);
+			}
+		});
+	}
+
+	/**
+	 * Queues the changes to the media index to be saved in the background,
+	 * deleting media no story uses any more once they are.
+	 */
+	private void queueMediaIndex() {
+		this.saveQueue.write(MediaStore.class, this.mediaStore);
+	}
+
+	/**
+	 * Starts deleting, in the background, media files no story in the
+	 * library uses any more. Called when the app leaves the foreground.
+	 * Usually only the stories saved since they were last read for this are
+	 * read again, and the rest are trusted to count the media they use. Once
+	 * every MARK_ALL_INTERVAL every story is read again, for references gone
+	 * stale in an earlier run of the app.
+	 * 
+	 * @return a Future of the number of bytes freed
+	 */
+	public Future<Long> collectMedia() {
+		long marked = this.context.getFileStreamPath("MediaMarked")
+				.lastModified();
+		if (System.currentTimeMillis() - marked < MARK_ALL_INTERVAL) {
+			return this.mediaCollector.collect();
+		}
+		this.setMarkedAll();
+		ArrayList<UUID> storyIds = new ArrayList<UUID>();
+		for (StoryInfo info : this.storyIndex.getAll()) {
+			storyIds.add(info.getId());
+		}
+		return this.mediaCollector.collect(storyIds);
+	}
+
+	/**
+	 * Records that the media of every story has just been counted, so every
+	 * story is not read again for a while.
+	 */
+	private void setMarkedAll() {
+		try {
+			// The file's time is the time of the last count
+			new FileOutputStream(
+					this.context.getFileStreamPath("MediaMarked")).close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Queues the files saved by older versions for stories, if any, to be
+	 * deleted once the rest of the group they are written with is committed.
+	 * 
+	 * @param storyIds
+	 *            IDs of the stories removed from the index
+	 */
+	private void queueOldFormatDelete(final Collection<UUID> storyIds) {
+		// Under a key of its own, so it never replaces another
+		this.saveQueue.write(new Object(), new SaveQueue.Write() {
+			@Override
+			public boolean write(FileCommit commit) {
+				commit.afterCommit(new Runnable() {
+					@Override
+					public void run() {
+						for (UUID id : storyIds) {
+							context.deleteFile(id.toString() + ".story");
+						}
+					}
+				});
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Starts training, in the background, a compression dictionary from the
+	 * text of the stories in the library, if none was trained yet or the
+	 * library has grown enough since. Stories are compressed with it as they
+	 * are next saved. Called when the app leaves the foreground.
+	 * 
+	 * @return a Future of whether a new dictionary is now in use
+	 */
+	public Future<Boolean> trainDictionary() {
+		ArrayList<UUID> storyIds = new ArrayList<UUID>();
+		for (StoryInfo info : this.storyIndex.getAll()) {
+			storyIds.add(info.getId());
+		}
+		return this.dictionaryStore.train(storyIds);
+	}
+
+	/**
+	 * Names media saved by older versions by their contents, and counts the
+	 * media every story uses if that was never done. Both happen once, on
+	 * the MediaCollector's thread, and until the count is done no media is
+	 * deleted.
+	 * 
+	 * @param storyIds
+	 *            the IDs of every story in the library at startup
+	 */
+	private void loadMediaIndex(ArrayList<UUID> storyIds) {
+		int migrated = this.mediaStore.migrate(this.saveQueue);
+		if (migrated > 0) {
+			Log.d("MediaStore", "Renamed " + migrated + " media files");
+		}
+		if (this.mediaStore.isIndexed()) {
+			return;
+		}
+		for (UUID id : storyIds) {
+			// Read from the store, where loading would move it anyway
+			this.moveOldFormat(id);
+			this.mediaCollector.mark(id);
+		}
+		this.mediaStore.setIndexed();
+		this.setMarkedAll();
+		// Counted again next time if it is never written
+		this.queueMediaIndex();
+	}
+
+	/**
+	 * Mirrors a given Story by ID. Creates a local copy of a given story,
+	 * which shares the fragments and media of the original rather than
+	 * copying them (see StoryStore.mirror). Only a Story saved before packs
+	 * were used is copied in full.
 	 * 
 	 * @param storyId
 	 *            the ID of the Story to mirror
-	 * @return the ID of the new Story
+	 * @return the ID of the new Story, null if there is no such Story
 	 */
 	public UUID mirrorStory(UUID storyId) {
-		// Grab the story
-		Story targetStory = loadStory(storyId);
-		String title = targetStory.getTitle();
+		StoryInfo info = this.storyIndex.get(storyId);
+		if (info == null) {
+			return null;
+		}
+		// Any save still queued is written first, so the mirror has it
+		SaveQueue.waitFor(this.saveQueue.flush(storyId));
+		if (!this.storyStore.contains(storyId)) {
+			// Saved in the oldest format, which loading moves to the store
+			loadStory(storyId);
+		}
+		UUID newId = UUID.randomUUID();
 		// Add " (Mirror)" to the title
-		title = title + " (Mirror)";
-		targetStory.setTitle(title);
-		// Add the mirror into the library
-		UUID newId = addStory(targetStory);
-		return newId;
+		String mirrorTitle = info.getTitle() + " (Mirror)";
+		if (this.storyStore.mirror(storyId, newId, mirrorTitle)) {
+			this.storyIndex.put(new StoryInfo(newId, mirrorTitle, info
+					.getAuthor(), info.getDescription()));
+			this.queueStoryInfoList();
+			this.mediaStore.copyReferences(storyId, newId);
+			this.queueMediaIndex();
+			return newId;
+		}
+		// The pack couldn't be shared, so copied in full
+		Story copy = this.storyStore.loadCopy(storyId);
+		if (copy == null) {
+			return null;
+		}
+		copy.setTitle(mirrorTitle);
+		return addStory(copy);
+	}
+
+
+	/**
+	 * Writes a Story and the media it uses to a single bundle file, to be
+	 * imported on another device with importStory. Media files are copied
+	 * into the bundle without being read into memory.
+	 * 
+	 * @param storyId
+	 *            the ID of the Story to export
+	 * @param file
+	 *            the bundle file to write
+	 * @return true if the bundle was written, false otherwise
+	 */
+	public boolean exportStory(UUID storyId, File file) {
+		Story story = getStory(storyId);
+		if (story == null) {
+			return false;
+		}
+		try {
+			StoryBundle.write(story, this.mediaStore, file);
+			return true;
+		} catch (IOException e) {
+			// Something went wrong, so leave no half written bundle
+			e.printStackTrace();
+			file.delete();
+			return false;
+		}
+	}
+
+	/**
+	 * Adds the Story in a bundle written by exportStory to the local library,
+	 * storing its media. Media already on the device is not stored again.
+	 * 
+	 * @param file
+	 *            the bundle file to read
+	 * @return the ID given to the Story, null if the bundle can't be read
+	 */
+	public UUID importStory(File file) {
+		Story story;
+		try {
+			story = StoryBundle.read(file, this.mediaStore);
+		} catch (IOException e) {
+			// Media stored before the failure is swept by the MediaCollector
+			e.printStackTrace();
+			return null;
+		}
+		return addStory(story);
 	}
 
 	/**
-	 * Loads the storyInfoList of the Library from file.
+	 * Loads the StoryInfo index of the Library from file. A StoryInfoList file
+	 * left by an older version is moved into the index.
 	 * 
 	 * Filename is hard coded.
 	 */
 	public void loadStoryInfoList() {
-		// Generate the save file name
+		// Changes still queued are written first
+		SaveQueue.waitFor(this.saveQueue.flush());
+		// Attempts to load the index
+		try {
+			this.storyIndex = new LibraryIndex(
+					context.getFileStreamPath("StoryIndex.sav"),
+					Locale.getDefault());
+		} catch (IOException e) {
+			// Something messed up, so keep the list in memory only
+			e.printStackTrace();
+			this.storyIndex = new LibraryIndex(Locale.getDefault());
+		}
+		// Generate the old save file name
 		String saveFile = "StoryInfoList.sav";
-		// Attempts to Story from file
+		// Attempts to move the old list into the index
 		try {
 			// Input streams to load storyInfoList
 			FileInputStream fis = context.openFileInput(saveFile);
 			ObjectInputStream ois = new ObjectInputStream(fis);
-			// Loads the storyInfoList
-			this.storyInfoList = (HashMap<UUID, StoryInfo>) ois.readObject();
+			HashMap<UUID, StoryInfo> infoList = (HashMap<UUID, StoryInfo>) ois
+					.readObject();
 			fis.close();
+			for (StoryInfo info : infoList.values()) {
+				this.storyIndex.put(info);
+			}
+			// The old file goes only once the index holds its contents
+			FileCommit commit = new FileCommit();
+			if (this.storyIndex.write(commit)) {
+				commit.delete(context.getFileStreamPath(saveFile));
+				commit.commit();
+			}
 		} catch (FileNotFoundException e) {
-			// No existing file
-			this.storyInfoList = new HashMap<UUID, StoryInfo>();
-			this.saveStoryInfoList();
+			// No old file, as usual
 		} catch (IOException e) {
 			// Something messed up
 			e.printStackTrace();
@@ -457,7 +830,11 @@ public class LocalManager implements Serializable, LibraryManager {
 	 * @throws IOException
 	 */
 	private void writeObject(java.io.ObjectOutputStream out) throws IOException {
-		out.writeObject(this.storyInfoList);
+		HashMap<UUID, StoryInfo> storyInfoList = new HashMap<UUID, StoryInfo>();
+		for (StoryInfo info : this.storyIndex.getAll()) {
+			storyInfoList.put(info.getId(), info);
+		}
+		out.writeObject(storyInfoList);
 		return;
 	}
 
@@ -471,7 +848,12 @@ public class LocalManager implements Serializable, LibraryManager {
 	 */
 	private void readObject(java.io.ObjectInputStream in) throws IOException,
 			ClassNotFoundException {
-		this.storyInfoList = (HashMap<UUID, StoryInfo>) in.readObject();
+		HashMap<UUID, StoryInfo> storyInfoList = (HashMap<UUID, StoryInfo>) in
+				.readObject();
+		this.storyIndex = new LibraryIndex(Locale.getDefault());
+		for (StoryInfo info : storyInfoList.values()) {
+			this.storyIndex.put(info);
+		}
 		return;
 	}
 
@@ -479,4 +861,113 @@ public class LocalManager implements Serializable, LibraryManager {
 		return;
 	}
 
+	/**
+	 * Stories to add, save and remove together, as when many are downloaded
+	 * or removed at once. The batch holds the latest of what was asked for
+	 * each story, and commit applies all of it: the index is changed in one
+	 * pass, its changes and the media index are queued once, and the stories
+	 * removed are deleted by one task, so the whole batch is written as one
+	 * group. A Batch is used on one thread and committed once.
+	 */
+	public class Batch {
+
+		// Stories to save by ID, in the order asked for
+		private final LinkedHashMap<UUID, Story> stories;
+		// Stories among them that are new to the library
+		private final HashSet<UUID> added;
+		private final LinkedHashSet<UUID> removed;
+
+		private Batch() {
+			this.stories = new LinkedHashMap<UUID, Story>();
+			this.added = new HashSet<UUID>();
+			this.removed = new LinkedHashSet<UUID>();
+		}
+
+		/**
+		 * Adds a story to the library when the batch is committed, like
+		 * addStory.
+		 * 
+		 * @param story
+		 *            the Story to add
+		 * @return the ID it will have
+		 */
+		public UUID add(Story story) {
+			UUID id = UUID.randomUUID();
+			this.stories.put(id, story);
+			this.added.add(id);
+			return id;
+		}
+
+		/**
+		 * Saves a story when the batch is committed, like queueStory. The
+		 * story is saved as it is then.
+		 * 
+		 * @param id
+		 *            ID of the Story
+		 * @param story
+		 *            the Story to save
+		 */
+		public void save(UUID id, Story story) {
+			this.removed.remove(id);
+			this.stories.put(id, story);
+		}
+
+		/**
+		 * Removes a story when the batch is committed, like removeStory.
+		 * 
+		 * @param id
+		 *            ID of the Story
+		 */
+		public void remove(UUID id) {
+			if (this.stories.remove(id) != null && this.added.remove(id)) {
+				// Never in the library, so there is nothing to remove
+				return;
+			}
+			this.removed.add(id);
+		}
+
+		/**
+		 * Applies the batch to the library, queuing everything it changed to
+		 * be written straight away, as one group.
+		 * 
+		 * @return a Future of whether the stories were saved, which completes
+		 *         once those removed are deleted as well
+		 */
+		public Future<Boolean> commit() {
+			ArrayList<StoryInfo> infoList = new ArrayList<StoryInfo>();
+			for (Map.Entry<UUID, Story> entry : this.stories.entrySet()) {
+				infoList.add(new StoryInfo(entry.getKey(), entry.getValue()));
+			}
+			boolean indexChanged = storyIndex.putAll(infoList) > 0;
+			ArrayList<UUID> removedIds = storyIndex.removeAll(this.removed);
+			if (indexChanged || !removedIds.isEmpty()) {
+				queueStoryInfoList();
+			}
+			for (UUID id : removedIds) {
+				storyCache.remove(id);
+				// Media only this Story used is deleted with it
+				mediaStore.removeReferences(id);
+			}
+			for (Map.Entry<UUID, Story> entry : this.stories.entrySet()) {
+				UUID id = entry.getKey();
+				Story story = entry.getValue();
+				if (this.added.contains(id)) {
+					mediaStore.setReferences(id, story);
+				} else {
+					mediaStore.addReferences(id, story, story.getChanges()
+							.getChangedFragments());
+				}
+				storyCache.remove(id);
+				saveQueue.save(id, story);
+			}
+			queueMediaIndex();
+			if (!removedIds.isEmpty()) {
+				saveQueue.delete(removedIds);
+				queueOldFormatDelete(removedIds);
+			}
+			return saveQueue.flush();
+		}
+
+	}
+
 }
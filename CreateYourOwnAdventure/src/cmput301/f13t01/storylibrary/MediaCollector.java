@@ -0,0 +1,248 @@
+/*
+MediaCollector class for CreateYourOwnAdventure.
+Deletes media files no story uses any more, on a background thread, a few at
+a time.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.storylibrary;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.util.Log;
+import cmput301.f13t01.model.Story;
+
+/**
+ * MediaCollector finds media files no story refers to and deletes them. The
+ * MediaStore counts the stories referring to each file, but a story's
+ * references only grow while it is edited, so an image replaced in a story
+ * stays counted until the story is removed, and files from older versions
+ * were never counted at all.
+ * 
+ * Collecting first marks: stories are read again from the StoryStore and the
+ * media each refers to replaces its references in the MediaStore. A story
+ * saved while it is read keeps the references it had, as they may be newer.
+ * Usually only the stories the MediaStore knows to be stale are read, and
+ * the rest are trusted to count what they use; every story is read only
+ * when asked for, which LocalManager does rarely.
+ * Then it sweeps: every media file no story refers to is deleted, unless it
+ * was stored since shortly before collecting began, as it may belong to an
+ * edit not yet saved.
+ * 
+ * All of it runs on a background thread of low priority, which pauses after
+ * each batch of stories read or files deleted, so collecting never floods
+ * the disk while the app is in use. The Future returned gives the number of
+ * bytes freed. Other slow work on the media, such as renaming the files of
+ * older versions, can be run on the same thread with submit, so it never
+ * runs alongside collecting.
+ */
+
+public class MediaCollector {
+
+	// Stories read, or files deleted, between pauses
+	public static final int BATCH_SIZE = 16;
+	// Milliseconds to pause between batches
+	public static final long PAUSE = 200;
+	// Milliseconds before collecting began that a file must be older than
+	private static final long GRACE = 60 * 1000;
+
+	/* Instance Variables for MediaCollector */
+	private final MediaStore mediaStore;
+	private final StoryStore storyStore;
+	private final SaveQueue saveQueue;
+	private final long pause;
+	private final ExecutorService executor;
+	// Collection running or waiting to, if any
+	private Future<Long> running;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param mediaStore
+	 *            the MediaStore to collect
+	 * @param storyStore
+	 *            the StoryStore holding the stories
+	 * @param saveQueue
+	 *            the SaveQueue saves of the stories are queued on
+	 */
+	public MediaCollector(MediaStore mediaStore, StoryStore storyStore,
+			SaveQueue saveQueue) {
+		this(mediaStore, storyStore, saveQueue, PAUSE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param mediaStore
+	 *            the MediaStore to collect
+	 * @param storyStore
+	 *            the StoryStore holding the stories
+	 * @param saveQueue
+	 *            the SaveQueue saves of the stories are queued on
+	 * @param pause
+	 *            milliseconds to pause between batches
+	 */
+	public MediaCollector(MediaStore mediaStore, StoryStore storyStore,
+			SaveQueue saveQueue, long pause) {
+		this.mediaStore = mediaStore;
+		this.storyStore = storyStore;
+		this.saveQueue = saveQueue;
+		this.pause = pause;
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "MediaCollector");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Starts collecting in the background, unless it is already. Only the
+	 * stories whose references are stale are read; the files are swept on
+	 * the counts of the rest as they are.
+	 * 
+	 * @return a Future of the number of bytes freed
+	 */
+	public synchronized Future<Long> collect() {
+		return start(null);
+	}
+
+	/**
+	 * Starts collecting in the background, unless it is already, reading
+	 * every story again. This counts the media of every story afresh, so it
+	 * also corrects references gone stale in an earlier run of the app.
+	 * 
+	 * @param storyIds
+	 *            the IDs of every story in the library
+	 * @return a Future of the number of bytes freed
+	 */
+	public synchronized Future<Long> collect(Collection<UUID> storyIds) {
+		return start(new ArrayList<UUID>(storyIds));
+	}
+
+	/**
+	 * Runs a task on the collector's thread, after any collecting already
+	 * started.
+	 * 
+	 * @param task
+	 *            the task to run
+	 * @return a Future that is done once the task has run
+	 */
+	public Future<?> submit(Runnable task) {
+		return this.executor.submit(task);
+	}
+
+	/**
+	 * Submits a collection, unless one is running or waiting to.
+	 * 
+	 * @param storyIds
+	 *            the IDs of every story, null to read only stale ones
+	 */
+	private Future<Long> start(final ArrayList<UUID> storyIds) {
+		if (this.running != null && !this.running.isDone()) {
+			return this.running;
+		}
+		this.running = this.executor.submit(new Callable<Long>() {
+			@Override
+			public Long call() throws InterruptedException {
+				long freed = collect(storyIds);
+				Log.d("MediaCollector", "Freed " + freed + " bytes");
+				return freed;
+			}
+		});
+		return this.running;
+	}
+
+	/**
+	 * Marks the media of some stories, then sweeps the files no story refers
+	 * to.
+	 * 
+	 * @param storyIds
+	 *            the IDs of every story, null to mark only stale ones
+	 * @return the number of bytes freed
+	 */
+	private long collect(ArrayList<UUID> storyIds)
+			throws InterruptedException {
+		long before = System.currentTimeMillis() - GRACE;
+		ArrayList<UUID> ids = storyIds == null ? this.mediaStore.getStale()
+				: storyIds;
+		for (int i = 0; i < ids.size(); i++) {
+			mark(ids.get(i));
+			if (i % BATCH_SIZE == BATCH_SIZE - 1) {
+				Thread.sleep(this.pause);
+			}
+		}
+		if (storyIds != null) {
+			// Every story is counted now, even if the index was never read
+			this.mediaStore.setIndexed();
+		}
+		// The corrected references are saved with the next group
+		if (!ids.isEmpty()) {
+			this.saveQueue.write(MediaStore.class, this.mediaStore);
+		}
+		long freed = 0;
+		int deleted = 0;
+		for (File file : this.mediaStore.getFiles()) {
+			long length = this.mediaStore.deleteIfUnreferenced(file, before);
+			if (length > 0) {
+				freed += length;
+				deleted++;
+				if (deleted % BATCH_SIZE == 0) {
+					Thread.sleep(this.pause);
+				}
+			}
+		}
+		return freed;
+	}
+
+	/**
+	 * Reads a story and sets its references to the media it refers to. Slow,
+	 * so it should be called on the collector's thread.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 */
+	public void mark(UUID id) {
+		Object version = this.mediaStore.getReferenceVersion(id);
+		// Any save already queued is written first
+		SaveQueue.waitFor(this.saveQueue.flush(id));
+		Story story = this.storyStore.loadCopy(id);
+		if (story == null) {
+			// Not in the store, so its references are left as they are
+			return;
+		}
+		try {
+			this.mediaStore.replaceReferences(id, story, version);
+		} catch (RuntimeException e) {
+			// Can't be read in full, so its references are left as they are
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -0,0 +1,915 @@
+/*
+MediaStore class for CreateYourOwnAdventure.
+Keeps the media of every story in files named by a hash of their contents,
+so media used more than once is stored once.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.storylibrary;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import cmput301.f13t01.model.Image;
+import cmput301.f13t01.model.Media;
+import cmput301.f13t01.model.MediaType;
+import cmput301.f13t01.model.RecordReader;
+import cmput301.f13t01.model.RecordWriter;
+import cmput301.f13t01.model.Sound;
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryCodec;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.model.StoryRecords;
+import cmput301.f13t01.model.Video;
+
+/**
+ * MediaStore keeps media files in a directory for each MediaType, each file
+ * named by the SHA-256 hash of its contents. Storing the same contents twice,
+ * as when a photo is imported into two stories or a story is mirrored or
+ * downloaded again, gives back the name of the file already there. Media
+ * refers to its file by that name, so the content of an Image is the hash.
+ * 
+ * Media saved before files were named by hash, or downloaded under some other
+ * name, is known by an alias of its hash. migrate renames such files to
+ * their hash, or deletes them if a file with the same contents exists, and
+ * getFile finds the file of a media by either name.
+ * 
+ * The store counts the stories referring to each file. A file no story
+ * refers to any more, once the story referring to it last is removed, is
+ * deleted when the index is next written. The references a story makes are
+ * only ever added to while it is edited, so a file a story has stopped using
+ * stays until the story is removed. When there is no index to read, no file
+ * is deleted until the references of every story have been counted again.
+ * 
+ * The aliases and references are saved in an index file, written whole
+ * through a FileCommit. A MediaStore is its own SaveQueue.Write, writing the
+ * index.
+ * 
+ * A MediaCollector corrects the references of each story, which only grow as
+ * it is edited, and sweeps away files no story refers to. The store keeps
+ * the stories whose references were added to since they were last set in
+ * full, so only those need to be read again.
+ */
+
+public class MediaStore implements SaveQueue.Write {
+
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final int HASH_LENGTH = 64;
+
+	/* MediaTypes kept in files */
+	private static final MediaType[] FILE_TYPES = { MediaType.IMAGE,
+			MediaType.SOUND, MediaType.VIDEO };
+
+	/* Instance Variables for MediaStore */
+	private final File root;
+	private final File indexFile;
+	// Hash of the media known by each other name, keyed by type and name
+	private final HashMap<String, String> aliases;
+	// Media each story refers to, keyed by type and hash
+	private final HashMap<UUID, HashSet<String>> references;
+	// Number of stories referring to each media
+	private final HashMap<String, Integer> counts;
+	// Media no story refers to any more, deleted once the index is written
+	private final HashSet<String> unreferenced;
+	// Stories whose references were added to since they were last set in
+	// full, so they may still count media they no longer use
+	private final HashSet<UUID> stale;
+	// Changes made, and changes written to the index
+	private int modifications;
+	private int written;
+	// Whether the references of every story are counted, and whether the
+	// index is saved in its file
+	private boolean indexed;
+	private boolean saved;
+
+	/**
+	 * Constructor. Reads the index, if there is one.
+	 * 
+	 * @param root
+	 *            the directory holding a directory for each MediaType
+	 * @param indexFile
+	 *            the file to keep the index in
+	 */
+	public MediaStore(File root, File indexFile) {
+		this.root = root;
+		this.indexFile = indexFile;
+		this.aliases = new HashMap<String, String>();
+		this.references = new HashMap<UUID, HashSet<String>>();
+		this.counts = new HashMap<String, Integer>();
+		this.unreferenced = new HashSet<String>();
+		this.stale = new HashSet<UUID>();
+		this.modifications = 0;
+		this.written = 0;
+		this.indexed = readIndex();
+		this.saved = this.indexed;
+	}
+
+	/**
+	 * Returns whether the references of every story are counted, as they are
+	 * once the index was read from its file. If not, the references of every
+	 * story must be set with setReferences, and then setIndexed called.
+	 * 
+	 * @return true if the references are all counted
+	 */
+	public synchronized boolean isIndexed() {
+		return this.indexed;
+	}
+
+	/**
+	 * Records that the references of every story have been counted, so media
+	 * no story refers to can be deleted from now on.
+	 */
+	public synchronized void setIndexed() {
+		this.indexed = true;
+	}
+
+	/**
+	 * Stores media, unless media with the same contents is stored already.
+	 * 
+	 * @param data
+	 *            the contents of the media
+	 * @param type
+	 *            the MediaType of the media, as a String
+	 * @return the name of the media's file, which is the hash of its contents
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public synchronized String put(byte[] data, String type)
+			throws IOException {
+		String hash = hash(data);
+		File directory = new File(this.root, type);
+		File file = new File(directory, hash);
+		// Stored again, so no longer to be deleted
+		this.unreferenced.remove(key(type, hash));
+		if (file.isFile()) {
+			// New again, so a MediaCollector already running keeps it
+			file.setLastModified(System.currentTimeMillis());
+			return hash;
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can't create " + directory);
+		}
+		FileCommit commit = new FileCommit();
+		try {
+			OutputStream out = commit.openReplacement(file);
+			try {
+				out.write(data);
+			} finally {
+				out.close();
+			}
+			commit.commit();
+		} catch (IOException e) {
+			commit.abort();
+			throw e;
+		}
+		return hash;
+	}
+
+	/**
+	 * Stores media under the hash of its contents, like put, and makes the
+	 * name it was given another name for it, unless that name is a hash or
+	 * already names other media here. As the name may come from another
+	 * device, stories read with the media should refer to it by the name
+	 * returned (see renameMedia).
+	 * 
+	 * @param name
+	 *            the name the media is known by
+	 * @param data
+	 *            the contents of the media
+	 * @param type
+	 *            the MediaType of the media, as a String
+	 * @return the name of the media's file
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public synchronized String put(String name, byte[] data, String type)
+			throws IOException {
+		String hash = put(data, type);
+		alias(type, name, hash);
+		return hash;
+	}
+
+	/**
+	 * Returns a new, empty file to write media to before storing it with
+	 * put(File, String). It is in the directory the media is stored in, so
+	 * storing it only renames it, and a MediaCollector deletes it if it is
+	 * left behind.
+	 * 
+	 * @param type
+	 *            the MediaType of the media, as a String
+	 * @return the file
+	 * @throws IOException
+	 *             if the file can't be created
+	 */
+	public File createTempFile(String type) throws IOException {
+		File directory = new File(this.root, type);
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can't create " + directory);
+		}
+		return File.createTempFile("media", TEMP_SUFFIX, directory);
+	}
+
+	/**
+	 * Stores media written to a file from createTempFile, like put(byte[],
+	 * String), without reading it into memory. The file is moved into place,
+	 * or deleted if the same contents are stored already.
+	 * 
+	 * @param file
+	 *            the file holding the media
+	 * @param type
+	 *            the MediaType of the media, as a String
+	 * @return the name of the media's file, which is the hash of its contents
+	 * @throws IOException
+	 *             if the file can't be read or moved
+	 */
+	public String put(File file, String type) throws IOException {
+		// Hashed first, so a large file does not hold up the store
+		String hash = hash(file);
+		synchronized (this) {
+			File target = new File(new File(this.root, type), hash);
+			// Stored again, so no longer to be deleted
+			this.unreferenced.remove(key(type, hash));
+			if (target.isFile()) {
+				file.delete();
+				// New again, so a MediaCollector already running keeps it
+				target.setLastModified(System.currentTimeMillis());
+				return hash;
+			}
+			FileCommit commit = new FileCommit();
+			try {
+				if (!file.renameTo(commit.replace(target))) {
+					throw new IOException("Can't move " + file);
+				}
+				commit.commit();
+			} catch (IOException e) {
+				commit.abort();
+				throw e;
+			}
+			return hash;
+		}
+	}
+
+	/**
+	 * Stores media written to a file, like put(File, String), and makes the
+	 * name it was given another name for it, on the same terms as
+	 * put(String, byte[], String).
+	 * 
+	 * @param name
+	 *            the name the media is known by
+	 * @param file
+	 *            the file holding the media
+	 * @param type
+	 *            the MediaType of the media, as a String
+	 * @return the name of the media's file
+	 * @throws IOException
+	 *             if the file can't be read or moved
+	 */
+	public String put(String name, File file, String type)
+			throws IOException {
+		String hash = put(file, type);
+		alias(type, name, hash);
+		return hash;
+	}
+
+	/**
+	 * Renames the media of a story, so it refers to each media by the name
+	 * put returned for it rather than the name it was stored under.
+	 * 
+	 * @param story
+	 *            the story
+	 * @param names
+	 *            the names to use, keyed by the MediaType and the old name
+	 *            of each media, as "type/name"
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static void renameMedia(Story story, Map<String, String> names) {
+		for (int fragmentId : StoryRecords.getFragmentIds(story)) {
+			StoryFragment fragment = story.getFragment(fragmentId);
+			if (fragment == null) {
+				continue;
+			}
+			ArrayList<Media> list = new ArrayList<Media>();
+			list.addAll(fragment.getContentList());
+			if (fragment.getAnnotationList() != null) {
+				list.addAll(fragment.getAnnotationList());
+			}
+			for (Media item : list) {
+				if (item instanceof Image || item instanceof Sound
+						|| item instanceof Video) {
+					String name = names.get(key(item.getType(),
+							(String) item.getContent()));
+					if (name != null) {
+						item.setContent(name);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the name of the file of some media.
+	 * 
+	 * @param type
+	 *            the MediaType of the media, as a String
+	 * @param name
+	 *            the name the media is known by
+	 * @return the hash of the media, or its name if it has no other
+	 */
+	public synchronized String resolve(String type, String name) {
+		String hash = this.aliases.get(key(type, name));
+		return hash == null ? name : hash;
+	}
+
+	/**
+	 * Returns the file of some media.
+	 * 
+	 * @param type
+	 *            the MediaType of the media, as a String
+	 * @param name
+	 *            the name the media is known by
+	 * @return the file, which does not exist if the media is missing
+	 */
+	public File getFile(String type, String name) {
+		File directory = new File(this.root, type);
+		String hash = resolve(type, name);
+		File file = new File(directory, hash);
+		if (!file.exists() && !hash.equals(name)) {
+			// Not yet renamed by migrate
+			File old = new File(directory, name);
+			if (old.exists()) {
+				return old;
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Adds the media of some fragments of a story to the media the story
+	 * refers to.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @param story
+	 *            the story
+	 * @param fragmentIds
+	 *            the fragments whose media to add, such as those changed
+	 */
+	public synchronized void addReferences(UUID id, Story story,
+			int[] fragmentIds) {
+		HashSet<String> media = this.references.get(id);
+		HashSet<String> added = new HashSet<String>();
+		if (media != null) {
+			added.addAll(media);
+		}
+		collect(story, fragmentIds, added);
+		this.stale.add(id);
+		setReferences(id, added);
+	}
+
+	/**
+	 * Sets the media a story refers to, to the media of every fragment it
+	 * has.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @param story
+	 *            the story
+	 */
+	public synchronized void setReferences(UUID id, Story story) {
+		HashSet<String> media = new HashSet<String>();
+		collect(story, StoryRecords.getFragmentIds(story), media);
+		this.stale.remove(id);
+		setReferences(id, media);
+	}
+
+	/**
+	 * Sets the media a story refers to, to the media another story refers
+	 * to, as for a mirror of it.
+	 * 
+	 * @param sourceId
+	 *            ID of the story whose references to copy
+	 * @param id
+	 *            ID of the story
+	 */
+	public synchronized void copyReferences(UUID sourceId, UUID id) {
+		HashSet<String> media = new HashSet<String>();
+		if (this.references.get(sourceId) != null) {
+			media.addAll(this.references.get(sourceId));
+		}
+		if (this.stale.contains(sourceId)) {
+			this.stale.add(id);
+		}
+		setReferences(id, media);
+	}
+
+	/**
+	 * Drops the references of a removed story. Media no other story refers
+	 * to is deleted when the index is next written.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 */
+	public synchronized void removeReferences(UUID id) {
+		this.stale.remove(id);
+		setReferences(id, new HashSet<String>());
+	}
+
+	/**
+	 * Returns an object that stays the same until the references of a story
+	 * change, for replaceReferences.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @return the version of the story's references
+	 */
+	public synchronized Object getReferenceVersion(UUID id) {
+		return this.references.get(id);
+	}
+
+	/**
+	 * Sets the media a story refers to, like setReferences, unless they
+	 * changed since a given version of them. The media is found outside the
+	 * lock, so the story can be read from disk meanwhile.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @param story
+	 *            a copy of the story
+	 * @param version
+	 *            the version of the story's references the copy was loaded
+	 *            after, as from getReferenceVersion
+	 * @return true if the references were set
+	 */
+	public boolean replaceReferences(UUID id, Story story, Object version) {
+		HashSet<String> media = new HashSet<String>();
+		collect(story, StoryRecords.getFragmentIds(story), media);
+		synchronized (this) {
+			if (this.references.get(id) != version) {
+				return false;
+			}
+			this.stale.remove(id);
+			setReferences(id, media);
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the stories whose references were added to since they were
+	 * last set in full, which may count media they no longer use. The rest
+	 * count exactly the media they use, as far as this run of the app knows.
+	 * 
+	 * @return the IDs of the stories
+	 */
+	public synchronized ArrayList<UUID> getStale() {
+		return new ArrayList<UUID>(this.stale);
+	}
+
+	/**
+	 * Returns every media file, including temporary files left by saves that
+	 * never finished.
+	 * 
+	 * @return the files
+	 */
+	public ArrayList<File> getFiles() {
+		ArrayList<File> files = new ArrayList<File>();
+		for (MediaType type : FILE_TYPES) {
+			File[] list = new File(this.root, type.toString()).listFiles();
+			if (list == null) {
+				continue;
+			}
+			for (File file : list) {
+				if (file.isFile()) {
+					files.add(file);
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Deletes a media file if no story refers to it and it is older than a
+	 * given time, so media stored since then is kept.
+	 * 
+	 * @param file
+	 *            a file from getFiles
+	 * @param before
+	 *            the time, in milliseconds, the file must be older than
+	 * @return the number of bytes freed, 0 if the file was kept
+	 */
+	public synchronized long deleteIfUnreferenced(File file, long before) {
+		if (!this.indexed || file.lastModified() >= before) {
+			return 0;
+		}
+		String type = file.getParentFile().getName();
+		String name = file.getName();
+		if (!name.endsWith(TEMP_SUFFIX)) {
+			String hash = resolve(type, name);
+			String key = key(type, hash);
+			// References are counted by hash, whatever name they use
+			if (this.counts.containsKey(key)) {
+				return 0;
+			}
+			this.unreferenced.remove(key);
+			removeAliases(type, hash);
+		}
+		long length = file.length();
+		return file.delete() ? length : 0;
+	}
+
+	/**
+	 * Returns the number of stories referring to some media.
+	 * 
+	 * @param type
+	 *            the MediaType of the media, as a String
+	 * @param name
+	 *            the name the media is known by
+	 * @return the number of stories
+	 */
+	public synchronized int getReferenceCount(String type, String name) {
+		Integer count = this.counts.get(key(type, resolve(type, name)));
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * Names every media file by its hash, deleting those whose contents are
+	 * stored already. The new names are saved in the index before any file is
+	 * renamed, so media is found by its old name whenever it stops. The index
+	 * is written through the SaveQueue, as it may be saved with stories
+	 * meanwhile, so this must not be called on the queue's own thread.
+	 * 
+	 * @param saveQueue
+	 *            the SaveQueue the index is written through
+	 * @return the number of files renamed or deleted
+	 */
+	public int migrate(SaveQueue saveQueue) {
+		ArrayList<File> files = new ArrayList<File>();
+		ArrayList<String> hashes = new ArrayList<String>();
+		for (MediaType type : FILE_TYPES) {
+			File directory = new File(this.root, type.toString());
+			String[] names = directory.list();
+			if (names == null) {
+				continue;
+			}
+			for (String name : names) {
+				File file = new File(directory, name);
+				if (isHash(name) || name.endsWith(TEMP_SUFFIX)
+						|| !file.isFile()) {
+					continue;
+				}
+				try {
+					String hash = hash(file);
+					synchronized (this) {
+						this.aliases.put(key(type.toString(), name), hash);
+						this.modifications++;
+					}
+					files.add(file);
+					hashes.add(hash);
+				} catch (IOException e) {
+					// Left under its old name, to try again next time
+					e.printStackTrace();
+				}
+			}
+		}
+		if (files.isEmpty()) {
+			return 0;
+		}
+		// The new names are saved first
+		if (!SaveQueue.waitFor(saveQueue.write(MediaStore.class, this))) {
+			return 0;
+		}
+		int moved = 0;
+		for (int i = 0; i < files.size(); i++) {
+			File file = files.get(i);
+			File target = new File(file.getParentFile(), hashes.get(i));
+			if (target.exists() ? file.delete() : file.renameTo(target)) {
+				moved++;
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Saves the index if it changed, and deletes the media no story refers to
+	 * any more, when a FileCommit is made. Must not be called on more than
+	 * one thread at once.
+	 * 
+	 * @param commit
+	 *            the FileCommit to add the index to
+	 * @return true if the index was written, false otherwise
+	 */
+	@Override
+	public boolean write(FileCommit commit) {
+		final int modification;
+		final ArrayList<String> deleting;
+		HashMap<String, String> aliasCopy;
+		HashMap<UUID, HashSet<String>> referenceCopy;
+		synchronized (this) {
+			modification = this.modifications;
+			// Nothing is deleted before every story's media is counted
+			deleting = this.indexed ? new ArrayList<String>(this.unreferenced)
+					: new ArrayList<String>();
+			if (modification == this.written && deleting.isEmpty()
+					&& this.saved) {
+				return true;
+			}
+			aliasCopy = new HashMap<String, String>(this.aliases);
+			// The sets are replaced, never changed, so they can be shared
+			referenceCopy = new HashMap<UUID, HashSet<String>>(
+					this.references);
+		}
+		int start = commit.size();
+		try {
+			OutputStream out = commit.openReplacement(this.indexFile);
+			try {
+				writeIndex(aliasCopy, referenceCopy, out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			commit.discard(start);
+			e.printStackTrace();
+			return false;
+		}
+		commit.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				deleteUnreferenced(modification, deleting);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Replaces the media a story refers to, counting the references again.
+	 */
+	private void setReferences(UUID id, HashSet<String> media) {
+		HashSet<String> old = this.references.get(id);
+		if (old == null) {
+			old = new HashSet<String>();
+		}
+		if (old.equals(media)) {
+			return;
+		}
+		for (String key : media) {
+			if (!old.contains(key)) {
+				Integer count = this.counts.get(key);
+				this.counts.put(key, count == null ? 1 : count + 1);
+				this.unreferenced.remove(key);
+			}
+		}
+		for (String key : old) {
+			if (!media.contains(key)) {
+				Integer count = this.counts.get(key);
+				if (count == null || count <= 1) {
+					this.counts.remove(key);
+					this.unreferenced.add(key);
+				} else {
+					this.counts.put(key, count - 1);
+				}
+			}
+		}
+		if (media.isEmpty()) {
+			this.references.remove(id);
+		} else {
+			this.references.put(id, media);
+		}
+		this.modifications++;
+	}
+
+	/**
+	 * Adds the media in some fragments of a story to a set.
+	 */
+	private void collect(Story story, int[] fragmentIds,
+			HashSet<String> media) {
+		for (int fragmentId : fragmentIds) {
+			StoryFragment fragment = story.readFragment(fragmentId);
+			if (fragment == null) {
+				continue;
+			}
+			collect(fragment.getContentList(), media);
+			collect(fragment.getAnnotationList(), media);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private void collect(List<Media> list, HashSet<String> media) {
+		if (list == null) {
+			return;
+		}
+		for (Media item : list) {
+			if (item instanceof Image || item instanceof Sound
+					|| item instanceof Video) {
+				String name = (String) item.getContent();
+				if (name != null) {
+					String type = item.getType();
+					media.add(key(type, resolve(type, name)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes the media still referred to by no story, and records the index
+	 * as written. Media stored again since the index was written is kept.
+	 */
+	private synchronized void deleteUnreferenced(int modification,
+			List<String> deleting) {
+		this.written = modification;
+		this.saved = true;
+		for (String key : deleting) {
+			if (!this.unreferenced.remove(key)) {
+				continue;
+			}
+			int slash = key.indexOf('/');
+			String type = key.substring(0, slash);
+			String hash = key.substring(slash + 1);
+			new File(new File(this.root, type), hash).delete();
+			removeAliases(type, hash);
+		}
+	}
+
+	/**
+	 * Forgets the other names of media whose file is deleted.
+	 */
+	private void removeAliases(String type, String hash) {
+		Iterator<Map.Entry<String, String>> aliases = this.aliases.entrySet()
+				.iterator();
+		while (aliases.hasNext()) {
+			Map.Entry<String, String> alias = aliases.next();
+			if (alias.getValue().equals(hash)
+					&& alias.getKey().startsWith(type + "/")) {
+				aliases.remove();
+				this.modifications++;
+			}
+		}
+	}
+
+	private static void writeIndex(HashMap<String, String> aliases,
+			HashMap<UUID, HashSet<String>> references, OutputStream out)
+			throws IOException {
+		RecordWriter writer = new RecordWriter(out, StoryCodec.MEDIA_INDEX);
+		writer.writeVarInt(aliases.size());
+		for (Map.Entry<String, String> alias : aliases.entrySet()) {
+			writer.writeString(alias.getKey());
+			writer.writeString(alias.getValue());
+		}
+		writer.writeVarInt(references.size());
+		for (Map.Entry<UUID, HashSet<String>> story : references.entrySet()) {
+			writer.writeLong(story.getKey().getMostSignificantBits());
+			writer.writeLong(story.getKey().getLeastSignificantBits());
+			writer.writeVarInt(story.getValue().size());
+			for (String key : story.getValue()) {
+				writer.writeString(key);
+			}
+		}
+	}
+
+	/**
+	 * Reads the index, counting the references in it.
+	 * 
+	 * @return true if it was read, false if there is none or it is unreadable
+	 */
+	private boolean readIndex() {
+		InputStream in;
+		try {
+			in = new BufferedInputStream(new FileInputStream(this.indexFile));
+		} catch (FileNotFoundException e) {
+			// Nothing saved yet
+			return false;
+		}
+		try {
+			RecordReader reader = new RecordReader(in, StoryCodec.MEDIA_INDEX);
+			int aliasCount = reader.readVarInt();
+			for (int i = 0; i < aliasCount; i++) {
+				String key = reader.readString();
+				this.aliases.put(key, reader.readString());
+			}
+			int storyCount = reader.readVarInt();
+			for (int i = 0; i < storyCount; i++) {
+				UUID id = new UUID(reader.readLong(), reader.readLong());
+				int size = reader.readVarInt();
+				HashSet<String> media = new HashSet<String>();
+				for (int j = 0; j < size; j++) {
+					media.add(reader.readString());
+				}
+				setReferences(id, media);
+			}
+			this.written = this.modifications;
+			return true;
+		} catch (IOException e) {
+			// Counted again from the stories
+			e.printStackTrace();
+			this.aliases.clear();
+			this.references.clear();
+			this.counts.clear();
+			this.unreferenced.clear();
+			return false;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Makes a name another name for some media, unless it is the media's
+	 * hash, looks like a hash or is the name of other media already, so no
+	 * story using other media is ever redirected to it.
+	 */
+	private synchronized void alias(String type, String name, String hash) {
+		if (name == null || hash.equals(name) || isHash(name)
+				|| this.aliases.containsKey(key(type, name))
+				|| new File(new File(this.root, type), name).exists()) {
+			return;
+		}
+		this.aliases.put(key(type, name), hash);
+		this.modifications++;
+	}
+
+	private static String key(String type, String name) {
+		return type + "/" + name;
+	}
+
+	private static boolean isHash(String name) {
+		if (name.length() != HASH_LENGTH) {
+			return false;
+		}
+		for (int i = 0; i < name.length(); i++) {
+			if (Character.digit(name.charAt(i), 16) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String hash(byte[] data) throws IOException {
+		MessageDigest digest = newDigest();
+		digest.update(data);
+		return toHex(digest.digest());
+	}
+
+	private static String hash(File file) throws IOException {
+		MessageDigest digest = newDigest();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest newDigest() throws IOException {
+		try {
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(HASH_ALGORITHM + " is not available");
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+			hex.append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+}
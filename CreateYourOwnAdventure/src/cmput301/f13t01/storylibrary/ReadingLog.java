@@ -0,0 +1,290 @@
+/*
+ReadingLog class for CreateYourOwnAdventure.
+Saves a reader's progress through a story as a log of page turns, so that
+turning a page adds a few bytes to a file rather than saving the story.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.storylibrary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import cmput301.f13t01.model.History;
+import cmput301.f13t01.model.IntArrayList;
+
+/**
+ * ReadingLog keeps the History of one story in an append-only file. Each
+ * record is a push of a fragment ID, a pop or a clear, and replaying them in
+ * order gives back the history stack. Saving a History only appends the
+ * records that turn the stack last written into the new one, which for a page
+ * turn is a single push or pop.
+ * 
+ * Once the log holds many more records than the stack has entries, it is
+ * compacted: written out again as one push per entry, to a new file that then
+ * replaces the old one. A record cut short by a crash is cut off the file
+ * when the log is read, losing at most that page turn.
+ */
+
+public class ReadingLog {
+
+	private static final byte PUSH = 1;
+	private static final byte POP = 2;
+	private static final byte CLEAR = 3;
+
+	// Records allowed beyond twice the stack size before compacting
+	private static final int COMPACT_SLACK = 64;
+
+	/* Instance Variables for ReadingLog */
+	private final File file;
+	// The stack as replayed from the file
+	private final IntArrayList logged;
+	private int records;
+	// Set when the file could not be read back after a failed write, so the
+	// next save writes it out again whole
+	private boolean damaged;
+
+	/**
+	 * Constructor. Reads the log in a file, if there is one.
+	 * 
+	 * @param file
+	 *            the file the log is kept in
+	 * @throws IOException
+	 */
+	public ReadingLog(File file) throws IOException {
+		this.file = file;
+		this.logged = new IntArrayList();
+		this.records = 0;
+		replay();
+	}
+
+	/**
+	 * Returns the file the log is kept in.
+	 * 
+	 * @return the log file
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Returns whether there is a log file yet.
+	 * 
+	 * @return true if the log has been written
+	 */
+	public boolean exists() {
+		return this.file.isFile();
+	}
+
+	/**
+	 * Replaces the contents of a History with the history in the log.
+	 * 
+	 * @param history
+	 *            the History to fill in
+	 */
+	public void restore(History history) {
+		history.clearHistory();
+		for (int i = 0; i < this.logged.size(); i++) {
+			history.pushToStack(this.logged.get(i));
+		}
+	}
+
+	/**
+	 * Brings the log up to date with a History, appending the fewest records
+	 * that get from the stack last logged to the new one.
+	 * 
+	 * @param history
+	 *            the History to save
+	 * @throws IOException
+	 */
+	public void save(History history) throws IOException {
+		// Length of the bottom of the stack left unchanged
+		int kept = 0;
+		int limit = Math.min(this.logged.size(), history.size());
+		while (kept < limit && this.logged.get(kept) == history.get(kept)) {
+			kept++;
+		}
+		int pops = this.logged.size() - kept;
+		int pushes = history.size() - kept;
+		if (pops == 0 && pushes == 0 && !this.damaged) {
+			return;
+		}
+		if (this.damaged
+				|| this.records + pops + pushes > 2 * history.size()
+						+ COMPACT_SLACK) {
+			compact(history);
+			return;
+		}
+
+		FileOutputStream file = new FileOutputStream(this.file, true);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				file));
+		int added = 0;
+		try {
+			if (kept == 0 && pops > 1) {
+				out.writeByte(CLEAR);
+				added++;
+			} else {
+				for (int i = 0; i < pops; i++) {
+					out.writeByte(POP);
+					added++;
+				}
+			}
+			for (int i = kept; i < history.size(); i++) {
+				out.writeByte(PUSH);
+				out.writeInt(history.get(i));
+				added++;
+			}
+			out.close();
+		} catch (IOException e) {
+			try {
+				file.close();
+			} catch (IOException closing) {
+				// Already failed
+			}
+			// Some of the records may have reached the file, so the stack
+			// logged is whatever it holds now
+			reload();
+			throw e;
+		}
+		// Only once the records are in the file
+		while (this.logged.size() > kept) {
+			this.logged.removeLast();
+		}
+		for (int i = kept; i < history.size(); i++) {
+			this.logged.add(history.get(i));
+		}
+		this.records += added;
+	}
+
+	/**
+	 * Writes the log out again holding just the pushes of a History.
+	 * 
+	 * @param history
+	 *            the History to save
+	 * @throws IOException
+	 */
+	public void compact(History history) throws IOException {
+		// Replaced whole, so a crash leaves either the old log or the new one
+		FileCommit commit = new FileCommit();
+		DataOutputStream out = new DataOutputStream(
+				commit.openReplacement(this.file));
+		try {
+			for (int i = 0; i < history.size(); i++) {
+				out.writeByte(PUSH);
+				out.writeInt(history.get(i));
+			}
+		} finally {
+			out.close();
+		}
+		commit.commit();
+		this.logged.clear();
+		for (int i = 0; i < history.size(); i++) {
+			this.logged.add(history.get(i));
+		}
+		this.records = history.size();
+		this.damaged = false;
+	}
+
+	/**
+	 * Deletes the log file.
+	 * 
+	 * @return true if the file was deleted
+	 */
+	public boolean delete() {
+		this.logged.clear();
+		this.records = 0;
+		this.damaged = false;
+		return this.file.delete();
+	}
+
+	/**
+	 * Reads the log file again after a failed write. If it can't be read, the
+	 * next save compacts the log instead of appending to it.
+	 */
+	private void reload() {
+		this.logged.clear();
+		this.records = 0;
+		try {
+			replay();
+		} catch (IOException e) {
+			e.printStackTrace();
+			this.damaged = true;
+		}
+	}
+
+	/**
+	 * Reads the log file, rebuilding the stack it describes. Anything after
+	 * the last whole record is cut off, so later records are appended after
+	 * good ones.
+	 */
+	private void replay() throws IOException {
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(this.file)));
+		} catch (FileNotFoundException e) {
+			// Nothing logged yet
+			return;
+		}
+		long length = 0;
+		try {
+			while (true) {
+				byte op = in.readByte();
+				if (op == PUSH) {
+					this.logged.add(in.readInt());
+					length += 5;
+				} else if (op == POP) {
+					if (!this.logged.isEmpty()) {
+						this.logged.removeLast();
+					}
+					length++;
+				} else if (op == CLEAR) {
+					this.logged.clear();
+					length++;
+				} else {
+					// Not a record, so the rest can't be trusted
+					break;
+				}
+				this.records++;
+			}
+		} catch (EOFException e) {
+			// End of the log, or a record cut short
+		} finally {
+			in.close();
+		}
+		if (this.file.length() > length) {
+			RandomAccessFile truncate = new RandomAccessFile(this.file, "rw");
+			try {
+				truncate.setLength(length);
+			} finally {
+				truncate.close();
+			}
+		}
+	}
+
+}
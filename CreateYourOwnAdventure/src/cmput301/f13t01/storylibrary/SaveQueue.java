@@ -0,0 +1,548 @@
+/*
+SaveQueue class for CreateYourOwnAdventure.
+Writes stories to the StoryStore on a background thread, a short while after
+they are saved, merging repeated saves of the same story into one write.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.storylibrary;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import cmput301.f13t01.model.History;
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryRecords;
+
+/**
+ * SaveQueue writes to a StoryStore on a single background thread, so saving
+ * never blocks the thread that asks for it. A save takes a snapshot of the
+ * story and is written after a short delay; saving the same story again
+ * before then replaces the snapshot, so a burst of saves becomes one write.
+ * Writes of anything else, like the library's list of stories, are queued
+ * the same way under a key of their own.
+ * 
+ * When a write comes due, everything waiting in the queue is written with
+ * it as a group sharing one FileCommit, so however many stories are saved
+ * together, as when many are downloaded or removed at once, they wait for
+ * the disk only once.
+ * 
+ * Every request returns a Future that completes, with true if the write
+ * succeeded, once the group it was written in is committed to disk. flush
+ * writes everything waiting without further delay, and is called when the
+ * app leaves the foreground. Groups are written in turn, so a Future from
+ * flush completes only after everything queued before it.
+ * 
+ * Until a save is committed, getQueued hands out copies of the story saved,
+ * so a story can be opened again straight away without waiting for it.
+ */
+
+public class SaveQueue {
+
+	// Milliseconds a write waits for more saves of the same story
+	public static final long WRITE_DELAY = 500;
+
+	/* Instance Variables for SaveQueue */
+	private final StoryStore store;
+	private final long delay;
+	private final ScheduledThreadPoolExecutor executor;
+	// Writes not yet started, by story ID or other key
+	private final HashMap<Object, PendingWrite> pending;
+	// Writes of the group being written, by story ID, until it is committed
+	private final HashMap<UUID, PendingWrite> writing;
+	// Deletes not yet started, by ID of the story they delete
+	private final HashMap<UUID, PendingWrite> deleting;
+	// Futures of flush, completed with the next group written
+	private ArrayList<Result> flushes;
+	// Futures of flush completed with the group being written, null if none
+	private ArrayList<Result> committing;
+	// Writes everything pending as one group
+	private final Runnable writeGroup;
+
+	/**
+	 * A write queued under a key other than a story ID.
+	 */
+	public interface Write {
+
+		/**
+		 * Writes files, adding them to the FileCommit of the group being
+		 * written. Runs on the queue's thread.
+		 * 
+		 * @param commit
+		 *            the FileCommit to add the files to
+		 * @return true if the files were written, false otherwise
+		 */
+		public boolean write(FileCommit commit);
+
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param store
+	 *            the StoryStore to write stories to
+	 */
+	public SaveQueue(StoryStore store) {
+		this(store, WRITE_DELAY);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param store
+	 *            the StoryStore to write stories to
+	 * @param delay
+	 *            milliseconds each write waits for more saves to merge
+	 */
+	public SaveQueue(StoryStore store, long delay) {
+		this.store = store;
+		this.delay = delay;
+		this.pending = new HashMap<Object, PendingWrite>();
+		this.writing = new HashMap<UUID, PendingWrite>();
+		this.deleting = new HashMap<UUID, PendingWrite>();
+		this.flushes = new ArrayList<Result>();
+		this.writeGroup = new Runnable() {
+			@Override
+			public void run() {
+				writeGroup();
+			}
+		};
+		this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "SaveQueue");
+				// Never keeps the process alive; flush first to be sure
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Queues a story to be saved. Must be called on the thread that edits the
+	 * story, which may go on editing it straight away.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @param story
+	 *            the story to save
+	 * @return a Future of whether the save succeeded
+	 */
+	public synchronized Future<Boolean> save(UUID id, Story story) {
+		// Saved again, so no longer to be deleted
+		PendingWrite delete = this.deleting.remove(id);
+		if (delete != null) {
+			delete.deleted.remove(id);
+		}
+		PendingWrite write = getPending(id);
+		write.setStory(story);
+		// The snapshot holds the latest history already
+		write.history = null;
+		return write.task;
+	}
+
+	/**
+	 * Queues the reading progress of a story already in the store to be
+	 * saved, like StoryStore.saveHistory.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @param story
+	 *            the story being read
+	 * @return a Future of whether the save succeeded
+	 */
+	public synchronized Future<Boolean> saveHistory(UUID id, Story story) {
+		PendingWrite write = getPending(id);
+		if (write.story != null) {
+			// Later than the story waiting to be saved, so save that again
+			write.setStory(story);
+		} else {
+			write.history = StoryRecords.getHistory(story).copy();
+		}
+		return write.task;
+	}
+
+	/**
+	 * Returns a copy of the latest version of a story saved through the queue
+	 * and not committed yet, so it can be loaded without waiting for the
+	 * write. Like Story.fork, it is called on the thread that edits stories.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @return a separate Story to edit, null if no save of the whole story
+	 *         is waiting to be committed
+	 */
+	public synchronized Story getQueued(UUID id) {
+		PendingWrite newer = this.pending.get(id);
+		PendingWrite older = this.writing.get(id);
+		if (newer != null && newer.latest != null) {
+			return newer.latest.fork();
+		}
+		if (older == null || older.latest == null) {
+			return null;
+		}
+		Story story = older.latest.fork();
+		if (newer != null && newer.history != null) {
+			copyHistory(newer.history, story);
+		}
+		return story;
+	}
+
+	/**
+	 * Brings the reading progress of a story just loaded from the store up
+	 * to date with any queued by saveHistory and not committed yet.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @param story
+	 *            the story loaded
+	 * @return true if the story's progress was replaced, false if none was
+	 *         waiting to be committed
+	 */
+	public synchronized boolean restoreQueuedHistory(UUID id, Story story) {
+		PendingWrite newer = this.pending.get(id);
+		PendingWrite older = this.writing.get(id);
+		if (newer != null && newer.history != null) {
+			copyHistory(newer.history, story);
+			return true;
+		}
+		if (older != null && older.history != null) {
+			copyHistory(older.history, story);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Queues some other write, replacing any write queued under the same key
+	 * that has not started yet.
+	 * 
+	 * @param key
+	 *            identifies what is written, and must not be a story ID
+	 * @param task
+	 *            does the writing
+	 * @return a Future of whether the write succeeded
+	 */
+	public synchronized Future<Boolean> write(Object key, Write task) {
+		PendingWrite write = getPending(key);
+		write.other = task;
+		return write.task;
+	}
+
+	/**
+	 * Queues a story to be deleted from the store, instead of any write of it
+	 * not started yet, whose Future is cancelled. Its files are deleted only
+	 * once the group it is written with is committed, so that a change to
+	 * the library's list of stories queued before it is on disk first.
+	 * Saving the story again before then keeps it.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @return a Future of whether the story was deleted
+	 */
+	public synchronized Future<Boolean> delete(UUID id) {
+		return delete(Collections.singletonList(id));
+	}
+
+	/**
+	 * Queues many stories to be deleted, like delete(UUID), as one write.
+	 * 
+	 * @param ids
+	 *            IDs of the stories
+	 * @return a Future of whether every story was deleted
+	 */
+	public synchronized Future<Boolean> delete(Collection<UUID> ids) {
+		// Under a key of its own, so it never replaces another delete
+		PendingWrite delete = getPending(new Object());
+		delete.deleted = new ArrayList<UUID>(ids);
+		for (UUID id : delete.deleted) {
+			PendingWrite write = this.pending.remove(id);
+			if (write != null) {
+				write.scheduled.cancel(false);
+				write.task.cancel(false);
+			}
+			this.writing.remove(id);
+			PendingWrite earlier = this.deleting.put(id, delete);
+			if (earlier != null) {
+				earlier.deleted.remove(id);
+			}
+		}
+		return delete.task;
+	}
+
+	/**
+	 * Starts every queued write without waiting out its delay.
+	 * 
+	 * @return a Future of whether all of them succeeded, which completes once
+	 *         everything queued so far is written
+	 */
+	public synchronized Future<Boolean> flush() {
+		Result flushed = new Result();
+		if (!this.pending.isEmpty()) {
+			// Completed along with the group that writes them
+			this.flushes.add(flushed);
+			this.executor.execute(this.writeGroup);
+		} else if (this.committing != null) {
+			// Nothing new, but the group being written is not done yet
+			this.committing.add(flushed);
+		} else {
+			flushed.finish(true);
+		}
+		return flushed;
+	}
+
+	/**
+	 * Starts the queued write of one story without waiting out its delay,
+	 * along with the rest of its group.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @return a Future of whether the write succeeded, which completes once
+	 *         the story is written along with everything queued before it
+	 */
+	public synchronized Future<Boolean> flush(UUID id) {
+		PendingWrite write = this.pending.get(id);
+		if (write != null) {
+			this.executor.execute(this.writeGroup);
+			return write.task;
+		}
+		write = this.writing.get(id);
+		if (write != null) {
+			return write.task;
+		}
+		Result flushed = new Result();
+		flushed.finish(true);
+		return flushed;
+	}
+
+	/**
+	 * Waits for a write to complete. Must not be called on the queue's own
+	 * thread.
+	 * 
+	 * @param future
+	 *            a Future returned by the queue
+	 * @return true if the write succeeded, false if it failed or was
+	 *         cancelled
+	 */
+	public static boolean waitFor(Future<Boolean> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			return false;
+		} catch (CancellationException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Replaces the history of a story with a copy of another.
+	 */
+	private static void copyHistory(History history, Story story) {
+		History target = StoryRecords.getHistory(story);
+		target.clearHistory();
+		for (int i = 0; i < history.size(); i++) {
+			target.pushToStack(history.get(i));
+		}
+	}
+
+	/**
+	 * Returns the write not started yet for a key, queuing a new one if there
+	 * is none.
+	 */
+	private PendingWrite getPending(Object key) {
+		PendingWrite write = this.pending.get(key);
+		if (write == null) {
+			write = new PendingWrite(key);
+			this.pending.put(key, write);
+			write.scheduled = this.executor.schedule(this.writeGroup,
+					this.delay, TimeUnit.MILLISECONDS);
+		}
+		return write;
+	}
+
+	/**
+	 * Writes everything pending, committing it all at once, then completes
+	 * the Future of each write, and those of flush waiting on the group.
+	 * Runs on the queue's thread, so it never waits on a Future of its own.
+	 */
+	private void writeGroup() {
+		ArrayList<PendingWrite> group;
+		ArrayList<Result> flushed;
+		// Saves queued from here on start a new group
+		synchronized (this) {
+			group = new ArrayList<PendingWrite>(this.pending.values());
+			if (group.isEmpty()) {
+				return;
+			}
+			this.pending.clear();
+			this.deleting.clear();
+			for (PendingWrite write : group) {
+				write.scheduled.cancel(false);
+				if (write.key instanceof UUID) {
+					this.writing.put((UUID) write.key, write);
+				}
+			}
+			flushed = this.flushes;
+			this.flushes = new ArrayList<Result>();
+			this.committing = flushed;
+		}
+		FileCommit commit = new FileCommit();
+		boolean[] written = new boolean[group.size()];
+		for (int i = 0; i < group.size(); i++) {
+			written[i] = group.get(i).write(commit);
+		}
+		boolean committed = this.store.commit(commit);
+		synchronized (this) {
+			// Loaded from the store from here on
+			this.writing.clear();
+		}
+		boolean success = committed;
+		for (int i = 0; i < group.size(); i++) {
+			PendingWrite write = group.get(i);
+			write.task.finish(written[i] && committed && !write.failed);
+			success &= written[i] && !write.failed;
+		}
+		synchronized (this) {
+			// Any flush from here on finds the group done
+			this.committing = null;
+		}
+		for (Result result : flushed) {
+			result.finish(success);
+		}
+	}
+
+	/**
+	 * One write waiting in the queue, holding the latest of everything saved
+	 * under its key since it was queued.
+	 */
+	private class PendingWrite {
+
+		private final Object key;
+		private final Result task;
+		private ScheduledFuture<?> scheduled;
+		private Story story;
+		// Copy of story handed out by getQueued; never used by the writer
+		private Story latest;
+		private History history;
+		private Write other;
+		private ArrayList<UUID> deleted;
+		// Whether deleting the files failed after the commit
+		private boolean failed;
+
+		public PendingWrite(Object key) {
+			this.key = key;
+			this.task = new Result();
+		}
+
+		/**
+		 * Takes a snapshot of a story to write, and a copy of it to load.
+		 */
+		public void setStory(Story story) {
+			this.story = story.snapshot();
+			this.latest = story.fork();
+		}
+
+		/**
+		 * Adds the files of the write to the group's commit.
+		 * 
+		 * @return true if they were written, false otherwise
+		 */
+		public boolean write(FileCommit commit) {
+			boolean success = true;
+			try {
+				if (this.story != null) {
+					success &= store.save((UUID) this.key, this.story, commit);
+				}
+				if (this.history != null) {
+					success &= store.saveHistory((UUID) this.key,
+							this.history, commit);
+				}
+				if (this.other != null) {
+					success &= this.other.write(commit);
+				}
+				if (this.deleted != null) {
+					commit.afterCommit(new Runnable() {
+						@Override
+						public void run() {
+							deleteFiles();
+						}
+					});
+				}
+			} catch (RuntimeException e) {
+				// Fail this write, not the rest of the group
+				e.printStackTrace();
+				return false;
+			}
+			return success;
+		}
+
+		/**
+		 * Deletes the files of the stories to be deleted, once the group's
+		 * commit is done.
+		 */
+		private void deleteFiles() {
+			for (UUID id : this.deleted) {
+				try {
+					this.failed |= !store.delete(id);
+				} catch (RuntimeException e) {
+					// Fail this delete, not the rest of the group
+					e.printStackTrace();
+					this.failed = true;
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * The Future of a write, completed once its group is committed.
+	 */
+	private static class Result extends FutureTask<Boolean> {
+
+		private static final Runnable NOTHING = new Runnable() {
+			@Override
+			public void run() {
+			}
+		};
+
+		public Result() {
+			super(NOTHING, null);
+		}
+
+		public void finish(boolean success) {
+			set(success);
+		}
+
+	}
+
+}
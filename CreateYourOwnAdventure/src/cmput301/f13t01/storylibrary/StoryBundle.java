@@ -0,0 +1,352 @@
+/*
+StoryBundle class for CreateYourOwnAdventure.
+Writes a story and the media it uses to a single file, to move it to
+another device, and reads it back.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.storylibrary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import cmput301.f13t01.model.Image;
+import cmput301.f13t01.model.Media;
+import cmput301.f13t01.model.MediaType;
+import cmput301.f13t01.model.RecordReader;
+import cmput301.f13t01.model.RecordWriter;
+import cmput301.f13t01.model.Sound;
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryCodec;
+import cmput301.f13t01.model.StoryCompression;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.model.StoryRecords;
+import cmput301.f13t01.model.Video;
+
+/**
+ * StoryBundle moves a story, with the media files it uses, between devices
+ * as one file. The bundle starts with the start of a StoryCodec record of
+ * kind BUNDLE, then holds entries one after the other, each a byte naming
+ * its kind, the fields of that kind and a long giving the length of its
+ * contents, followed by the contents:
+ * 
+ * HEADER, FRAGMENT and CHOICES entries hold the story's records, as a
+ * StoryStore keeps them, deflated; a fragment or choice entry gives the
+ * fragment ID as an int first. Records are never compressed with the
+ * library's dictionary, which the other device does not have.
+ * 
+ * A MEDIA entry gives the MediaType and the name the story refers to the
+ * media by, as UTF strings, and holds the media file as it is.
+ * 
+ * An END entry, with no fields or contents, closes the bundle.
+ * 
+ * Media is copied between the media files and the bundle by the file
+ * channels themselves, with transferTo and transferFrom, so however large it
+ * is, none of it passes through the heap and no image is decoded. Only the
+ * story's records are read into memory, one at a time. Imported media is
+ * stored in the MediaStore by its hash, so media already on the device is
+ * not stored twice. The imported story is renamed to refer to its media by
+ * hash, so a name in the bundle never stands for other media on the device.
+ */
+
+public final class StoryBundle {
+
+	/* Kinds of entry */
+	private static final int END = 0;
+	private static final int HEADER = 1;
+	private static final int FRAGMENT = 2;
+	private static final int CHOICES = 3;
+	private static final int MEDIA = 4;
+
+	// Longest record read, so a damaged length can't use up the heap
+	private static final long MAX_RECORD = 16 * 1024 * 1024;
+
+	/* MediaTypes kept in files */
+	private static final List<String> FILE_TYPES = Arrays.asList(
+			MediaType.IMAGE.toString(), MediaType.SOUND.toString(),
+			MediaType.VIDEO.toString());
+
+	private StoryBundle() {
+	}
+
+	/**
+	 * Writes a story and its media to a bundle. Media whose file is missing
+	 * is left out, as the story is still readable without it.
+	 * 
+	 * @param story
+	 *            the story, which is read in full
+	 * @param mediaStore
+	 *            the MediaStore holding the story's media
+	 * @param file
+	 *            the bundle to write, replaced if it exists
+	 * @throws IOException
+	 */
+	public static void write(Story story, MediaStore mediaStore, File file)
+			throws IOException {
+		FileOutputStream fileOut = new FileOutputStream(file);
+		FileChannel channel = fileOut.getChannel();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				fileOut));
+		try {
+			new RecordWriter(out, StoryCodec.BUNDLE);
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			OutputStream record = startRecord(buffer);
+			StoryRecords.writeHeader(story, record);
+			record.close();
+			writeRecord(out, HEADER, -1, buffer);
+
+			int[] fragmentIds = StoryRecords.getFragmentIds(story);
+			Arrays.sort(fragmentIds);
+			LinkedHashSet<String> media = new LinkedHashSet<String>();
+			for (int fragmentId : fragmentIds) {
+				collect(story.getFragment(fragmentId), media);
+				record = startRecord(buffer);
+				StoryRecords.writeFragment(story, fragmentId, record);
+				record.close();
+				writeRecord(out, FRAGMENT, fragmentId, buffer);
+			}
+			int[] choiceIds = StoryRecords.getChoiceIds(story);
+			Arrays.sort(choiceIds);
+			for (int fragmentId : choiceIds) {
+				if (StoryRecords.hasChoices(story, fragmentId)) {
+					record = startRecord(buffer);
+					StoryRecords.writeChoices(story, fragmentId, record);
+					record.close();
+					writeRecord(out, CHOICES, fragmentId, buffer);
+				}
+			}
+
+			for (String key : media) {
+				int slash = key.indexOf('/');
+				String type = key.substring(0, slash);
+				String name = key.substring(slash + 1);
+				File mediaFile = mediaStore.getFile(type, name);
+				if (mediaFile.isFile()) {
+					writeMedia(out, channel, type, name, mediaFile);
+				}
+			}
+			out.writeByte(END);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads a story from a bundle, storing its media in a MediaStore. The
+	 * story is not added to any library.
+	 * 
+	 * @param file
+	 *            the bundle
+	 * @param mediaStore
+	 *            the MediaStore to store the media in
+	 * @return the story, which has never been saved
+	 * @throws IOException
+	 *             if the bundle can't be read or is damaged
+	 */
+	public static Story read(File file, MediaStore mediaStore)
+			throws IOException {
+		FileInputStream fileIn = new FileInputStream(file);
+		FileChannel channel = fileIn.getChannel();
+		// Not buffered, so the channel is always where the stream is
+		DataInputStream in = new DataInputStream(
+				Channels.newInputStream(channel));
+		try {
+			new RecordReader(in, StoryCodec.BUNDLE);
+			Story story = null;
+			// Name each media is stored under, by type and name in the bundle
+			HashMap<String, String> names = new HashMap<String, String>();
+			while (true) {
+				int kind = in.readUnsignedByte();
+				if (kind == END) {
+					break;
+				} else if (kind == HEADER) {
+					story = StoryRecords.readHeader(readRecord(in));
+				} else if (kind == FRAGMENT && story != null) {
+					int fragmentId = in.readInt();
+					StoryRecords.readFragment(story, fragmentId,
+							readRecord(in));
+				} else if (kind == CHOICES && story != null) {
+					int fragmentId = in.readInt();
+					StoryRecords.readChoices(story, fragmentId,
+							readRecord(in));
+				} else if (kind == MEDIA) {
+					readMedia(in, channel, mediaStore, names);
+				} else {
+					throw new IOException("Bundle damaged");
+				}
+			}
+			if (story == null) {
+				throw new IOException("Bundle holds no story");
+			}
+			MediaStore.renameMedia(story, names);
+			return story;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Empties a buffer and returns a stream deflating a record into it, to
+	 * be closed once the record is written.
+	 */
+	private static OutputStream startRecord(ByteArrayOutputStream buffer)
+			throws IOException {
+		buffer.reset();
+		return StoryCompression.compress(buffer, StoryCompression.DEFLATE);
+	}
+
+	/**
+	 * Writes an entry holding the record in a buffer.
+	 */
+	private static void writeRecord(DataOutputStream out, int kind,
+			int fragmentId, ByteArrayOutputStream buffer) throws IOException {
+		out.writeByte(kind);
+		if (kind != HEADER) {
+			out.writeInt(fragmentId);
+		}
+		out.writeLong(buffer.size());
+		buffer.writeTo(out);
+	}
+
+	/**
+	 * Reads the contents of an entry holding a record.
+	 * 
+	 * @return a stream of the record, decompressed
+	 */
+	private static BufferedInputStream readRecord(DataInputStream in)
+			throws IOException {
+		long length = in.readLong();
+		if (length < 0 || length > MAX_RECORD) {
+			throw new IOException("Bundle damaged");
+		}
+		byte[] bytes = new byte[(int) length];
+		in.readFully(bytes);
+		return StoryCompression.decompress(new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * Writes a media entry, having the channels copy the file into the
+	 * bundle.
+	 */
+	private static void writeMedia(DataOutputStream out, FileChannel channel,
+			String type, String name, File mediaFile) throws IOException {
+		FileInputStream mediaIn = new FileInputStream(mediaFile);
+		try {
+			FileChannel source = mediaIn.getChannel();
+			long length = source.size();
+			out.writeByte(MEDIA);
+			out.writeUTF(type);
+			out.writeUTF(name);
+			out.writeLong(length);
+			// The channel writes after what is buffered
+			out.flush();
+			long copied = 0;
+			while (copied < length) {
+				long count = source.transferTo(copied, length - copied,
+						channel);
+				if (count <= 0) {
+					throw new IOException(mediaFile + " changed");
+				}
+				copied += count;
+			}
+		} finally {
+			mediaIn.close();
+		}
+	}
+
+	/**
+	 * Reads a media entry, having the channels copy it from the bundle into
+	 * a new file, then stores the file, adding the name it is stored under
+	 * to the names.
+	 */
+	private static void readMedia(DataInputStream in, FileChannel channel,
+			MediaStore mediaStore, HashMap<String, String> names)
+			throws IOException {
+		String type = in.readUTF();
+		String name = in.readUTF();
+		long length = in.readLong();
+		if (!FILE_TYPES.contains(type) || length < 0) {
+			throw new IOException("Bundle damaged");
+		}
+		File temp = mediaStore.createTempFile(type);
+		try {
+			FileOutputStream mediaOut = new FileOutputStream(temp);
+			try {
+				FileChannel target = mediaOut.getChannel();
+				long copied = 0;
+				while (copied < length) {
+					long count = target.transferFrom(channel, copied, length
+							- copied);
+					if (count <= 0) {
+						throw new EOFException();
+					}
+					copied += count;
+				}
+			} finally {
+				mediaOut.close();
+			}
+			names.put(type + "/" + name, mediaStore.put(name, temp, type));
+		} finally {
+			// Gone already, unless it could not be stored
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Adds the media in the files of a fragment to a set, by type and name.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static void collect(StoryFragment fragment,
+			LinkedHashSet<String> media) {
+		if (fragment == null) {
+			return;
+		}
+		ArrayList<Media> list = new ArrayList<Media>();
+		list.addAll(fragment.getContentList());
+		if (fragment.getAnnotationList() != null) {
+			list.addAll(fragment.getAnnotationList());
+		}
+		for (Media item : list) {
+			if (item instanceof Image || item instanceof Sound
+					|| item instanceof Video) {
+				Object name = item.getContent();
+				if (name != null) {
+					media.add(item.getType() + "/" + name);
+				}
+			}
+		}
+	}
+
+}
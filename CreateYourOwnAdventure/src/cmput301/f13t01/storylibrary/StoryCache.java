@@ -0,0 +1,258 @@
+/*
+StoryCache class for CreateYourOwnAdventure.
+Keeps the stories loaded most recently in memory, up to a size, so opening
+one again does not read it from disk.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.storylibrary;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import cmput301.f13t01.model.Story;
+
+/**
+ * StoryCache holds the stories loaded most recently, so a reader or editor
+ * opening a story again gets it without reading it from disk. The stories
+ * are kept until their estimated sizes add up to more than the capacity,
+ * then the one used least recently is dropped first.
+ * 
+ * The cache keeps a fork of each story and hands out a fork of that, so
+ * every caller gets a story of its own to edit and save, while fragments and
+ * choice lists are shared until one of them changes. A story must be
+ * removed whenever its saved copy changes, so the cache never hands out an
+ * older version than the one on disk.
+ * 
+ * Hits, misses and evictions are counted along with the bytes held, so how
+ * well the cache works can be watched.
+ */
+
+public class StoryCache {
+
+	/* Instance Variables for StoryCache */
+	private final long capacity;
+	// Stories by ID, the one used least recently first
+	private final LinkedHashMap<UUID, Entry> entries;
+	// Estimated bytes held by every story in entries
+	private long size;
+	// Counts removals, so a story loaded before its entry was removed is
+	// not put back afterwards
+	private long generation;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * A story kept, with the size it was estimated at when it was put.
+	 */
+	private static class Entry {
+		final Story story;
+		final long size;
+
+		Entry(Story story, long size) {
+			this.story = story;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity
+	 *            the most bytes of stories to keep, by their estimated size
+	 */
+	public StoryCache(long capacity) {
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<UUID, Entry>(16, 0.75f, true);
+	}
+
+	/**
+	 * Returns a copy of a story, if it is kept, counting a hit or a miss.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @return a separate copy of the story, or null if it is not kept
+	 */
+	public synchronized Story get(UUID id) {
+		Entry entry = this.entries.get(id);
+		if (entry == null) {
+			this.misses++;
+			return null;
+		}
+		this.hits++;
+		return entry.story.fork();
+	}
+
+	/**
+	 * Returns the current generation, to be passed to put for a story about
+	 * to be loaded.
+	 * 
+	 * @return a value that changes whenever a story is removed
+	 */
+	public synchronized long getGeneration() {
+		return this.generation;
+	}
+
+	/**
+	 * Keeps a copy of a story just loaded, unless a story was removed since
+	 * the generation given was read, as the copy loaded may be out of date.
+	 * A story too large for the cache is not kept. Must be called on the
+	 * thread the story is edited on, before any edits.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @param story
+	 *            the story loaded
+	 * @param generation
+	 *            the generation read before loading the story
+	 * @return true if the story is kept, false otherwise
+	 */
+	public synchronized boolean put(UUID id, Story story, long generation) {
+		if (generation != this.generation) {
+			return false;
+		}
+		long storySize = story.estimateSize();
+		if (storySize > this.capacity) {
+			return false;
+		}
+		Entry replaced = this.entries.put(id, new Entry(story.fork(),
+				storySize));
+		if (replaced != null) {
+			this.size -= replaced.size;
+		}
+		this.size += storySize;
+		evict(this.capacity);
+		return true;
+	}
+
+	/**
+	 * Drops a story, if it is kept. Called whenever a story is saved or
+	 * removed.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 */
+	public synchronized void remove(UUID id) {
+		this.generation++;
+		Entry entry = this.entries.remove(id);
+		if (entry != null) {
+			this.size -= entry.size;
+		}
+	}
+
+	/**
+	 * Drops stories, least recently used first, until the rest take up no
+	 * more than a given size.
+	 * 
+	 * @param maxSize
+	 *            the most bytes of stories to keep
+	 */
+	public synchronized void trimTo(long maxSize) {
+		evict(maxSize);
+	}
+
+	private void evict(long maxSize) {
+		Iterator<Map.Entry<UUID, Entry>> iterator = this.entries.entrySet()
+				.iterator();
+		while (this.size > maxSize && iterator.hasNext()) {
+			this.size -= iterator.next().getValue().size;
+			iterator.remove();
+			this.evictions++;
+		}
+	}
+
+	/**
+	 * Returns the number of stories kept.
+	 * 
+	 * @return the number of stories
+	 */
+	public synchronized int getCount() {
+		return this.entries.size();
+	}
+
+	/**
+	 * Returns the estimated bytes held by the stories kept.
+	 * 
+	 * @return the estimated size
+	 */
+	public synchronized long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the most bytes of stories kept.
+	 * 
+	 * @return the capacity
+	 */
+	public long getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Returns the number of calls to get that found the story.
+	 * 
+	 * @return the number of hits
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+	/**
+	 * Returns the number of calls to get that did not find the story.
+	 * 
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+	/**
+	 * Returns the number of stories dropped to make room.
+	 * 
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictions() {
+		return this.evictions;
+	}
+
+	/**
+	 * Returns the share of calls to get that found the story.
+	 * 
+	 * @return the hit rate, from 0 to 1, or 0 if get was never called
+	 */
+	public synchronized double getHitRate() {
+		long requests = this.hits + this.misses;
+		return requests == 0 ? 0 : (double) this.hits / requests;
+	}
+
+	/**
+	 * Describes how full the cache is and how well it works, for logging.
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format(
+				"StoryCache: %d stories, %d/%d bytes, %d hits, %d misses "
+						+ "(%.0f%%), %d evictions", this.entries.size(),
+				this.size, this.capacity, this.hits, this.misses,
+				getHitRate() * 100, this.evictions);
+	}
+
+}
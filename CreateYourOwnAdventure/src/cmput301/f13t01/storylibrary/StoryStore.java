@@ -0,0 +1,1084 @@
+/*
+StoryStore class for CreateYourOwnAdventure.
+Keeps each saved story in a directory of its own, as a pack of all its
+fragments plus one file per fragment changed since, so a save only rewrites
+the fragments that changed and a load only reads the fragments used.
+
+    License GPLv3: GNU GPL Version 3
+    <http://gnu.org/licenses/gpl.html>.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cmput301.f13t01.storylibrary;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.UUID;
+
+import cmput301.f13t01.model.History;
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryChanges;
+import cmput301.f13t01.model.StoryCompression;
+import cmput301.f13t01.model.StoryDictionary;
+import cmput301.f13t01.model.StoryPack;
+import cmput301.f13t01.model.StoryRecords;
+
+/**
+ * StoryStore saves stories under a root directory, each in a directory named
+ * by its UUID. The story itself is kept in a numbered generation directory
+ * inside it, holding a header file, a StoryPack and a file for every
+ * fragment and choice list changed since the pack was written (see
+ * StoryRecords). A changed file replaces the packed record, and an empty one
+ * stands for a record removed from the pack. Beside the generation directory
+ * are a file naming the current generation and a ReadingLog of the story's
+ * History.
+ * 
+ * A story saved here before, and not changed on disk since, is saved by
+ * writing its header and only the fragments and choice lists its
+ * StoryChanges mark, so the cost of a save follows the size of the edit
+ * rather than the size of the story. Once the changed files outnumber a
+ * fraction of the pack, or when the whole story has to be written, it is
+ * written as a new generation, which replaces the old one by rewriting the
+ * file naming the current generation.
+ * 
+ * Every file is written through a FileCommit, so a crash while saving leaves
+ * each file either as it was or as it was saved, and a story written as a new
+ * generation either wholly old or wholly new. A save can be added to a
+ * FileCommit shared with other saves and committed with commit, so they all
+ * wait for the disk once.
+ * 
+ * Loading a story reads the header and the changed files, and attaches the
+ * pack to the Story, which reads fragments from it as they are used; the
+ * time to the first page does not grow with the number of fragments.
+ * 
+ * The store remembers which copy of each story is on disk by a version object
+ * handed to the StoryChanges of the Story last loaded or saved. A Story whose
+ * changes are based on some other version, such as a second copy loaded from
+ * the same files, is written in full.
+ * 
+ * Reading progress can be saved on its own with saveHistory, which appends
+ * to the ReadingLog without touching the rest of the story.
+ * 
+ * The header, fragment and choice records are compressed with the codec
+ * set, deflate unless another is chosen (see StoryCompression). Records are
+ * read whether or not they are compressed, and with whichever codec. Once a
+ * StoryDictionary is set, deflated records start from it, and records
+ * written with an earlier one are still read while it stays known to
+ * StoryCompression (see DictionaryStore).
+ * 
+ * A story can be mirrored, saved again under another ID, without copying
+ * its pack, which is never changed once written. The mirror's generation
+ * holds a base file naming the story and generation whose pack it reads in
+ * place of one of its own, and copies of the few other files: the header,
+ * with the mirror's title, the fragment and choice files and the ReadingLog.
+ * Changes to the mirror are written beside them like any other, until the
+ * mirror is written in full and has a pack of its own. A mirror of a mirror
+ * shares the same pack.
+ * 
+ * The story owning a shared pack keeps a marker for each mirror reading it
+ * in a mirrors directory, giving the generation read. A generation a mirror
+ * reads keeps its pack when the owner moves to a new one, until the last
+ * mirror stops reading it. When the owner is deleted, each mirror is first
+ * written in full.
+ */
+
+public class StoryStore {
+
+	private static final String CURRENT_FILE = "current";
+	private static final String HEADER_FILE = "story";
+	private static final String FRAGMENT_PREFIX = "f";
+	private static final String CHOICE_PREFIX = "c";
+	private static final String HISTORY_FILE = "history";
+	private static final String PACK_FILE = "pack";
+	private static final String BASE_FILE = "base";
+	private static final String MIRRORS_DIRECTORY = "mirrors";
+
+	// Changed files allowed beyond an eighth of the pack before the story is
+	// packed again
+	private static final int COMPACT_SLACK = 64;
+
+	/* Instance Variables for StoryStore */
+	private final File root;
+	// Version of the copy of each story on disk, known only once the story
+	// has been loaded or saved by this store
+	private final HashMap<UUID, Object> versions;
+	// Current generation of the stories loaded or saved so far
+	private final HashMap<UUID, Integer> generations;
+	// Reading logs of the stories loaded or saved so far
+	private final HashMap<UUID, ReadingLog> logs;
+	// Packs on disk of the stories loaded or saved so far
+	private final HashMap<UUID, StoryPack> packs;
+	// StoryCompression codec new records are written with
+	private int compression;
+	// Dictionary new records are deflated with, if any
+	private StoryDictionary dictionary;
+
+	/**
+	 * Constructor. Records are compressed with deflate.
+	 * 
+	 * @param root
+	 *            directory to keep the story directories in
+	 */
+	public StoryStore(File root) {
+		this(root, StoryCompression.DEFLATE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param root
+	 *            directory to keep the story directories in
+	 * @param compression
+	 *            the StoryCompression codec to write records with
+	 */
+	public StoryStore(File root, int compression) {
+		this.root = root;
+		this.compression = compression;
+		this.versions = new HashMap<UUID, Object>();
+		this.generations = new HashMap<UUID, Integer>();
+		this.logs = new HashMap<UUID, ReadingLog>();
+		this.packs = new HashMap<UUID, StoryPack>();
+	}
+
+	/**
+	 * Sets the codec records are compressed with from now on. Records already
+	 * written are read whichever codec they were written with.
+	 * 
+	 * @param compression
+	 *            StoryCompression.NONE, DEFLATE or LZ
+	 */
+	public synchronized void setCompression(int compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Sets the dictionary records are deflated with from now on. Stories
+	 * already saved take it on as their records are next written.
+	 * 
+	 * @param dictionary
+	 *            the StoryDictionary, or null for none
+	 */
+	public synchronized void setDictionary(StoryDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Returns whether a story has been saved in the store.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @return true if the story can be loaded from the store
+	 */
+	public synchronized boolean contains(UUID id) {
+		return getGeneration(id) >= 0;
+	}
+
+	/**
+	 * Saves a story, writing only what changed if the copy on disk is the one
+	 * the story was last loaded from or saved as.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @param story
+	 *            the story to save, or a snapshot of it
+	 * @return true if save is successful, false otherwise
+	 */
+	public synchronized boolean save(UUID id, Story story) {
+		FileCommit commit = new FileCommit();
+		return save(id, story, commit) && commit(commit);
+	}
+
+	/**
+	 * Adds the files saving a story to a FileCommit, like save(UUID, Story).
+	 * The story is only saved once the commit is made with commit, and no
+	 * other save of the same story may be added to the commit.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @param story
+	 *            the story to save, or a snapshot of it
+	 * @param commit
+	 *            the FileCommit to add the files to
+	 * @return true if the files were written, false otherwise
+	 */
+	public synchronized boolean save(final UUID id, Story story,
+			FileCommit commit) {
+		final StoryChanges changes = story.getChanges();
+		int generation = getGeneration(id);
+		boolean incremental = changes.isBasedOn(this.versions.get(id))
+				&& generation >= 0;
+		// Whatever happens, the files no longer match any loaded Story
+		this.versions.remove(id);
+		int start = commit.size();
+		try {
+			StoryPack pack = incremental ? getPack(id) : null;
+			int[] changedFragments = changes.getChangedFragments();
+			int[] changedChoices = changes.getChangedChoices();
+			if (incremental) {
+				File directory = getRecordDirectory(id, generation);
+				int packed = pack == null ? 0 : pack.size();
+				incremental = countRecords(directory) + changedFragments.length
+						+ changedChoices.length <= packed / 8 + COMPACT_SLACK;
+			}
+			if (incremental) {
+				File directory = getRecordDirectory(id, generation);
+				for (int fragmentId : changedFragments) {
+					saveFragment(directory, story, fragmentId, pack, commit);
+				}
+				for (int fragmentId : changedChoices) {
+					saveChoices(directory, story, fragmentId, pack, commit);
+				}
+				// Replaced last, so it never names fragments not yet written
+				OutputStream out = compress(commit.openReplacement(new File(
+						directory, HEADER_FILE)));
+				try {
+					StoryRecords.writeHeader(story, out);
+				} finally {
+					out.close();
+				}
+			} else {
+				generation = saveAll(id, story, commit);
+			}
+			ReadingLog log = getLog(id);
+			log.save(StoryRecords.getHistory(story));
+			commit.sync(log.getFile());
+		} catch (IOException e) {
+			// Something went wrong
+			commit.discard(start);
+			this.logs.remove(id);
+			e.printStackTrace();
+			return false;
+		}
+		final int saved = generation;
+		commit.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				Object version = new Object();
+				versions.put(id, version);
+				generations.put(id, saved);
+				changes.saved(version);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Makes a FileCommit holding saves of stories in this store.
+	 * 
+	 * @param commit
+	 *            the FileCommit to make
+	 * @return true if every save in it is now on disk, false otherwise
+	 */
+	public synchronized boolean commit(FileCommit commit) {
+		try {
+			commit.commit();
+			return true;
+		} catch (IOException e) {
+			// Nothing is known about the files any more
+			this.versions.clear();
+			this.generations.clear();
+			this.logs.clear();
+			this.packs.clear();
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Loads a story from the store.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @return the Story, null if it is not in the store or can't be read
+	 */
+	public synchronized Story load(UUID id) {
+		return load(id, true);
+	}
+
+	/**
+	 * Loads a story from the store just to read it, leaving any copy loaded
+	 * before as the one saves are based on. Saving the copy returned writes
+	 * it in full.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @return the Story, null if it is not in the store or can't be read
+	 */
+	public synchronized Story loadCopy(UUID id) {
+		return load(id, false);
+	}
+
+	private Story load(UUID id, boolean based) {
+		int generation = getGeneration(id);
+		if (generation < 0) {
+			return null;
+		}
+		File directory = getRecordDirectory(id, generation);
+		try {
+			Story story;
+			BufferedInputStream in = openRecord(new File(directory, HEADER_FILE));
+			try {
+				story = StoryRecords.readHeader(in);
+			} finally {
+				in.close();
+			}
+			StoryPack pack = getPack(id);
+			if (pack != null) {
+				StoryRecords.attachPack(story, pack);
+			}
+			String[] names = directory.list();
+			for (String name : names) {
+				int fragmentId = parseId(name, FRAGMENT_PREFIX);
+				File file = new File(directory, name);
+				if (fragmentId >= 0 && file.length() == 0) {
+					StoryRecords.readRemovedFragment(story, fragmentId);
+				} else if (fragmentId >= 0) {
+					in = openRecord(file);
+					try {
+						StoryRecords.readFragment(story, fragmentId, in);
+					} finally {
+						in.close();
+					}
+				}
+			}
+			for (String name : names) {
+				int fragmentId = parseId(name, CHOICE_PREFIX);
+				File file = new File(directory, name);
+				if (fragmentId >= 0 && file.length() == 0) {
+					StoryRecords.readRemovedChoices(story, fragmentId);
+				} else if (fragmentId >= 0) {
+					in = openRecord(file);
+					try {
+						StoryRecords.readChoices(story, fragmentId, in);
+					} finally {
+						in.close();
+					}
+				}
+			}
+			try {
+				ReadingLog log = getLog(id);
+				if (log.exists()) {
+					log.restore(StoryRecords.getHistory(story));
+				}
+			} catch (IOException e) {
+				// Lose the reading progress rather than the story
+				e.printStackTrace();
+			}
+			if (based) {
+				Object version = new Object();
+				this.versions.put(id, version);
+				story.getChanges().saved(version);
+			}
+			return story;
+		} catch (FileNotFoundException e) {
+			// ID doesn't exist
+			return null;
+		} catch (IOException e) {
+			// Something messed up
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Saves only the reading progress of a story already in the store, by
+	 * appending the page turns since it was last saved to its ReadingLog.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @param story
+	 *            the story, or a snapshot of it
+	 * @return true if save is successful, false otherwise
+	 */
+	public synchronized boolean saveHistory(UUID id, Story story) {
+		return saveHistory(id, StoryRecords.getHistory(story));
+	}
+
+	/**
+	 * Saves the reading progress of a story already in the store, like
+	 * saveHistory(UUID, Story), from a History on its own.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @param history
+	 *            the story's History, or a copy of it
+	 * @return true if save is successful, false otherwise
+	 */
+	public synchronized boolean saveHistory(UUID id, History history) {
+		FileCommit commit = new FileCommit();
+		return saveHistory(id, history, commit) && commit(commit);
+	}
+
+	/**
+	 * Saves the reading progress of a story already in the store, like
+	 * saveHistory(UUID, History), syncing the log to disk only when the
+	 * FileCommit is made.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @param history
+	 *            the story's History, or a copy of it
+	 * @param commit
+	 *            the FileCommit to add the log to
+	 * @return true if save is successful, false otherwise
+	 */
+	public synchronized boolean saveHistory(UUID id, History history,
+			FileCommit commit) {
+		if (!contains(id)) {
+			return false;
+		}
+		try {
+			ReadingLog log = getLog(id);
+			log.save(history);
+			commit.sync(log.getFile());
+			return true;
+		} catch (IOException e) {
+			// The log no longer matches the file, so read it again next time
+			this.logs.remove(id);
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes a story from the store.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @return true if the story was there and is now gone
+	 */
+	public synchronized boolean delete(UUID id) {
+		// Mirrors reading the story's packs need packs of their own first
+		if (!writeMirrors(id)) {
+			return false;
+		}
+		this.versions.remove(id);
+		this.generations.remove(id);
+		this.logs.remove(id);
+		this.packs.remove(id);
+		File directory = getDirectory(id);
+		if (!directory.isDirectory()) {
+			return false;
+		}
+		// These first, so a half deleted story is never loaded
+		new File(directory, CURRENT_FILE).delete();
+		new File(directory, HEADER_FILE).delete();
+		for (File file : directory.listFiles()) {
+			if (file.isDirectory()) {
+				deleteGeneration(id, file);
+			}
+		}
+		return deleteTree(directory);
+	}
+
+	/**
+	 * Saves a mirror of a story under another ID, sharing the story's pack
+	 * instead of copying it. Any save of the story must be written first.
+	 * 
+	 * @param sourceId
+	 *            ID of the story to mirror
+	 * @param id
+	 *            ID of the mirror, not yet in the store
+	 * @param title
+	 *            title of the mirror
+	 * @return true if the mirror was saved, false otherwise
+	 */
+	public synchronized boolean mirror(UUID sourceId, final UUID id,
+			String title) {
+		int sourceGeneration = getGeneration(sourceId);
+		if (sourceGeneration < 0) {
+			return false;
+		}
+		File source = getRecordDirectory(sourceId, sourceGeneration);
+		File directory = getDirectory(id);
+		File marker = null;
+		FileCommit commit = new FileCommit();
+		try {
+			// A mirror of a mirror reads the same pack
+			Base base = readBase(source);
+			if (base == null) {
+				base = new Base(sourceId, sourceGeneration);
+			}
+			if (!new File(getRecordDirectory(base.owner, base.generation),
+					PACK_FILE).isFile()) {
+				return false;
+			}
+			final int generation = nextGeneration(directory);
+			File records = getRecordDirectory(id, generation);
+			if (!records.mkdirs()) {
+				throw new IOException("Can't create " + records);
+			}
+			// Marked before the mirror exists, so its pack is never deleted
+			// from under it
+			File mirrors = new File(getDirectory(base.owner),
+					MIRRORS_DIRECTORY);
+			if (!mirrors.isDirectory() && !mirrors.mkdirs()) {
+				throw new IOException("Can't create " + mirrors);
+			}
+			marker = new File(mirrors, id.toString());
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(
+					marker));
+			try {
+				out.writeInt(base.generation);
+			} finally {
+				out.close();
+			}
+			commit.sync(marker);
+			File baseFile = new File(records, BASE_FILE);
+			out = new DataOutputStream(new FileOutputStream(baseFile));
+			try {
+				out.writeLong(base.owner.getMostSignificantBits());
+				out.writeLong(base.owner.getLeastSignificantBits());
+				out.writeInt(base.generation);
+			} finally {
+				out.close();
+			}
+			commit.sync(baseFile);
+
+			// Nothing reads the mirror until it is made current, so its
+			// files are written in place and only synced
+			for (String name : source.list()) {
+				if (parseId(name, FRAGMENT_PREFIX) >= 0
+						|| parseId(name, CHOICE_PREFIX) >= 0) {
+					File file = new File(records, name);
+					copyFile(new File(source, name), file);
+					commit.sync(file);
+				}
+			}
+			Story header;
+			BufferedInputStream in = openRecord(new File(source, HEADER_FILE));
+			try {
+				header = StoryRecords.readHeader(in);
+			} finally {
+				in.close();
+			}
+			header.setTitle(title);
+			File headerFile = new File(records, HEADER_FILE);
+			OutputStream headerOut = compress(new FileOutputStream(headerFile));
+			try {
+				StoryRecords.writeHeader(header, headerOut);
+			} finally {
+				headerOut.close();
+			}
+			commit.sync(headerFile);
+			File log = new File(getDirectory(sourceId), HISTORY_FILE);
+			if (log.isFile()) {
+				File logCopy = new File(directory, HISTORY_FILE);
+				copyFile(log, logCopy);
+				commit.sync(logCopy);
+			}
+
+			DataOutputStream current = new DataOutputStream(
+					commit.openReplacement(new File(directory, CURRENT_FILE)));
+			try {
+				current.writeInt(generation);
+			} finally {
+				current.close();
+			}
+			commit.afterCommit(new Runnable() {
+				@Override
+				public void run() {
+					generations.put(id, generation);
+				}
+			});
+		} catch (IOException e) {
+			commit.abort();
+			discardMirror(directory, marker);
+			e.printStackTrace();
+			return false;
+		}
+		if (!commit(commit)) {
+			discardMirror(directory, marker);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a story as a new generation, holding a pack of every fragment
+	 * and choice list, which becomes the current generation when the commit
+	 * is made. The old generation is deleted afterwards.
+	 * 
+	 * @return the new generation
+	 */
+	private int saveAll(final UUID id, Story story, FileCommit commit)
+			throws IOException {
+		File directory = getDirectory(id);
+		final int generation = nextGeneration(directory);
+		File records = getRecordDirectory(id, generation);
+		if (!records.mkdirs()) {
+			throw new IOException("Can't create " + records);
+		}
+		// Nothing reads the new generation until it is made current, so its
+		// files are written in place and only synced
+		File packFile = new File(records, PACK_FILE);
+		StoryPack.write(story, packFile, this.compression, this.dictionary);
+		commit.sync(packFile);
+		File header = new File(records, HEADER_FILE);
+		OutputStream out = compress(new FileOutputStream(header));
+		try {
+			StoryRecords.writeHeader(story, out);
+		} finally {
+			out.close();
+		}
+		commit.sync(header);
+		DataOutputStream current = new DataOutputStream(
+				commit.openReplacement(new File(directory, CURRENT_FILE)));
+		try {
+			current.writeInt(generation);
+		} finally {
+			current.close();
+		}
+		commit.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				// A story still reading the old pack keeps it open
+				packs.remove(id);
+				deleteOtherGenerations(id, generation);
+			}
+		});
+		return generation;
+	}
+
+	/**
+	 * Writes the file of one fragment. If the fragment is gone, the file is
+	 * deleted, or left empty when the pack still has the fragment.
+	 */
+	private void saveFragment(File directory, Story story, int fragmentId,
+			StoryPack pack, FileCommit commit) throws IOException {
+		File file = new File(directory, FRAGMENT_PREFIX + fragmentId);
+		if (!StoryRecords.hasFragment(story, fragmentId)) {
+			if (pack != null && pack.hasFragment(fragmentId)) {
+				commit.openReplacement(file).close();
+			} else {
+				commit.delete(file);
+			}
+			return;
+		}
+		OutputStream out = compress(commit.openReplacement(file));
+		try {
+			StoryRecords.writeFragment(story, fragmentId, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the choice file of one fragment. If the fragment has no choices,
+	 * the file is deleted, or left empty when the pack still has choices for
+	 * the fragment.
+	 */
+	private void saveChoices(File directory, Story story, int fragmentId,
+			StoryPack pack, FileCommit commit) throws IOException {
+		File file = new File(directory, CHOICE_PREFIX + fragmentId);
+		if (!StoryRecords.hasChoices(story, fragmentId)) {
+			if (pack != null && pack.hasChoices(fragmentId)) {
+				commit.openReplacement(file).close();
+			} else {
+				commit.delete(file);
+			}
+			return;
+		}
+		OutputStream out = compress(commit.openReplacement(file));
+		try {
+			StoryRecords.writeChoices(story, fragmentId, out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Returns the number of fragment and choice files in a directory.
+	 */
+	private int countRecords(File directory) {
+		int count = 0;
+		for (String name : directory.list()) {
+			if (parseId(name, FRAGMENT_PREFIX) >= 0
+					|| parseId(name, CHOICE_PREFIX) >= 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Deletes every generation of a story but one, including any left behind
+	 * by a save that never finished. Of a generation mirrors still read,
+	 * only the pack is kept.
+	 */
+	private void deleteOtherGenerations(UUID id, int generation) {
+		File directory = getDirectory(id);
+		String[] names = directory.list();
+		if (names == null) {
+			return;
+		}
+		HashSet<Integer> shared = getSharedGenerations(id);
+		for (String name : names) {
+			File file = new File(directory, name);
+			if (file.isDirectory()) {
+				int other = parseId(name, "");
+				if (other < 0 || other == generation) {
+					// The mirrors directory, or the generation kept
+					continue;
+				} else if (shared.contains(other)) {
+					// Only the pack is read by the mirrors
+					for (File record : file.listFiles()) {
+						if (!record.getName().equals(PACK_FILE)) {
+							record.delete();
+						}
+					}
+				} else {
+					deleteGeneration(id, file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes a generation of a story, and the marker it had in the owner of
+	 * the pack it read, if it was a mirror's.
+	 */
+	private void deleteGeneration(UUID id, File records) {
+		Base base = null;
+		try {
+			base = readBase(records);
+		} catch (IOException e) {
+			// Marker left behind, keeping a pack longer than needed
+			e.printStackTrace();
+		}
+		deleteTree(records);
+		if (base == null) {
+			return;
+		}
+		File ownerDirectory = getDirectory(base.owner);
+		new File(new File(ownerDirectory, MIRRORS_DIRECTORY), id.toString())
+				.delete();
+		// The owner moved to a new generation since, and kept this one only
+		// for its mirrors
+		HashSet<Integer> shared = getSharedGenerations(base.owner);
+		if (base.generation != getGeneration(base.owner)
+				&& !shared.contains(base.generation)) {
+			deleteTree(getRecordDirectory(base.owner, base.generation));
+		}
+	}
+
+	/**
+	 * Writes in full every mirror reading a story's packs, so the story can
+	 * be deleted.
+	 * 
+	 * @return true if no mirror reads them any more
+	 */
+	private boolean writeMirrors(UUID id) {
+		File[] markers = new File(getDirectory(id), MIRRORS_DIRECTORY)
+				.listFiles();
+		if (markers == null) {
+			return true;
+		}
+		for (File marker : markers) {
+			UUID mirrorId;
+			try {
+				mirrorId = UUID.fromString(marker.getName());
+			} catch (IllegalArgumentException e) {
+				marker.delete();
+				continue;
+			}
+			Story mirror = load(mirrorId, false);
+			if (mirror == null) {
+				// Never finished being mirrored, or gone since
+				marker.delete();
+				continue;
+			}
+			// Not based on the files, so written in full, which deletes the
+			// marker once committed
+			FileCommit commit = new FileCommit();
+			if (!save(mirrorId, mirror, commit) || !commit(commit)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the generations of a story whose packs mirrors read.
+	 */
+	private HashSet<Integer> getSharedGenerations(UUID id) {
+		HashSet<Integer> shared = new HashSet<Integer>();
+		File[] markers = new File(getDirectory(id), MIRRORS_DIRECTORY)
+				.listFiles();
+		if (markers == null) {
+			return shared;
+		}
+		for (File marker : markers) {
+			try {
+				DataInputStream in = new DataInputStream(new FileInputStream(
+						marker));
+				try {
+					shared.add(in.readInt());
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				// Cut short, so its mirror was never made current
+				e.printStackTrace();
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * Reads the base file of a generation.
+	 * 
+	 * @return the pack the generation reads, null if it has its own
+	 */
+	private static Base readBase(File records) throws IOException {
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new FileInputStream(new File(records,
+					BASE_FILE)));
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+		try {
+			UUID owner = new UUID(in.readLong(), in.readLong());
+			return new Base(owner, in.readInt());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Deletes what a mirror that failed left behind.
+	 */
+	private static void discardMirror(File directory, File marker) {
+		deleteTree(directory);
+		if (marker != null) {
+			marker.delete();
+		}
+	}
+
+	private static void copyFile(File from, File to) throws IOException {
+		FileInputStream in = new FileInputStream(from);
+		try {
+			FileOutputStream out = new FileOutputStream(to);
+			try {
+				FileChannel source = in.getChannel();
+				long length = source.size();
+				long copied = 0;
+				while (copied < length) {
+					long count = source.transferTo(copied, length - copied,
+							out.getChannel());
+					if (count <= 0) {
+						throw new IOException(from + " changed");
+					}
+					copied += count;
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Deletes a directory and everything in it.
+	 * 
+	 * @return true if it is gone
+	 */
+	private static boolean deleteTree(File directory) {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					deleteTree(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		return directory.delete();
+	}
+
+	/**
+	 * Returns the current generation of a story, reading it the first time.
+	 * 
+	 * @return the generation, -1 if the story is not in the store
+	 */
+	private int getGeneration(UUID id) {
+		Integer generation = this.generations.get(id);
+		if (generation != null) {
+			return generation;
+		}
+		File directory = getDirectory(id);
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(
+					new File(directory, CURRENT_FILE)));
+			try {
+				generation = in.readInt();
+			} finally {
+				in.close();
+			}
+		} catch (FileNotFoundException e) {
+			// Not saved at all
+			return -1;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return -1;
+		}
+		this.generations.put(id, generation);
+		return generation;
+	}
+
+	/**
+	 * Returns a generation number not yet used in a story's directory.
+	 */
+	private int nextGeneration(File directory) {
+		int generation = 1;
+		String[] names = directory.list();
+		if (names == null) {
+			return generation;
+		}
+		for (String name : names) {
+			generation = Math.max(generation, parseId(name, "") + 1);
+		}
+		return generation;
+	}
+
+	/**
+	 * Returns the reading log of a story, reading it the first time.
+	 */
+	private ReadingLog getLog(UUID id) throws IOException {
+		ReadingLog log = this.logs.get(id);
+		if (log == null) {
+			log = new ReadingLog(new File(getDirectory(id), HISTORY_FILE));
+			this.logs.put(id, log);
+		}
+		return log;
+	}
+
+	/**
+	 * Returns the pack on disk of a story, opening it the first time.
+	 * 
+	 * @return the StoryPack, null if the story has none yet
+	 */
+	private StoryPack getPack(UUID id) throws IOException {
+		StoryPack pack = this.packs.get(id);
+		if (pack == null) {
+			File records = getRecordDirectory(id, getGeneration(id));
+			File file = new File(records, PACK_FILE);
+			Base base = readBase(records);
+			if (base != null) {
+				// A mirror's, read from the story it was mirrored from
+				file = new File(getRecordDirectory(base.owner,
+						base.generation), PACK_FILE);
+			}
+			if (!file.isFile()) {
+				return null;
+			}
+			pack = StoryPack.open(file);
+			this.packs.put(id, pack);
+		}
+		return pack;
+	}
+
+	private BufferedInputStream openRecord(File file) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(new FileInputStream(
+				file));
+		try {
+			return StoryCompression.decompress(in);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Wraps the stream a record is written to, compressing the record.
+	 */
+	private OutputStream compress(OutputStream out) throws IOException {
+		return StoryCompression.compress(out, this.compression,
+				this.dictionary);
+	}
+
+	/**
+	 * Returns the fragment ID in a record file name.
+	 * 
+	 * @param name
+	 *            the file name
+	 * @param prefix
+	 *            the prefix of the kind of record wanted
+	 * @return the ID, -1 if the name is not of that kind
+	 */
+	private static int parseId(String name, String prefix) {
+		if (!name.startsWith(prefix) || name.length() == prefix.length()) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(name.substring(prefix.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the directory a story is kept in.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @return the story's directory
+	 */
+	private File getDirectory(UUID id) {
+		return new File(this.root, id.toString());
+	}
+
+	/**
+	 * Returns the directory holding one generation of a story.
+	 * 
+	 * @param id
+	 *            ID of the story
+	 * @param generation
+	 *            the generation
+	 * @return the generation's directory
+	 */
+	private File getRecordDirectory(UUID id, int generation) {
+		return new File(getDirectory(id), Integer.toString(generation));
+	}
+
+	/**
+	 * The story and generation whose pack a mirror reads.
+	 */
+	private static class Base {
+
+		private final UUID owner;
+		private final int generation;
+
+		public Base(UUID owner, int generation) {
+			this.owner = owner;
+			this.generation = generation;
+		}
+
+	}
+
+}
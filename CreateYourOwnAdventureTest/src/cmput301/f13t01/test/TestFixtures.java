@@ -0,0 +1,119 @@
+package cmput301.f13t01.test;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.text.SpannableString;
+import cmput301.f13t01.model.Choice;
+import cmput301.f13t01.model.Image;
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.model.Text;
+
+/**
+ * Files and stories shared by the tests of the story library.
+ */
+public class TestFixtures {
+
+	/**
+	 * Creates a new empty directory under the system's temporary directory.
+	 * 
+	 * @param prefix
+	 *            start of the directory's name
+	 * @return the directory
+	 * @throws IOException
+	 */
+	public static File makeDirectory(String prefix) throws IOException {
+		File directory = File.createTempFile(prefix, "");
+		directory.delete();
+		directory.mkdirs();
+		return directory;
+	}
+
+	/**
+	 * Deletes a file, or a directory and everything in it.
+	 * 
+	 * @param file
+	 *            the file or directory
+	 */
+	public static void deleteTree(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				deleteTree(child);
+			}
+		}
+		file.delete();
+	}
+
+	/**
+	 * Returns the bytes taken by a file, or by everything in a directory.
+	 * 
+	 * @param file
+	 *            the file or directory
+	 * @return the total length of the files
+	 */
+	public static long sizeOf(File file) {
+		File[] files = file.listFiles();
+		if (files == null) {
+			return file.length();
+		}
+		long size = 0;
+		for (File child : files) {
+			size += sizeOf(child);
+		}
+		return size;
+	}
+
+	/**
+	 * Makes a story titled "Story" of pages titled "Page 0", "Page 1" and so
+	 * on, each with a choice "Next" leading to the one after it, starting at
+	 * the first.
+	 * 
+	 * @param fragments
+	 *            the number of pages
+	 * @return the story
+	 */
+	public static Story makeStory(int fragments) {
+		Story story = new Story();
+		story.setTitle("Story");
+		for (int i = 0; i < fragments; i++) {
+			StoryFragment fragment = new StoryFragment();
+			fragment.setTitle("Page " + i);
+			story.addFragment(fragment);
+		}
+		for (int i = 0; i + 1 < fragments; i++) {
+			Choice choice = new Choice();
+			choice.setDestinationId(i + 1);
+			choice.setFlavourText("Next");
+			story.addChoice(i, choice);
+		}
+		if (fragments > 0) {
+			story.setFirstPage(0);
+		}
+		return story;
+	}
+
+	/**
+	 * Makes a story with a page for each image named, holding some text and
+	 * then the image, and a choice leading back to the same page.
+	 * 
+	 * @param images
+	 *            names of the images, which may repeat
+	 * @return the story
+	 */
+	public static Story makeImageStory(String... images) {
+		Story story = new Story();
+		story.setTitle("Bundled");
+		for (String image : images) {
+			StoryFragment fragment = new StoryFragment();
+			fragment.setTitle("Page with " + image);
+			fragment.addContent(new Text(new SpannableString("Some text")));
+			fragment.addContent(new Image(image, 100));
+			int id = story.addFragment(fragment);
+			story.addChoice(id, new Choice(id, id, "Again"));
+		}
+		return story;
+	}
+
+}
@@ -80,5 +80,31 @@ public class testChoiceMap extends TestCase {
                 testList = choicemap.getChoices(2);
                 assertTrue(testList.size() == 1);
         }
+        
+        @Test
+        public void testGetLinkingFragments() {
+                choicemap.addChoice(1, new Choice(1, 4, "Hello"));
+                choicemap.addChoice(2, new Choice(2, 4, "Hey!"));
+                choicemap.addChoice(2, new Choice(2, 4, "Hey2!"));
+                choicemap.addChoice(3, new Choice(3, 2, "What?"));
+                ArrayList<Integer> linking = choicemap.getLinkingFragments(4);
+                assertTrue(linking.size() == 2);
+                assertTrue(linking.contains(1));
+                assertTrue(linking.contains(2));
+                
+                // Index should follow updates and deletions
+                assertTrue(choicemap.updateChoice(1, 0, new Choice(1, 3, "Moved")));
+                assertTrue(choicemap.deleteChoice(2, 0));
+                linking = choicemap.getLinkingFragments(4);
+                assertTrue(linking.size() == 1);
+                assertTrue(linking.contains(2));
+                assertTrue(choicemap.getLinkingFragments(3).contains(1));
+                
+                // Cleaning a fragment drops it as both source and destination
+                choicemap.cleanFragmentReferences(2);
+                assertTrue(choicemap.getLinkingFragments(4).size() == 0);
+                assertTrue(choicemap.getLinkingFragments(2).size() == 0);
+                assertTrue(choicemap.getChoices(3).size() == 0);
+        }
 
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package cmput301.f13t01.test;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cmput301.f13t01.analysis.EndingAnalysis;
+import cmput301.f13t01.model.Choice;
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.readstory.CompiledStory;
+
+public class testEndingAnalysis extends TestCase {
+
+	private Story story;
+	private Integer start;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		story = new Story();
+		start = story.addFragment(new StoryFragment());
+		story.setFirstPage(start);
+	}
+
+	@Test
+	public void testLoopWithExit() {
+		Integer ending = story.addFragment(new StoryFragment());
+		Integer other = story.addFragment(new StoryFragment());
+		// The start loops on itself or leads to two endings
+		story.addChoice(start, new Choice(start, start, "Again"));
+		story.addChoice(start, new Choice(start, ending, "Finish"));
+		story.addChoice(start, new Choice(start, other, "Elsewhere"));
+		CompiledStory compiled = CompiledStory.compile(story);
+		EndingAnalysis analysis = EndingAnalysis.analyze(compiled);
+		assertTrue(analysis.isConverged());
+		assertEquals(0.5, analysis.getEndingProbability(compiled
+				.indexOf(ending)), 1e-9);
+		assertEquals(0.5, analysis.getEndingProbability(compiled
+				.indexOf(other)), 1e-9);
+		assertEquals(1.5, analysis.getExpectedSteps(), 1e-9);
+	}
+
+	@Test
+	public void testTrappedLoop() {
+		Integer ending = story.addFragment(new StoryFragment());
+		Integer loopA = story.addFragment(new StoryFragment());
+		Integer loopB = story.addFragment(new StoryFragment());
+		story.addChoice(start, new Choice(start, ending, "Finish"));
+		story.addChoice(start, new Choice(start, loopA, "Loop"));
+		story.addChoice(loopA, new Choice(loopA, loopB, "On"));
+		story.addChoice(loopB, new Choice(loopB, loopA, "Back"));
+		CompiledStory compiled = CompiledStory.compile(story);
+		EndingAnalysis analysis = EndingAnalysis.analyze(compiled);
+		assertEquals(0.5, analysis.getTrappedProbability(), 1e-9);
+		assertTrue(analysis.isTrapped(compiled.indexOf(loopB)));
+		assertTrue(Double.isInfinite(analysis.getExpectedSteps()));
+	}
+
+}
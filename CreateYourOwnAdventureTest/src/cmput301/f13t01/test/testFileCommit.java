@@ -0,0 +1,120 @@
+package cmput301.f13t01.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cmput301.f13t01.storylibrary.FileCommit;
+
+public class testFileCommit extends TestCase {
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		this.directory = File.createTempFile("commit", "");
+		this.directory.delete();
+		this.directory.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (File file : this.directory.listFiles()) {
+			file.delete();
+		}
+		this.directory.delete();
+		super.tearDown();
+	}
+
+	private void write(File file, String contents) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		out.write(contents.getBytes("UTF-8"));
+		out.close();
+	}
+
+	private String read(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		byte[] bytes = new byte[(int) file.length()];
+		int read = 0;
+		while (read < bytes.length) {
+			read += in.read(bytes, read, bytes.length - read);
+		}
+		in.close();
+		return new String(bytes, "UTF-8");
+	}
+
+	@Test
+	public void testReplacedOnCommit() throws IOException {
+		File first = new File(this.directory, "first");
+		File second = new File(this.directory, "second");
+		write(first, "old");
+		FileCommit commit = new FileCommit();
+		write(commit.replace(first), "new");
+		OutputStream out = commit.openReplacement(second);
+		out.write('2');
+		out.close();
+		final boolean[] ran = { false };
+		commit.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				ran[0] = true;
+			}
+		});
+
+		// Untouched until committed
+		assertTrue(read(first).equals("old"));
+		assertFalse(second.exists());
+		assertFalse(ran[0]);
+
+		commit.commit();
+		assertTrue(read(first).equals("new"));
+		assertTrue(read(second).equals("2"));
+		assertTrue(ran[0]);
+		assertTrue(this.directory.list().length == 2);
+	}
+
+	@Test
+	public void testDeleteInOrder() throws IOException {
+		File file = new File(this.directory, "file");
+		write(file, "old");
+		FileCommit commit = new FileCommit();
+		commit.delete(file);
+		assertTrue(file.exists());
+		write(commit.replace(file), "new");
+		commit.commit();
+		assertTrue(read(file).equals("new"));
+	}
+
+	@Test
+	public void testDiscardAndAbort() throws IOException {
+		File kept = new File(this.directory, "kept");
+		File dropped = new File(this.directory, "dropped");
+		write(dropped, "old");
+		FileCommit commit = new FileCommit();
+		write(commit.replace(kept), "kept");
+		int size = commit.size();
+		write(commit.replace(dropped), "new");
+		commit.discard(size);
+		commit.commit();
+		assertTrue(read(kept).equals("kept"));
+		assertTrue(read(dropped).equals("old"));
+		assertTrue(this.directory.list().length == 2);
+
+		commit = new FileCommit();
+		write(commit.replace(kept), "aborted");
+		commit.abort();
+		commit.commit();
+		assertTrue(read(kept).equals("kept"));
+		assertTrue(this.directory.list().length == 2);
+	}
+
+}
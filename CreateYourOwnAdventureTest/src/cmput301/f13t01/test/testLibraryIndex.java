@@ -0,0 +1,249 @@
+package cmput301.f13t01.test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cmput301.f13t01.model.StoryInfo;
+import cmput301.f13t01.storylibrary.FileCommit;
+import cmput301.f13t01.storylibrary.LibraryIndex;
+
+public class testLibraryIndex extends TestCase {
+
+	private File file;
+	private File log;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		this.file = File.createTempFile("index", ".sav");
+		this.file.delete();
+		this.log = new File(this.file.getPath() + ".log");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.file.delete();
+		this.log.delete();
+		super.tearDown();
+	}
+
+	private StoryInfo makeInfo(String title) {
+		return new StoryInfo(UUID.randomUUID(), title, "Author", "About "
+				+ title);
+	}
+
+	private void save(LibraryIndex index) throws Exception {
+		FileCommit commit = new FileCommit();
+		assertTrue(index.write(commit));
+		commit.commit();
+	}
+
+	private ArrayList<String> titles(ArrayList<StoryInfo> infoList) {
+		ArrayList<String> titles = new ArrayList<String>();
+		for (StoryInfo info : infoList) {
+			titles.add(info.getTitle());
+		}
+		return titles;
+	}
+
+	@Test
+	public void testSortedByTitle() {
+		LibraryIndex index = new LibraryIndex(Locale.ENGLISH);
+		index.put(makeInfo("banana"));
+		index.put(makeInfo("Cherry"));
+		StoryInfo apple = makeInfo("apple");
+		index.put(apple);
+		index.put(makeInfo(null));
+		ArrayList<String> titles = titles(index.getAll());
+		assertTrue(titles.get(0) == null);
+		assertTrue(titles.get(1).equals("apple"));
+		assertTrue(titles.get(2).equals("banana"));
+		assertTrue(titles.get(3).equals("Cherry"));
+
+		// A new title moves the story to its new place
+		index.put(new StoryInfo(apple.getId(), "Date", "Author", ""));
+		titles = titles(index.getAll());
+		assertTrue(titles.get(3).equals("Date"));
+		assertTrue(index.size() == 4);
+		assertTrue(index.get(apple.getId()).getTitle().equals("Date"));
+
+		assertTrue(index.remove(apple.getId()));
+		assertFalse(index.remove(apple.getId()));
+		assertFalse(index.contains(apple.getId()));
+		assertTrue(index.size() == 3);
+	}
+
+	@Test
+	public void testRange() {
+		LibraryIndex index = new LibraryIndex(Locale.ENGLISH);
+		for (int i = 0; i < 100; i++) {
+			index.put(makeInfo(String.format("Story %03d", i)));
+		}
+		ArrayList<StoryInfo> page = index.getRange(40, 20);
+		assertTrue(page.size() == 20);
+		assertTrue(page.get(0).getTitle().equals("Story 040"));
+		assertTrue(page.get(19).getTitle().equals("Story 059"));
+		assertTrue(index.getRange(90, 20).size() == 10);
+		assertTrue(index.getRange(120, 20).isEmpty());
+	}
+
+	@Test
+	public void testPutAllAndRemoveAll() throws Exception {
+		LibraryIndex index = new LibraryIndex(this.file, Locale.ENGLISH);
+		LibraryIndex single = new LibraryIndex(Locale.ENGLISH);
+		StoryInfo kept = makeInfo("kept");
+		index.put(kept);
+		single.put(kept);
+		ArrayList<StoryInfo> infoList = new ArrayList<StoryInfo>();
+		for (int i = 0; i < 50; i++) {
+			infoList.add(makeInfo("Story " + (i * 37 % 50)));
+		}
+		// The same info again, and a new title for a story already there
+		infoList.add(infoList.get(0));
+		infoList.add(new StoryInfo(kept.getId(), "renamed", "Author", ""));
+		assertTrue(index.putAll(infoList) == 51);
+		for (StoryInfo info : infoList) {
+			single.put(info);
+		}
+		assertTrue(titles(index.getAll()).equals(titles(single.getAll())));
+		assertTrue(index.putAll(infoList) == 0);
+
+		ArrayList<UUID> ids = new ArrayList<UUID>();
+		for (int i = 0; i < 50; i += 2) {
+			ids.add(infoList.get(i).getId());
+		}
+		ids.add(UUID.randomUUID());
+		assertTrue(index.removeAll(ids).size() == 25);
+		for (UUID id : ids) {
+			single.remove(id);
+		}
+		assertTrue(titles(index.getAll()).equals(titles(single.getAll())));
+		assertFalse(index.contains(ids.get(0)));
+
+		save(index);
+		LibraryIndex read = new LibraryIndex(this.file, Locale.ENGLISH);
+		assertTrue(titles(read.getAll()).equals(titles(single.getAll())));
+	}
+
+	@Test
+	public void testBulkKeepsOrder() {
+		int size = 300;
+		LibraryIndex single = new LibraryIndex(Locale.ENGLISH);
+		LibraryIndex bulk = new LibraryIndex(Locale.ENGLISH);
+		ArrayList<StoryInfo> infoList = new ArrayList<StoryInfo>();
+		for (int i = 0; i < size; i++) {
+			infoList.add(makeInfo("Story " + (i * 7 % size)));
+		}
+		for (StoryInfo info : infoList) {
+			single.put(info);
+		}
+		bulk.putAll(infoList);
+		assertTrue(titles(bulk.getAll()).equals(titles(single.getAll())));
+
+		// Removed from all through the index, not just one end
+		ArrayList<UUID> ids = new ArrayList<UUID>();
+		for (int i = 0; i < size; i += 3) {
+			ids.add(infoList.get(i).getId());
+		}
+		for (UUID id : ids) {
+			single.remove(id);
+		}
+		bulk.removeAll(ids);
+		assertTrue(bulk.getAll().size() == size - ids.size());
+		assertTrue(titles(bulk.getAll()).equals(titles(single.getAll())));
+	}
+
+	@Test
+	public void testSavedChangesAreLogged() throws Exception {
+		LibraryIndex index = new LibraryIndex(this.file, Locale.ENGLISH);
+		StoryInfo first = makeInfo("First");
+		index.put(first);
+		index.put(makeInfo("Second"));
+		save(index);
+		// Few changes, so only the log is written
+		assertFalse(this.file.exists());
+		long length = this.log.length();
+		assertTrue(length > 0);
+
+		// Putting the same info again changes nothing
+		assertFalse(index.put(new StoryInfo(first.getId(), "First", "Author",
+				"About First")));
+		index.remove(first.getId());
+		save(index);
+		assertTrue(this.log.length() > length);
+
+		LibraryIndex read = new LibraryIndex(this.file, Locale.ENGLISH);
+		assertTrue(read.size() == 1);
+		assertFalse(read.contains(first.getId()));
+		assertTrue(read.getAll().get(0).getTitle().equals("Second"));
+		assertTrue(read.getAll().get(0).getDescription()
+				.equals("About Second"));
+	}
+
+	@Test
+	public void testCompactsLongLog() throws Exception {
+		LibraryIndex index = new LibraryIndex(this.file, Locale.ENGLISH);
+		for (int i = 0; i < 1000; i++) {
+			index.put(makeInfo("Story " + i));
+			if (i % 100 == 99) {
+				save(index);
+			}
+		}
+		// The log grew long enough to be folded into the snapshot
+		assertTrue(this.file.exists());
+		LibraryIndex read = new LibraryIndex(this.file, Locale.ENGLISH);
+		assertTrue(read.size() == 1000);
+		assertTrue(titles(read.getAll()).equals(titles(index.getAll())));
+	}
+
+	@Test
+	public void testTornLogIsCut() throws Exception {
+		LibraryIndex index = new LibraryIndex(this.file, Locale.ENGLISH);
+		index.put(makeInfo("Kept"));
+		save(index);
+		long length = this.log.length();
+		index.put(makeInfo("Torn"));
+		save(index);
+		// What a crash while appending leaves behind
+		RandomAccessFile raf = new RandomAccessFile(this.log, "rw");
+		raf.setLength(raf.length() - 3);
+		raf.close();
+
+		LibraryIndex read = new LibraryIndex(this.file, Locale.ENGLISH);
+		assertTrue(read.size() == 1);
+		assertTrue(read.getAll().get(0).getTitle().equals("Kept"));
+		assertTrue(this.log.length() == length);
+		// Appended after the last whole record
+		read.put(makeInfo("Later"));
+		save(read);
+		assertTrue(new LibraryIndex(this.file, Locale.ENGLISH).size() == 2);
+	}
+
+	@Test
+	public void testOtherLocaleIsSortedAgain() throws Exception {
+		LibraryIndex index = new LibraryIndex(this.file, Locale.ENGLISH);
+		for (int i = 0; i < 600; i++) {
+			index.put(makeInfo("Story " + i));
+		}
+		save(index);
+		assertTrue(this.file.exists());
+
+		LibraryIndex read = new LibraryIndex(this.file, Locale.GERMAN);
+		assertTrue(read.size() == 600);
+		assertTrue(titles(read.getAll()).equals(titles(index.getAll())));
+		// Saved again with keys for the new locale
+		this.file.setLastModified(1000L);
+		save(read);
+		assertTrue(this.file.lastModified() != 1000L);
+	}
+
+}
@@ -55,6 +55,18 @@ public class testLocalManager extends ActivityInstrumentationTestCase2<MainActiv
 		local.removeStory(currId);
 	}
 	
+	public void testAddedStoryListedAfterReopening() throws Exception {
+		Story story = new Story();
+		story.setTitle("Title 1");
+		UUID currId = local.addStory(story);
+		assertTrue(local.flush().get());
+		LocalManager reopened = new LocalManager(mainActivity);
+		assertTrue(reopened.getStoryInfo(currId) != null);
+		assertTrue(reopened.getStoryInfo(currId).getTitle().equals("Title 1"));
+		local.removeStory(currId);
+		assertTrue(local.flush().get());
+	}
+	
 	public void testGetStory() {
 		Story story = new Story();
 		story.setTitle("Title 1");
@@ -0,0 +1,164 @@
+package cmput301.f13t01.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cmput301.f13t01.model.Image;
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.storylibrary.MediaCollector;
+import cmput301.f13t01.storylibrary.MediaStore;
+import cmput301.f13t01.storylibrary.SaveQueue;
+import cmput301.f13t01.storylibrary.StoryStore;
+
+public class testMediaCollector extends TestCase {
+
+	private static final String IMAGE = "IMAGE";
+
+	private File root;
+	private MediaStore mediaStore;
+	private StoryStore storyStore;
+	private SaveQueue saveQueue;
+	private MediaCollector collector;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		this.root = TestFixtures.makeDirectory("media");
+		this.mediaStore = new MediaStore(this.root, new File(this.root,
+				"MediaIndex.sav"));
+		this.storyStore = new StoryStore(new File(this.root, "stories"));
+		this.saveQueue = new SaveQueue(this.storyStore, 60 * 1000);
+		this.collector = new MediaCollector(this.mediaStore, this.storyStore,
+				this.saveQueue, 0);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFixtures.deleteTree(this.root);
+		super.tearDown();
+	}
+
+	// Stored long enough ago to be collected
+	private String putOld(String contents) throws Exception {
+		String name = this.mediaStore.put(contents.getBytes(), IMAGE);
+		this.mediaStore.getFile(IMAGE, name).setLastModified(1000L);
+		return name;
+	}
+
+	private StoryFragment makeFragment(String image) {
+		StoryFragment fragment = new StoryFragment();
+		fragment.addContent(new Image(image, 100));
+		return fragment;
+	}
+
+	@Test
+	public void testSweepsUnreferenced() throws Exception {
+		String used = putOld("used");
+		String unused = putOld("unused");
+		// Stored just now, maybe for an edit not yet saved
+		String recent = this.mediaStore.put("recent".getBytes(), IMAGE);
+		// Left by an older version, never counted
+		File orphan = new File(new File(this.root, IMAGE), UUID.randomUUID()
+				.toString());
+		FileOutputStream out = new FileOutputStream(orphan);
+		out.write(new byte[100]);
+		out.close();
+		orphan.setLastModified(1000L);
+
+		UUID id = UUID.randomUUID();
+		Story story = new Story();
+		story.addFragment(makeFragment(used));
+		assertTrue(this.storyStore.save(id, story));
+		ArrayList<UUID> ids = new ArrayList<UUID>();
+		ids.add(id);
+
+		long freed = this.collector.collect(ids).get();
+		assertTrue(freed == "unused".length() + 100);
+		assertTrue(this.mediaStore.getFile(IMAGE, used).exists());
+		assertTrue(this.mediaStore.getFile(IMAGE, recent).exists());
+		assertFalse(this.mediaStore.getFile(IMAGE, unused).exists());
+		assertFalse(orphan.exists());
+	}
+
+	@Test
+	public void testCorrectsReferences() throws Exception {
+		String replaced = putOld("replaced");
+		String kept = putOld("kept");
+		UUID id = UUID.randomUUID();
+		Story story = new Story();
+		int fragmentId = story.addFragment(makeFragment(replaced));
+		this.mediaStore.setReferences(id, story);
+		story.updateFragment(fragmentId, makeFragment(kept));
+		this.mediaStore.addReferences(id, story, new int[] { fragmentId });
+		assertTrue(this.storyStore.save(id, story));
+		// Both still counted, though the story only uses one
+		assertTrue(this.mediaStore.getReferenceCount(IMAGE, replaced) == 1);
+
+		ArrayList<UUID> ids = new ArrayList<UUID>();
+		ids.add(id);
+		assertTrue(this.collector.collect(ids).get() == "replaced".length());
+		assertTrue(this.mediaStore.getReferenceCount(IMAGE, replaced) == 0);
+		assertTrue(this.mediaStore.getReferenceCount(IMAGE, kept) == 1);
+		assertTrue(this.mediaStore.getFile(IMAGE, kept).exists());
+	}
+
+	@Test
+	public void testReadsOnlyStaleStories() throws Exception {
+		String replaced = putOld("replaced");
+		String kept = putOld("kept");
+		String trusted = putOld("trusted");
+		// Counted in full, so its count is trusted without reading it
+		UUID other = UUID.randomUUID();
+		Story otherStory = new Story();
+		otherStory.addFragment(makeFragment(trusted));
+		this.mediaStore.setReferences(other, otherStory);
+		assertTrue(this.storyStore.save(other, new Story()));
+
+		UUID id = UUID.randomUUID();
+		Story story = new Story();
+		int fragmentId = story.addFragment(makeFragment(replaced));
+		this.mediaStore.setReferences(id, story);
+		story.updateFragment(fragmentId, makeFragment(kept));
+		this.mediaStore.addReferences(id, story, new int[] { fragmentId });
+		assertTrue(this.storyStore.save(id, story));
+		assertTrue(this.mediaStore.getStale().size() == 1);
+
+		// Nothing is swept before every story has been counted
+		assertTrue(this.collector.collect().get() == 0);
+		this.mediaStore.setIndexed();
+		assertTrue(this.collector.collect().get() == "replaced".length());
+		assertTrue(this.mediaStore.getStale().isEmpty());
+		assertTrue(this.mediaStore.getFile(IMAGE, kept).exists());
+		assertTrue(this.mediaStore.getFile(IMAGE, trusted).exists());
+	}
+
+	@Test
+	public void testNewerReferencesAreKept() throws Exception {
+		String image = putOld("image");
+		UUID id = UUID.randomUUID();
+		Story story = new Story();
+		story.addFragment(new StoryFragment());
+		assertTrue(this.storyStore.save(id, story));
+		// Referred to by a save still queued, written before the story is
+		// read
+		int fragmentId = story.addFragment(makeFragment(image));
+		this.mediaStore.addReferences(id, story, new int[] { fragmentId });
+		this.saveQueue.save(id, story);
+
+		ArrayList<UUID> ids = new ArrayList<UUID>();
+		ids.add(id);
+		assertTrue(this.collector.collect(ids).get() == 0);
+		assertTrue(this.mediaStore.getFile(IMAGE, image).exists());
+		assertTrue(this.mediaStore.getReferenceCount(IMAGE, image) == 1);
+	}
+
+}
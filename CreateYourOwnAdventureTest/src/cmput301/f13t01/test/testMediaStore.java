@@ -0,0 +1,209 @@
+package cmput301.f13t01.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cmput301.f13t01.model.Image;
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.storylibrary.FileCommit;
+import cmput301.f13t01.storylibrary.MediaStore;
+import cmput301.f13t01.storylibrary.SaveQueue;
+import cmput301.f13t01.storylibrary.StoryStore;
+
+public class testMediaStore extends TestCase {
+
+	private static final String IMAGE = "IMAGE";
+
+	private File root;
+	private File index;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		this.root = TestFixtures.makeDirectory("media");
+		this.index = new File(this.root, "MediaIndex.sav");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFixtures.deleteTree(this.root);
+		super.tearDown();
+	}
+
+	private void save(MediaStore store) throws Exception {
+		FileCommit commit = new FileCommit();
+		assertTrue(store.write(commit));
+		commit.commit();
+	}
+
+	private int countFiles() {
+		String[] names = new File(this.root, IMAGE).list();
+		return names == null ? 0 : names.length;
+	}
+
+	@Test
+	public void testSameContentsStoredOnce() throws Exception {
+		MediaStore store = new MediaStore(this.root, this.index);
+		String first = store.put("picture".getBytes(), IMAGE);
+		String second = store.put("picture".getBytes(), IMAGE);
+		String other = store.put("other picture".getBytes(), IMAGE);
+		assertTrue(first.equals(second));
+		assertFalse(first.equals(other));
+		assertTrue(first.length() == 64);
+		assertTrue(countFiles() == 2);
+		assertTrue(store.getFile(IMAGE, first).length() == 7);
+	}
+
+	@Test
+	public void testDeletedWithLastReference() throws Exception {
+		MediaStore store = new MediaStore(this.root, this.index);
+		String shared = store.put("shared".getBytes(), IMAGE);
+		String own = store.put("own".getBytes(), IMAGE);
+		UUID first = UUID.randomUUID();
+		UUID second = UUID.randomUUID();
+		store.setReferences(first, TestFixtures.makeImageStory(shared, own));
+		store.setReferences(second, TestFixtures.makeImageStory(shared));
+		assertTrue(store.getReferenceCount(IMAGE, shared) == 2);
+		save(store);
+
+		// Counts are read back with the index
+		store = new MediaStore(this.root, this.index);
+		assertTrue(store.isIndexed());
+		assertTrue(store.getReferenceCount(IMAGE, own) == 1);
+
+		store.removeReferences(first);
+		assertTrue(store.getReferenceCount(IMAGE, shared) == 1);
+		// Deleted only once the index is written
+		assertTrue(countFiles() == 2);
+		save(store);
+		assertTrue(store.getFile(IMAGE, shared).exists());
+		assertFalse(store.getFile(IMAGE, own).exists());
+	}
+
+	@Test
+	public void testStoredAgainIsKept() throws Exception {
+		MediaStore store = new MediaStore(this.root, this.index);
+		String name = store.put("picture".getBytes(), IMAGE);
+		UUID id = UUID.randomUUID();
+		store.setReferences(id, TestFixtures.makeImageStory(name));
+		store.removeReferences(id);
+		// Imported again before the index is written
+		store.put("picture".getBytes(), IMAGE);
+		save(store);
+		assertTrue(store.getFile(IMAGE, name).exists());
+	}
+
+	@Test
+	public void testKeptUntilIndexed() throws Exception {
+		MediaStore store = new MediaStore(this.root, this.index);
+		assertFalse(store.isIndexed());
+		String name = store.put("picture".getBytes(), IMAGE);
+		UUID id = UUID.randomUUID();
+		store.setReferences(id, TestFixtures.makeImageStory(name));
+		store.removeReferences(id);
+		// Another story not counted yet may still use it
+		save(store);
+		assertTrue(store.getFile(IMAGE, name).exists());
+		store.setIndexed();
+		save(store);
+		assertFalse(store.getFile(IMAGE, name).exists());
+	}
+
+	@Test
+	public void testAddReferences() throws Exception {
+		MediaStore store = new MediaStore(this.root, this.index);
+		String first = store.put("first".getBytes(), IMAGE);
+		String second = store.put("second".getBytes(), IMAGE);
+		UUID id = UUID.randomUUID();
+		Story story = TestFixtures.makeImageStory(first);
+		store.setReferences(id, story);
+		StoryFragment fragment = new StoryFragment();
+		fragment.addContent(new Image(second, 100));
+		int fragmentId = story.addFragment(fragment);
+		store.addReferences(id, story, new int[] { fragmentId });
+		assertTrue(store.getReferenceCount(IMAGE, first) == 1);
+		assertTrue(store.getReferenceCount(IMAGE, second) == 1);
+	}
+
+	@Test
+	public void testMigrate() throws Exception {
+		File directory = new File(this.root, IMAGE);
+		directory.mkdirs();
+		String[] names = { UUID.randomUUID().toString(),
+				UUID.randomUUID().toString(), UUID.randomUUID().toString() };
+		String[] contents = { "same", "same", "different" };
+		for (int i = 0; i < names.length; i++) {
+			FileOutputStream out = new FileOutputStream(new File(directory,
+					names[i]));
+			out.write(contents[i].getBytes());
+			out.close();
+		}
+		MediaStore store = new MediaStore(this.root, this.index);
+		assertFalse(store.isIndexed());
+		SaveQueue queue = new SaveQueue(new StoryStore(new File(this.root,
+				"stories")), 0);
+		assertTrue(store.migrate(queue) == 3);
+		assertTrue(countFiles() == 2);
+		assertTrue(store.migrate(queue) == 0);
+
+		// Stories still find their media by the old names
+		store = new MediaStore(this.root, this.index);
+		assertTrue(store.resolve(IMAGE, names[0]).equals(
+				store.resolve(IMAGE, names[1])));
+		assertTrue(store.getFile(IMAGE, names[1]).length() == 4);
+		assertTrue(store.getFile(IMAGE, names[2]).length() == 9);
+		UUID id = UUID.randomUUID();
+		store.setReferences(id,
+				TestFixtures.makeImageStory(names[0], names[1]));
+		assertTrue(store.getReferenceCount(IMAGE, names[1]) == 1);
+	}
+
+	@Test
+	public void testAlias() throws Exception {
+		MediaStore store = new MediaStore(this.root, this.index);
+		String hash = store.put("downloaded".getBytes(), IMAGE);
+		String name = store.put("server-name", "downloaded".getBytes(), IMAGE);
+		assertTrue(hash.equals(name));
+		assertTrue(countFiles() == 1);
+		save(store);
+		store = new MediaStore(this.root, this.index);
+		assertTrue(store.getFile(IMAGE, "server-name").length() == 10);
+	}
+
+	@Test
+	public void testNoAliasOverOtherMedia() throws Exception {
+		MediaStore store = new MediaStore(this.root, this.index);
+		String local = store.put("local".getBytes(), IMAGE);
+		store.put("server-name", "first".getBytes(), IMAGE);
+		// Media from elsewhere, named as though it were other media here
+		String imported = store.put(local, "imported".getBytes(), IMAGE);
+		assertFalse(imported.equals(local));
+		assertTrue(store.resolve(IMAGE, local).equals(local));
+		assertTrue(store.getFile(IMAGE, local).length() == 5);
+		String other = store.put("server-name", "second".getBytes(), IMAGE);
+		assertTrue(store.getFile(IMAGE, "server-name").length() == 5);
+		assertTrue(store.getFile(IMAGE, other).length() == 6);
+	}
+
+	@Test
+	public void testRenameMedia() throws Exception {
+		Story story = TestFixtures.makeImageStory("old", "kept");
+		HashMap<String, String> names = new HashMap<String, String>();
+		names.put(IMAGE + "/old", "new");
+		MediaStore.renameMedia(story, names);
+		assertTrue(story.getFragment(0).getContentList().get(1)
+				.getContent().equals("new"));
+		assertTrue(story.getFragment(1).getContentList().get(1)
+				.getContent().equals("kept"));
+	}
+
+}
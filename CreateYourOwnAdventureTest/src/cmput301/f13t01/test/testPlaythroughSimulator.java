@@ -0,0 +1,60 @@
+package cmput301.f13t01.test;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cmput301.f13t01.analysis.PlaythroughSimulator;
+import cmput301.f13t01.analysis.PlaythroughStats;
+import cmput301.f13t01.model.Choice;
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.readstory.CompiledStory;
+
+public class testPlaythroughSimulator extends TestCase {
+
+	private CompiledStory compiled;
+	private Integer start;
+	private Integer ending;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		Story story = new Story();
+		start = story.addFragment(new StoryFragment());
+		ending = story.addFragment(new StoryFragment());
+		story.setFirstPage(start);
+		// Either loop back to the start, or finish
+		story.addChoice(start, new Choice(start, start, "Again"));
+		story.addChoice(start, new Choice(start, ending, "Finish"));
+		compiled = CompiledStory.compile(story);
+	}
+
+	@Test
+	public void testAllPlaythroughsEnd() {
+		PlaythroughSimulator simulator = new PlaythroughSimulator(compiled,
+				1000, 2);
+		PlaythroughStats stats = simulator.simulate(100000, 7);
+		int endIndex = compiled.indexOf(ending);
+		assertTrue(stats.getPlaythroughs() == 100000);
+		assertTrue(stats.getEndings(endIndex) == 100000);
+		assertTrue(stats.getLengthCount(0) == 0);
+		// Lengths are geometric with mean 2
+		assertTrue(Math.abs(stats.getMeanLength() - 2.0) < 0.05);
+	}
+
+	@Test
+	public void testReproducibleFromSeed() {
+		PlaythroughStats one = new PlaythroughSimulator(compiled, 1000, 1)
+				.simulate(50000, 11);
+		PlaythroughStats four = new PlaythroughSimulator(compiled, 1000, 4)
+				.simulate(50000, 11);
+		int startIndex = compiled.indexOf(start);
+		assertTrue(one.getVisits(startIndex) == four.getVisits(startIndex));
+		for (int i = 0; i < 20; i++) {
+			assertTrue(one.getLengthCount(i) == four.getLengthCount(i));
+		}
+	}
+
+}
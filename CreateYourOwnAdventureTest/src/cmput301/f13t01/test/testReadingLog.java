@@ -0,0 +1,130 @@
+package cmput301.f13t01.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cmput301.f13t01.model.History;
+import cmput301.f13t01.storylibrary.ReadingLog;
+
+public class testReadingLog extends TestCase {
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		this.file = File.createTempFile("history", "");
+		this.file.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.file.delete();
+		super.tearDown();
+	}
+
+	private History reload() throws Exception {
+		History history = new History();
+		new ReadingLog(this.file).restore(history);
+		return history;
+	}
+
+	@Test
+	public void testPageTurnsAppend() throws Exception {
+		ReadingLog log = new ReadingLog(this.file);
+		assertFalse(log.exists());
+		History history = new History();
+		history.pushToStack(0);
+		log.save(history);
+		history.pushToStack(4);
+		log.save(history);
+		assertTrue(this.file.length() == 10);
+
+		// Going back is one pop, and turning a page again one push
+		history.goBack();
+		log.save(history);
+		assertTrue(this.file.length() == 11);
+		history.pushToStack(7);
+		log.save(history);
+		assertTrue(this.file.length() == 16);
+
+		History loaded = reload();
+		assertTrue(loaded.size() == 2);
+		assertTrue(loaded.get(0) == 0);
+		assertTrue(loaded.get(1) == 7);
+
+		history.clearHistory();
+		log.save(history);
+		assertTrue(reload().size() == 0);
+	}
+
+	@Test
+	public void testCompaction() throws Exception {
+		ReadingLog log = new ReadingLog(this.file);
+		History history = new History();
+		history.pushToStack(1);
+		for (int i = 0; i < 1000; i++) {
+			history.pushToStack(2);
+			log.save(history);
+			history.goBack();
+			log.save(history);
+		}
+		// The log stays near the size of the stack
+		assertTrue(this.file.length() < 5 * 100);
+		History loaded = reload();
+		assertTrue(loaded.size() == 1);
+		assertTrue(loaded.get(0) == 1);
+	}
+
+	@Test
+	public void testTornRecord() throws Exception {
+		ReadingLog log = new ReadingLog(this.file);
+		History history = new History();
+		history.pushToStack(3);
+		history.pushToStack(5);
+		log.save(history);
+		// Half a push, as if written during a crash
+		FileOutputStream out = new FileOutputStream(this.file, true);
+		out.write(new byte[] { 1, 0, 0 });
+		out.close();
+
+		log = new ReadingLog(this.file);
+		assertTrue(this.file.length() == 10);
+		history.pushToStack(9);
+		log.save(history);
+		History loaded = reload();
+		assertTrue(loaded.size() == 3);
+		assertTrue(loaded.get(2) == 9);
+	}
+
+	@Test
+	public void testFailedWriteNotLogged() throws Exception {
+		// Every write to it fails with the disk full
+		File full = new File("/dev/full");
+		if (!full.exists()) {
+			return;
+		}
+		ReadingLog log = new ReadingLog(full);
+		History history = new History();
+		history.pushToStack(3);
+		for (int i = 0; i < 2; i++) {
+			// Still written again, since the first try never got there
+			try {
+				log.save(history);
+				fail();
+			} catch (IOException e) {
+			}
+			History logged = new History();
+			log.restore(logged);
+			assertTrue(logged.size() == 0);
+		}
+	}
+
+}
@@ -0,0 +1,293 @@
+package cmput301.f13t01.test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.storylibrary.FileCommit;
+import cmput301.f13t01.storylibrary.SaveQueue;
+import cmput301.f13t01.storylibrary.StoryStore;
+
+public class testSaveQueue extends TestCase {
+
+	private File root;
+	private StoryStore store;
+	private UUID id;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		this.root = TestFixtures.makeDirectory("stories");
+		this.store = new StoryStore(this.root);
+		this.id = UUID.randomUUID();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFixtures.deleteTree(this.root);
+		super.tearDown();
+	}
+
+	// Never written unless flushed
+	private SaveQueue makeQueue() {
+		return new SaveQueue(this.store, 60 * 1000);
+	}
+
+	@Test
+	public void testBurstIsOneWrite() throws Exception {
+		SaveQueue queue = makeQueue();
+		Story story = TestFixtures.makeStory(1);
+		Future<Boolean> first = queue.save(this.id, story);
+		for (int i = 0; i < 10; i++) {
+			story.setTitle("Title " + i);
+			assertTrue(queue.save(this.id, story) == first);
+		}
+		assertFalse(first.isDone());
+		assertFalse(this.store.contains(this.id));
+
+		assertTrue(queue.flush().get());
+		assertTrue(first.get());
+		assertTrue(this.store.load(this.id).getTitle().equals("Title 9"));
+		// Saving again after the write starts a new one
+		assertTrue(queue.save(this.id, story) != first);
+	}
+
+	@Test
+	public void testSavesSnapshot() throws Exception {
+		SaveQueue queue = makeQueue();
+		Story story = TestFixtures.makeStory(1);
+		Future<Boolean> saved = queue.save(this.id, story);
+		// Edits after the save are not part of it
+		story.setTitle("Changed");
+		story.getFragment(0).setTitle("Changed");
+		queue.flush(this.id);
+		assertTrue(saved.get());
+		Story loaded = this.store.load(this.id);
+		assertTrue(loaded.getTitle().equals("Story"));
+		assertTrue(loaded.getFragment(0).getTitle().equals("Page 0"));
+
+		// and are written by the next save
+		queue.save(this.id, story);
+		assertTrue(queue.flush().get());
+		assertTrue(this.store.load(this.id).getTitle().equals("Changed"));
+	}
+
+	@Test
+	public void testWritesAfterDelay() throws Exception {
+		SaveQueue queue = new SaveQueue(this.store, 10);
+		Future<Boolean> saved = queue.save(this.id, TestFixtures.makeStory(1));
+		assertTrue(saved.get(5, TimeUnit.SECONDS));
+		assertTrue(this.store.contains(this.id));
+	}
+
+	@Test
+	public void testHistory() throws Exception {
+		SaveQueue queue = makeQueue();
+		Story story = TestFixtures.makeStory(1);
+		// Only a story already in the store can have its history saved
+		Future<Boolean> saved = queue.saveHistory(this.id, story);
+		assertFalse(queue.flush().get());
+		assertFalse(saved.get());
+
+		story.addFragment(new StoryFragment());
+		queue.save(this.id, story);
+		story.pushToStack(0);
+		saved = queue.saveHistory(this.id, story);
+		// Not part of the save
+		story.pushToStack(1);
+		assertTrue(queue.flush().get());
+		assertTrue(saved.get());
+		assertTrue(this.store.load(this.id).getMostRecent() == 0);
+	}
+
+	@Test
+	public void testGetQueued() throws Exception {
+		SaveQueue queue = makeQueue();
+		Story story = TestFixtures.makeStory(1);
+		assertTrue(queue.getQueued(this.id) == null);
+		queue.save(this.id, story);
+		story.setTitle("Not saved");
+
+		// Loaded as saved without waiting for the write
+		Story queued = queue.getQueued(this.id);
+		assertTrue(queued.getTitle().equals("Story"));
+		queued.getFragment(0).setTitle("Edited");
+		assertTrue(queue.getQueued(this.id).getFragment(0).getTitle()
+				.equals("Page 0"));
+		assertFalse(this.store.contains(this.id));
+
+		assertTrue(queue.flush().get());
+		assertTrue(queue.getQueued(this.id) == null);
+		assertTrue(this.store.load(this.id).getTitle().equals("Story"));
+	}
+
+	@Test
+	public void testRestoreQueuedHistory() throws Exception {
+		SaveQueue queue = makeQueue();
+		Story story = TestFixtures.makeStory(1);
+		queue.save(this.id, story);
+		assertTrue(queue.flush().get());
+
+		story.pushToStack(0);
+		queue.saveHistory(this.id, story);
+		// Only the progress is queued, so the story comes from the store
+		assertTrue(queue.getQueued(this.id) == null);
+		Story loaded = this.store.load(this.id);
+		assertTrue(queue.restoreQueuedHistory(this.id, loaded));
+		assertTrue(loaded.getMostRecent() == 0);
+
+		assertTrue(queue.flush().get());
+		assertFalse(queue.restoreQueuedHistory(this.id, loaded));
+		assertTrue(this.store.load(this.id).getMostRecent() == 0);
+	}
+
+	@Test
+	public void testDelete() throws Exception {
+		SaveQueue queue = makeQueue();
+		queue.save(this.id, TestFixtures.makeStory(1));
+		assertTrue(queue.flush().get());
+		assertTrue(this.store.contains(this.id));
+
+		// A save not yet written is dropped
+		Future<Boolean> saved = queue.save(this.id, TestFixtures.makeStory(1));
+		Future<Boolean> deleted = queue.delete(this.id);
+		assertTrue(saved.isCancelled());
+		assertFalse(SaveQueue.waitFor(saved));
+		// The files stay until the delete's group is committed
+		assertFalse(deleted.isDone());
+		assertTrue(this.store.contains(this.id));
+		assertTrue(queue.flush().get());
+		assertTrue(deleted.get());
+		assertFalse(this.store.contains(this.id));
+	}
+
+	@Test
+	public void testDeleteMany() throws Exception {
+		SaveQueue queue = makeQueue();
+		UUID other = UUID.randomUUID();
+		queue.save(this.id, TestFixtures.makeStory(1));
+		queue.save(other, TestFixtures.makeStory(1));
+		assertTrue(queue.flush().get());
+
+		Future<Boolean> saved = queue.save(other, TestFixtures.makeStory(1));
+		Future<Boolean> deleted = queue.delete(Arrays.asList(this.id, other));
+		assertTrue(saved.isCancelled());
+		assertTrue(queue.flush().get());
+		assertTrue(deleted.get());
+		assertFalse(this.store.contains(this.id));
+		assertFalse(this.store.contains(other));
+	}
+
+	@Test
+	public void testDeleteAfterCommit() throws Exception {
+		SaveQueue queue = makeQueue();
+		queue.save(this.id, TestFixtures.makeStory(1));
+		assertTrue(queue.flush().get());
+
+		// Like the library's list of stories, written with the delete
+		final AtomicInteger present = new AtomicInteger();
+		queue.write("library", new SaveQueue.Write() {
+			@Override
+			public boolean write(FileCommit commit) {
+				if (store.contains(id)) {
+					present.incrementAndGet();
+				}
+				return true;
+			}
+		});
+		Future<Boolean> deleted = queue.delete(this.id);
+		assertTrue(queue.flush().get());
+		assertTrue(deleted.get());
+		assertTrue(present.get() == 1);
+		assertFalse(this.store.contains(this.id));
+	}
+
+	@Test
+	public void testSaveKeepsDeletedStory() throws Exception {
+		SaveQueue queue = makeQueue();
+		queue.save(this.id, TestFixtures.makeStory(1));
+		assertTrue(queue.flush().get());
+
+		Future<Boolean> deleted = queue.delete(this.id);
+		Future<Boolean> saved = queue.save(this.id, TestFixtures.makeStory(1));
+		assertTrue(queue.flush().get());
+		assertTrue(deleted.get());
+		assertTrue(saved.get());
+		assertTrue(this.store.contains(this.id));
+	}
+
+	@Test
+	public void testOtherWrites() throws Exception {
+		SaveQueue queue = makeQueue();
+		final AtomicInteger written = new AtomicInteger();
+		SaveQueue.Write write = new SaveQueue.Write() {
+			@Override
+			public boolean write(FileCommit commit) {
+				written.incrementAndGet();
+				return true;
+			}
+		};
+		Future<Boolean> first = queue.write("library", write);
+		assertTrue(queue.write("library", write) == first);
+		assertTrue(queue.flush().get());
+		assertTrue(first.get());
+		assertTrue(written.get() == 1);
+	}
+
+	@Test
+	public void testGroupSharesCommit() throws Exception {
+		SaveQueue queue = makeQueue();
+		UUID other = UUID.randomUUID();
+		Future<Boolean> first = queue.save(this.id, TestFixtures.makeStory(1));
+		Future<Boolean> second = queue.save(other, TestFixtures.makeStory(1));
+		// Flushing one story writes everything queued with it
+		assertTrue(queue.flush(this.id).get());
+		assertTrue(first.isDone());
+		assertTrue(second.get());
+		assertTrue(this.store.contains(other));
+		this.store.delete(other);
+	}
+
+	@Test
+	public void testFlushWaitsForGroupBeingWritten() throws Exception {
+		SaveQueue queue = makeQueue();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		queue.write("library", new SaveQueue.Write() {
+			@Override
+			public boolean write(FileCommit commit) {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					return false;
+				}
+				return true;
+			}
+		});
+		Future<Boolean> first = queue.flush();
+		started.await();
+		// Nothing new queued, but the group is still being written
+		Future<Boolean> second = queue.flush();
+		Future<Boolean> story = queue.flush(this.id);
+		assertTrue(story.isDone());
+		assertFalse(second.isDone());
+		release.countDown();
+		assertTrue(first.get());
+		assertTrue(second.get());
+		assertTrue(queue.flush().isDone());
+	}
+
+}
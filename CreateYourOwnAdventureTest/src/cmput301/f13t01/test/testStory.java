@@ -5,7 +5,9 @@ import junit.framework.TestCase;
 import org.junit.Before;
 import org.junit.Test;
 
+import cmput301.f13t01.model.Choice;
 import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryFragment;
 
 public class testStory extends TestCase{
 
@@ -28,4 +30,60 @@ public class testStory extends TestCase{
 		assertTrue(this.story.getFirstPage() == null);
 	}
 
+	@Test
+	public void testRemoveFirstPage() {
+		Integer id = null;
+		for (int i = 0; i < 200; i++) {
+			id = this.story.addFragment(new StoryFragment());
+		}
+		this.story.setFirstPage(id);
+		assertTrue(this.story.removeFragment(new Integer(id.intValue())));
+		assertTrue(this.story.getFirstPage() == null);
+	}
+
+	@Test
+	public void testSnapshot() {
+		StoryFragment fragment = new StoryFragment();
+		fragment.setTitle("Before");
+		Integer id = this.story.addFragment(fragment);
+		Integer other = this.story.addFragment(new StoryFragment());
+		this.story.addChoice(id, new Choice(id, other, "Go"));
+		Story snapshot = this.story.snapshot();
+
+		// Edits to the story after the snapshot must not show in it
+		this.story.getFragment(id).setTitle("After");
+		this.story.addChoice(id, new Choice(id, id, "Stay"));
+		this.story.removeFragment(other);
+		assertTrue(snapshot.getFragment(id).getTitle() == "Before");
+		assertTrue(snapshot.getChoices(id).size() == 1);
+		assertTrue(snapshot.getFragment(other) != null);
+		assertTrue(this.story.getFragment(id).getTitle() == "After");
+		assertTrue(this.story.getChoices(id).size() == 1);
+		assertTrue(this.story.getChoices(id).get(0).getDestinationId()
+				.equals(id));
+	}
+
+	@Test
+	public void testFork() {
+		StoryFragment fragment = new StoryFragment();
+		fragment.setTitle("Before");
+		Integer id = this.story.addFragment(fragment);
+		this.story.addChoice(id, new Choice(id, id, "Stay"));
+		Story fork = this.story.fork();
+
+		// Each is edited without the other seeing it
+		fork.getFragment(id).setTitle("Fork");
+		fork.addChoice(id, new Choice(id, id, "Again"));
+		this.story.getFragment(id).setTitle("Story");
+		assertTrue(fork.getFragment(id).getTitle() == "Fork");
+		assertTrue(fork.getChoices(id).size() == 2);
+		assertTrue(this.story.getFragment(id).getTitle() == "Story");
+		assertTrue(this.story.getChoices(id).size() == 1);
+
+		// Saving the fork leaves the story's changes as they were
+		fork.getChanges().saved(new Object());
+		assertTrue(fork.getChanges().getChangedFragments().length == 0);
+		assertTrue(this.story.getChanges().getChangedFragments().length == 1);
+	}
+
 }
@@ -0,0 +1,185 @@
+package cmput301.f13t01.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.storylibrary.MediaStore;
+import cmput301.f13t01.storylibrary.StoryBundle;
+
+public class testStoryBundle extends TestCase {
+
+	private static final String IMAGE = "IMAGE";
+
+	private File root;
+	private MediaStore from;
+	private MediaStore to;
+	private File bundle;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		this.root = TestFixtures.makeDirectory("bundle");
+		File fromRoot = new File(this.root, "from");
+		File toRoot = new File(this.root, "to");
+		this.from = new MediaStore(fromRoot, new File(fromRoot, "index"));
+		this.to = new MediaStore(toRoot, new File(toRoot, "index"));
+		this.bundle = new File(this.root, "story.bundle");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFixtures.deleteTree(this.root);
+		super.tearDown();
+	}
+
+	private byte[] readFile(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int read = 0;
+			while (read < bytes.length) {
+				read += in.read(bytes, read, bytes.length - read);
+			}
+		} finally {
+			in.close();
+		}
+		return bytes;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		byte[] picture = new byte[5000];
+		new Random(1).nextBytes(picture);
+		String name = this.from.put(picture, IMAGE);
+		String other = this.from.put("other".getBytes(), IMAGE);
+		Story story = TestFixtures.makeImageStory(name, other, name);
+		StoryBundle.write(story, this.from, this.bundle);
+
+		Story imported = StoryBundle.read(this.bundle, this.to);
+		assertTrue(imported.getTitle().equals("Bundled"));
+		assertTrue(imported.getFragmentInfoList().size() == 3);
+		for (int i = 0; i < 3; i++) {
+			StoryFragment fragment = imported.getFragment(i);
+			assertTrue(fragment.getTitle().equals(
+					story.getFragment(i).getTitle()));
+			assertTrue(fragment.getContentList().get(0).toString()
+					.equals("Some text"));
+			assertTrue(imported.getChoices(i).size() == 1);
+		}
+		assertTrue(Arrays.equals(readFile(this.to.getFile(IMAGE, name)),
+				picture));
+		assertTrue(Arrays.equals(readFile(this.to.getFile(IMAGE, other)),
+				"other".getBytes()));
+		// Stored once, though used twice, and no temporary files are left
+		assertTrue(new File(this.root, "to/" + IMAGE).list().length == 2);
+	}
+
+	@Test
+	public void testOldNamesKept() throws Exception {
+		String hash = this.from.put("old-name", "picture".getBytes(), IMAGE);
+		Story story = TestFixtures.makeImageStory("old-name");
+		StoryBundle.write(story, this.from, this.bundle);
+		Story imported = StoryBundle.read(this.bundle, this.to);
+		// Referred to by hash, the old name being known as well
+		assertTrue(imported.getFragment(0).getContentList().get(1)
+				.getContent().equals(hash));
+		assertTrue(this.to.resolve(IMAGE, "old-name").equals(hash));
+		assertTrue(this.to.getFile(IMAGE, "old-name").isFile());
+	}
+
+	@Test
+	public void testNamesCantRedirectLocalMedia() throws Exception {
+		String local = this.to.put("local".getBytes(), IMAGE);
+		// A bundle naming its media by the hash of media already here
+		File forged = this.from.getFile(IMAGE, local);
+		forged.getParentFile().mkdirs();
+		FileOutputStream out = new FileOutputStream(forged);
+		out.write("imported".getBytes());
+		out.close();
+		StoryBundle.write(TestFixtures.makeImageStory(local), this.from,
+				this.bundle);
+		Story imported = StoryBundle.read(this.bundle, this.to);
+		assertTrue(this.to.resolve(IMAGE, local).equals(local));
+		assertTrue(Arrays.equals(readFile(this.to.getFile(IMAGE, local)),
+				"local".getBytes()));
+		String name = (String) imported.getFragment(0).getContentList()
+				.get(1).getContent();
+		assertFalse(name.equals(local));
+		assertTrue(Arrays.equals(readFile(this.to.getFile(IMAGE, name)),
+				"imported".getBytes()));
+	}
+
+	@Test
+	public void testMissingMediaLeftOut() throws Exception {
+		Story story = TestFixtures.makeImageStory("missing");
+		StoryBundle.write(story, this.from, this.bundle);
+		Story imported = StoryBundle.read(this.bundle, this.to);
+		assertTrue(imported.getFragmentInfoList().size() == 1);
+		assertFalse(this.to.getFile(IMAGE, "missing").exists());
+	}
+
+	@Test
+	public void testDamagedBundle() throws Exception {
+		String name = this.from.put(new byte[10000], IMAGE);
+		StoryBundle.write(TestFixtures.makeImageStory(name), this.from,
+				this.bundle);
+		RandomAccessFile file = new RandomAccessFile(this.bundle, "rw");
+		file.setLength(this.bundle.length() - 100);
+		file.close();
+		try {
+			StoryBundle.read(this.bundle, this.to);
+			fail();
+		} catch (IOException e) {
+			// Expected
+		}
+		FileOutputStream out = new FileOutputStream(this.bundle);
+		out.write("not a bundle".getBytes());
+		out.close();
+		try {
+			StoryBundle.read(this.bundle, this.to);
+			fail();
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * Moves media larger than any buffer used through a bundle. The bytes are
+	 * random, so no picture, and arrive unchanged only if they are copied
+	 * rather than decoded.
+	 */
+	@Test
+	public void testLargeMedia() throws Exception {
+		byte[] picture = new byte[3 * 1024 * 1024 + 17];
+		new Random(2).nextBytes(picture);
+		File large = this.from.createTempFile(IMAGE);
+		FileOutputStream out = new FileOutputStream(large);
+		out.write(picture);
+		out.close();
+		String name = this.from.put(large, IMAGE);
+
+		StoryBundle.write(TestFixtures.makeImageStory(name), this.from,
+				this.bundle);
+		Story imported = StoryBundle.read(this.bundle, this.to);
+		// Stored under the same hash, worked out again on import
+		assertTrue(imported.getFragment(0).getContentList().get(1)
+				.getContent().equals(name));
+		assertTrue(Arrays.equals(readFile(this.to.getFile(IMAGE, name)),
+				picture));
+		assertTrue(new File(this.root, "to/" + IMAGE).list().length == 1);
+	}
+
+}
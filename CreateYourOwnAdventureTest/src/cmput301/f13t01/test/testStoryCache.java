@@ -0,0 +1,107 @@
+package cmput301.f13t01.test;
+
+import java.io.File;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryPack;
+import cmput301.f13t01.model.StoryRecords;
+import cmput301.f13t01.storylibrary.StoryCache;
+
+public class testStoryCache extends TestCase {
+
+	private StoryCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		this.cache = new StoryCache(10000);
+	}
+
+	@Test
+	public void testHandsOutCopies() {
+		UUID id = UUID.randomUUID();
+		assertTrue(this.cache.get(id) == null);
+		Story story = TestFixtures.makeStory(3);
+		assertTrue(this.cache.put(id, story, this.cache.getGeneration()));
+
+		Story first = this.cache.get(id);
+		first.getFragment(0).setTitle("Edited");
+		story.getFragment(1).setTitle("Edited");
+		Story second = this.cache.get(id);
+		assertTrue(second != first);
+		assertTrue(second.getFragment(0).getTitle().equals("Page 0"));
+		assertTrue(second.getFragment(1).getTitle().equals("Page 1"));
+
+		assertTrue(this.cache.getHits() == 2);
+		assertTrue(this.cache.getMisses() == 1);
+		assertTrue(this.cache.getHitRate() > 0.6);
+		assertTrue(this.cache.getSize() == story.estimateSize());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		UUID[] ids = new UUID[3];
+		long size = TestFixtures.makeStory(20).estimateSize();
+		StoryCache cache = new StoryCache(size * 2);
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = UUID.randomUUID();
+			cache.put(ids[i], TestFixtures.makeStory(20),
+					cache.getGeneration());
+			if (i == 1) {
+				// The first is used again, so the second goes instead
+				assertTrue(cache.get(ids[0]) != null);
+			}
+		}
+		assertTrue(cache.getCount() == 2);
+		assertTrue(cache.getEvictions() == 1);
+		assertTrue(cache.get(ids[1]) == null);
+		assertTrue(cache.get(ids[0]) != null);
+		assertTrue(cache.get(ids[2]) != null);
+		assertTrue(cache.getSize() <= cache.getCapacity());
+
+		// Too large to keep at all
+		assertFalse(cache.put(UUID.randomUUID(), TestFixtures.makeStory(100),
+				cache.getGeneration()));
+		cache.trimTo(0);
+		assertTrue(cache.getCount() == 0);
+		assertTrue(cache.getSize() == 0);
+	}
+
+	@Test
+	public void testRemoved() {
+		UUID id = UUID.randomUUID();
+		long generation = this.cache.getGeneration();
+		this.cache.put(id, TestFixtures.makeStory(1), generation);
+		this.cache.remove(id);
+		assertTrue(this.cache.get(id) == null);
+		assertTrue(this.cache.getSize() == 0);
+		// Loaded before the story was saved again, so not kept
+		assertFalse(this.cache.put(id, TestFixtures.makeStory(1), generation));
+		assertTrue(this.cache.put(id, TestFixtures.makeStory(1),
+				this.cache.getGeneration()));
+	}
+
+	@Test
+	public void testCountsPack() throws Exception {
+		File file = File.createTempFile("pack", ".pack");
+		try {
+			StoryPack.write(TestFixtures.makeStory(200), file);
+			Story story = new Story();
+			StoryRecords.attachPack(story, StoryPack.open(file));
+			// Nothing read yet, but the whole pack stays mapped
+			assertTrue(story.estimateSize() >= file.length());
+			StoryCache cache = new StoryCache(file.length() - 1);
+			assertFalse(cache.put(UUID.randomUUID(), story,
+					cache.getGeneration()));
+		} finally {
+			file.delete();
+		}
+	}
+
+}
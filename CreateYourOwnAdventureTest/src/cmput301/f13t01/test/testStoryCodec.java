@@ -0,0 +1,147 @@
+package cmput301.f13t01.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import android.net.Uri;
+import android.text.SpannableString;
+import cmput301.f13t01.model.Choice;
+import cmput301.f13t01.model.Image;
+import cmput301.f13t01.model.ImageUri;
+import cmput301.f13t01.model.RecordReader;
+import cmput301.f13t01.model.RecordWriter;
+import cmput301.f13t01.model.Sound;
+import cmput301.f13t01.model.StoryCodec;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.model.Text;
+
+public class testStoryCodec extends TestCase {
+
+	private ByteArrayInputStream reread(ByteArrayOutputStream bytes) {
+		return new ByteArrayInputStream(bytes.toByteArray());
+	}
+
+	@Test
+	public void testValues() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		RecordWriter writer = new RecordWriter(bytes, StoryCodec.CHOICES);
+		int[] ints = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE };
+		for (int value : ints) {
+			writer.writeVarInt(value);
+		}
+		Integer[] integers = { null, 0, -1, 1, Integer.MIN_VALUE,
+				Integer.MAX_VALUE };
+		for (Integer value : integers) {
+			writer.writeInteger(value);
+		}
+		writer.writeString("Repeated");
+		writer.writeString(null);
+		writer.writeString("\u00e9t\u00e9");
+		writer.writeString("Repeated");
+
+		RecordReader reader = new RecordReader(reread(bytes),
+				StoryCodec.CHOICES);
+		for (int value : ints) {
+			assertTrue(reader.readVarInt() == value);
+		}
+		for (Integer value : integers) {
+			Integer read = reader.readInteger();
+			assertTrue(value == null ? read == null : value.equals(read));
+		}
+		assertTrue(reader.readString().equals("Repeated"));
+		assertTrue(reader.readString() == null);
+		assertTrue(reader.readString().equals("\u00e9t\u00e9"));
+		assertTrue(reader.readString().equals("Repeated"));
+
+		// The repeat is a single byte referring back to the first
+		ByteArrayOutputStream once = new ByteArrayOutputStream();
+		writer = new RecordWriter(once, StoryCodec.CHOICES);
+		writer.writeString("Repeated");
+		writer.writeString("Repeated");
+		assertTrue(once.size() == 4 + 9 + 1);
+	}
+
+	@Test
+	public void testWrongKindOrVersion() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new RecordWriter(bytes, StoryCodec.CHOICES);
+		try {
+			new RecordReader(reread(bytes), StoryCodec.FRAGMENT);
+			fail();
+		} catch (IOException e) {
+		}
+
+		// A record from a newer version is refused, not misread
+		byte[] newer = bytes.toByteArray();
+		newer[2] = (byte) (StoryCodec.FORMAT_VERSION + 1);
+		try {
+			new RecordReader(new ByteArrayInputStream(newer),
+					StoryCodec.CHOICES);
+			fail();
+		} catch (IOException e) {
+		}
+	}
+
+	@Test
+	public void testFragment() throws IOException {
+		StoryFragment fragment = new StoryFragment();
+		fragment.setTitle("Cave");
+		fragment.setDescription("Dark");
+		fragment.addContent(new Text(new SpannableString("It is dark.")));
+		fragment.addContent(new Image("aGVsbG8=", 50));
+		Sound sound = new Sound();
+		sound.setContent("drip.mp3");
+		fragment.addContent(sound);
+		fragment.addAnnotation(new ImageUri(Uri.parse("file:///bat.png"), 100));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StoryCodec.writeFragment(fragment, bytes);
+		StoryFragment read = StoryCodec.readFragment(reread(bytes));
+		assertTrue(read.getTitle().equals("Cave"));
+		assertTrue(read.getDescription().equals("Dark"));
+		assertTrue(read.getContentList().size() == 3);
+		assertTrue(read.getContentList().get(0).toString()
+				.equals("It is dark."));
+		Image image = (Image) read.getContentList().get(1);
+		assertTrue(image.getContent().equals("aGVsbG8="));
+		assertTrue(image.getScale() == 50);
+		assertTrue(((Sound) read.getContentList().get(2)).getContent().equals(
+				"drip.mp3"));
+		ImageUri annotation = (ImageUri) read.getAnnotationList().get(0);
+		assertTrue(annotation.getContent().toString()
+				.equals("file:///bat.png"));
+		assertTrue(annotation.getScale() == 100);
+
+		// Much smaller than the same fragment serialized
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(serialized);
+		out.writeObject(fragment);
+		out.close();
+		assertTrue(bytes.size() * 4 < serialized.size());
+	}
+
+	@Test
+	public void testChoices() throws IOException {
+		ArrayList<Choice> choiceList = new ArrayList<Choice>();
+		choiceList.add(new Choice(3, 4, "Left"));
+		choiceList.add(new Choice(3, null, null));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		StoryCodec.writeChoices(choiceList, bytes);
+		ArrayList<Choice> read = StoryCodec.readChoices(reread(bytes));
+		assertTrue(read.size() == 2);
+		assertTrue(read.get(0).getSourceId() == 3);
+		assertTrue(read.get(0).getDestinationId() == 4);
+		assertTrue(read.get(0).getFlavourText().equals("Left"));
+		assertTrue(read.get(1).getDestinationId() == null);
+		assertTrue(read.get(1).getFlavourText() == null);
+	}
+
+}
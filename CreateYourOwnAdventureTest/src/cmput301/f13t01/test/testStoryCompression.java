@@ -0,0 +1,189 @@
+package cmput301.f13t01.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.text.SpannableString;
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryCodec;
+import cmput301.f13t01.model.StoryCompression;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.model.Text;
+import cmput301.f13t01.storylibrary.StoryStore;
+
+public class testStoryCompression extends TestCase {
+
+	private static final int[] CODECS = { StoryCompression.NONE,
+			StoryCompression.DEFLATE, StoryCompression.LZ };
+	private static final String[] NAMES = { "none", "deflate", "lz" };
+
+	private File root;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		this.root = TestFixtures.makeDirectory("compression");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFixtures.deleteTree(this.root);
+		super.tearDown();
+	}
+
+	private byte[] compress(byte[] bytes, int codec) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStream compressed = StoryCompression.compress(out, codec);
+		compressed.write(bytes);
+		compressed.close();
+		return out.toByteArray();
+	}
+
+	private byte[] decompress(byte[] bytes) throws IOException {
+		InputStream in = StoryCompression.decompress(new ByteArrayInputStream(
+				bytes));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) >= 0) {
+			out.write(b);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	private String makeParagraph(Random random) {
+		String[] words = { "the", "dragon", "door", "opens", "and", "you",
+				"walk", "into", "a", "dark", "cave", "where", "gold", "lies",
+				"beneath", "ancient", "stone" };
+		StringBuilder paragraph = new StringBuilder();
+		for (int i = 0; i < 120; i++) {
+			paragraph.append(words[random.nextInt(words.length)]).append(' ');
+		}
+		return paragraph.toString();
+	}
+
+	// Text-heavy, as most stories are
+	private Story makeStory(int fragments) {
+		Random random = new Random(1);
+		Story story = new Story();
+		for (int i = 0; i < fragments; i++) {
+			StoryFragment fragment = new StoryFragment();
+			fragment.setTitle("Page " + i);
+			for (int j = 0; j < 3; j++) {
+				fragment.addContent(new Text(new SpannableString(
+						makeParagraph(random))));
+			}
+			story.addFragment(fragment);
+		}
+		return story;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		Random random = new Random(2);
+		byte[] text = makeParagraph(random).getBytes("UTF-8");
+		// Large enough to take several blocks, and not compressible
+		byte[] noise = new byte[100000];
+		random.nextBytes(noise);
+		for (int codec : CODECS) {
+			assertTrue(Arrays.equals(decompress(compress(text, codec)), text));
+			assertTrue(Arrays.equals(decompress(compress(noise, codec)),
+					noise));
+		}
+		int deflated = compress(text, StoryCompression.DEFLATE).length;
+		assertTrue(deflated < text.length);
+		assertTrue(compress(text, StoryCompression.LZ).length < text.length);
+	}
+
+	@Test
+	public void testRecordsAfterOneAnother() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StoryCompression.Output compressed = StoryCompression.compress(out,
+				StoryCompression.LZ);
+		compressed.write("first".getBytes());
+		compressed.finish();
+		int first = out.size();
+		compressed.restart();
+		compressed.write("second".getBytes());
+		compressed.close();
+		byte[] bytes = out.toByteArray();
+		byte[] second = new byte[bytes.length - first];
+		System.arraycopy(bytes, first, second, 0, second.length);
+		assertTrue(new String(decompress(second)).equals("second"));
+	}
+
+	@Test
+	public void testOldFormatsStillRead() throws Exception {
+		// A record as written before compression, and Java serialization
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		StoryCodec.writeFragment(new StoryFragment(), record);
+		assertTrue(Arrays.equals(decompress(record.toByteArray()),
+				record.toByteArray()));
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		new ObjectOutputStream(serialized).writeObject("old");
+		assertTrue(Arrays.equals(
+				decompress(serialized.toByteArray()),
+				serialized.toByteArray()));
+	}
+
+	@Test
+	public void testStoreReadsEveryCodec() throws Exception {
+		UUID id = UUID.randomUUID();
+		Story story = makeStory(20);
+		StoryStore store = new StoryStore(this.root, StoryCompression.NONE);
+		assertTrue(store.save(id, story));
+		// Later edits written with other codecs, over the same pack
+		for (int codec : CODECS) {
+			store.setCompression(codec);
+			story.getFragment(codec).setTitle("Edited " + codec);
+			assertTrue(store.save(id, story));
+		}
+		Story loaded = new StoryStore(this.root).load(id);
+		for (int codec : CODECS) {
+			assertTrue(loaded.getFragment(codec).getTitle()
+					.equals("Edited " + codec));
+		}
+		assertTrue(loaded.getFragment(19).getContentList().get(2).toString()
+				.equals(story.getFragment(19).getContentList().get(2)
+						.toString()));
+	}
+
+	/**
+	 * Checks that each codec shrinks a story on disk as much as expected,
+	 * and that the story loads back whole.
+	 */
+	@Test
+	public void testCompressedSizes() throws Exception {
+		Story story = makeStory(200);
+		long[] sizes = new long[CODECS.length];
+		for (int i = 0; i < CODECS.length; i++) {
+			File directory = new File(this.root, NAMES[i]);
+			UUID id = UUID.randomUUID();
+			StoryStore store = new StoryStore(directory, CODECS[i]);
+			assertTrue(store.save(id, story.fork()));
+			sizes[i] = TestFixtures.sizeOf(directory);
+
+			Story loaded = new StoryStore(directory).load(id);
+			for (int fragment = 0; fragment < 200; fragment++) {
+				assertTrue(loaded.getFragment(fragment) != null);
+			}
+		}
+		assertTrue(sizes[1] < sizes[2]);
+		assertTrue(sizes[2] < sizes[0]);
+	}
+
+}
@@ -0,0 +1,219 @@
+package cmput301.f13t01.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.text.SpannableString;
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryCompression;
+import cmput301.f13t01.model.StoryDictionary;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.model.Text;
+import cmput301.f13t01.storylibrary.DictionaryStore;
+import cmput301.f13t01.storylibrary.StoryStore;
+
+public class testStoryDictionary extends TestCase {
+
+	// Phrasing the stories of one library share
+	private static final String[] PHRASES = {
+			"You push open the heavy wooden door and step inside. ",
+			"The torch flickers, throwing long shadows across the wall. ",
+			"Somewhere below, water drips slowly onto cold stone. ",
+			"If you want to go back the way you came, turn to the left. ",
+			"The old wizard looks at you and says nothing for a while. ",
+			"A narrow staircase winds down into the darkness. ",
+			"You hear footsteps behind you, but no one is there. ",
+			"The dragon stirs in its sleep, gold spilling from beneath it. " };
+	private static final String[] WORDS = { "silver", "north", "quietly",
+			"lantern", "river", "king", "mountain", "forgotten", "key",
+			"bridge" };
+
+	private File root;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		this.root = TestFixtures.makeDirectory("dictionary");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFixtures.deleteTree(this.root);
+		super.tearDown();
+	}
+
+	private String makeParagraph(Random random) {
+		StringBuilder paragraph = new StringBuilder();
+		for (int i = 0; i < 4; i++) {
+			paragraph.append(PHRASES[random.nextInt(PHRASES.length)]);
+			paragraph.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+		}
+		return paragraph.toString();
+	}
+
+	private Story makeStory(Random random, int fragments) {
+		Story story = new Story();
+		for (int i = 0; i < fragments; i++) {
+			StoryFragment fragment = new StoryFragment();
+			fragment.setTitle("Page " + i);
+			fragment.addContent(new Text(new SpannableString(
+					makeParagraph(random))));
+			story.addFragment(fragment);
+		}
+		return story;
+	}
+
+	private ArrayList<byte[]> makeSamples(Random random, int count)
+			throws IOException {
+		ArrayList<byte[]> samples = new ArrayList<byte[]>();
+		for (int i = 0; i < count; i++) {
+			samples.add(makeParagraph(random).getBytes("UTF-8"));
+		}
+		return samples;
+	}
+
+	private byte[] compress(byte[] bytes, StoryDictionary dictionary)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStream compressed = StoryCompression.compress(out,
+				StoryCompression.DEFLATE, dictionary);
+		compressed.write(bytes);
+		compressed.close();
+		return out.toByteArray();
+	}
+
+	private byte[] decompress(byte[] bytes) throws IOException {
+		InputStream in = StoryCompression.decompress(new ByteArrayInputStream(
+				bytes));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.read()) >= 0) {
+			out.write(b);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testTrain() throws Exception {
+		StoryDictionary dictionary = StoryDictionary.train(
+				makeSamples(new Random(1), 200), 4096);
+		assertTrue(dictionary != null);
+		assertTrue(dictionary.getBytes().length <= 4096);
+		// The shared phrasing is what it learns
+		String text = new String(dictionary.getBytes(), "UTF-8");
+		assertTrue(text.contains("door"));
+		assertTrue(StoryDictionary.train(makeSamples(new Random(1), 2),
+				4096) == null);
+		StoryDictionary same = new StoryDictionary(dictionary.getBytes());
+		assertTrue(same.getId() == dictionary.getId());
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		Random random = new Random(2);
+		StoryDictionary dictionary = StoryDictionary.train(
+				makeSamples(random, 200), StoryDictionary.DEFAULT_SIZE);
+		byte[] record = makeParagraph(random).getBytes("UTF-8");
+		byte[] compressed = compress(record, dictionary);
+		StoryCompression.addDictionary(dictionary);
+		assertTrue(Arrays.equals(decompress(compressed), record));
+		assertTrue(compressed.length < compress(record, null).length);
+	}
+
+	@Test
+	public void testUnknownDictionary() throws Exception {
+		byte[] bytes = new byte[1024];
+		new Random(3).nextBytes(bytes);
+		StoryDictionary unknown = new StoryDictionary(bytes);
+		byte[] compressed = compress(
+				makeParagraph(new Random(3)).getBytes("UTF-8"), unknown);
+		try {
+			decompress(compressed);
+			fail();
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testRetrainKeepsOldRecordsReadable() throws Exception {
+		Random random = new Random(4);
+		File stories = new File(this.root, "stories");
+		File dictionaries = new File(this.root, "dictionaries");
+		StoryStore store = new StoryStore(stories);
+		DictionaryStore dictionaryStore = new DictionaryStore(dictionaries,
+				store, 0);
+		ArrayList<UUID> ids = new ArrayList<UUID>();
+		for (int i = 0; i < 10; i++) {
+			UUID id = UUID.randomUUID();
+			assertTrue(store.save(id, makeStory(random, 10)));
+			ids.add(id);
+		}
+		assertTrue(dictionaryStore.train(ids).get());
+		StoryDictionary first = dictionaryStore.getCurrent();
+		UUID old = UUID.randomUUID();
+		Story oldStory = makeStory(random, 3);
+		assertTrue(store.save(old, oldStory));
+		ids.add(old);
+		// Not grown enough to train again
+		assertFalse(dictionaryStore.train(ids).get());
+
+		for (int i = 0; i < 10; i++) {
+			UUID id = UUID.randomUUID();
+			assertTrue(store.save(id, makeStory(random, 10)));
+			ids.add(id);
+		}
+		assertTrue(dictionaryStore.train(ids).get());
+		assertTrue(dictionaryStore.getCurrent().getId() != first.getId());
+		Story loaded = new StoryStore(stories).load(old);
+		assertTrue(loaded.getFragment(2).getContentList().get(0).toString()
+				.equals(oldStory.getFragment(2).getContentList().get(0)
+						.toString()));
+
+		DictionaryStore reopened = new DictionaryStore(dictionaries,
+				new StoryStore(stories), 0);
+		assertTrue(reopened.getCurrent().getId() == dictionaryStore
+				.getCurrent().getId());
+	}
+
+	/**
+	 * Checks that small stories take much less space on disk with a
+	 * dictionary trained from the rest of the library than deflated alone.
+	 */
+	@Test
+	public void testDictionaryShrinksSmallStories() throws Exception {
+		Random random = new Random(5);
+		StoryDictionary dictionary = StoryDictionary.train(
+				makeSamples(random, 500), StoryDictionary.DEFAULT_SIZE);
+		StoryCompression.addDictionary(dictionary);
+		long[] sizes = new long[2];
+		for (int i = 0; i < 2; i++) {
+			File directory = new File(this.root, "small" + i);
+			StoryStore store = new StoryStore(directory);
+			store.setDictionary(i == 0 ? null : dictionary);
+			Random stories = new Random(6);
+			for (int story = 0; story < 20; story++) {
+				assertTrue(store.save(UUID.randomUUID(),
+						makeStory(stories, 3)));
+			}
+			sizes[i] = TestFixtures.sizeOf(directory);
+		}
+		assertTrue(sizes[1] < sizes[0] * 3 / 4);
+	}
+
+}
@@ -1,14 +1,21 @@
 package cmput301.f13t01.test;
 
+import java.util.List;
+
 import junit.framework.TestCase;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import cmput301.f13t01.elasticsearch.IntHashMapAdapter;
+import cmput301.f13t01.model.IntHashMap;
 import cmput301.f13t01.model.StoryFragment;
 import cmput301.f13t01.model.StoryFragmentInfo;
 import cmput301.f13t01.model.StoryFragmentList;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
 public class testStoryFragmentList extends TestCase{
 
 	private StoryFragmentList fragmentList;
@@ -45,6 +52,7 @@ public class testStoryFragmentList extends TestCase{
 		Integer id = this.fragmentList.addFragment(fragment);
 		this.fragmentList.removeFragment(id);
 		assertTrue(this.fragmentList.getFragment(id) == null);
+		assertTrue(this.fragmentList.getFragmentId(fragment) == null);
 	}
 	
 	@Test
@@ -70,6 +78,130 @@ public class testStoryFragmentList extends TestCase{
 		fragment2.setDescription("Test Description 5B");
 		this.fragmentList.updateFragment(id, fragment2);
 		assertTrue(this.fragmentList.getFragment(id) == fragment2);
+		assertTrue(this.fragmentList.getFragmentId(fragment2).equals(id));
+		assertTrue(this.fragmentList.getFragmentId(fragment) == null);
+	}
+
+	@Test
+	public void testIdsNotReusedByDefault() {
+		Integer first = this.fragmentList.addFragment(new StoryFragment());
+		Integer second = this.fragmentList.addFragment(new StoryFragment());
+		this.fragmentList.removeFragment(second);
+		Integer third = this.fragmentList.addFragment(new StoryFragment());
+		assertTrue(third > second);
+		assertTrue(this.fragmentList.getFragment(first) != null);
+		assertTrue(this.fragmentList.getFragment(second) == null);
+	}
+
+	@Test
+	public void testIdsReusedWhenEnabled() {
+		this.fragmentList.setReusingIds(true);
+		this.fragmentList.addFragment(new StoryFragment());
+		Integer second = this.fragmentList.addFragment(new StoryFragment());
+		this.fragmentList.addFragment(new StoryFragment());
+		this.fragmentList.removeFragment(second);
+		StoryFragment fragment = new StoryFragment();
+		Integer reused = this.fragmentList.addFragment(fragment);
+		assertTrue(reused.equals(second));
+		assertTrue(this.fragmentList.getFragment(reused) == fragment);
+	}
+	
+	@Test
+	public void testJsonLeavesOutAllocator() {
+		Gson gson = new GsonBuilder().registerTypeHierarchyAdapter(
+				IntHashMap.class, new IntHashMapAdapter()).create();
+		this.fragmentList.setReusingIds(true);
+		this.fragmentList.addFragment(new StoryFragment());
+		Integer second = this.fragmentList.addFragment(new StoryFragment());
+		this.fragmentList.removeFragment(second);
+
+		// Published in the shape it had before the allocator was added
+		String json = gson.toJson(this.fragmentList);
+		assertTrue(json.startsWith("{\"fragmentList\":{\"0\":"));
+		assertFalse(json.contains("nextId"));
+		assertFalse(json.contains("freeIds"));
+
+		// Downloaded, new fragments still get IDs not in use
+		StoryFragmentList loaded = gson.fromJson(json, StoryFragmentList.class);
+		Integer id = loaded.addFragment(new StoryFragment());
+		assertTrue(id.intValue() == 1);
+		assertTrue(loaded.getFragment(0) != null);
+	}
+
+	@Test
+	public void testManyFragments() {
+		StoryFragment[] fragments = new StoryFragment[300];
+		for (int i = 0; i < fragments.length; i++) {
+			fragments[i] = new StoryFragment();
+			this.fragmentList.addFragment(fragments[i]);
+		}
+		for (int i = 0; i < fragments.length; i += 2) {
+			this.fragmentList.removeFragment(i);
+		}
+		for (int i = 1; i < fragments.length; i += 2) {
+			Integer id = this.fragmentList.getFragmentId(fragments[i]);
+			assertTrue(id.equals(i));
+			assertTrue(this.fragmentList.getFragment(new Integer(i)) == fragments[i]);
+		}
+		assertTrue(this.fragmentList.getFragmentInfoList().size() == 150);
 	}
 	
+	@Test
+	public void testFragmentInfoList() {
+		StoryFragment first = new StoryFragment();
+		first.setTitle("First");
+		Integer firstId = this.fragmentList.addFragment(first);
+		Integer secondId = this.fragmentList.addFragment(new StoryFragment());
+		List<StoryFragmentInfo> infoList = this.fragmentList
+				.getFragmentInfoList();
+		assertTrue(infoList.size() == 2);
+		assertTrue(infoList.get(0).getId().equals(firstId));
+		assertTrue(infoList.get(1).getId().equals(secondId));
+		// Unchanged lists are handed out again
+		assertTrue(this.fragmentList.getFragmentInfoList() == infoList);
+
+		// Edits and replacements show through the same infos
+		first.setTitle("Edited");
+		assertTrue(infoList.get(0).getTitle() == "Edited");
+		StoryFragment replacement = new StoryFragment();
+		replacement.setTitle("Replaced");
+		this.fragmentList.updateFragment(firstId, replacement);
+		assertTrue(infoList.get(0).getTitle() == "Replaced");
+
+		// Adding and removing leaves handed out lists alone
+		this.fragmentList.removeFragment(firstId);
+		Integer thirdId = this.fragmentList.addFragment(new StoryFragment());
+		assertTrue(infoList.size() == 2);
+		List<StoryFragmentInfo> newList = this.fragmentList
+				.getFragmentInfoList();
+		assertTrue(newList.size() == 2);
+		assertTrue(newList.get(0).getId().equals(secondId));
+		assertTrue(newList.get(1).getId().equals(thirdId));
+
+		try {
+			newList.remove(0);
+			fail();
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+	@Test
+	public void testFragmentInfoListReusedIds() {
+		this.fragmentList.setReusingIds(true);
+		for (int i = 0; i < 5; i++) {
+			this.fragmentList.addFragment(new StoryFragment());
+		}
+		this.fragmentList.getFragmentInfoList();
+		this.fragmentList.removeFragment(1);
+		this.fragmentList.removeFragment(3);
+		assertTrue(this.fragmentList.addFragment(new StoryFragment()) == 3);
+		List<StoryFragmentInfo> infoList = this.fragmentList
+				.getFragmentInfoList();
+		assertTrue(infoList.size() == 4);
+		int[] expected = { 0, 2, 3, 4 };
+		for (int i = 0; i < expected.length; i++) {
+			assertTrue(infoList.get(i).getId() == expected[i]);
+		}
+	}
+
 }
@@ -6,11 +6,14 @@ import org.junit.Before;
 import org.junit.Test;
 
 import android.test.ActivityInstrumentationTestCase2;
+import cmput301.f13t01.analysis.StoryGraphAnalyzer;
 import cmput301.f13t01.model.Choice;
+import cmput301.f13t01.model.Media;
 import cmput301.f13t01.model.Story;
 import cmput301.f13t01.model.StoryFragment;
 import cmput301.f13t01.model.StoryFragmentInfo;
 import cmput301.f13t01.model.StoryFragmentList;
+import cmput301.f13t01.readstory.CompiledStory;
 import cmput301.f13t01.readstory.StoryManager;
 import cmput301.f13t01.storylibrary.MainActivity;
 
@@ -103,6 +106,25 @@ public class testStoryManager extends ActivityInstrumentationTestCase2<MainActiv
 		assertTrue(fragmentList.getFragment(id) == fragment2);
 	}
 
+	@Test
+	public void testReadingDoesntMarkChanges() {
+		Story story = new Story();
+		Integer id = story.addFragment(new StoryFragment());
+		story.setFirstPage(id);
+		story.getChanges().saved(new Object());
+		manager.setStory(story);
+
+		// Showing a page reads it without marking it to be saved again
+		manager.getMediaList(id);
+		manager.getAnnotationList(id);
+		manager.getFirstPage();
+		manager.readFragment(id);
+		assertTrue(story.getChanges().getChangedFragments().length == 0);
+
+		manager.setAnnotation(id, new ArrayList<Media>());
+		assertTrue(story.getChanges().getChangedFragments().length == 1);
+	}
+
 	@Test
 	public void testAddChoice() {
 		Story testStory = new Story();
@@ -194,4 +216,88 @@ public class testStoryManager extends ActivityInstrumentationTestCase2<MainActiv
 		manager.clearHistory();
 	}
 
+	@Test
+	public void testCompiledStory() {
+		Story story = new Story();
+		manager.setStory(story);
+		Integer first = manager.addFragment(new StoryFragment());
+		Integer second = manager.addFragment(new StoryFragment());
+		manager.setFirstPage(first);
+		manager.addChoice(first, new Choice(first, second, "Onward"));
+		manager.addChoice(first, new Choice(first, null, new String("Onward")));
+
+		CompiledStory compiled = manager.getCompiledStory();
+		assertTrue(manager.getCompiledStory() == compiled);
+		int index = compiled.getFirstIndex();
+		assertTrue(compiled.getFragmentId(index) == first);
+		assertTrue(compiled.getChoiceCount(index) == 2);
+		assertTrue(compiled.getFragmentId(compiled.getChoiceTarget(index, 0)) == second);
+		assertTrue(compiled.getChoiceTarget(index, 1) == -1);
+		assertTrue(compiled.getChoiceText(index, 0) == compiled.getChoiceText(index, 1));
+
+		manager.removeFragment(second);
+		CompiledStory recompiled = manager.getCompiledStory();
+		assertTrue(recompiled != compiled);
+		assertTrue(recompiled.getFragmentCount() == 1);
+		assertTrue(recompiled.getChoiceCount(recompiled.getFirstIndex()) == 1);
+	}
+
+	@Test
+	public void testReaderChoices() throws Exception {
+		Story story = new Story();
+		manager.setStory(story);
+		Integer first = manager.addFragment(new StoryFragment());
+		Integer second = manager.addFragment(new StoryFragment());
+		manager.addChoice(first, new Choice(first, second, "Onward"));
+		manager.addChoice(first, new Choice(first, 99, "Nowhere"));
+
+		// Read from the story while it is compiled in the background
+		assertTrue(manager.getChoiceCount(first) == 2);
+		assertTrue(manager.getChoiceText(first, 0).equals("Onward"));
+		assertTrue(manager.getChoiceDestination(first, 0) == second);
+		assertTrue(manager.getChoiceDestination(first, 1) == null);
+		assertTrue(manager.getChoiceCount(second) == 0);
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (manager.peekCompiledStory() == null
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(manager.peekCompiledStory() == manager.getCompiledStory());
+		assertTrue(manager.getChoiceCount(first) == 2);
+		assertTrue(manager.getChoiceText(first, 1).equals("Nowhere"));
+		assertTrue(manager.getChoiceDestination(first, 0) == second);
+		assertTrue(manager.getChoiceDestination(first, 1) == null);
+
+		// An edit makes the compiled story stale until it is built again
+		manager.deleteChoice(first, 0);
+		assertTrue(manager.getChoiceCount(first) == 1);
+		assertTrue(manager.getChoiceText(first, 0).equals("Nowhere"));
+	}
+
+	@Test
+	public void testGraphAnalyzer() {
+		Story story = new Story();
+		manager.setStory(story);
+		Integer first = manager.addFragment(new StoryFragment());
+		Integer middle = manager.addFragment(new StoryFragment());
+		Integer end = manager.addFragment(new StoryFragment());
+		manager.setFirstPage(first);
+		StoryGraphAnalyzer analyzer = manager.getGraphAnalyzer();
+		assertTrue(analyzer.getUnreachableFragments().size() == 2);
+
+		manager.addChoice(first, new Choice(first, middle, "Go"));
+		manager.addChoice(middle, new Choice(middle, end, "Go"));
+		manager.addChoice(middle, new Choice(middle, null, "Unset"));
+		assertTrue(manager.getGraphAnalyzer() == analyzer);
+		assertTrue(analyzer.getUnreachableFragments().isEmpty());
+		assertTrue(analyzer.getDeadEnds().contains(end));
+		assertTrue(analyzer.getDanglingFragments().contains(middle));
+
+		manager.deleteChoice(first, 0);
+		assertTrue(analyzer.getUnreachableFragments().size() == 2);
+		assertTrue(analyzer.getOrphans().contains(middle));
+		assertTrue(analyzer.getDeadEnds().contains(first));
+	}
+
 }
\ No newline at end of file
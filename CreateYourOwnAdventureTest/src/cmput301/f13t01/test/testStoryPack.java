@@ -0,0 +1,146 @@
+package cmput301.f13t01.test;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.model.StoryFragmentInfo;
+import cmput301.f13t01.model.StoryPack;
+import cmput301.f13t01.model.StoryRecords;
+import cmput301.f13t01.readstory.CompiledStory;
+
+public class testStoryPack extends TestCase {
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		this.file = File.createTempFile("pack", "");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.file.delete();
+		super.tearDown();
+	}
+
+	// A story reading everything from the pack, as the store loads one
+	private Story openStory() throws Exception {
+		Story story = new Story();
+		StoryRecords.attachPack(story, StoryPack.open(this.file));
+		return story;
+	}
+
+	@Test
+	public void testWriteAndOpen() throws Exception {
+		StoryPack.write(TestFixtures.makeStory(100), this.file);
+		StoryPack pack = StoryPack.open(this.file);
+		assertTrue(pack.size() == 100);
+		assertTrue(pack.hasFragment(0));
+		assertTrue(pack.hasFragment(99));
+		assertFalse(pack.hasFragment(100));
+		assertTrue(pack.hasChoices(98));
+		assertFalse(pack.hasChoices(99));
+
+		Story story = openStory();
+		assertTrue(story.getFragment(42).getTitle().equals("Page 42"));
+		assertTrue(story.getChoices(42).get(0).getDestinationId() == 43);
+		assertTrue(story.getFragmentInfoList().size() == 100);
+		assertTrue(story.getLinkingFragments(50).get(0) == 49);
+	}
+
+	@Test
+	public void testEditsOverPack() throws Exception {
+		StoryPack.write(TestFixtures.makeStory(10), this.file);
+		Story story = openStory();
+		// New IDs skip the ones still in the pack
+		assertTrue(story.addFragment(new StoryFragment()) == 10);
+		assertTrue(story.removeFragment(3));
+		assertTrue(story.getFragment(3) == null);
+		assertTrue(story.getChoices(2).isEmpty());
+		StoryFragment replacement = new StoryFragment();
+		replacement.setTitle("Replaced");
+		assertTrue(story.updateFragment(5, replacement));
+		assertTrue(story.getFragment(5).getTitle().equals("Replaced"));
+		assertTrue(story.getFragmentInfoList().size() == 10);
+
+		// Packing the edited story copies the untouched records across
+		File repacked = File.createTempFile("pack", "");
+		try {
+			StoryPack.write(story, repacked);
+			Story reopened = new Story();
+			StoryRecords.attachPack(reopened, StoryPack.open(repacked));
+			assertTrue(reopened.getFragment(3) == null);
+			assertTrue(reopened.getFragment(5).getTitle().equals("Replaced"));
+			assertTrue(reopened.getFragment(7).getTitle().equals("Page 7"));
+			assertTrue(reopened.getChoices(2).isEmpty());
+			assertTrue(reopened.getChoices(7).get(0).getDestinationId() == 8);
+		} finally {
+			repacked.delete();
+		}
+	}
+
+	@Test
+	public void testSnapshotOverPack() throws Exception {
+		StoryPack.write(TestFixtures.makeStory(10), this.file);
+		Story story = openStory();
+		Story snapshot = story.snapshot();
+		story.getFragment(4).setTitle("Edited");
+		story.removeFragment(6);
+		assertTrue(snapshot.getFragment(4).getTitle().equals("Page 4"));
+		assertTrue(snapshot.getFragment(6).getTitle().equals("Page 6"));
+		assertTrue(story.getFragment(4).getTitle().equals("Edited"));
+	}
+
+	@Test
+	public void testListsWithoutReadingFragments() throws Exception {
+		StoryPack.write(TestFixtures.makeStory(1000), this.file);
+		Story story = openStory();
+		long size = story.estimateSize();
+		assertTrue(story.getFragmentIds().length == 1000);
+		List<StoryFragmentInfo> infoList = story.getFragmentInfoList();
+		assertTrue(infoList.size() == 1000);
+		assertTrue(infoList.get(7).getId() == 7);
+		// Nothing is read from the pack until an info is shown
+		assertTrue(story.estimateSize() == size);
+		assertTrue(infoList.get(7).getTitle().equals("Page 7"));
+		assertTrue(story.estimateSize() > size);
+		story.getFragment(7).setTitle("Edited");
+		assertTrue(infoList.get(7).getTitle().equals("Edited"));
+	}
+
+	@Test
+	public void testCompilesWithoutReadingFragments() throws Exception {
+		StoryPack.write(TestFixtures.makeStory(1000), this.file);
+		Story compiled = openStory();
+		CompiledStory.compile(compiled);
+		// Compiling reads the choice lists and nothing else
+		Story read = openStory();
+		for (int id : read.getFragmentIds()) {
+			assertTrue(read.readChoices(id).size() == (id < 999 ? 1 : 0));
+		}
+		assertTrue(compiled.estimateSize() == read.estimateSize());
+	}
+
+	@Test
+	public void testFirstPageTimeIsFlat() throws Exception {
+		StoryPack.write(TestFixtures.makeStory(200000), this.file);
+		long start = System.nanoTime();
+		for (int i = 0; i < 100; i++) {
+			Story story = openStory();
+			assertTrue(story.getFragment(100000 + i).getTitle()
+					.equals("Page " + (100000 + i)));
+		}
+		// Well under the time to read 200000 fragments even once
+		assertTrue(System.nanoTime() - start < 1000L * 1000 * 1000);
+	}
+
+}
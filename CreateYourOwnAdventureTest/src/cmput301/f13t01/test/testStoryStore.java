@@ -0,0 +1,388 @@
+package cmput301.f13t01.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.text.SpannableString;
+import cmput301.f13t01.model.Choice;
+import cmput301.f13t01.model.Story;
+import cmput301.f13t01.model.StoryFragment;
+import cmput301.f13t01.model.Text;
+import cmput301.f13t01.storylibrary.FileCommit;
+import cmput301.f13t01.storylibrary.StoryStore;
+
+public class testStoryStore extends TestCase {
+
+	private File root;
+	private StoryStore store;
+	private UUID id;
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		this.root = TestFixtures.makeDirectory("stories");
+		this.store = new StoryStore(this.root);
+		this.id = UUID.randomUUID();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		TestFixtures.deleteTree(this.root);
+		super.tearDown();
+	}
+
+	// The directory of the story's current generation
+	private File recordDirectory() {
+		for (File file : new File(this.root, this.id.toString()).listFiles()) {
+			if (file.isDirectory() && !file.getName().equals("mirrors")) {
+				return file;
+			}
+		}
+		return null;
+	}
+
+	// Sets every file back in time, so rewritten files can be told apart
+	private void ageFiles() {
+		ageFiles(new File(this.root, this.id.toString()));
+	}
+
+	private void ageFiles(File directory) {
+		for (File file : directory.listFiles()) {
+			if (file.isDirectory()) {
+				ageFiles(file);
+			} else {
+				file.setLastModified(1000L);
+			}
+		}
+	}
+
+	private ArrayList<String> rewrittenFiles() {
+		ArrayList<String> names = new ArrayList<String>();
+		rewrittenFiles(new File(this.root, this.id.toString()), names);
+		return names;
+	}
+
+	private void rewrittenFiles(File directory, ArrayList<String> names) {
+		for (File file : directory.listFiles()) {
+			if (file.isDirectory()) {
+				rewrittenFiles(file, names);
+			} else if (file.lastModified() != 1000L) {
+				names.add(file.getName());
+			}
+		}
+	}
+
+	@Test
+	public void testSaveAndLoad() {
+		Story story = TestFixtures.makeStory(10);
+		story.pushToStack(3);
+		assertTrue(this.store.save(this.id, story));
+		assertTrue(this.store.contains(this.id));
+
+		Story loaded = this.store.load(this.id);
+		assertTrue(loaded.getTitle().equals("Story"));
+		assertTrue(loaded.getFirstPage() == 0);
+		assertTrue(loaded.getMostRecent() == 3);
+		assertTrue(loaded.getFragmentInfoList().size() == 10);
+		assertTrue(loaded.getFragment(4).getTitle().equals("Page 4"));
+		assertTrue(loaded.getChoices(4).size() == 1);
+		assertTrue(loaded.getChoices(4).get(0).getDestinationId() == 5);
+		assertTrue(loaded.getChoices(9).isEmpty());
+		assertTrue(loaded.getLinkingFragments(5).get(0) == 4);
+		// The ID allocator carries on where it left off
+		assertTrue(loaded.addFragment(new StoryFragment()) == 10);
+	}
+
+	@Test
+	public void testIncrementalSave() {
+		Story story = TestFixtures.makeStory(50);
+		assertTrue(this.store.save(this.id, story));
+		ageFiles();
+
+		StoryFragment edited = new StoryFragment();
+		edited.setTitle("Edited");
+		story.updateFragment(20, edited);
+		assertTrue(this.store.save(this.id, story));
+		ArrayList<String> rewritten = rewrittenFiles();
+		assertTrue(rewritten.size() == 2);
+		assertTrue(rewritten.contains("f20"));
+		assertTrue(rewritten.contains("story"));
+
+		// Removing a fragment rewrites the choices leading to it, here
+		// leaving fragment 29 with none. Records still in the pack are
+		// removed by leaving an empty file in their place.
+		ageFiles();
+		story.removeFragment(30);
+		assertTrue(this.store.save(this.id, story));
+		rewritten = rewrittenFiles();
+		assertTrue(rewritten.size() == 4);
+		assertTrue(rewritten.contains("story"));
+		File directory = recordDirectory();
+		assertTrue(new File(directory, "f30").length() == 0);
+		assertTrue(new File(directory, "c30").length() == 0);
+		assertTrue(new File(directory, "c29").length() == 0);
+
+		Story loaded = this.store.load(this.id);
+		assertTrue(loaded.getFragment(20).getTitle().equals("Edited"));
+		assertTrue(loaded.getFragment(30) == null);
+		assertTrue(loaded.getChoices(29).isEmpty());
+		assertTrue(loaded.getFragmentInfoList().size() == 49);
+	}
+
+	@Test
+	public void testLoadedStoryIsClean() {
+		assertTrue(this.store.save(this.id, TestFixtures.makeStory(20)));
+		Story loaded = this.store.load(this.id);
+		ageFiles();
+		Choice choice = new Choice();
+		choice.setDestinationId(0);
+		loaded.addChoice(19, choice);
+		assertTrue(this.store.save(this.id, loaded));
+		ArrayList<String> rewritten = rewrittenFiles();
+		assertTrue(rewritten.size() == 2);
+		assertTrue(rewritten.contains("c19"));
+	}
+
+	@Test
+	public void testSnapshotSave() {
+		Story story = TestFixtures.makeStory(20);
+		assertTrue(this.store.save(this.id, story));
+		story.getFragment(5).setTitle("Before snapshot");
+		Story snapshot = story.snapshot();
+		story.getFragment(6).setTitle("After snapshot");
+		assertTrue(this.store.save(this.id, snapshot));
+
+		// The story only writes what changed after the snapshot
+		ageFiles();
+		assertTrue(this.store.save(this.id, story));
+		ArrayList<String> rewritten = rewrittenFiles();
+		assertTrue(rewritten.size() == 2);
+		assertTrue(rewritten.contains("f6"));
+
+		Story loaded = this.store.load(this.id);
+		assertTrue(loaded.getFragment(5).getTitle().equals("Before snapshot"));
+		assertTrue(loaded.getFragment(6).getTitle().equals("After snapshot"));
+	}
+
+	@Test
+	public void testStaleCopyWritesEverything() {
+		assertTrue(this.store.save(this.id, TestFixtures.makeStory(20)));
+		Story first = this.store.load(this.id);
+		Story second = this.store.load(this.id);
+		first.removeFragment(10);
+		assertTrue(this.store.save(this.id, first));
+
+		// The second copy no longer matches the files, so all of it is
+		// written, fragment 10 included
+		second.getFragment(3).setTitle("Second");
+		assertTrue(this.store.save(this.id, second));
+		Story loaded = this.store.load(this.id);
+		assertTrue(loaded.getFragment(10) != null);
+		assertTrue(loaded.getFragment(3).getTitle().equals("Second"));
+	}
+
+	@Test
+	public void testSaveHistory() {
+		Story story = TestFixtures.makeStory(20);
+		assertFalse(this.store.saveHistory(this.id, story));
+		assertTrue(this.store.save(this.id, story));
+		ageFiles();
+		story.pushToStack(0);
+		story.pushToStack(1);
+		assertTrue(this.store.saveHistory(this.id, story));
+		ArrayList<String> rewritten = rewrittenFiles();
+		assertTrue(rewritten.size() == 1);
+		assertTrue(rewritten.contains("history"));
+
+		Story loaded = this.store.load(this.id);
+		assertTrue(loaded.getMostRecent() == 1);
+		assertTrue(loaded.goBack() == 1);
+		assertTrue(loaded.getMostRecent() == 0);
+	}
+
+	@Test
+	public void testRepacksAfterManyChanges() {
+		Story story = TestFixtures.makeStory(100);
+		assertTrue(this.store.save(this.id, story));
+		File directory = recordDirectory();
+		for (int i = 0; i < 10; i++) {
+			story.getFragment(i).setTitle("Changed " + i);
+		}
+		assertTrue(this.store.save(this.id, story));
+		assertTrue(new File(directory, "f9").isFile());
+
+		// Enough changed files that the story is packed again, as a new
+		// generation replacing the old
+		for (int i = 10; i < 80; i++) {
+			story.getFragment(i).setTitle("Changed " + i);
+		}
+		assertTrue(this.store.save(this.id, story));
+		assertFalse(directory.exists());
+		assertFalse(new File(recordDirectory(), "f9").exists());
+		assertFalse(new File(recordDirectory(), "f79").exists());
+
+		Story loaded = this.store.load(this.id);
+		assertTrue(loaded.getFragment(9).getTitle().equals("Changed 9"));
+		assertTrue(loaded.getFragment(79).getTitle().equals("Changed 79"));
+		assertTrue(loaded.getFragment(80).getTitle().equals("Page 80"));
+	}
+
+	@Test
+	public void testUnfinishedSaveIsIgnored() throws Exception {
+		assertTrue(this.store.save(this.id, TestFixtures.makeStory(5)));
+		File directory = new File(this.root, this.id.toString());
+		File generation = recordDirectory();
+		// What a crash while saving leaves behind
+		File unfinished = new File(directory, "99");
+		assertTrue(unfinished.mkdir());
+		new FileOutputStream(new File(unfinished, "pack")).close();
+		new FileOutputStream(new File(generation, "story.tmp")).close();
+
+		StoryStore store = new StoryStore(this.root);
+		assertTrue(store.load(this.id).getFragment(4).getTitle()
+				.equals("Page 4"));
+		assertTrue(store.save(this.id, TestFixtures.makeStory(6)));
+		assertFalse(unfinished.exists());
+		assertFalse(generation.exists());
+		assertTrue(store.load(this.id).getFragment(5) != null);
+	}
+
+	@Test
+	public void testSharedCommit() {
+		UUID other = UUID.randomUUID();
+		FileCommit commit = new FileCommit();
+		assertTrue(this.store.save(this.id, TestFixtures.makeStory(5), commit));
+		assertTrue(this.store.save(other, TestFixtures.makeStory(3), commit));
+		// Nothing is saved until the commit is made
+		assertFalse(this.store.contains(this.id));
+		assertFalse(this.store.contains(other));
+		assertTrue(this.store.commit(commit));
+		assertTrue(this.store.load(this.id).getFragmentInfoList().size() == 5);
+		assertTrue(this.store.load(other).getFragmentInfoList().size() == 3);
+		this.store.delete(other);
+	}
+
+	@Test
+	public void testMirror() {
+		Story story = TestFixtures.makeStory(100);
+		story.pushToStack(4);
+		assertTrue(this.store.save(this.id, story));
+		story.getFragment(3).setTitle("Changed before mirroring");
+		assertTrue(this.store.save(this.id, story));
+
+		UUID mirrorId = UUID.randomUUID();
+		assertTrue(this.store.mirror(this.id, mirrorId, "Mirrored"));
+		File mirrorDirectory = new File(this.root, mirrorId.toString());
+		// Only the header, the changed fragment and the log are copied
+		assertTrue(TestFixtures.sizeOf(mirrorDirectory) < TestFixtures
+				.sizeOf(new File(recordDirectory(), "pack")));
+		Story mirror = this.store.load(mirrorId);
+		assertTrue(mirror.getTitle().equals("Mirrored"));
+		assertTrue(mirror.getFragment(3).getTitle()
+				.equals("Changed before mirroring"));
+		assertTrue(mirror.getFragment(50).getTitle().equals("Page 50"));
+		assertTrue(mirror.getChoices(50).get(0).getDestinationId() == 51);
+		assertTrue(mirror.getMostRecent() == 4);
+
+		// Each goes on changing on its own
+		mirror.getFragment(10).setTitle("Mirror");
+		assertTrue(this.store.save(mirrorId, mirror));
+		story.getFragment(10).setTitle("Original");
+		assertTrue(this.store.save(this.id, story));
+		assertTrue(this.store.load(mirrorId).getFragment(10).getTitle()
+				.equals("Mirror"));
+		assertTrue(this.store.load(this.id).getFragment(10).getTitle()
+				.equals("Original"));
+		assertTrue(this.store.load(this.id).getTitle().equals("Story"));
+		assertTrue(this.store.delete(mirrorId));
+	}
+
+	@Test
+	public void testMirrorOutlivesRepack() {
+		Story story = TestFixtures.makeStory(100);
+		assertTrue(this.store.save(this.id, story));
+		File shared = recordDirectory();
+		UUID mirrorId = UUID.randomUUID();
+		assertTrue(this.store.mirror(this.id, mirrorId, "Mirrored"));
+
+		// The original is written in full, keeping only the pack the mirror
+		// reads of its old generation
+		assertTrue(this.store.save(this.id, TestFixtures.makeStory(100)));
+		assertTrue(shared.isDirectory());
+		assertTrue(shared.list().length == 1);
+		Story mirror = new StoryStore(this.root).load(mirrorId);
+		assertTrue(mirror.getFragment(99).getTitle().equals("Page 99"));
+
+		// Once the mirror has a pack of its own, the old one goes
+		assertTrue(this.store.save(mirrorId, mirror));
+		assertFalse(shared.exists());
+		assertTrue(this.store.load(mirrorId).getFragment(99).getTitle()
+				.equals("Page 99"));
+		assertTrue(this.store.delete(mirrorId));
+	}
+
+	@Test
+	public void testMirrorCopiedWhenOriginalDeleted() {
+		assertTrue(this.store.save(this.id, TestFixtures.makeStory(50)));
+		UUID mirrorId = UUID.randomUUID();
+		UUID secondId = UUID.randomUUID();
+		assertTrue(this.store.mirror(this.id, mirrorId, "Mirrored"));
+		// A mirror of a mirror reads the same pack
+		assertTrue(this.store.mirror(mirrorId, secondId, "Mirrored twice"));
+		File mirrors = new File(this.root, this.id + "/mirrors");
+		assertTrue(mirrors.list().length == 2);
+		Story loaded = this.store.load(secondId);
+
+		assertTrue(this.store.delete(this.id));
+		assertFalse(new File(this.root, this.id.toString()).exists());
+		assertTrue(new File(this.root, mirrorId.toString()).isDirectory());
+		StoryStore store = new StoryStore(this.root);
+		assertTrue(store.load(mirrorId).getFragment(49).getTitle()
+				.equals("Page 49"));
+		Story second = store.load(secondId);
+		assertTrue(second.getTitle().equals("Mirrored twice"));
+		assertTrue(second.getFragment(49).getTitle().equals("Page 49"));
+		// A copy loaded before still reads what it was loaded from
+		assertTrue(loaded.getFragment(20).getTitle().equals("Page 20"));
+		assertTrue(store.delete(mirrorId));
+		assertTrue(store.delete(secondId));
+	}
+
+	/**
+	 * Checks that a mirror of a large story takes a small part of the space
+	 * a copy written in full does, and reads the same.
+	 */
+	@Test
+	public void testMirrorIsSmall() {
+		Story story = TestFixtures.makeStory(500);
+		for (int i = 0; i < 500; i++) {
+			story.getFragment(i).addContent(
+					new Text(new SpannableString("Fragment " + i
+							+ " of a long story, with a page of text.")));
+		}
+		assertTrue(this.store.save(this.id, story));
+		UUID copyId = UUID.randomUUID();
+		assertTrue(this.store.save(copyId, this.store.loadCopy(this.id)));
+		UUID mirrorId = UUID.randomUUID();
+		assertTrue(this.store.mirror(this.id, mirrorId, "Mirrored"));
+		long copySize = TestFixtures.sizeOf(new File(this.root,
+				copyId.toString()));
+		long mirrorSize = TestFixtures.sizeOf(new File(this.root,
+				mirrorId.toString()));
+		assertTrue(mirrorSize < copySize / 20);
+		Story mirror = this.store.load(mirrorId);
+		assertTrue(mirror.getFragment(499).getContentList().get(0)
+				.toString().startsWith("Fragment 499 "));
+		assertTrue(this.store.delete(copyId));
+		assertTrue(this.store.delete(mirrorId));
+	}
+
+}